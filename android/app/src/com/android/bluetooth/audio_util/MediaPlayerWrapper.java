@@ -18,17 +18,23 @@ package com.android.bluetooth.audio_util;
 
 import android.annotation.Nullable;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaDescription;
 import android.media.MediaMetadata;
 import android.media.session.MediaSession;
 import android.media.session.PlaybackState;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 
@@ -55,6 +61,47 @@ public class MediaPlayerWrapper {
 
     private MediaData mCurrentData;
 
+    // Queue items converted on the last queue update, keyed by queue ID. An item whose
+    // description didn't change reuses its Metadata, and with it the Image and any cover art
+    // handle assigned to it, instead of being converted again.
+    private final Object mQueueCacheLock = new Object();
+    @GuardedBy("mQueueCacheLock")
+    private HashMap<Long, CachedQueueItem> mQueueCache = new HashMap<>();
+    @GuardedBy("mQueueCacheLock")
+    private long mQueueItemsConverted = 0;
+    @GuardedBy("mQueueCacheLock")
+    private long mQueueItemsReused = 0;
+
+    // MediaMetadata keys read from a queue item's extras, see Metadata.Builder#fromBundle
+    private static final String[] QUEUE_ITEM_EXTRAS_KEYS = {
+        MediaMetadata.METADATA_KEY_MEDIA_ID,
+        MediaMetadata.METADATA_KEY_TITLE,
+        MediaMetadata.METADATA_KEY_ARTIST,
+        MediaMetadata.METADATA_KEY_ALBUM,
+        MediaMetadata.METADATA_KEY_TRACK_NUMBER,
+        MediaMetadata.METADATA_KEY_NUM_TRACKS,
+        MediaMetadata.METADATA_KEY_GENRE,
+        MediaMetadata.METADATA_KEY_DURATION,
+        MediaMetadata.METADATA_KEY_ART_URI,
+        MediaMetadata.METADATA_KEY_ALBUM_ART_URI,
+        MediaMetadata.METADATA_KEY_DISPLAY_ICON_URI,
+    };
+    private static final String[] QUEUE_ITEM_EXTRAS_BITMAP_KEYS = {
+        MediaMetadata.METADATA_KEY_ART,
+        MediaMetadata.METADATA_KEY_ALBUM_ART,
+        MediaMetadata.METADATA_KEY_DISPLAY_ICON,
+    };
+
+    private static final class CachedQueueItem {
+        final MediaDescription mDescription;
+        final Metadata mMetadata;
+
+        CachedQueueItem(MediaDescription description, Metadata metadata) {
+            mDescription = description;
+            mMetadata = metadata;
+        }
+    }
+
     @GuardedBy("mCallbackLock")
     private MediaControllerListener mControllerCallbacks = null;
     private final Object mCallbackLock = new Object();
@@ -92,7 +139,7 @@ public class MediaPlayerWrapper {
                 PLAYBACK_STATE_CHANGE_EVENT_LOGGER_SIZE, PLAYBACK_STATE_CHANGE_LOGGER_EVENT_TITLE);
 
         mCurrentData = new MediaData(null, null, null);
-        mCurrentData.queue = Util.toMetadataList(mContext, getQueue());
+        mCurrentData.queue = toMetadataList(getQueue());
         mCurrentData.metadata = Util.toMetadata(mContext, getMetadata());
         mCurrentData.state = getPlaybackState();
     }
@@ -311,7 +358,7 @@ public class MediaPlayerWrapper {
         mCurrentData = new MediaData(
                 Util.toMetadata(mContext, getMetadata()),
                 getPlaybackState(),
-                Util.toMetadataList(mContext, getQueue()));
+                toMetadataList(getQueue()));
 
         synchronized (mCallbackLock) {
             mControllerCallbacks = new MediaControllerListener(mMediaController, mLooper);
@@ -349,18 +396,95 @@ public class MediaPlayerWrapper {
             mCurrentData = new MediaData(
                     Util.toMetadata(mContext, getMetadata()),
                     getPlaybackState(),
-                    Util.toMetadataList(mContext, getQueue()));
+                    toMetadataList(getQueue()));
 
             mControllerCallbacks = new MediaControllerListener(mMediaController, mLooper);
         }
         d("Controller for " + mPackageName + " was updated.");
     }
 
+    /**
+     * Translate a list of MediaSession.QueueItem to a list of audio_util's Metadata, with the same
+     * result as {@link Util#toMetadataList}. Items that are unchanged since the previous call are
+     * not converted again.
+     */
+    @VisibleForTesting
+    List<Metadata> toMetadataList(List<MediaSession.QueueItem> items) {
+        ArrayList<Metadata> list = new ArrayList<Metadata>();
+        synchronized (mQueueCacheLock) {
+            HashMap<Long, CachedQueueItem> cache = new HashMap<>();
+            if (items == null) {
+                mQueueCache = cache;
+                return list;
+            }
+
+            for (int i = 0; i < items.size(); i++) {
+                MediaSession.QueueItem item = items.get(i);
+                long queueId = item.getQueueId();
+                CachedQueueItem cached = mQueueCache.get(queueId);
+                if (cached != null && sameQueueItem(cached.mDescription, item.getDescription())) {
+                    mQueueItemsReused++;
+                } else {
+                    Metadata data = Util.toMetadata(mContext, item);
+                    if (Util.isEmptyData(data)) {
+                        Log.e(TAG, "Received an empty Metadata item in list. Returning an empty "
+                                + "queue");
+                        mQueueCache = cache;
+                        return new ArrayList<Metadata>();
+                    }
+                    cached = new CachedQueueItem(item.getDescription(), data);
+                    mQueueItemsConverted++;
+                }
+                cache.put(queueId, cached);
+
+                Metadata data = cached.mMetadata.clone();
+                data.trackNum = "" + (i + 1);
+                data.numTracks = "" + items.size();
+                list.add(data);
+            }
+            mQueueCache = cache;
+        }
+        return list;
+    }
+
+    /**
+     * Checks whether two descriptions of a queue item would convert to the same Metadata. Like
+     * {@link Metadata#equals}, artwork is only compared by presence and size since comparing the
+     * pixels is as expensive as the conversion this is meant to avoid.
+     */
+    private static boolean sameQueueItem(MediaDescription a, MediaDescription b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        return TextUtils.equals(a.getMediaId(), b.getMediaId())
+                && TextUtils.equals(a.getTitle(), b.getTitle())
+                && TextUtils.equals(a.getSubtitle(), b.getSubtitle())
+                && TextUtils.equals(a.getDescription(), b.getDescription())
+                && Objects.equals(a.getIconUri(), b.getIconUri())
+                && sameBitmapSize(a.getIconBitmap(), b.getIconBitmap())
+                && sameExtras(a.getExtras(), b.getExtras());
+    }
+
+    private static boolean sameExtras(Bundle a, Bundle b) {
+        if (a == null || b == null) return a == b;
+        for (String key : QUEUE_ITEM_EXTRAS_KEYS) {
+            if (!Objects.equals(a.get(key), b.get(key))) return false;
+        }
+        for (String key : QUEUE_ITEM_EXTRAS_BITMAP_KEYS) {
+            if (!sameBitmapSize(a.getParcelable(key), b.getParcelable(key))) return false;
+        }
+        return true;
+    }
+
+    private static boolean sameBitmapSize(Bitmap a, Bitmap b) {
+        if (a == null || b == null) return a == b;
+        return a.getWidth() == b.getWidth() && a.getHeight() == b.getHeight();
+    }
+
     private void sendMediaUpdate() {
         MediaData newData = new MediaData(
                 Util.toMetadata(mContext, getMetadata()),
                 getPlaybackState(),
-                Util.toMetadataList(mContext, getQueue()));
+                toMetadataList(getQueue()));
 
         if (newData.equals(mCurrentData)) {
             // This may happen if the controller is fully synced by the time the
@@ -401,7 +525,7 @@ public class MediaPlayerWrapper {
             Log.e(TAG, "Timeout while waiting for metadata to sync for " + mPackageName);
             Log.e(TAG, "  └ Current Metadata: " +  Util.toMetadata(mContext, getMetadata()));
             Log.e(TAG, "  └ Current Playstate: " + getPlaybackState());
-            List<Metadata> current_queue = Util.toMetadataList(mContext, getQueue());
+            List<Metadata> current_queue = toMetadataList(getQueue());
             for (int i = 0; i < current_queue.size(); i++) {
                 Log.e(TAG, "  └ QueueItem(" + i + "): " + current_queue.get(i));
             }
@@ -533,7 +657,7 @@ public class MediaPlayerWrapper {
                 e("The callback queue isn't the current queue");
             }
 
-            List<Metadata> current_queue = Util.toMetadataList(mContext, queue);
+            List<Metadata> current_queue = toMetadataList(queue);
             if (current_queue.equals(mCurrentData.queue)) {
                 Log.w(TAG, "onQueueChanged(): " + mPackageName
                         + " tried to update with no new data");
@@ -610,7 +734,11 @@ public class MediaPlayerWrapper {
         sb.append("Current Data:\n");
         sb.append("  Song: " + mCurrentData.metadata + "\n");
         sb.append("  PlayState: " + mCurrentData.state + "\n");
-        sb.append("  Queue: size=" + mCurrentData.queue.size() + "\n");
+        sb.append("  Queue: size=" + mCurrentData.queue.size());
+        synchronized (mQueueCacheLock) {
+            sb.append(" converted=" + mQueueItemsConverted + " reused=" + mQueueItemsReused);
+        }
+        sb.append("\n");
         for (Metadata data : mCurrentData.queue) {
             sb.append("    " + data + "\n");
         }
@@ -153,7 +153,9 @@ public class AvrcpCoverArtService {
     public String storeImage(Image image) {
         debug("storeImage(image='" + image + "')");
         if (image == null || image.getImage() == null) return null;
-        return mStorage.storeImage(new CoverArt(image));
+        String imageHandle = mStorage.getImageHandle(image.getImage());
+        if (imageHandle != null) return imageHandle;
+        return mStorage.storeImage(new CoverArt(image), image.getImage());
     }
 
     /**
@@ -16,11 +16,13 @@
 
 package com.android.bluetooth.avrcp;
 
+import android.graphics.Bitmap;
 import android.util.Log;
 
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * A class abstracting the storage method of cover art images
@@ -37,6 +39,10 @@ final class AvrcpCoverArtStorage {
     private final Map<String, String> mImageHandles;
     private final Map<String, CoverArt> mImages;
 
+    // Hash of each source bitmap already stored, so storing the same bitmap again doesn't scale
+    // and hash it again. Keys are compared by identity and held weakly.
+    private final Map<Bitmap, String> mSourceHashes = new WeakHashMap<Bitmap, String>();
+
     /**
      * Make an image storage object with no bounds on the amount of images it can store
      */
@@ -104,6 +110,41 @@ final class AvrcpCoverArtStorage {
         return imageHandle;
     }
 
+    /**
+     * Store an image created from the given source bitmap and get the image handle it's been
+     * associated with.
+     */
+    public String storeImage(CoverArt coverArt, Bitmap source) {
+        String imageHandle = storeImage(coverArt);
+        if (imageHandle != null && source != null) {
+            synchronized (mImagesLock) {
+                mSourceHashes.put(source, coverArt.getImageHash());
+            }
+        }
+        return imageHandle;
+    }
+
+    /**
+     * Get the image handle of an image previously stored from this exact source bitmap, if it's
+     * still stored
+     */
+    public String getImageHandle(Bitmap source) {
+        if (source == null) return null;
+        synchronized (mImagesLock) {
+            String hash = mSourceHashes.get(source);
+            if (hash == null) return null;
+            String imageHandle = mImageHandles.get(hash);
+            if (imageHandle == null) {
+                mSourceHashes.remove(source);
+                return null;
+            }
+            // Counts as an access for the LRU ordering, like storing it again would
+            mImages.get(imageHandle);
+            debug("Source bitmap already stored at handle '" + imageHandle + "'");
+            return imageHandle;
+        }
+    }
+
     /**
      * Get the image stored at the given image handle, if it exists
      */
@@ -124,6 +165,7 @@ final class AvrcpCoverArtStorage {
         synchronized (mImagesLock) {
             mImages.clear();
             mImageHandles.clear();
+            mSourceHashes.clear();
         }
 
         synchronized (mHandlesLock) {
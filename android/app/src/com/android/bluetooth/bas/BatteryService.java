@@ -30,13 +30,15 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.HandlerThread;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ProfileLooperPool;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.internal.annotations.VisibleForTesting;
@@ -63,7 +65,7 @@ public class BatteryService extends ProfileService {
     private static BatteryService sBatteryService;
     private AdapterService mAdapterService;
     private DatabaseManager mDatabaseManager;
-    private HandlerThread mStateMachinesThread;
+    private Looper mStateMachinesLooper;
     private final Map<BluetoothDevice, BatteryStateMachine> mStateMachines = new HashMap<>();
 
     private BroadcastReceiver mBondStateChangedReceiver;
@@ -99,8 +101,7 @@ public class BatteryService extends ProfileService {
                 "DatabaseManager cannot be null when BatteryService starts");
 
         mStateMachines.clear();
-        mStateMachinesThread = new HandlerThread("BatteryService.StateMachines");
-        mStateMachinesThread.start();
+        mStateMachinesLooper = ProfileLooperPool.getInstance().acquire(TAG);
 
         // Setup broadcast receivers
         IntentFilter filter = new IntentFilter();
@@ -129,9 +130,11 @@ public class BatteryService extends ProfileService {
         unregisterReceiver(mBondStateChangedReceiver);
         mBondStateChangedReceiver = null;
 
-        // Destroy state machines and stop handler thread
+        // Destroy state machines and release their looper
+        List<Handler> handlers = new ArrayList<>();
         synchronized (mStateMachines) {
             for (BatteryStateMachine sm : mStateMachines.values()) {
+                handlers.add(sm.getHandler());
                 sm.doQuit();
                 sm.cleanup();
             }
@@ -139,14 +142,9 @@ public class BatteryService extends ProfileService {
         }
 
 
-        if (mStateMachinesThread != null) {
-            try {
-                mStateMachinesThread.quitSafely();
-                mStateMachinesThread.join(SM_THREAD_JOIN_TIMEOUT_MS);
-                mStateMachinesThread = null;
-            } catch (InterruptedException e) {
-                // Do not rethrow as we are shutting down anyway
-            }
+        if (mStateMachinesLooper != null) {
+            ProfileLooperPool.getInstance().release(TAG, SM_THREAD_JOIN_TIMEOUT_MS, handlers);
+            mStateMachinesLooper = null;
         }
 
         mAdapterService = null;
@@ -464,7 +462,7 @@ public class BatteryService extends ProfileService {
             if (DBG) {
                 Log.d(TAG, "Creating a new state machine for " + device);
             }
-            sm = BatteryStateMachine.make(device, this, mStateMachinesThread.getLooper());
+            sm = BatteryStateMachine.make(device, this, mStateMachinesLooper);
             mStateMachines.put(device, sm);
             return sm;
         }
@@ -40,7 +40,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.ParcelUuid;
@@ -52,6 +51,7 @@ import android.util.Pair;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ProfileLooperPool;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -74,6 +74,7 @@ import java.util.concurrent.ConcurrentHashMap;
 public class BassClientService extends ProfileService {
     private static final boolean DBG = true;
     private static final String TAG = BassClientService.class.getSimpleName();
+    private static final String CALLBACKS_LOOPER = TAG + ".Callbacks";
     private static final int MAX_BASS_CLIENT_STATE_MACHINES = 10;
 
     private static BassClientService sService;
@@ -87,8 +88,7 @@ public class BassClientService extends ProfileService {
     private final Map<BluetoothDevice, List<Integer>> mGroupManagedSources =
             new ConcurrentHashMap<>();
 
-    private HandlerThread mStateMachinesThread;
-    private HandlerThread mCallbackHandlerThread;
+    private Looper mStateMachinesLooper;
     private AdapterService mAdapterService;
     private DatabaseManager mDatabaseManager;
     private BluetoothAdapter mBluetoothAdapter = null;
@@ -252,11 +252,8 @@ public class BassClientService extends ProfileService {
                 "DatabaseManager cannot be null when BassClientService starts");
         mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         mStateMachines.clear();
-        mStateMachinesThread = new HandlerThread("BassClientService.StateMachines");
-        mStateMachinesThread.start();
-        mCallbackHandlerThread = new HandlerThread(TAG);
-        mCallbackHandlerThread.start();
-        mCallbacks = new Callbacks(mCallbackHandlerThread.getLooper());
+        mStateMachinesLooper = ProfileLooperPool.getInstance().acquire(TAG);
+        mCallbacks = new Callbacks(ProfileLooperPool.getInstance().acquire(CALLBACKS_LOOPER));
 
         IntentFilter filter = new IntentFilter();
         filter.setPriority(IntentFilter.SYSTEM_HIGH_PRIORITY);
@@ -304,19 +301,21 @@ public class BassClientService extends ProfileService {
         if (DBG) {
             Log.d(TAG, "stop()");
         }
+        List<Handler> handlers = new ArrayList<>();
         synchronized (mStateMachines) {
             for (BassClientStateMachine sm : mStateMachines.values()) {
+                handlers.add(sm.getHandler());
                 BassObjectsFactory.getInstance().destroyStateMachine(sm);
             }
             mStateMachines.clear();
         }
-        if (mCallbackHandlerThread != null) {
-            mCallbackHandlerThread.quitSafely();
-            mCallbackHandlerThread = null;
+        if (mCallbacks != null) {
+            ProfileLooperPool.getInstance().release(CALLBACKS_LOOPER, 0, List.of(mCallbacks));
+            mCallbacks = null;
         }
-        if (mStateMachinesThread != null) {
-            mStateMachinesThread.quitSafely();
-            mStateMachinesThread = null;
+        if (mStateMachinesLooper != null) {
+            ProfileLooperPool.getInstance().release(TAG, 0, handlers);
+            mStateMachinesLooper = null;
         }
 
         if (mIntentReceiver != null) {
@@ -579,7 +578,7 @@ public class BassClientService extends ProfileService {
             }
             log("Creating a new state machine for " + device);
             stateMachine = BassObjectsFactory.getInstance().makeStateMachine(
-                    device, this, mStateMachinesThread.getLooper());
+                    device, this, mStateMachinesLooper);
             mStateMachines.put(device, stateMachine);
             return stateMachine;
         }
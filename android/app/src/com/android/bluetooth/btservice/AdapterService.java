@@ -6540,6 +6540,7 @@ public class AdapterService extends Service {
         }
         mSilenceDeviceManager.dump(fd, writer, args);
         mDatabaseManager.dump(writer);
+        ProfileLooperPool.getInstance().dump(writer);
 
         writer.write(sb.toString());
         writer.flush();
@@ -21,6 +21,8 @@ import android.app.AlarmManager;
 import android.content.Context;
 import android.os.SystemClock;
 import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseLongArray;
 
 import com.android.bluetooth.BluetoothMetricsProto.BluetoothLog;
 import com.android.bluetooth.BluetoothMetricsProto.ProfileConnectionStats;
@@ -40,6 +42,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
@@ -58,10 +61,15 @@ public class MetricsLogger {
     // 6 hours timeout for counter metrics
     private static final long BLUETOOTH_COUNTER_METRICS_ACTION_DURATION_MILLIS = 6L * 3600L * 1000L;
     private static final int MAX_WORDS_ALLOWED_IN_DEVICE_NAME = 7;
+    // Number of independently locked counter stripes, must be a power of two
+    private static final int COUNTER_STRIPES = 8;
+    // Number of distinct device names whose matching result is remembered
+    private static final int DEVICE_NAME_CACHE_SIZE = 64;
+    private static final int SHA256_LENGTH = 32;
 
     private static final HashMap<ProfileId, Integer> sProfileConnectionCounts = new HashMap<>();
 
-    HashMap<Integer, Long> mCounters = new HashMap<>();
+    private final CounterStripe[] mCounterStripes = new CounterStripe[COUNTER_STRIPES];
     private static volatile MetricsLogger sInstance = null;
     private Context mContext = null;
     private AlarmManager mAlarmManager = null;
@@ -70,6 +78,41 @@ public class MetricsLogger {
     private BloomFilter<byte[]> mBloomFilter = null;
     protected boolean mBloomFilterInitialized = false;
 
+    // Guards mDeviceNameDigest, mDigestOutput and mDeviceNameCache
+    private final Object mDeviceNameLock = new Object();
+    private MessageDigest mDeviceNameDigest = null;
+    private final byte[] mDigestOutput = new byte[SHA256_LENGTH];
+    private final LruCache<String, DeviceNameMatch> mDeviceNameCache =
+            new LruCache<>(DEVICE_NAME_CACHE_SIZE);
+
+    /**
+     * Buffered counters sharing a single lock. Keys are spread over several stripes so that
+     * concurrent callers of {@link #cacheCount(int, long)} rarely contend, and values are kept
+     * as primitives to avoid boxing on every increment.
+     */
+    private static final class CounterStripe {
+        final SparseLongArray mCounts = new SparseLongArray();
+    }
+
+    /**
+     * Result of matching a device name against the bloom filter: the sanitized word spans that
+     * are reported to the restricted log, and the longest span known to the bloom filter.
+     */
+    private static final class DeviceNameMatch {
+        final String[] mSpans;
+        final String mMatchedString;
+        final String mMatchedSha256;
+
+        DeviceNameMatch(String[] spans, String matchedString, String matchedSha256) {
+            mSpans = spans;
+            mMatchedString = matchedString;
+            mMatchedSha256 = matchedSha256;
+        }
+    }
+
+    private static final DeviceNameMatch NO_DEVICE_NAME_MATCH =
+            new DeviceNameMatch(new String[0], null, null);
+
     private AlarmManager.OnAlarmListener mOnAlarmListener = new AlarmManager.OnAlarmListener () {
         @Override
         public void onAlarm() {
@@ -78,6 +121,12 @@ public class MetricsLogger {
         }
     };
 
+    public MetricsLogger() {
+        for (int i = 0; i < COUNTER_STRIPES; i++) {
+            mCounterStripes[i] = new CounterStripe();
+        }
+    }
+
     public static MetricsLogger getInstance() {
         if (sInstance == null) {
             synchronized (mLock) {
@@ -116,15 +165,15 @@ public class MetricsLogger {
             }
 
             FileInputStream in = new FileInputStream(new File(path));
-            mBloomFilter = BloomFilter.readFrom(in, Funnels.byteArrayFunnel());
+            setBloomfilter(BloomFilter.readFrom(in, Funnels.byteArrayFunnel()));
             mBloomFilterInitialized = true;
         } catch (IOException e1) {
             Log.w(TAG, "MetricsLogger can't read the BloomFilter file.");
             byte[] bloomfilterData = DeviceBloomfilterGenerator.hexStringToByteArray(
                     DeviceBloomfilterGenerator.BLOOM_FILTER_DEFAULT);
             try {
-                mBloomFilter = BloomFilter.readFrom(
-                        new ByteArrayInputStream(bloomfilterData), Funnels.byteArrayFunnel());
+                setBloomfilter(BloomFilter.readFrom(
+                        new ByteArrayInputStream(bloomfilterData), Funnels.byteArrayFunnel()));
                 mBloomFilterInitialized = true;
                 Log.i(TAG, "The default bloomfilter is used");
                 return true;
@@ -137,7 +186,11 @@ public class MetricsLogger {
     }
 
     protected void setBloomfilter(BloomFilter bloomfilter) {
-        mBloomFilter = bloomfilter;
+        synchronized (mDeviceNameLock) {
+            mBloomFilter = bloomfilter;
+            // Cached results were computed against the previous filter
+            mDeviceNameCache.evictAll();
+        }
     }
 
     public boolean init(Context context) {
@@ -165,18 +218,15 @@ public class MetricsLogger {
             Log.w(TAG, "count is not larger than 0. count: " + count + " key: " + key);
             return false;
         }
-        long total = 0;
-
-        synchronized (mLock) {
-            if (mCounters.containsKey(key)) {
-                total = mCounters.get(key);
-            }
+        CounterStripe stripe = mCounterStripes[key & (COUNTER_STRIPES - 1)];
+        synchronized (stripe) {
+            long total = stripe.mCounts.get(key, 0L);
             if (Long.MAX_VALUE - total < count) {
                 Log.w(TAG, "count overflows. count: " + count + " current total: " + total);
-                mCounters.put(key, Long.MAX_VALUE);
+                stripe.mCounts.put(key, Long.MAX_VALUE);
                 return false;
             }
-            mCounters.put(key, total + count);
+            stripe.mCounts.put(key, total + count);
         }
         return true;
     }
@@ -241,12 +291,14 @@ public class MetricsLogger {
 
     protected void drainBufferedCounters() {
         Log.i(TAG, "drainBufferedCounters().");
-        synchronized (mLock) {
-            // send mCounters to statsd
-            for (int key : mCounters.keySet()) {
-                count(key, mCounters.get(key));
+        for (CounterStripe stripe : mCounterStripes) {
+            synchronized (stripe) {
+                // send buffered counters to statsd
+                for (int i = 0; i < stripe.mCounts.size(); i++) {
+                    count(stripe.mCounts.keyAt(i), stripe.mCounts.valueAt(i));
+                }
+                stripe.mCounts.clear();
             }
-            mCounters.clear();
         }
     }
 
@@ -274,6 +326,39 @@ public class MetricsLogger {
             return false;
         }
 
+        DeviceNameMatch match;
+        synchronized (mDeviceNameLock) {
+            match = mDeviceNameCache.get(deviceName);
+            if (match == null) {
+                match = matchDeviceName(deviceName);
+                mDeviceNameCache.put(deviceName, match);
+            }
+        }
+
+        // TODO(b/280868296): Refactor to log even if bloom filter isn't initialized.
+        if (SdkLevel.isAtLeastU()) {
+            for (String span : match.mSpans) {
+                BtRestrictedStatsLog.write(RESTRICTED_BLUETOOTH_DEVICE_NAME_REPORTED, span);
+            }
+        }
+
+        // upload the sha256 of the longest matched string.
+        if (match.mMatchedString == null) {
+            return false;
+        }
+        statslogBluetoothDeviceNames(metricId, match.mMatchedString, match.mMatchedSha256);
+        return true;
+    }
+
+    /**
+     * Find the longest contiguous span of sanitized words in {@code deviceName} known to the
+     * bloom filter. Spans are hashed by streaming their words into a reused digest, so no
+     * intermediate string is needed to test a span against the filter.
+     *
+     * @return the match result, without any span if the name has too many words or can't be
+     *         hashed
+     */
+    private DeviceNameMatch matchDeviceName(String deviceName) {
         // remove more than one spaces in a row
         deviceName = deviceName.trim().replaceAll(" +", " ");
         // remove non alphanumeric characters and spaces, and transform to lower cases.
@@ -282,43 +367,69 @@ public class MetricsLogger {
 
         if (words.length > MAX_WORDS_ALLOWED_IN_DEVICE_NAME) {
             // Validity checking here to avoid excessively long sequences
-            return false;
+            return NO_DEVICE_NAME_MATCH;
+        }
+        if (mDeviceNameDigest == null) {
+            try {
+                mDeviceNameDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                Log.w(TAG, "No SHA-256 in MessageDigest");
+                return NO_DEVICE_NAME_MATCH;
+            }
         }
         // find the longest matched substring
-        String matchedString = "";
-        byte[] matchedSha256 = null;
-        for (int start = 0; start < words.length; start++) {
+        byte[][] wordBytes = new byte[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            wordBytes[i] = words[i].getBytes(StandardCharsets.UTF_8);
+        }
 
-            String toBeMatched = "";
+        // Span strings are only needed for the restricted log
+        boolean keepSpans = SdkLevel.isAtLeastU();
+        String[] spans = new String[keepSpans ? words.length * (words.length + 1) / 2 : 0];
+        int spanCount = 0;
+        int matchedStart = -1;
+        int matchedEnd = -1;
+        int matchedLength = 0;
+        StringBuilder spanBuilder = new StringBuilder(deviceName.length());
+        for (int start = 0; start < words.length; start++) {
+            int spanLength = 0;
+            spanBuilder.setLength(0);
             for (int end = start; end < words.length; end++) {
-                toBeMatched += words[end];
-                // TODO(b/280868296): Refactor to log even if bloom filter isn't initialized.
-                if (SdkLevel.isAtLeastU()) {
-                    BtRestrictedStatsLog.write(RESTRICTED_BLUETOOTH_DEVICE_NAME_REPORTED,
-                            toBeMatched);
+                spanLength += words[end].length();
+                if (keepSpans) {
+                    spanBuilder.append(words[end]);
+                    spans[spanCount++] = spanBuilder.toString();
                 }
-                byte[] sha256 = getSha256(toBeMatched);
-                if (sha256 == null) {
+
+                mDeviceNameDigest.reset();
+                for (int i = start; i <= end; i++) {
+                    mDeviceNameDigest.update(wordBytes[i]);
+                }
+                try {
+                    mDeviceNameDigest.digest(mDigestOutput, 0, SHA256_LENGTH);
+                } catch (DigestException e) {
+                    Log.w(TAG, "Unable to compute SHA-256 of device name");
                     continue;
                 }
 
-                if (mBloomFilter.mightContain(sha256)
-                        && toBeMatched.length() > matchedString.length()) {
-                    matchedString = toBeMatched;
-                    matchedSha256 = sha256;
+                if (mBloomFilter.mightContain(mDigestOutput) && spanLength > matchedLength) {
+                    matchedStart = start;
+                    matchedEnd = end;
+                    matchedLength = spanLength;
                 }
             }
         }
 
-        // upload the sha256 of the longest matched string.
-        if (matchedSha256 == null) {
-            return false;
+        if (matchedStart < 0) {
+            return new DeviceNameMatch(spans, null, null);
         }
-        statslogBluetoothDeviceNames(
-                metricId,
-                matchedString,
+        StringBuilder matched = new StringBuilder(matchedLength);
+        for (int i = matchedStart; i <= matchedEnd; i++) {
+            matched.append(words[i]);
+        }
+        String matchedString = matched.toString();
+        return new DeviceNameMatch(spans, matchedString,
                 Hashing.sha256().hashString(matchedString, StandardCharsets.UTF_8).toString());
-        return true;
     }
 
     protected void statslogBluetoothDeviceNames(int metricId, String matchedString, String sha256) {
@@ -327,15 +438,4 @@ public class MetricsLogger {
         BluetoothStatsLog.write(
                 BluetoothStatsLog.BLUETOOTH_HASHED_DEVICE_NAME_REPORTED, metricId, sha256);
     }
-
-    protected static byte[] getSha256(String name) {
-        MessageDigest digest = null;
-        try {
-            digest = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            Log.w(TAG, "No SHA-256 in MessageDigest");
-            return null;
-        }
-        return digest.digest(name.getBytes(StandardCharsets.UTF_8));
-    }
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares a few looper threads between the profile services whose state machines are idle most
+ * of the time, instead of each of them starting its own HandlerThread. A2DP, HFP, LE Audio and
+ * hearing aid keep their own threads: their state machines are on the audio routing path, and a
+ * slow dispatch of another profile must not delay them.
+ *
+ * <p>A service acquires a looper when it starts and releases it when it stops. The looper stays
+ * the same for the lifetime of the service, so the messages of a service are still handled one
+ * at a time and in order. Services sharing a looper can delay each other, which is why dispatch
+ * times and queue latencies are kept for every looper and printed in dumpsys.
+ */
+public class ProfileLooperPool {
+    private static final String TAG = "ProfileLooperPool";
+
+    @VisibleForTesting
+    static final int POOL_SIZE = 3;
+
+    // Dispatches taking at least this long hold up every service sharing the looper
+    private static final long SLOW_DISPATCH_MS = 100;
+
+    private static volatile ProfileLooperPool sInstance = null;
+    private static final Object sInstanceLock = new Object();
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final PooledThread[] mThreads = new PooledThread[POOL_SIZE];
+
+    @VisibleForTesting
+    ProfileLooperPool() {
+        // There is a single observer for the whole process, and it can't be read back to chain
+        // it. The Bluetooth process sets no other one: LooperStats only runs in system_server.
+        // Should one be set later, it replaces this one and the dispatch counts stop growing.
+        Looper.setObserver(new DispatchObserver());
+    }
+
+    public static ProfileLooperPool getInstance() {
+        if (sInstance == null) {
+            synchronized (sInstanceLock) {
+                if (sInstance == null) {
+                    sInstance = new ProfileLooperPool();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Get the looper a client should handle its messages on. The looper with the fewest clients
+     * is picked, and its thread is started if needed.
+     *
+     * @param client name of the client, shown in dumpsys and used to release the looper
+     * @return the looper to use until {@link #release(String, long)} is called
+     */
+    public Looper acquire(String client) {
+        synchronized (mLock) {
+            int index = 0;
+            for (int i = 1; i < POOL_SIZE; i++) {
+                if (getClientCount(i) < getClientCount(index)) {
+                    index = i;
+                }
+            }
+            PooledThread thread = mThreads[index];
+            if (thread == null) {
+                thread = new PooledThread("BluetoothProfileLooper-" + index);
+                thread.start();
+                mThreads[index] = thread;
+            }
+            thread.mClients.add(client);
+            Log.d(TAG, "acquire: " + client + " on " + thread.getName());
+            return thread.getLooper();
+        }
+    }
+
+    /**
+     * Release the looper acquired by a client, without removing the messages it scheduled for
+     * later. See {@link #release(String, long, List)}.
+     */
+    public void release(String client, long timeoutMs) {
+        release(client, timeoutMs, Collections.emptyList());
+    }
+
+    /**
+     * Release the looper acquired by a client. Like quitting a dedicated thread, this waits up to
+     * timeoutMs for the messages queued so far to be handled, then drops the messages the client
+     * scheduled for later on the given handlers. They would otherwise keep the client's state
+     * machines alive on the shared looper until they are due.
+     *
+     * @param client name the looper was acquired with
+     * @param timeoutMs maximum time to wait for the queued messages, 0 to not wait
+     * @param handlers handlers of the client on the looper, null entries are skipped. The handler
+     *                 of a state machine must be taken before quitting it, as that clears it.
+     */
+    public void release(String client, long timeoutMs, List<Handler> handlers) {
+        PooledThread thread = null;
+        boolean quit = false;
+        synchronized (mLock) {
+            for (int i = 0; i < POOL_SIZE; i++) {
+                if (mThreads[i] != null && mThreads[i].mClients.remove(client)) {
+                    thread = mThreads[i];
+                    quit = thread.mClients.isEmpty();
+                    if (quit) {
+                        mThreads[i] = null;
+                    }
+                    break;
+                }
+            }
+        }
+        if (thread == null) {
+            Log.w(TAG, "release: " + client + " has no looper");
+            return;
+        }
+        Log.d(TAG, "release: " + client + " from " + thread.getName() + (quit ? ", quitting" : ""));
+
+        if (quit) {
+            // Drops the delayed messages of every handler
+            thread.quitSafely();
+        } else if (!handlers.isEmpty()) {
+            // Posted behind the queued messages, so that only the delayed ones are left to remove
+            new Handler(thread.getLooper()).post(() -> {
+                for (Handler handler : handlers) {
+                    if (handler != null) {
+                        handler.removeCallbacksAndMessages(null);
+                    }
+                }
+            });
+        }
+        if (timeoutMs <= 0 || thread.getLooper().isCurrentThread()) {
+            // Can't wait for ourselves, the queued messages are handled once we return
+            return;
+        }
+        try {
+            if (quit) {
+                thread.join(timeoutMs);
+            } else {
+                CountDownLatch latch = new CountDownLatch(1);
+                new Handler(thread.getLooper()).post(latch::countDown);
+                if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "release: timed out waiting for " + thread.getName());
+                }
+            }
+        } catch (InterruptedException e) {
+            // Do not rethrow as the client is shutting down anyway
+        }
+    }
+
+    @GuardedBy("mLock")
+    private int getClientCount(int index) {
+        return mThreads[index] == null ? 0 : mThreads[index].mClients.size();
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("\nProfileLooperPool:");
+        synchronized (mLock) {
+            for (PooledThread thread : mThreads) {
+                if (thread != null) {
+                    thread.dump(writer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Times the dispatches of the pooled threads. Called by every looper of the process, so it
+     * does as little as possible for the others: the token is the pooled thread, or null.
+     */
+    private static class DispatchObserver implements Looper.Observer {
+        @Override
+        public Object messageDispatchStarting() {
+            Thread thread = Thread.currentThread();
+            if (!(thread instanceof PooledThread)) {
+                return null;
+            }
+            ((PooledThread) thread).onDispatchStarting();
+            return thread;
+        }
+
+        @Override
+        public void messageDispatched(Object token, Message msg) {
+            if (token != null) {
+                ((PooledThread) token).onDispatchEnded();
+            }
+        }
+
+        @Override
+        public void dispatchingThrewException(Object token, Message msg, Exception exception) {
+            messageDispatched(token, msg);
+        }
+    }
+
+    /**
+     * Looper thread that measures how long its messages take, and samples how long messages wait
+     * whenever a backlog builds up.
+     */
+    private static class PooledThread extends HandlerThread {
+        // Guarded by the mLock of the pool
+        final List<String> mClients = new ArrayList<>();
+
+        // Only used on the looper thread
+        private Handler mProbeHandler;
+        private long mDispatchStartMs;
+        private boolean mProbePending;
+        private boolean mInProbe;
+
+        @GuardedBy("this")
+        private long mDispatches;
+        @GuardedBy("this")
+        private long mBusyMs;
+        @GuardedBy("this")
+        private long mMaxDispatchMs;
+        @GuardedBy("this")
+        private long mSlowDispatches;
+        @GuardedBy("this")
+        private long mLatencySamples;
+        @GuardedBy("this")
+        private long mTotalLatencyMs;
+        @GuardedBy("this")
+        private long mMaxLatencyMs;
+
+        PooledThread(String name) {
+            super(name);
+        }
+
+        @Override
+        protected void onLooperPrepared() {
+            mProbeHandler = new Handler(getLooper());
+        }
+
+        void onDispatchStarting() {
+            mDispatchStartMs = SystemClock.uptimeMillis();
+        }
+
+        void onDispatchEnded() {
+            if (mInProbe) {
+                mInProbe = false;
+            } else {
+                onDispatched(SystemClock.uptimeMillis() - mDispatchStartMs);
+            }
+            if (!mProbePending && !getLooper().getQueue().isIdle()) {
+                // Messages are waiting: measure how long one queued now takes to be handled
+                final long postedMs = SystemClock.uptimeMillis();
+                mProbePending = true;
+                mProbeHandler.post(() -> {
+                    mProbePending = false;
+                    mInProbe = true;
+                    onProbed(SystemClock.uptimeMillis() - postedMs);
+                });
+            }
+        }
+
+        private synchronized void onDispatched(long durationMs) {
+            mDispatches++;
+            mBusyMs += durationMs;
+            mMaxDispatchMs = Math.max(mMaxDispatchMs, durationMs);
+            if (durationMs >= SLOW_DISPATCH_MS) {
+                mSlowDispatches++;
+            }
+        }
+
+        private synchronized void onProbed(long latencyMs) {
+            mLatencySamples++;
+            mTotalLatencyMs += latencyMs;
+            mMaxLatencyMs = Math.max(mMaxLatencyMs, latencyMs);
+        }
+
+        synchronized void dump(PrintWriter writer) {
+            writer.println("  " + getName() + ": " + mClients);
+            writer.println("    dispatches: " + mDispatches + ", busy: " + mBusyMs
+                    + "ms, max: " + mMaxDispatchMs + "ms, slow (>=" + SLOW_DISPATCH_MS
+                    + "ms): " + mSlowDispatches);
+            writer.println("    queue latency samples: " + mLatencySamples + ", avg: "
+                    + (mLatencySamples == 0 ? 0 : mTotalLatencyMs / mLatencySamples)
+                    + "ms, max: " + mMaxLatencyMs + "ms");
+        }
+    }
+}
@@ -340,6 +340,58 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Set the serialized Hearing Access preset cache of a device
+     *
+     * @param device {@link BluetoothDevice} wish to set
+     * @param value the serialized cache, or null to drop it
+     * @return true on success, false otherwise
+     */
+    public boolean setHapPresetCache(BluetoothDevice device, byte[] value) {
+        synchronized (mMetadataCache) {
+            if (device == null) {
+                Log.e(TAG, "setHapPresetCache: device is null");
+                return false;
+            }
+
+            String address = device.getAddress();
+            if (!mMetadataCache.containsKey(address)) {
+                createMetadata(address, false);
+            }
+            Metadata data = mMetadataCache.get(address);
+            if (Arrays.equals(data.hap_preset_cache, value)) {
+                return true;
+            }
+            data.hap_preset_cache = value;
+
+            updateDatabase(data);
+            return true;
+        }
+    }
+
+    /**
+     * Get the serialized Hearing Access preset cache of a device
+     *
+     * @param device {@link BluetoothDevice} wish to get
+     * @return the serialized cache, or null if none is stored
+     */
+    public byte[] getHapPresetCache(BluetoothDevice device) {
+        synchronized (mMetadataCache) {
+            if (device == null) {
+                Log.e(TAG, "getHapPresetCache: device is null");
+                return null;
+            }
+
+            String address = device.getAddress();
+            if (!mMetadataCache.containsKey(address)) {
+                Log.d(TAG, "getHapPresetCache: device " + device + " is not in cache");
+                return null;
+            }
+
+            return mMetadataCache.get(address).hap_preset_cache;
+        }
+    }
+
     /**
      * Set the device profile connection policy
      *
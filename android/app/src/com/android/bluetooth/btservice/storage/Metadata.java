@@ -77,6 +77,12 @@ public class Metadata {
      */
     public int preferred_duplex_profile;
 
+    /**
+     * Hearing Access presets, active preset and feature bits last reported by the remote device,
+     * serialized by {@link com.android.bluetooth.hap.HapClientService}.
+     */
+    public byte[] hap_preset_cache;
+
     Metadata(String address) {
         this.address = address;
         migrated = false;
@@ -89,6 +95,7 @@ public class Metadata {
         audioPolicyMetadata = new AudioPolicyEntity();
         preferred_output_only_profile = 0;
         preferred_duplex_profile = 0;
+        hap_preset_cache = null;
     }
 
     /**
@@ -37,7 +37,8 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.HandlerThread;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
 import android.sysprop.BluetoothProperties;
@@ -46,6 +47,7 @@ import android.util.Pair;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ProfileLooperPool;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -56,7 +58,6 @@ import com.android.modules.utils.SynchronousResultReceiver;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -84,7 +85,7 @@ public class CsipSetCoordinatorService extends ProfileService {
     private AdapterService mAdapterService;
     private LeAudioService mLeAudioService;
     private DatabaseManager mDatabaseManager;
-    private HandlerThread mStateMachinesThread;
+    private Looper mStateMachinesLooper;
     private BluetoothDevice mPreviousAudioDevice;
     @VisibleForTesting ServiceFactory mServiceFactory = new ServiceFactory();
 
@@ -93,14 +94,19 @@ public class CsipSetCoordinatorService extends ProfileService {
     private final Map<BluetoothDevice, CsipSetCoordinatorStateMachine> mStateMachines =
             new HashMap<>();
 
-    private final Map<Integer, ParcelUuid> mGroupIdToUuidMap = new HashMap<>();
+    private final Map<Integer, ParcelUuid> mGroupIdToUuidMap = new ConcurrentHashMap<>();
     private final Map<BluetoothDevice, Map<Integer, Integer>> mDeviceGroupIdRankMap =
             new ConcurrentHashMap<>();
+    // Same ranks as mDeviceGroupIdRankMap, indexed by group id
+    private final Map<Integer, Map<BluetoothDevice, Integer>> mGroupIdToDeviceRankMap =
+            new ConcurrentHashMap<>();
     // Tracks the number of devices in the CSIP group (greater than or equal to available devices)
-    private final Map<Integer, Integer> mGroupIdToGroupSize = new HashMap<>();
+    private final Map<Integer, Integer> mGroupIdToGroupSize = new ConcurrentHashMap<>();
     // Tracks the number of available devices mapped to the group id
-    private final Map<Integer, Set<BluetoothDevice>> mGroupIdToConnectedDevices = new HashMap<>();
-    private final Map<BluetoothDevice, Integer> mFoundSetMemberToGroupId = new HashMap<>();
+    private final Map<Integer, Set<BluetoothDevice>> mGroupIdToConnectedDevices =
+            new ConcurrentHashMap<>();
+    private final Map<BluetoothDevice, Integer> mFoundSetMemberToGroupId =
+            new ConcurrentHashMap<>();
     private final Map<ParcelUuid, Map<Executor, IBluetoothCsipSetCoordinatorCallback>> mCallbacks =
             new HashMap<>();
     private final Map<Integer, Pair<UUID, IBluetoothCsipSetCoordinatorLockCallback>> mLocks =
@@ -148,10 +154,9 @@ public class CsipSetCoordinatorService extends ProfileService {
         // Get LE Audio service (can be null)
         mLeAudioService = mServiceFactory.getLeAudioService();
 
-        // Start handler thread for state machines
+        // Get a looper for state machines
         mStateMachines.clear();
-        mStateMachinesThread = new HandlerThread("CsipSetCoordinatorService.StateMachines");
-        mStateMachinesThread.start();
+        mStateMachinesLooper = ProfileLooperPool.getInstance().acquire(TAG);
 
         // Setup broadcast receivers
         IntentFilter filter = new IntentFilter();
@@ -201,26 +206,24 @@ public class CsipSetCoordinatorService extends ProfileService {
         unregisterReceiver(mConnectionStateChangedReceiver);
         mConnectionStateChangedReceiver = null;
 
-        // Destroy state machines and stop handler thread
+        // Destroy state machines and release their looper
+        List<Handler> handlers = new ArrayList<>();
         synchronized (mStateMachines) {
             for (CsipSetCoordinatorStateMachine sm : mStateMachines.values()) {
+                handlers.add(sm.getHandler());
                 sm.doQuit();
                 sm.cleanup();
             }
             mStateMachines.clear();
         }
 
-        if (mStateMachinesThread != null) {
-            try {
-                mStateMachinesThread.quitSafely();
-                mStateMachinesThread.join(SM_THREAD_JOIN_TIMEOUT_MS);
-                mStateMachinesThread = null;
-            } catch (InterruptedException e) {
-                // Do not rethrow as we are shutting down anyway
-            }
+        if (mStateMachinesLooper != null) {
+            ProfileLooperPool.getInstance().release(TAG, SM_THREAD_JOIN_TIMEOUT_MS, handlers);
+            mStateMachinesLooper = null;
         }
 
         mDeviceGroupIdRankMap.clear();
+        mGroupIdToDeviceRankMap.clear();
         mCallbacks.clear();
         mFoundSetMemberToGroupId.clear();
         mGroupIdToGroupSize.clear();
@@ -653,13 +656,9 @@ public class CsipSetCoordinatorService extends ProfileService {
      * @return related list of devices sorted from the lowest to the highest rank value.
      */
     public @NonNull List<BluetoothDevice> getGroupDevicesOrdered(int groupId) {
-        final Map<BluetoothDevice, Integer> deviceRankMap = new HashMap();
-        for (Map.Entry<BluetoothDevice, ?> entry : mDeviceGroupIdRankMap.entrySet()) {
-            Map<Integer, Integer> rankMap = (Map<Integer, Integer>) entry.getValue();
-            BluetoothDevice device = entry.getKey();
-            if (rankMap.containsKey(groupId)) {
-                deviceRankMap.put(device, rankMap.get(groupId));
-            }
+        Map<BluetoothDevice, Integer> deviceRankMap = mGroupIdToDeviceRankMap.get(groupId);
+        if (deviceRankMap == null) {
+            return new ArrayList<>();
         }
 
         // Return device list sorted by descending rank order
@@ -706,12 +705,10 @@ public class CsipSetCoordinatorService extends ProfileService {
             mGroupIdToUuidMap.put(groupId, parcel_uuid);
         }
 
-        if (!mDeviceGroupIdRankMap.containsKey(device)) {
-            mDeviceGroupIdRankMap.put(device, new HashMap<Integer, Integer>());
-        }
-
-        Map<Integer, Integer> all_device_groups = mDeviceGroupIdRankMap.get(device);
-        all_device_groups.put(groupId, rank);
+        mDeviceGroupIdRankMap.computeIfAbsent(device, k -> new ConcurrentHashMap<>())
+                .put(groupId, rank);
+        mGroupIdToDeviceRankMap.computeIfAbsent(groupId, k -> new ConcurrentHashMap<>())
+                .put(device, rank);
     }
 
     /**
@@ -939,7 +936,7 @@ public class CsipSetCoordinatorService extends ProfileService {
                 Log.d(TAG, "Creating a new state machine for " + device);
             }
             sm = CsipSetCoordinatorStateMachine.make(device, this,
-                    mCsipSetCoordinatorNativeInterface, mStateMachinesThread.getLooper());
+                    mCsipSetCoordinatorNativeInterface, mStateMachinesLooper);
             mStateMachines.put(device, sm);
             return sm;
         }
@@ -983,7 +980,15 @@ public class CsipSetCoordinatorService extends ProfileService {
             return;
         }
 
-        mDeviceGroupIdRankMap.remove(device);
+        Map<Integer, Integer> deviceGroups = mDeviceGroupIdRankMap.remove(device);
+        if (deviceGroups != null) {
+            for (Integer groupId : deviceGroups.keySet()) {
+                Map<BluetoothDevice, Integer> groupRanks = mGroupIdToDeviceRankMap.get(groupId);
+                if (groupRanks != null) {
+                    groupRanks.remove(device);
+                }
+            }
+        }
         for (Map.Entry<Integer, Set<BluetoothDevice>> entry:
                 mGroupIdToConnectedDevices.entrySet()) {
             entry.getValue().remove(device);
@@ -1038,15 +1043,14 @@ public class CsipSetCoordinatorService extends ProfileService {
             }
         } else if (toState == BluetoothProfile.STATE_CONNECTED) {
             int groupId = getGroupId(device, BluetoothUuid.CAP);
-            if (!mGroupIdToConnectedDevices.containsKey(groupId)) {
-                mGroupIdToConnectedDevices.put(groupId, new HashSet<>());
-            }
+            Set<BluetoothDevice> connectedDevices = mGroupIdToConnectedDevices.computeIfAbsent(
+                    groupId, k -> ConcurrentHashMap.newKeySet());
             for (Map.Entry<BluetoothDevice, Integer> entry : mFoundSetMemberToGroupId.entrySet()) {
                 if (entry.getValue() == groupId) {
                     notifySetMemberAvailable(entry.getKey(), groupId);
                 }
             }
-            mGroupIdToConnectedDevices.get(groupId).add(device);
+            connectedDevices.add(device);
             disableCsipIfNeeded(groupId);
         }
     }
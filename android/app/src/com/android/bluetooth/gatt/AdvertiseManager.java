@@ -20,6 +20,7 @@ import static android.bluetooth.BluetoothProtoEnums.LE_ADV_ERROR_ON_START_COUNT;
 
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertisingSetCallback;
 import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.IAdvertisingSetCallback;
 import android.bluetooth.le.PeriodicAdvertisingParameters;
@@ -35,8 +36,13 @@ import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.gatt.GattService.AdvertiserMap;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -49,6 +55,16 @@ public class AdvertiseManager {
     private static final boolean DBG = GattServiceConfig.DBG;
     private static final String TAG = GattServiceConfig.TAG_PREFIX + "AdvertiseManager";
 
+    @VisibleForTesting
+    static final long MIN_DATA_ROTATION_INTERVAL_MS = 1000;
+
+    private static final int PAYLOAD_ADVERTISING_DATA = 0;
+    private static final int PAYLOAD_SCAN_RESPONSE = 1;
+    private static final int PAYLOAD_PERIODIC_DATA = 2;
+    private static final int PAYLOAD_COUNT = 3;
+    // Stands for an update in flight whose result no longer tells what the controller has
+    private static final byte[] INVALIDATED_PAYLOAD = new byte[0];
+
     private final GattService mService;
     private final AdapterService mAdapterService;
     private final AdvertiserMap mAdvertiserMap;
@@ -56,6 +72,11 @@ public class AdvertiseManager {
     Map<IBinder, AdvertiserInfo> mAdvertisers = Collections.synchronizedMap(new HashMap<>());
     static int sTempRegistrationId = -1;
 
+    // Payload updates sent to the controller, and identical ones that were skipped.
+    private final long[] mControllerUpdateCount = new long[PAYLOAD_COUNT];
+    private final long[] mSuppressedUpdateCount = new long[PAYLOAD_COUNT];
+    private long mRotationSwapCount = 0;
+
     /**
      * Constructor of {@link AdvertiseManager}.
      */
@@ -104,12 +125,106 @@ public class AdvertiseManager {
         public Integer id;
         public AdvertisingSetDeathRecipient deathRecipient;
         public IAdvertisingSetCallback callback;
+        /* Serialized payloads the controller has, indexed by PAYLOAD_*, null if unknown */
+        public final byte[][] payloads = new byte[PAYLOAD_COUNT][];
+        /* Payloads sent to the controller and not acknowledged yet, oldest first */
+        public final List<Deque<byte[]>> pendingPayloads = new ArrayList<>(PAYLOAD_COUNT);
+        /* Advertising data rotated by the service, null when the app sets the data itself */
+        public volatile DataRotation rotation;
+        /* Duration the set was last enabled or started with */
+        public int duration;
 
         AdvertiserInfo(Integer id, AdvertisingSetDeathRecipient deathRecipient,
                 IAdvertisingSetCallback callback) {
             this.id = id;
             this.deathRecipient = deathRecipient;
             this.callback = callback;
+            for (int type = 0; type < PAYLOAD_COUNT; type++) {
+                pendingPayloads.add(new ArrayDeque<>());
+            }
+        }
+    }
+
+    /**
+     * Swaps the advertising data of an advertising set between pre-serialized payloads at a fixed
+     * interval, so apps rotating their payload don't need a binder call for every change.
+     */
+    class DataRotation implements Runnable {
+        private final int mAdvertiserId;
+        private final List<byte[]> mPayloads;
+        private final long mIntervalMillis;
+        private int mNextPayload = 0;
+
+        DataRotation(int advertiserId, List<byte[]> payloads, long intervalMillis) {
+            mAdvertiserId = advertiserId;
+            mPayloads = payloads;
+            mIntervalMillis = intervalMillis;
+        }
+
+        @Override
+        public void run() {
+            Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(mAdvertiserId);
+            if (entry == null || entry.getValue().rotation != this) {
+                return;
+            }
+            byte[] payload = mPayloads.get(mNextPayload);
+            mNextPayload = (mNextPayload + 1) % mPayloads.size();
+            if (updatePayload(entry.getValue(), PAYLOAD_ADVERTISING_DATA, payload)) {
+                synchronized (AdvertiseManager.this) {
+                    mRotationSwapCount++;
+                }
+                setAdvertisingDataNative(mAdvertiserId, payload);
+            }
+            Handler handler = mHandler;
+            if (handler != null) {
+                handler.postDelayed(this, mIntervalMillis);
+            }
+        }
+    }
+
+    /**
+     * Records {@code bytes} as sent to the controller as the payload of the given type. Returns
+     * false if the controller already acknowledged the same payload and no other update is in
+     * flight, in which case the update can be skipped.
+     */
+    private synchronized boolean updatePayload(AdvertiserInfo info, int type, byte[] bytes) {
+        Deque<byte[]> pending = info.pendingPayloads.get(type);
+        if (pending.isEmpty() && Arrays.equals(info.payloads[type], bytes)) {
+            mSuppressedUpdateCount[type]++;
+            return false;
+        }
+        pending.add(bytes);
+        mControllerUpdateCount[type]++;
+        return true;
+    }
+
+    /**
+     * Applies the controller's answer to the oldest payload update of the given type in flight.
+     * After a failure the payload of the controller is unknown, so the next update is sent.
+     */
+    private synchronized void commitPayload(AdvertiserInfo info, int type, int status) {
+        byte[] bytes = info.pendingPayloads.get(type).poll();
+        if (bytes == null) {
+            return;
+        }
+        info.payloads[type] = status == AdvertisingSetCallback.ADVERTISE_SUCCESS
+                && bytes != INVALIDATED_PAYLOAD ? bytes : null;
+    }
+
+    /**
+     * Forgets the payloads of the given types, including those in flight. The stack adds the
+     * flags and TX power to the payloads from the set parameters, so after a parameter change
+     * the controller may hold different bytes and the next update must be sent.
+     */
+    private synchronized void invalidatePayloads(AdvertiserInfo info, int... types) {
+        for (int type : types) {
+            info.payloads[type] = null;
+            Deque<byte[]> pending = info.pendingPayloads.get(type);
+            int count = pending.size();
+            pending.clear();
+            for (int i = 0; i < count; i++) {
+                pending.add(INVALIDATED_PAYLOAD);
+            }
         }
     }
 
@@ -163,8 +278,17 @@ public class AdvertiseManager {
 
         IAdvertisingSetCallback callback = entry.getValue().callback;
         if (status == 0) {
-            entry.setValue(
-                    new AdvertiserInfo(advertiserId, entry.getValue().deathRecipient, callback));
+            AdvertiserInfo info =
+                    new AdvertiserInfo(advertiserId, entry.getValue().deathRecipient, callback);
+            synchronized (this) {
+                System.arraycopy(entry.getValue().payloads, 0, info.payloads, 0, PAYLOAD_COUNT);
+                info.duration = entry.getValue().duration;
+                for (int type = 0; type < PAYLOAD_COUNT; type++) {
+                    info.pendingPayloads.get(type)
+                            .addAll(entry.getValue().pendingPayloads.get(type));
+                }
+            }
+            entry.setValue(info);
 
             mAdvertiserMap.setAdvertiserIdByRegId(regId, advertiserId);
         } else {
@@ -242,7 +366,12 @@ public class AdvertiseManager {
                     AdvertiseHelper.advertiseDataToBytes(periodicData, deviceName);
 
             int cbId = --sTempRegistrationId;
-            mAdvertisers.put(binder, new AdvertiserInfo(cbId, deathRecipient, callback));
+            AdvertiserInfo info = new AdvertiserInfo(cbId, deathRecipient, callback);
+            info.payloads[PAYLOAD_ADVERTISING_DATA] = advDataBytes;
+            info.payloads[PAYLOAD_SCAN_RESPONSE] = scanResponseBytes;
+            info.payloads[PAYLOAD_PERIODIC_DATA] = periodicDataBytes;
+            info.duration = duration;
+            mAdvertisers.put(binder, info);
 
             if (DBG) {
                 Log.d(TAG, "startAdvertisingSet() - reg_id=" + cbId + ", callback: " + binder);
@@ -306,6 +435,7 @@ public class AdvertiseManager {
 
         Integer advertiserId = adv.id;
         binder.unlinkToDeath(adv.deathRecipient, 0);
+        stopDataRotation(adv);
 
         if (advertiserId < 0) {
             Log.i(TAG, "stopAdvertisingSet() - advertiser not finished registration yet");
@@ -330,6 +460,12 @@ public class AdvertiseManager {
             Log.w(TAG, "enableAdvertisingSet() - bad advertiserId " + advertiserId);
             return;
         }
+        AdvertiserInfo info = entry.getValue();
+        if (enable && duration != info.duration) {
+            // The stack sets the limited discoverable flag when the duration is not 0
+            info.duration = duration;
+            invalidatePayloads(info, PAYLOAD_ADVERTISING_DATA);
+        }
         enableAdvertisingSetNative(advertiserId, enable, duration, maxExtAdvEvents);
 
         mAdvertiserMap.enableAdvertisingSet(advertiserId,
@@ -342,19 +478,22 @@ public class AdvertiseManager {
             Log.w(TAG, "setAdvertisingData() - bad advertiserId " + advertiserId);
             return;
         }
+        // The app takes over the advertising data
+        stopDataRotation(entry.getValue());
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            setAdvertisingDataNative(advertiserId,
-                    AdvertiseHelper.advertiseDataToBytes(data, deviceName));
+            byte[] bytes = AdvertiseHelper.advertiseDataToBytes(data, deviceName);
+            if (updatePayload(entry.getValue(), PAYLOAD_ADVERTISING_DATA, bytes)) {
+                setAdvertisingDataNative(advertiserId, bytes);
+            } else {
+                onPayloadNotSent(entry.getValue(), PAYLOAD_ADVERTISING_DATA,
+                        AdvertisingSetCallback.ADVERTISE_SUCCESS);
+            }
 
             mAdvertiserMap.setAdvertisingData(advertiserId, data);
         } catch (IllegalArgumentException e) {
-            try {
-                onAdvertisingDataSet(advertiserId,
-                        AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
-            } catch (Exception exception) {
-                Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
-            }
+            onPayloadNotSent(entry.getValue(), PAYLOAD_ADVERTISING_DATA,
+                    AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
         }
     }
 
@@ -366,17 +505,18 @@ public class AdvertiseManager {
         }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            setScanResponseDataNative(advertiserId,
-                    AdvertiseHelper.advertiseDataToBytes(data, deviceName));
+            byte[] bytes = AdvertiseHelper.advertiseDataToBytes(data, deviceName);
+            if (updatePayload(entry.getValue(), PAYLOAD_SCAN_RESPONSE, bytes)) {
+                setScanResponseDataNative(advertiserId, bytes);
+            } else {
+                onPayloadNotSent(entry.getValue(), PAYLOAD_SCAN_RESPONSE,
+                        AdvertisingSetCallback.ADVERTISE_SUCCESS);
+            }
 
             mAdvertiserMap.setScanResponseData(advertiserId, data);
         } catch (IllegalArgumentException e) {
-            try {
-                onScanResponseDataSet(advertiserId,
-                        AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
-            } catch (Exception exception) {
-                Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
-            }
+            onPayloadNotSent(entry.getValue(), PAYLOAD_SCAN_RESPONSE,
+                    AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
         }
     }
 
@@ -386,6 +526,7 @@ public class AdvertiseManager {
             Log.w(TAG, "setAdvertisingParameters() - bad advertiserId " + advertiserId);
             return;
         }
+        invalidatePayloads(entry.getValue(), PAYLOAD_ADVERTISING_DATA, PAYLOAD_SCAN_RESPONSE);
         setAdvertisingParametersNative(advertiserId, parameters);
 
         mAdvertiserMap.setAdvertisingParameters(advertiserId, parameters);
@@ -398,6 +539,7 @@ public class AdvertiseManager {
             Log.w(TAG, "setPeriodicAdvertisingParameters() - bad advertiserId " + advertiserId);
             return;
         }
+        invalidatePayloads(entry.getValue(), PAYLOAD_PERIODIC_DATA);
         setPeriodicAdvertisingParametersNative(advertiserId, parameters);
 
         mAdvertiserMap.setPeriodicAdvertisingParameters(advertiserId, parameters);
@@ -411,17 +553,104 @@ public class AdvertiseManager {
         }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            setPeriodicAdvertisingDataNative(advertiserId,
-                    AdvertiseHelper.advertiseDataToBytes(data, deviceName));
+            byte[] bytes = AdvertiseHelper.advertiseDataToBytes(data, deviceName);
+            if (updatePayload(entry.getValue(), PAYLOAD_PERIODIC_DATA, bytes)) {
+                setPeriodicAdvertisingDataNative(advertiserId, bytes);
+            } else {
+                onPayloadNotSent(entry.getValue(), PAYLOAD_PERIODIC_DATA,
+                        AdvertisingSetCallback.ADVERTISE_SUCCESS);
+            }
 
             mAdvertiserMap.setPeriodicAdvertisingData(advertiserId, data);
         } catch (IllegalArgumentException e) {
-            try {
-                onPeriodicAdvertisingDataSet(advertiserId,
-                        AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
-            } catch (Exception exception) {
-                Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
+            onPayloadNotSent(entry.getValue(), PAYLOAD_PERIODIC_DATA,
+                    AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
+        }
+    }
+
+    /**
+     * Completes an update that was not sent to the controller, either because the controller
+     * already has the payload or because it can't be serialized. The app is called back right
+     * away, the updates in flight are left to the controller's callbacks.
+     */
+    private void onPayloadNotSent(AdvertiserInfo info, int type, int status) {
+        int advertiserId = info.id;
+        if (DBG) {
+            Log.d(TAG, "onPayloadNotSent() advertiserId=" + advertiserId + ", type=" + type
+                    + ", status=" + status);
+        }
+        try {
+            switch (type) {
+                case PAYLOAD_ADVERTISING_DATA:
+                    info.callback.onAdvertisingDataSet(advertiserId, status);
+                    break;
+                case PAYLOAD_SCAN_RESPONSE:
+                    info.callback.onScanResponseDataSet(advertiserId, status);
+                    break;
+                case PAYLOAD_PERIODIC_DATA:
+                    info.callback.onPeriodicAdvertisingDataSet(advertiserId, status);
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception exception) {
+            Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
+        }
+    }
+
+    void startAdvertisingDataRotation(int advertiserId, List<AdvertiseData> dataList,
+            long intervalMillis) {
+        if (dataList == null || dataList.isEmpty()) {
+            throw new IllegalArgumentException("No advertising data to rotate");
+        }
+        if (intervalMillis < MIN_DATA_ROTATION_INTERVAL_MS) {
+            throw new IllegalArgumentException(
+                    "Rotation interval must be at least " + MIN_DATA_ROTATION_INTERVAL_MS + "ms");
+        }
+        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        if (entry == null || entry.getValue().id < 0) {
+            Log.w(TAG, "startAdvertisingDataRotation() - bad advertiserId " + advertiserId);
+            return;
+        }
+        String deviceName = AdapterService.getAdapterService().getName();
+        List<byte[]> payloads = new ArrayList<>(dataList.size());
+        try {
+            for (AdvertiseData data : dataList) {
+                payloads.add(AdvertiseHelper.advertiseDataToBytes(data, deviceName));
             }
+        } catch (IllegalArgumentException e) {
+            onPayloadNotSent(entry.getValue(), PAYLOAD_ADVERTISING_DATA,
+                    AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
+            return;
+        }
+
+        AdvertiserInfo info = entry.getValue();
+        stopDataRotation(info);
+        info.rotation = new DataRotation(advertiserId, payloads, intervalMillis);
+        Handler handler = mHandler;
+        if (handler != null) {
+            handler.post(info.rotation);
+        }
+        mAdvertiserMap.setAdvertisingData(advertiserId, dataList.get(0));
+    }
+
+    void stopAdvertisingDataRotation(int advertiserId) {
+        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        if (entry == null) {
+            Log.w(TAG, "stopAdvertisingDataRotation() - bad advertiserId " + advertiserId);
+            return;
+        }
+        stopDataRotation(entry.getValue());
+    }
+
+    private void stopDataRotation(AdvertiserInfo info) {
+        DataRotation rotation = info.rotation;
+        if (rotation == null) {
+            return;
+        }
+        info.rotation = null;
+        if (mHandler != null) {
+            mHandler.removeCallbacks(rotation);
         }
     }
 
@@ -445,6 +674,12 @@ public class AdvertiseManager {
             Log.i(TAG, "onAdvertisingDataSet() - bad advertiserId " + advertiserId);
             return;
         }
+        commitPayload(entry.getValue(), PAYLOAD_ADVERTISING_DATA, status);
+        if (entry.getValue().rotation != null
+                && status == AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+            // Payload swapped by the rotation, the app didn't request it
+            return;
+        }
 
         IAdvertisingSetCallback callback = entry.getValue().callback;
         callback.onAdvertisingDataSet(advertiserId, status);
@@ -461,6 +696,7 @@ public class AdvertiseManager {
             Log.i(TAG, "onScanResponseDataSet() - bad advertiserId " + advertiserId);
             return;
         }
+        commitPayload(entry.getValue(), PAYLOAD_SCAN_RESPONSE, status);
 
         IAdvertisingSetCallback callback = entry.getValue().callback;
         callback.onScanResponseDataSet(advertiserId, status);
@@ -512,6 +748,7 @@ public class AdvertiseManager {
             Log.i(TAG, "onPeriodicAdvertisingDataSet() - bad advertiserId " + advertiserId);
             return;
         }
+        commitPayload(entry.getValue(), PAYLOAD_PERIODIC_DATA, status);
 
         IAdvertisingSetCallback callback = entry.getValue().callback;
         callback.onPeriodicAdvertisingDataSet(advertiserId, status);
@@ -539,6 +776,18 @@ public class AdvertiseManager {
         }
     }
 
+    synchronized void dump(StringBuilder sb) {
+        sb.append("  Controller payload updates (adv/scan rsp/periodic): ")
+                .append(mControllerUpdateCount[PAYLOAD_ADVERTISING_DATA]).append("/")
+                .append(mControllerUpdateCount[PAYLOAD_SCAN_RESPONSE]).append("/")
+                .append(mControllerUpdateCount[PAYLOAD_PERIODIC_DATA]).append("\n");
+        sb.append("  Unchanged payload updates skipped (adv/scan rsp/periodic): ")
+                .append(mSuppressedUpdateCount[PAYLOAD_ADVERTISING_DATA]).append("/")
+                .append(mSuppressedUpdateCount[PAYLOAD_SCAN_RESPONSE]).append("/")
+                .append(mSuppressedUpdateCount[PAYLOAD_PERIODIC_DATA]).append("\n");
+        sb.append("  Advertising data rotation swaps: ").append(mRotationSwapCount).append("\n");
+    }
+
     static {
         classInitNative();
     }
@@ -97,6 +97,8 @@ import java.util.Objects;
         public int scanMode;
         public int scanCallbackType;
         public String filterString;
+        // Results not delivered, by ScanDeliveryTracker skip reason
+        public int[] skipped = new int[ScanDeliveryTracker.SKIP_REASON_COUNT];
 
         LastScan(long timestamp, boolean isFilterScan, boolean isCallbackScan, int scannerId,
                 int scanMode, int scanCallbackType) {
@@ -178,6 +180,13 @@ import java.util.Objects;
         results++;
     }
 
+    synchronized void addSkippedResult(int scannerId, int reason) {
+        LastScan scan = getScanFromScannerId(scannerId);
+        if (scan != null) {
+            scan.skipped[reason]++;
+        }
+    }
+
     synchronized boolean isScanning() {
         return !mOngoingScans.isEmpty();
     }
@@ -627,6 +636,18 @@ import java.util.Objects;
         }
     }
 
+    private static void appendDeliveryStats(StringBuilder sb, LastScan scan, long durationMs) {
+        sb.append("\n      └ " + "Delivery: "
+                + String.format("%.1f", durationMs > 0 ? scan.results * 1000.0 / durationMs : 0.0)
+                + " results/s");
+        for (int reason = 0; reason < ScanDeliveryTracker.SKIP_REASON_COUNT; reason++) {
+            if (scan.skipped[reason] > 0) {
+                sb.append(", " + ScanDeliveryTracker.skipReasonToString(reason) + ": "
+                        + scan.skipped[reason]);
+            }
+        }
+    }
+
     synchronized void dumpToString(StringBuilder sb) {
         long currentTime = System.currentTimeMillis();
         long currTime = SystemClock.elapsedRealtime();
@@ -744,6 +765,7 @@ import java.util.Objects;
                     sb.append("\n      └ " + "Suspended Time: " + scan.suspendDuration
                             + "ms, Active Time: " + activeDuration);
                 }
+                appendDeliveryStats(sb, scan, scan.duration);
                 sb.append("\n      └ " + "Scan Config: [ ScanMode="
                         + scanModeToString(scan.scanMode) + ", callbackType="
                         + callbackTypeToString(scan.scanCallbackType) + " ]");
@@ -796,6 +818,7 @@ import java.util.Objects;
                     sb.append("\n      └ " + "Suspended Time:" + scan.suspendDuration
                             + "ms, Active Time:" + activeDuration);
                 }
+                appendDeliveryStats(sb, scan, currTime - scan.timestamp);
                 sb.append("\n      └ " + "Scan Config: [ ScanMode="
                         + scanModeToString(scan.scanMode) + ", callbackType="
                         + callbackTypeToString(scan.scanCallbackType) + " ]");
@@ -324,6 +324,8 @@ public class GattService extends ProfileService {
     DistanceMeasurementManager mDistanceMeasurementManager;
     @VisibleForTesting
     ScanManager mScanManager;
+    @VisibleForTesting
+    final ScanDeliveryTracker mScanDeliveryTracker = new ScanDeliveryTracker();
     private AppOpsManager mAppOps;
     private CompanionDeviceManager mCompanionManager;
     private String mExposureNotificationPackage;
@@ -1588,6 +1590,47 @@ public class GattService extends ProfileService {
             service.setAdvertisingData(advertiserId, data, attributionSource);
         }
 
+        @Override
+        public void startAdvertisingDataRotation(int advertiserId, List<AdvertiseData> dataList,
+                long intervalMillis, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            try {
+                startAdvertisingDataRotation(advertiserId, dataList, intervalMillis,
+                        attributionSource);
+                receiver.send(null);
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+        private void startAdvertisingDataRotation(int advertiserId, List<AdvertiseData> dataList,
+                long intervalMillis, AttributionSource attributionSource) {
+            GattService service = getService();
+            if (service == null) {
+                return;
+            }
+            service.startAdvertisingDataRotation(advertiserId, dataList, intervalMillis,
+                    attributionSource);
+        }
+
+        @Override
+        public void stopAdvertisingDataRotation(int advertiserId,
+                AttributionSource attributionSource, SynchronousResultReceiver receiver) {
+            try {
+                stopAdvertisingDataRotation(advertiserId, attributionSource);
+                receiver.send(null);
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+        private void stopAdvertisingDataRotation(int advertiserId,
+                AttributionSource attributionSource) {
+            GattService service = getService();
+            if (service == null) {
+                return;
+            }
+            service.stopAdvertisingDataRotation(advertiserId, attributionSource);
+        }
+
         @Override
         public void setScanResponseData(int advertiserId, AdvertiseData data,
                 AttributionSource attributionSource, SynchronousResultReceiver receiver) {
@@ -1970,6 +2013,7 @@ public class GattService extends ProfileService {
                     + ", originalAddress=" + originalAddress);
         }
 
+        final long resultStartNanos = SystemClock.elapsedRealtimeNanos();
         String identityAddress = mAdapterService.getIdentityAddress(address);
         if (!address.equals(identityAddress)) {
             if (VDBG) {
@@ -1978,7 +2022,7 @@ public class GattService extends ProfileService {
             }
             originalAddress = identityAddress;
         }
-
+        mScanDeliveryTracker.recordStage(ScanDeliveryTracker.STAGE_IDENTITY, resultStartNanos);
 
         byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
 
@@ -1988,6 +2032,7 @@ public class GattService extends ProfileService {
                 if (VDBG) {
                     Log.d(TAG, "App is null; skip.");
                 }
+                mScanDeliveryTracker.recordSkip(ScanDeliveryTracker.SKIP_NO_APP);
                 continue;
             }
 
@@ -2003,6 +2048,7 @@ public class GattService extends ProfileService {
                     if (VDBG) {
                         Log.d(TAG, "Legacy scan, non legacy result; skip.");
                     }
+                    skipScanResult(app, client, ScanDeliveryTracker.SKIP_LEGACY_MISMATCH);
                     continue;
                 } else {
                     // Some apps are used to fixed-size advertise data.
@@ -2012,15 +2058,19 @@ public class GattService extends ProfileService {
                 scanRecordData = advData;
             }
 
+            long stageStartNanos = SystemClock.elapsedRealtimeNanos();
             ScanRecord scanRecord = ScanRecord.parseFromBytes(scanRecordData);
             ScanResult result =
                     new ScanResult(device, eventType, primaryPhy, secondaryPhy, advertisingSid,
                             txPower, rssi, periodicAdvInt, scanRecord,
                             SystemClock.elapsedRealtimeNanos());
+            stageStartNanos = mScanDeliveryTracker.recordStage(
+                    ScanDeliveryTracker.STAGE_PARSE, stageStartNanos);
 
             if (client.hasDisavowedLocation) {
                 if (mLocationDenylistPredicate.test(result)) {
                     Log.i(TAG, "Skipping client for location deny list");
+                    skipScanResult(app, client, ScanDeliveryTracker.SKIP_LOCATION_DENYLIST);
                     continue;
                 }
             }
@@ -2041,12 +2091,19 @@ public class GattService extends ProfileService {
                     result = sanitized;
                 }
             }
+            stageStartNanos = mScanDeliveryTracker.recordStage(
+                    ScanDeliveryTracker.STAGE_PERMISSION, stageStartNanos);
             MatchResult matchResult = matchesFilters(client, result, originalAddress);
+            stageStartNanos = mScanDeliveryTracker.recordStage(
+                    ScanDeliveryTracker.STAGE_FILTER, stageStartNanos);
             if (!hasPermission || !matchResult.getMatches()) {
                 if (VDBG) {
                     Log.d(TAG, "Skipping client: permission="
                             + hasPermission + " matches=" + matchResult.getMatches());
                 }
+                skipScanResult(app, client, !hasPermission
+                        ? ScanDeliveryTracker.SKIP_NO_PERMISSION
+                        : ScanDeliveryTracker.SKIP_FILTER_MISMATCH);
                 continue;
             }
 
@@ -2056,11 +2113,14 @@ public class GattService extends ProfileService {
                 if (VDBG) {
                     Log.d(TAG, "Skipping client: CALLBACK_TYPE_ALL_MATCHES");
                 }
+                skipScanResult(app, client, ScanDeliveryTracker.SKIP_CALLBACK_TYPE);
                 continue;
             }
 
             try {
                 app.appScanStats.addResult(client.scannerId);
+                stageStartNanos = mScanDeliveryTracker.recordStage(
+                        ScanDeliveryTracker.STAGE_STATS, stageStartNanos);
                 if (app.callback != null) {
                     app.callback.onScanResult(result);
                 } else {
@@ -2070,12 +2130,21 @@ public class GattService extends ProfileService {
                     sendResultsByPendingIntent(app.info, results,
                             ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
                 }
+                mScanDeliveryTracker.recordStage(
+                        ScanDeliveryTracker.STAGE_DELIVERY, stageStartNanos);
             } catch (RemoteException | PendingIntent.CanceledException e) {
                 Log.e(TAG, "Exception: " + e);
+                skipScanResult(app, client, ScanDeliveryTracker.DROP_DELIVERY_FAILED);
                 mScannerMap.remove(client.scannerId);
                 mScanManager.stopScan(client.scannerId);
             }
         }
+        mScanDeliveryTracker.recordStage(ScanDeliveryTracker.STAGE_TOTAL, resultStartNanos);
+    }
+
+    private void skipScanResult(ScannerMap.App app, ScanClient client, int reason) {
+        mScanDeliveryTracker.recordSkip(reason);
+        app.appScanStats.addSkippedResult(client.scannerId, reason);
     }
 
     private void sendResultByPendingIntent(PendingIntentInfo pii, ScanResult result,
@@ -2866,7 +2935,8 @@ public class GattService extends ProfileService {
         sendBatchScanResults(app, client, results);
     }
 
-    private Set<ScanResult> parseBatchScanResults(int numRecords, int reportType,
+    @VisibleForTesting
+    Set<ScanResult> parseBatchScanResults(int numRecords, int reportType,
             byte[] batchRecord) {
         if (numRecords == 0) {
             return Collections.emptySet();
@@ -3559,6 +3629,25 @@ public class GattService extends ProfileService {
         mAdvertiseManager.setAdvertisingData(advertiserId, data);
     }
 
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
+    void startAdvertisingDataRotation(int advertiserId, List<AdvertiseData> dataList,
+            long intervalMillis, AttributionSource attributionSource) {
+        if (!Utils.checkAdvertisePermissionForDataDelivery(
+                this, attributionSource, "GattService startAdvertisingDataRotation")) {
+            return;
+        }
+        mAdvertiseManager.startAdvertisingDataRotation(advertiserId, dataList, intervalMillis);
+    }
+
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
+    void stopAdvertisingDataRotation(int advertiserId, AttributionSource attributionSource) {
+        if (!Utils.checkAdvertisePermissionForDataDelivery(
+                this, attributionSource, "GattService stopAdvertisingDataRotation")) {
+            return;
+        }
+        mAdvertiseManager.stopAdvertisingDataRotation(advertiserId);
+    }
+
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
     void setScanResponseData(
             int advertiserId, AdvertiseData data, AttributionSource attributionSource) {
@@ -5004,9 +5093,17 @@ public class GattService extends ProfileService {
         sb.append("GATT Scanner Map\n");
         mScannerMap.dump(sb);
 
+        sb.append("GATT Scan Result Delivery\n");
+        mScanDeliveryTracker.dump(sb);
+
         sb.append("GATT Advertiser Map\n");
         mAdvertiserMap.dumpAdvertiser(sb);
 
+        if (mAdvertiseManager != null) {
+            sb.append("GATT Advertise Manager\n");
+            mAdvertiseManager.dump(sb);
+        }
+
         sb.append("GATT Client Map\n");
         mClientMap.dump(sb);
 
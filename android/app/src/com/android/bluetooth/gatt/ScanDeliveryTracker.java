@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Keeps latency histograms for the stages a scan result goes through between the native
+ * callback and the app, and counts why results were not delivered.
+ *
+ * <p>Recording a stage costs a clock read and an uncontended lock, so this is always enabled.
+ * Per client counts are kept by {@link AppScanStats}.
+ */
+/*package*/ class ScanDeliveryTracker {
+    static final int STAGE_IDENTITY = 0;
+    static final int STAGE_PARSE = 1;
+    static final int STAGE_PERMISSION = 2;
+    static final int STAGE_FILTER = 3;
+    static final int STAGE_STATS = 4;
+    static final int STAGE_DELIVERY = 5;
+    // From the native callback until the result went to every client
+    static final int STAGE_TOTAL = 6;
+    @VisibleForTesting
+    static final int STAGE_COUNT = 7;
+
+    private static final String[] STAGE_NAMES = {
+        "identity", "parse", "permission", "filter", "stats", "delivery", "total"
+    };
+
+    static final int SKIP_NO_APP = 0;
+    static final int SKIP_LEGACY_MISMATCH = 1;
+    static final int SKIP_LOCATION_DENYLIST = 2;
+    static final int SKIP_NO_PERMISSION = 3;
+    static final int SKIP_FILTER_MISMATCH = 4;
+    static final int SKIP_CALLBACK_TYPE = 5;
+    static final int DROP_DELIVERY_FAILED = 6;
+    static final int SKIP_REASON_COUNT = 7;
+
+    private static final String[] SKIP_REASON_NAMES = {
+        "no_app", "legacy_mismatch", "location_denylist", "no_permission", "filter_mismatch",
+        "callback_type", "delivery_failed"
+    };
+
+    // Bucket i counts latencies below 2^i microseconds, the last bucket everything above
+    @VisibleForTesting
+    static final int BUCKET_COUNT = 16;
+
+    @GuardedBy("this")
+    private final long[][] mHistograms = new long[STAGE_COUNT][BUCKET_COUNT];
+    @GuardedBy("this")
+    private final long[] mTotalNanos = new long[STAGE_COUNT];
+    @GuardedBy("this")
+    private final long[] mMaxNanos = new long[STAGE_COUNT];
+    @GuardedBy("this")
+    private final long[] mSkips = new long[SKIP_REASON_COUNT];
+
+    static String skipReasonToString(int reason) {
+        return SKIP_REASON_NAMES[reason];
+    }
+
+    /**
+     * Record that a stage which started at startNanos has ended.
+     *
+     * @return the end of the stage, which is the start of the next one
+     */
+    long recordStage(int stage, long startNanos) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        addLatency(stage, now - startNanos);
+        return now;
+    }
+
+    @VisibleForTesting
+    synchronized void addLatency(int stage, long nanos) {
+        mHistograms[stage][getBucket(nanos)]++;
+        mTotalNanos[stage] += nanos;
+        if (nanos > mMaxNanos[stage]) {
+            mMaxNanos[stage] = nanos;
+        }
+    }
+
+    synchronized void recordSkip(int reason) {
+        mSkips[reason]++;
+    }
+
+    @VisibleForTesting
+    static int getBucket(long nanos) {
+        long micros = nanos / 1000;
+        // Number of bits needed for micros: 0us and below go to bucket 0, 1us to bucket 1...
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(micros, 0));
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    @VisibleForTesting
+    synchronized long getCount(int stage) {
+        long count = 0;
+        for (long bucketCount : mHistograms[stage]) {
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    @VisibleForTesting
+    synchronized long getSkips(int reason) {
+        return mSkips[reason];
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("  Stage latency (count, avg/max us, histogram by upper bound in us):\n");
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            long count = getCount(stage);
+            sb.append("    ").append(STAGE_NAMES[stage]).append(": ").append(count);
+            if (count > 0) {
+                sb.append(", ").append(mTotalNanos[stage] / count / 1000)
+                        .append('/').append(mMaxNanos[stage] / 1000).append(" [");
+                for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                    if (mHistograms[stage][bucket] == 0) {
+                        continue;
+                    }
+                    if (bucket == BUCKET_COUNT - 1) {
+                        sb.append(" inf:");
+                    } else {
+                        sb.append(" <").append(1L << bucket).append(':');
+                    }
+                    sb.append(mHistograms[stage][bucket]);
+                }
+                sb.append(" ]");
+            }
+            sb.append('\n');
+        }
+        sb.append("  Results not delivered:");
+        for (int reason = 0; reason < SKIP_REASON_COUNT; reason++) {
+            sb.append(' ').append(SKIP_REASON_NAMES[reason]).append('=').append(mSkips[reason]);
+        }
+        sb.append('\n');
+    }
+}
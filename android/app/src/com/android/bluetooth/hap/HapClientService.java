@@ -38,15 +38,18 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.HandlerThread;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ProfileLooperPool;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -54,6 +57,11 @@ import com.android.bluetooth.csip.CsipSetCoordinatorService;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -62,6 +70,7 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Provides Bluetooth Hearing Access profile, as a service.
@@ -74,6 +83,8 @@ public class HapClientService extends ProfileService {
     // Upper limit of all HearingAccess devices: Bonded or Connected
     private static final int MAX_HEARING_ACCESS_STATE_MACHINES = 10;
     private static final int SM_THREAD_JOIN_TIMEOUT_MS = 1000;
+    // Layout version of the preset cache persisted in the DatabaseManager
+    private static final int PRESET_CACHE_VERSION = 2;
     private static HapClientService sHapClient;
     private final Map<BluetoothDevice, HapClientStateMachine> mStateMachines =
             new HashMap<>();
@@ -81,7 +92,7 @@ public class HapClientService extends ProfileService {
     HapClientNativeInterface mHapClientNativeInterface;
     private AdapterService mAdapterService;
     private DatabaseManager mDatabaseManager;
-    private HandlerThread mStateMachinesThread;
+    private Looper mStateMachinesLooper;
     private BroadcastReceiver mBondStateChangedReceiver;
     private BroadcastReceiver mConnectionStateChangedReceiver;
 
@@ -90,6 +101,11 @@ public class HapClientService extends ProfileService {
     private final Map<BluetoothDevice, List<BluetoothHapPresetInfo>> mPresetsMap =
             new HashMap<>();
 
+    // Connection time of devices whose presets are not known yet
+    private final Map<BluetoothDevice, Long> mConnectionTimestamps = new ConcurrentHashMap<>();
+    // Last time it took for the presets to be known after connecting, read by dump
+    private final Map<BluetoothDevice, String> mTimeToUsable = new ConcurrentHashMap<>();
+
     @VisibleForTesting
     RemoteCallbackList<IBluetoothHapClientCallback> mCallbacks;
 
@@ -164,10 +180,9 @@ public class HapClientService extends ProfileService {
                 HapClientNativeInterface.getInstance(),
                 "HapClientNativeInterface cannot be null when HapClientService starts");
 
-        // Start handler thread for state machines
+        // Get a looper for state machines
         mStateMachines.clear();
-        mStateMachinesThread = new HandlerThread("HapClientService.StateMachines");
-        mStateMachinesThread.start();
+        mStateMachinesLooper = ProfileLooperPool.getInstance().acquire(TAG);
 
         // Setup broadcast receivers
         IntentFilter filter = new IntentFilter();
@@ -211,23 +226,20 @@ public class HapClientService extends ProfileService {
         unregisterReceiver(mConnectionStateChangedReceiver);
         mConnectionStateChangedReceiver = null;
 
-        // Destroy state machines and stop handler thread
+        // Destroy state machines and release their looper
+        List<Handler> handlers = new ArrayList<>();
         synchronized (mStateMachines) {
             for (HapClientStateMachine sm : mStateMachines.values()) {
+                handlers.add(sm.getHandler());
                 sm.doQuit();
                 sm.cleanup();
             }
             mStateMachines.clear();
         }
 
-        if (mStateMachinesThread != null) {
-            try {
-                mStateMachinesThread.quitSafely();
-                mStateMachinesThread.join(SM_THREAD_JOIN_TIMEOUT_MS);
-                mStateMachinesThread = null;
-            } catch (InterruptedException e) {
-                // Do not rethrow as we are shutting down anyway
-            }
+        if (mStateMachinesLooper != null) {
+            ProfileLooperPool.getInstance().release(TAG, SM_THREAD_JOIN_TIMEOUT_MS, handlers);
+            mStateMachinesLooper = null;
         }
 
         // Cleanup GATT interface
@@ -238,6 +250,8 @@ public class HapClientService extends ProfileService {
         mDeviceCurrentPresetMap.clear();
         mDeviceFeaturesMap.clear();
         mPresetsMap.clear();
+        mConnectionTimestamps.clear();
+        mTimeToUsable.clear();
 
         if (mCallbacks != null) {
             mCallbacks.kill();
@@ -263,6 +277,8 @@ public class HapClientService extends ProfileService {
         mDeviceCurrentPresetMap.remove(device);
         mDeviceFeaturesMap.remove(device);
         mPresetsMap.remove(device);
+        mConnectionTimestamps.remove(device);
+        mTimeToUsable.remove(device);
 
         synchronized (mStateMachines) {
             HapClientStateMachine sm = mStateMachines.get(device);
@@ -452,6 +468,14 @@ public class HapClientService extends ProfileService {
                 }
                 removeStateMachine(device);
             }
+        } else if (toState == BluetoothProfile.STATE_CONNECTED) {
+            // Serve the presets known from the last connection until the remote reports them
+            mConnectionTimestamps.put(device, SystemClock.elapsedRealtime());
+            if (mPresetsMap.containsKey(device)) {
+                reportTimeToUsable(device, "memory");
+            } else if (restorePresetCache(device)) {
+                reportTimeToUsable(device, "storage");
+            }
         }
     }
 
@@ -535,7 +559,7 @@ public class HapClientService extends ProfileService {
                 Log.d(TAG, "Creating a new state machine for " + device);
             }
             sm = HapClientStateMachine.make(device, this,
-                    mHapClientNativeInterface, mStateMachinesThread.getLooper());
+                    mHapClientNativeInterface, mStateMachinesLooper);
             mStateMachines.put(device, sm);
             return sm;
         }
@@ -1000,6 +1024,86 @@ public class HapClientService extends ProfileService {
         for (HapClientStateMachine sm : mStateMachines.values()) {
             sm.dump(sb);
         }
+        for (Map.Entry<BluetoothDevice, String> entry : mTimeToUsable.entrySet()) {
+            ProfileService.println(sb, "  " + entry.getKey() + " time to usable: "
+                    + entry.getValue());
+        }
+    }
+
+    private void reportTimeToUsable(BluetoothDevice device, String source) {
+        Long connectedAt = mConnectionTimestamps.remove(device);
+        if (connectedAt == null) {
+            return;
+        }
+        String timeToUsable = (SystemClock.elapsedRealtime() - connectedAt) + "ms from " + source;
+        mTimeToUsable.put(device, timeToUsable);
+        Log.i(TAG, "Presets of " + device + " known " + timeToUsable);
+    }
+
+    @VisibleForTesting
+    static byte[] encodePresetCache(int features, List<BluetoothHapPresetInfo> presets) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(PRESET_CACHE_VERSION);
+            out.writeInt(features);
+            out.writeInt(presets.size());
+            for (BluetoothHapPresetInfo preset : presets) {
+                out.writeInt(preset.getIndex());
+                out.writeUTF(preset.getName());
+                out.writeBoolean(preset.isWritable());
+                out.writeBoolean(preset.isAvailable());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to encode the preset cache: " + e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    // Only called when the preset list changes. The active preset is left out, it changes much
+    // more often and the remote reports it on every connection anyway.
+    private void storePresetCache(BluetoothDevice device) {
+        List<BluetoothHapPresetInfo> presets = mPresetsMap.get(device);
+        if (presets == null) {
+            return;
+        }
+        mDatabaseManager.setHapPresetCache(device, encodePresetCache(
+                mDeviceFeaturesMap.getOrDefault(device, 0x00), presets));
+    }
+
+    private boolean restorePresetCache(BluetoothDevice device) {
+        byte[] cache = mDatabaseManager.getHapPresetCache(device);
+        if (cache == null) {
+            return false;
+        }
+
+        int features;
+        List<BluetoothHapPresetInfo> presets;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(cache))) {
+            if (in.readByte() != PRESET_CACHE_VERSION) {
+                return false;
+            }
+            features = in.readInt();
+            int count = in.readInt();
+            presets = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int index = in.readInt();
+                String name = in.readUTF();
+                boolean isWritable = in.readBoolean();
+                boolean isAvailable = in.readBoolean();
+                presets.add(new BluetoothHapPresetInfo.Builder(index, name)
+                        .setWritable(isWritable)
+                        .setAvailable(isAvailable)
+                        .build());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Ignoring invalid preset cache of " + device + ": " + e);
+            return false;
+        }
+
+        mPresetsMap.put(device, presets);
+        mDeviceFeaturesMap.putIfAbsent(device, features);
+        return true;
     }
 
     private boolean isPresetCoordinationSupported(BluetoothDevice device) {
@@ -1010,6 +1114,10 @@ public class HapClientService extends ProfileService {
 
     void updateDevicePresetsCache(BluetoothDevice device, int infoReason,
             List<BluetoothHapPresetInfo> presets) {
+        // A preset change on a device with no known preset list leaves a partial list
+        boolean isComplete = infoReason == HapClientStackEvent.PRESET_INFO_REASON_ALL_PRESET_INFO
+                || mPresetsMap.containsKey(device);
+
         switch (infoReason) {
             case HapClientStackEvent.PRESET_INFO_REASON_ALL_PRESET_INFO:
                 mPresetsMap.put(device, presets);
@@ -1052,7 +1160,14 @@ public class HapClientService extends ProfileService {
                 break;
 
             default:
-                break;
+                return;
+        }
+
+        if (isComplete) {
+            storePresetCache(device);
+            reportTimeToUsable(device, "remote");
+        } else {
+            mDatabaseManager.setHapPresetCache(device, null);
         }
     }
 
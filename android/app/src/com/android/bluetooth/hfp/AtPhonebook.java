@@ -23,11 +23,14 @@ import android.bluetooth.BluetoothDevice;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.provider.CallLog.Calls;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
@@ -73,6 +76,12 @@ public class AtPhonebook {
     private static final String INCOMING_CALL_WHERE = Calls.TYPE + "=" + Calls.INCOMING_TYPE;
     private static final String MISSED_CALL_WHERE = Calls.TYPE + "=" + Calls.MISSED_TYPE;
 
+    /** Caller ID names are reused across AT+CPBR commands for this long, unless contacts change.
+     *  Head units read call logs in pages, so the same numbers come back within seconds. */
+    @VisibleForTesting
+    static final long CALLER_ID_CACHE_TTL_MS = 30000;
+    private static final int CALLER_ID_CACHE_MAX_SIZE = 1024;
+
     @VisibleForTesting
     class PhonebookResult {
         public Cursor cursor; // result set of last query
@@ -101,6 +110,12 @@ public class AtPhonebook {
     final HashMap<String, PhonebookResult> mPhonebooks =
             new HashMap<String, PhonebookResult>(4);
 
+    // Caller ID lookup results by call log number, null values for numbers with no contact
+    private final HashMap<String, String> mCallerIdCache = new HashMap<>();
+    private long mCallerIdCacheTime;
+    private volatile boolean mCallerIdCacheStale;
+    private ContentObserver mContactsObserver;
+
     static final int TYPE_UNKNOWN = -1;
     static final int TYPE_READ = 0;
     static final int TYPE_SET = 1;
@@ -123,6 +138,11 @@ public class AtPhonebook {
 
     public void cleanup() {
         mPhonebooks.clear();
+        if (mContactsObserver != null) {
+            mContentResolver.unregisterContentObserver(mContactsObserver);
+            mContactsObserver = null;
+        }
+        mCallerIdCache.clear();
     }
 
     /** Returns the last dialled number, or null if no numbers have been called */
@@ -506,6 +526,9 @@ public class AtPhonebook {
     // process CPBR command after permission check
     /*package*/ int processCpbrCommand(BluetoothDevice device) {
         log("processCpbrCommand");
+        long startTime = SystemClock.elapsedRealtime();
+        int records = 0;
+        int lookups = 0;
         int atCommandResult = HeadsetHalConstants.AT_RESPONSE_ERROR;
         int atCommandErrorCode = -1;
         String atCommandResponse = null;
@@ -547,25 +570,21 @@ public class AtPhonebook {
         int errorDetected = -1; // no error
         pbr.cursor.moveToPosition(mCpbrIndex1 - 1);
         log("mCpbrIndex1 = " + mCpbrIndex1 + " and mCpbrIndex2 = " + mCpbrIndex2);
+        if (pbr.nameColumn == -1) {
+            prepareCallerIdCache();
+        }
         for (int index = mCpbrIndex1; index <= mCpbrIndex2; index++) {
             String number = pbr.cursor.getString(pbr.numberColumn);
             String name = null;
             int type = -1;
             if (pbr.nameColumn == -1 && number != null && number.length() > 0) {
-                // try caller id lookup
-                // TODO: This code is horribly inefficient. I saw it
-                // take 7 seconds to process 100 missed calls.
-                Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(mContentResolver,
-                        Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, number),
-                        new String[]{
-                                PhoneLookup.DISPLAY_NAME, PhoneLookup.TYPE
-                        }, null, null, null);
-                if (c != null) {
-                    if (c.moveToFirst()) {
-                        name = c.getString(0);
-                        type = c.getInt(1);
-                    }
-                    c.close();
+                // try caller id lookup, once per distinct number
+                if (mCallerIdCache.containsKey(number)) {
+                    name = mCallerIdCache.get(number);
+                } else {
+                    name = lookupCallerId(number);
+                    mCallerIdCache.put(number, name);
+                    lookups++;
                 }
                 if (DBG && name == null) {
                     log("Caller ID lookup failed for " + number);
@@ -625,6 +644,7 @@ public class AtPhonebook {
             record = record + "\r\n\r\n";
             atCommandResponse = record;
             mNativeInterface.atResponseString(device, atCommandResponse);
+            records++;
             if (!pbr.cursor.moveToNext()) {
                 break;
             }
@@ -633,9 +653,49 @@ public class AtPhonebook {
             pbr.cursor.close();
             pbr.cursor = null;
         }
+        log("processCpbrCommand: " + records + " records from " + mCurrentPhonebook + ", "
+                + lookups + " caller ID lookups in " + (SystemClock.elapsedRealtime() - startTime)
+                + " ms");
         return atCommandResult;
     }
 
+    // Drop caller ID names that may be outdated, and start watching contacts changes
+    private void prepareCallerIdCache() {
+        long now = SystemClock.elapsedRealtime();
+        if (mCallerIdCacheStale || now - mCallerIdCacheTime > CALLER_ID_CACHE_TTL_MS
+                || mCallerIdCache.size() > CALLER_ID_CACHE_MAX_SIZE) {
+            mCallerIdCache.clear();
+            mCallerIdCacheStale = false;
+            mCallerIdCacheTime = now;
+        }
+        if (mContactsObserver == null && mContentResolver != null) {
+            mContactsObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    mCallerIdCacheStale = true;
+                }
+            };
+            mContentResolver.registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true,
+                    mContactsObserver);
+        }
+    }
+
+    private String lookupCallerId(String number) {
+        String name = null;
+        Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(mContentResolver,
+                Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, number),
+                new String[]{
+                        PhoneLookup.DISPLAY_NAME
+                }, null, null, null);
+        if (c != null) {
+            if (c.moveToFirst()) {
+                name = c.getString(0);
+            }
+            c.close();
+        }
+        return name;
+    }
+
     /**
      * Checks if the remote device has premission to read our phone book.
      * If the return value is {@link BluetoothDevice#ACCESS_UNKNOWN}, it means this method has sent
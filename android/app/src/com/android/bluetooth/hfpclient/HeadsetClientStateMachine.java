@@ -78,8 +78,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Scanner;
 import java.util.Set;
@@ -123,6 +125,8 @@ public class HeadsetClientStateMachine extends StateMachine {
     static final int SUBSCRIBER_INFO = 52;
     @VisibleForTesting
     static final int CONNECTING_TIMEOUT = 53;
+    @VisibleForTesting
+    static final int QUERY_CURRENT_CALLS_TIMEOUT = 54;
 
     // special action to handle terminating specific call from multiparty call
     static final int TERMINATE_SPECIFIC_CALL = 53;
@@ -138,6 +142,11 @@ public class HeadsetClientStateMachine extends StateMachine {
     static final int HF_ORIGINATED_CALL_ID = -1;
     private static final long OUTGOING_TIMEOUT_MILLI = 10 * 1000; // 10 seconds
     private static final long QUERY_CURRENT_CALLS_WAIT_MILLIS = 2 * 1000; // 2 seconds
+    // Polling backs off up to this interval while the AG reports the same calls.
+    private static final long QUERY_CURRENT_CALLS_MAX_WAIT_MILLIS = 16 * 1000; // 16 seconds
+    // An AT+CLCC without a final result after this long is given up, so polling goes on.
+    @VisibleForTesting
+    static final long QUERY_CURRENT_CALLS_TIMEOUT_MILLIS = 5 * 1000; // 5 seconds
 
     // Keep track of audio routing across all devices.
     private static boolean sAudioIsRouted = false;
@@ -160,6 +169,16 @@ public class HeadsetClientStateMachine extends StateMachine {
     // which is eventually used to inform the telephony stack of any changes to call on HF.
     private final Hashtable<Integer, HfpClientCall> mCallsUpdate = new Hashtable<>();
 
+    // Number of consecutive AT+CLCC responses that did not change any call, reset by call
+    // indicators from the AG.
+    @VisibleForTesting
+    int mClccStableQueries = 0;
+    // Set when a query was requested while another AT+CLCC was still in flight.
+    private boolean mClccQueryDeferred = false;
+    private long mClccQueriesExecuted = 0;
+    private long mClccQueriesSuppressed = 0;
+    private long mClccUnchangedSnapshots = 0;
+
     private int mIndicatorNetworkState;
     private int mIndicatorNetworkType;
     private int mIndicatorNetworkSignal;
@@ -244,6 +263,10 @@ public class HeadsetClientStateMachine extends StateMachine {
         ProfileService.println(sb, "  mAudioPolicyRemoteSupported: " + mAudioPolicyRemoteSupported);
         ProfileService.println(sb, "  mHsClientAudioPolicy: " + mHsClientAudioPolicy);
         ProfileService.println(sb, "  mInBandRing: " + mInBandRing);
+        ProfileService.println(sb, "  mClccQueriesExecuted: " + mClccQueriesExecuted);
+        ProfileService.println(sb, "  mClccQueriesSuppressed: " + mClccQueriesSuppressed);
+        ProfileService.println(sb, "  mClccUnchangedSnapshots: " + mClccUnchangedSnapshots);
+        ProfileService.println(sb, "  mClccStableQueries: " + mClccStableQueries);
 
         ProfileService.println(sb, "  mCalls:");
         if (mCalls != null) {
@@ -338,6 +361,8 @@ public class HeadsetClientStateMachine extends StateMachine {
                 return "SUBSCRIBER_INFO";
             case CONNECTING_TIMEOUT:
                 return "CONNECTING_TIMEOUT";
+            case QUERY_CURRENT_CALLS_TIMEOUT:
+                return "QUERY_CURRENT_CALLS_TIMEOUT";
             default:
                 return "UNKNOWN(" + what + ")";
         }
@@ -419,13 +444,117 @@ public class HeadsetClientStateMachine extends StateMachine {
     private boolean queryCallsStart() {
         logD("queryCallsStart");
         clearPendingAction();
-        mNativeInterface.queryCurrentCalls(mCurrentDevice);
+        if (!mNativeInterface.queryCurrentCalls(mCurrentDevice)) {
+            // No result will come for it, don't wait for one
+            Log.e(TAG, "queryCallsStart: failed to send AT+CLCC");
+            return false;
+        }
         addQueuedAction(QUERY_CURRENT_CALLS, 0);
+        sendMessageDelayed(QUERY_CURRENT_CALLS_TIMEOUT, QUERY_CURRENT_CALLS_TIMEOUT_MILLIS);
+        mClccQueriesExecuted++;
         return true;
     }
 
+    /** Stops waiting for the result of an AT+CLCC that got lost. */
+    private void queryCallsTimeout() {
+        Log.w(TAG, "queryCallsTimeout: no result for AT+CLCC");
+        Iterator<Pair<Integer, Object>> actions = mQueuedActions.iterator();
+        while (actions.hasNext()) {
+            if (actions.next().first == QUERY_CURRENT_CALLS) {
+                actions.remove();
+                break;
+            }
+        }
+        mCallsUpdate.clear();
+        if (mClccQueryDeferred) {
+            mClccQueryDeferred = false;
+            sendMessage(QUERY_CURRENT_CALLS);
+        }
+    }
+
+    private boolean isQueryCallsInFlight() {
+        for (Pair<Integer, Object> action : mQueuedActions) {
+            if (action.first == QUERY_CURRENT_CALLS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the calls received in the last AT+CLCC response are the calls we already
+     * know about, in which case nothing has to be reported to the upper layers.
+     */
+    private boolean isCallsUpdateUnchanged() {
+        if (mCalls.containsKey(HF_ORIGINATED_CALL_ID) || mCalls.size() != mCallsUpdate.size()) {
+            return false;
+        }
+        for (Map.Entry<Integer, HfpClientCall> entry : mCallsUpdate.entrySet()) {
+            HfpClientCall cOrig = mCalls.get(entry.getKey());
+            HfpClientCall cUpdate = entry.getValue();
+            if (cOrig == null
+                    || !cOrig.getNumber().equals(cUpdate.getNumber())
+                    || cOrig.getState() != cUpdate.getState()
+                    || cOrig.isMultiParty() != cUpdate.isMultiParty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the delay before the next AT+CLCC poll. The delay doubles for each response that
+     * did not change any call, up to QUERY_CURRENT_CALLS_MAX_WAIT_MILLIS, since call changes are
+     * also signalled by indicators which trigger an immediate query.
+     */
+    @VisibleForTesting
+    long getQueryCallsDelayMillis(long baseMillis) {
+        if (mCalls.containsKey(HF_ORIGINATED_CALL_ID)) {
+            // The outgoing call must be associated before OUTGOING_TIMEOUT_MILLI.
+            return baseMillis;
+        }
+        long delayMillis = baseMillis;
+        for (int i = 0; i < mClccStableQueries && delayMillis < QUERY_CURRENT_CALLS_MAX_WAIT_MILLIS;
+                i++) {
+            delayMillis *= 2;
+        }
+        return Math.max(baseMillis, Math.min(delayMillis, QUERY_CURRENT_CALLS_MAX_WAIT_MILLIS));
+    }
+
+    private void scheduleNextQueryCalls(boolean changed) {
+        mClccStableQueries = changed ? 0 : mClccStableQueries + 1;
+        if (mCalls.size() > 0) {
+            // Continue polling even if not enabled until the new outgoing call is associated with
+            // a valid call on the phone. The polling would at most continue until
+            // OUTGOING_TIMEOUT_MILLI. This handles the potential scenario where the phone creates
+            // and terminates a call before the first QUERY_CURRENT_CALLS completes.
+            if (mClccPollDuringCall
+                    || (mCalls.containsKey(HF_ORIGINATED_CALL_ID))) {
+                sendMessageDelayed(QUERY_CURRENT_CALLS,
+                        getQueryCallsDelayMillis(mService.getResources().getInteger(
+                        R.integer.hfp_clcc_poll_interval_during_call)));
+            } else {
+                if (getCall(HfpClientCall.CALL_STATE_INCOMING) != null) {
+                    logD("Still have incoming call; polling");
+                    sendMessageDelayed(QUERY_CURRENT_CALLS,
+                            getQueryCallsDelayMillis(QUERY_CURRENT_CALLS_WAIT_MILLIS));
+                } else {
+                    removeMessages(QUERY_CURRENT_CALLS);
+                }
+            }
+        }
+    }
+
     private void queryCallsDone() {
         logD("queryCallsDone");
+        if (isCallsUpdateUnchanged()) {
+            logD("queryCallsDone: calls unchanged");
+            mClccUnchangedSnapshots++;
+            mCallsUpdate.clear();
+            scheduleNextQueryCalls(false);
+            return;
+        }
+
         // mCalls has two types of calls:
         // (a) Calls that are received from AG of a previous iteration of queryCallsStart()
         // (b) Calls that are outgoing initiated from HF
@@ -548,25 +677,7 @@ public class HeadsetClientStateMachine extends StateMachine {
             }
         }
 
-        if (mCalls.size() > 0) {
-            // Continue polling even if not enabled until the new outgoing call is associated with
-            // a valid call on the phone. The polling would at most continue until
-            // OUTGOING_TIMEOUT_MILLI. This handles the potential scenario where the phone creates
-            // and terminates a call before the first QUERY_CURRENT_CALLS completes.
-            if (mClccPollDuringCall
-                    || (mCalls.containsKey(HF_ORIGINATED_CALL_ID))) {
-                sendMessageDelayed(QUERY_CURRENT_CALLS,
-                        mService.getResources().getInteger(
-                        R.integer.hfp_clcc_poll_interval_during_call));
-            } else {
-                if (getCall(HfpClientCall.CALL_STATE_INCOMING) != null) {
-                    logD("Still have incoming call; polling");
-                    sendMessageDelayed(QUERY_CURRENT_CALLS, QUERY_CURRENT_CALLS_WAIT_MILLIS);
-                } else {
-                    removeMessages(QUERY_CURRENT_CALLS);
-                }
-            }
-        }
+        scheduleNextQueryCalls(true);
 
         mCallsUpdate.clear();
     }
@@ -1030,6 +1141,9 @@ public class HeadsetClientStateMachine extends StateMachine {
 
             mCalls.clear();
             mCallsUpdate.clear();
+            mClccStableQueries = 0;
+            mClccQueryDeferred = false;
+            removeMessages(QUERY_CURRENT_CALLS_TIMEOUT);
 
             mPeerFeatures = 0;
             mChldFeatures = 0;
@@ -1519,6 +1633,14 @@ public class HeadsetClientStateMachine extends StateMachine {
                     }
                     break;
                 case QUERY_CURRENT_CALLS:
+                    if (isQueryCallsInFlight()) {
+                        // Several indicators usually arrive for one call change, query once
+                        // more when the pending response is complete.
+                        logD("QUERY_CURRENT_CALLS already in flight, deferring");
+                        mClccQueryDeferred = true;
+                        mClccQueriesSuppressed++;
+                        break;
+                    }
                     removeMessages(QUERY_CURRENT_CALLS);
                     if (DBG) {
                         Log.d(TAG, "mClccPollDuringCall=" + mClccPollDuringCall);
@@ -1527,14 +1649,17 @@ public class HeadsetClientStateMachine extends StateMachine {
                     if (mCalls.size() > 1
                             && mClccPollDuringCall) {
                         sendMessageDelayed(QUERY_CURRENT_CALLS,
-                                mService.getResources().getInteger(
-                                R.integer.hfp_clcc_poll_interval_during_call));
+                                getQueryCallsDelayMillis(mService.getResources().getInteger(
+                                R.integer.hfp_clcc_poll_interval_during_call)));
                     } else if (mCalls.size() > 0) {
                         sendMessageDelayed(QUERY_CURRENT_CALLS,
-                                QUERY_CURRENT_CALLS_WAIT_MILLIS);
+                                getQueryCallsDelayMillis(QUERY_CURRENT_CALLS_WAIT_MILLIS));
                     }
                     queryCallsStart();
                     break;
+                case QUERY_CURRENT_CALLS_TIMEOUT:
+                    queryCallsTimeout();
+                    break;
                 case StackEvent.STACK_EVENT:
                     Intent intent = null;
                     StackEvent event = (StackEvent) message.obj;
@@ -1635,6 +1760,8 @@ public class HeadsetClientStateMachine extends StateMachine {
                         case StackEvent.EVENT_TYPE_RESP_AND_HOLD:
                         case StackEvent.EVENT_TYPE_CLIP:
                         case StackEvent.EVENT_TYPE_CALL_WAITING:
+                            // The AG signalled a call change, poll at the base interval again.
+                            mClccStableQueries = 0;
                             sendMessage(QUERY_CURRENT_CALLS);
                             break;
                         case StackEvent.EVENT_TYPE_CURRENT_CALLS:
@@ -1672,7 +1799,12 @@ public class HeadsetClientStateMachine extends StateMachine {
 
                             switch (queuedAction.first) {
                                 case QUERY_CURRENT_CALLS:
+                                    removeMessages(QUERY_CURRENT_CALLS_TIMEOUT);
                                     queryCallsDone();
+                                    if (mClccQueryDeferred) {
+                                        mClccQueryDeferred = false;
+                                        sendMessage(QUERY_CURRENT_CALLS);
+                                    }
                                     break;
                                 case VOICE_RECOGNITION_START:
                                     if (event.valueInt == AT_OK) {
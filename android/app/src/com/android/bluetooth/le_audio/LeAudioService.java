@@ -87,6 +87,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Provides Bluetooth LeAudio profile, as a service in the Bluetooth application.
@@ -184,7 +185,8 @@ public class LeAudioService extends ProfileService {
     }
 
     private static class LeAudioDeviceDescriptor {
-        LeAudioDeviceDescriptor(boolean isInbandRingtonEnabled) {
+        LeAudioDeviceDescriptor(boolean isInbandRingtonEnabled, long sequence) {
+            mSequence = sequence;
             mStateMachine = null;
             mGroupId = LE_AUDIO_GROUP_ID_INVALID;
             mSinkAudioLocation = BluetoothLeAudio.AUDIO_LOCATION_INVALID;
@@ -192,6 +194,8 @@ public class LeAudioService extends ProfileService {
             mDevInbandRingtoneEnabled = isInbandRingtonEnabled;
         }
 
+        /* Creation order, used to keep group members in mDeviceDescriptors order */
+        final long mSequence;
         public LeAudioStateMachine mStateMachine;
         public Integer mGroupId;
         public Integer mSinkAudioLocation;
@@ -206,6 +210,15 @@ public class LeAudioService extends ProfileService {
     private final Map<Integer, LeAudioGroupDescriptor> mGroupDescriptors = new LinkedHashMap<>();
     private final Map<BluetoothDevice, LeAudioDeviceDescriptor> mDeviceDescriptors =
             new LinkedHashMap<>();
+    @GuardedBy("mGroupLock")
+    private long mDeviceDescriptorSequence = 0;
+
+    /*
+     * Group membership index, updated together with mDeviceDescriptors under mGroupLock.
+     * Member lists are immutable and replaced on every change, so readers don't take mGroupLock.
+     */
+    private final Map<Integer, List<BluetoothDevice>> mGroupMembers = new ConcurrentHashMap<>();
+    private final Map<BluetoothDevice, Integer> mDeviceGroupIds = new ConcurrentHashMap<>();
 
     private BroadcastReceiver mBondStateChangedReceiver;
     private Handler mHandler = new Handler(Looper.getMainLooper());
@@ -280,6 +293,8 @@ public class LeAudioService extends ProfileService {
         synchronized (mGroupLock) {
             mDeviceDescriptors.clear();
             mGroupDescriptors.clear();
+            mGroupMembers.clear();
+            mDeviceGroupIds.clear();
         }
 
         // Setup broadcast receivers
@@ -390,6 +405,8 @@ public class LeAudioService extends ProfileService {
 
             mDeviceDescriptors.clear();
             mGroupDescriptors.clear();
+            mGroupMembers.clear();
+            mDeviceGroupIds.clear();
         }
 
         // Cleanup native interfaces
@@ -500,7 +517,8 @@ public class LeAudioService extends ProfileService {
                 return null;
             }
 
-            mDeviceDescriptors.put(device, new LeAudioDeviceDescriptor(isInbandRingtoneEnabled));
+            mDeviceDescriptors.put(device, new LeAudioDeviceDescriptor(isInbandRingtoneEnabled,
+                    mDeviceDescriptorSequence++));
             descriptor = mDeviceDescriptors.get(device);
             Log.d(TAG, "Created descriptor for device: " + device);
         } else {
@@ -754,21 +772,15 @@ public class LeAudioService extends ProfileService {
      * @return all devices within a given group or empty list
      */
     public List<BluetoothDevice> getGroupDevices(int groupId) {
-        List<BluetoothDevice> result = new ArrayList<>();
-
         if (groupId == LE_AUDIO_GROUP_ID_INVALID) {
-            return result;
+            return new ArrayList<>();
         }
 
-        synchronized (mGroupLock) {
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry
-                    : mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    result.add(entry.getKey());
-                }
-            }
+        List<BluetoothDevice> members = mGroupMembers.get(groupId);
+        if (members == null) {
+            return new ArrayList<>();
         }
-        return result;
+        return new ArrayList<>(members);
     }
 
     /**
@@ -777,22 +789,62 @@ public class LeAudioService extends ProfileService {
      * @return all devices within a given group or empty list
      */
     public List<BluetoothDevice> getGroupDevices(BluetoothDevice device) {
-        List<BluetoothDevice> result = new ArrayList<>();
-        int groupId = getGroupId(device);
+        if (device == null) {
+            return new ArrayList<>();
+        }
+
+        Integer groupId = mDeviceGroupIds.get(device);
+        if (groupId == null) {
+            return new ArrayList<>();
+        }
+        return getGroupDevices(groupId);
+    }
+
+    /**
+     * Moves the device to the given group, keeping the group membership index in sync.
+     */
+    @GuardedBy("mGroupLock")
+    private void setDeviceGroupId(BluetoothDevice device, LeAudioDeviceDescriptor descriptor,
+            int groupId) {
+        if (descriptor.mGroupId == groupId) {
+            return;
+        }
+
+        if (descriptor.mGroupId != LE_AUDIO_GROUP_ID_INVALID) {
+            List<BluetoothDevice> members = mGroupMembers.get(descriptor.mGroupId);
+            if (members != null) {
+                List<BluetoothDevice> updated = new ArrayList<>(members);
+                updated.remove(device);
+                if (updated.isEmpty()) {
+                    mGroupMembers.remove(descriptor.mGroupId);
+                } else {
+                    mGroupMembers.put(descriptor.mGroupId, Collections.unmodifiableList(updated));
+                }
+            }
+        }
 
+        descriptor.mGroupId = groupId;
         if (groupId == LE_AUDIO_GROUP_ID_INVALID) {
-            return result;
+            mDeviceGroupIds.remove(device);
+            return;
         }
 
-        synchronized (mGroupLock) {
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry
-                    : mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    result.add(entry.getKey());
+        List<BluetoothDevice> members = mGroupMembers.get(groupId);
+        List<BluetoothDevice> updated = new ArrayList<>();
+        int index = 0;
+        if (members != null) {
+            updated.addAll(members);
+            while (index < members.size()) {
+                LeAudioDeviceDescriptor member = mDeviceDescriptors.get(members.get(index));
+                if (member != null && member.mSequence > descriptor.mSequence) {
+                    break;
                 }
+                index++;
             }
         }
-        return result;
+        updated.add(index, device);
+        mGroupMembers.put(groupId, Collections.unmodifiableList(updated));
+        mDeviceGroupIds.put(device, groupId);
     }
 
     /**
@@ -988,9 +1040,14 @@ public class LeAudioService extends ProfileService {
         if (groupId == LE_AUDIO_GROUP_ID_INVALID) {
             return null;
         }
+        List<BluetoothDevice> members = mGroupMembers.get(groupId);
+        if (members == null) {
+            return null;
+        }
         synchronized (mGroupLock) {
-            for (LeAudioDeviceDescriptor descriptor : mDeviceDescriptors.values()) {
-                if (!descriptor.mGroupId.equals(groupId)) {
+            for (BluetoothDevice member : members) {
+                LeAudioDeviceDescriptor descriptor = mDeviceDescriptors.get(member);
+                if (descriptor == null) {
                     continue;
                 }
 
@@ -1494,20 +1551,11 @@ public class LeAudioService extends ProfileService {
             Log.d(TAG, "connect() others from group id: " + descriptor.mGroupId);
         }
 
-        Integer setGroupId = descriptor.mGroupId;
-
-        for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry
-                : mDeviceDescriptors.entrySet()) {
-            BluetoothDevice storedDevice = entry.getKey();
-            descriptor = entry.getValue();
+        for (BluetoothDevice storedDevice : getGroupDevices(descriptor.mGroupId)) {
             if (device.equals(storedDevice)) {
                 continue;
             }
 
-            if (!descriptor.mGroupId.equals(setGroupId)) {
-                continue;
-            }
-
             if (DBG) {
                 Log.d(TAG, "connect(): " + storedDevice);
             }
@@ -1675,11 +1723,9 @@ public class LeAudioService extends ProfileService {
                 return;
             }
 
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry :
-                                                    mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    BluetoothDevice device = entry.getKey();
-                    LeAudioDeviceDescriptor deviceDescriptor = entry.getValue();
+            for (BluetoothDevice device : getGroupDevices(groupId)) {
+                LeAudioDeviceDescriptor deviceDescriptor = mDeviceDescriptors.get(device);
+                if (deviceDescriptor != null) {
                     Log.i(TAG, "updateInbandRingtoneForTheGroup, setting inband ringtone to: "
                                 + groupDescriptor.mInbandRingtoneEnabled + " for " + device
                                 + " " + deviceDescriptor.mDevInbandRingtoneEnabled);
@@ -2143,7 +2189,7 @@ public class LeAudioService extends ProfileService {
                 mLeAudioNativeInterface.groupRemoveNode(descriptor.mGroupId, device);
             }
 
-            descriptor.mGroupId = LE_AUDIO_GROUP_ID_INVALID;
+            setDeviceGroupId(device, descriptor, LE_AUDIO_GROUP_ID_INVALID);
             descriptor.mSinkAudioLocation = BluetoothLeAudio.AUDIO_LOCATION_INVALID;
             descriptor.mDirection = AUDIO_DIRECTION_NONE;
 
@@ -2179,6 +2225,7 @@ public class LeAudioService extends ProfileService {
             sm.cleanup();
             descriptor.mStateMachine = null;
 
+            setDeviceGroupId(device, descriptor, LE_AUDIO_GROUP_ID_INVALID);
             mDeviceDescriptors.remove(device);
             if (!isScannerNeeded()) {
                 stopAudioServersBackgroundScan();
@@ -2672,7 +2719,7 @@ public class LeAudioService extends ProfileService {
                     return;
                 }
             }
-            deviceDescriptor.mGroupId = groupId;
+            setDeviceGroupId(device, deviceDescriptor, groupId);
 
             notifyGroupNodeAdded(device, groupId);
         }
@@ -2727,18 +2774,9 @@ public class LeAudioService extends ProfileService {
                 Log.e(TAG, "handleGroupNodeRemoved: No valid descriptor for device: " + device);
                 return;
             }
-            deviceDescriptor.mGroupId = LE_AUDIO_GROUP_ID_INVALID;
-
-            boolean isGroupEmpty = true;
-
-            for (LeAudioDeviceDescriptor descriptor : mDeviceDescriptors.values()) {
-                if (descriptor.mGroupId == groupId) {
-                    isGroupEmpty = false;
-                    break;
-                }
-            }
+            setDeviceGroupId(device, deviceDescriptor, LE_AUDIO_GROUP_ID_INVALID);
 
-            if (isGroupEmpty) {
+            if (!mGroupMembers.containsKey(groupId)) {
                 /* Device is currently an active device. Group needs to be inactivated before
                  * removing
                  */
@@ -3746,8 +3784,9 @@ public class LeAudioService extends ProfileService {
         ProfileService.println(sb, "  mLeAudioIsInbandRingtoneSupported:"
                                 + mLeAudioInbandRingtoneSupportedByPlatform);
 
-        int numberOfUngroupedDevs = 0;
+        int numberOfUngroupedDevs;
         synchronized (mGroupLock) {
+            numberOfUngroupedDevs = mDeviceDescriptors.size() - mDeviceGroupIds.size();
             for (Map.Entry<Integer, LeAudioGroupDescriptor> groupEntry
                                                 : mGroupDescriptors.entrySet()) {
                 LeAudioGroupDescriptor groupDescriptor = groupEntry.getValue();
@@ -3764,13 +3803,10 @@ public class LeAudioService extends ProfileService {
                 ProfileService.println(sb, "  mInbandRingtoneEnabled: "
                         + groupDescriptor.mInbandRingtoneEnabled);
 
-                for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> deviceEntry
-                        : mDeviceDescriptors.entrySet()) {
-                    LeAudioDeviceDescriptor deviceDescriptor = deviceEntry.getValue();
-                    if (deviceDescriptor.mGroupId != groupId) {
-                        if (deviceDescriptor.mGroupId == LE_AUDIO_GROUP_ID_INVALID) {
-                            numberOfUngroupedDevs++;
-                        }
+                for (BluetoothDevice member
+                        : mGroupMembers.getOrDefault(groupId, Collections.emptyList())) {
+                    LeAudioDeviceDescriptor deviceDescriptor = mDeviceDescriptors.get(member);
+                    if (deviceDescriptor == null) {
                         continue;
                     }
 
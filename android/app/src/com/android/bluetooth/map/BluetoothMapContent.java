@@ -56,6 +56,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -541,20 +542,12 @@ public class BluetoothMapContent {
 
     private void setRead(BluetoothMapMessageListingElement e, Cursor c, FilterInfo fi,
             BluetoothMapAppParams ap) {
-        int read = 0;
-        if (fi.mMsgType == FilterInfo.TYPE_SMS) {
-            read = c.getInt(fi.mSmsColRead);
-        } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
-            read = c.getInt(fi.mMmsColRead);
-        } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL || fi.mMsgType == FilterInfo.TYPE_IM) {
-            read = c.getInt(fi.mMessageColRead);
-        }
-        String setread = null;
+        boolean read = isRead(c, fi);
 
         if (V) {
-            Log.d(TAG, "setRead: " + setread);
+            Log.d(TAG, "setRead: " + read);
         }
-        e.setRead((read == 1), ((ap.getParameterMask() & MASK_READ) != 0));
+        e.setRead(read, ((ap.getParameterMask() & MASK_READ) != 0));
     }
 
     private void setPriority(BluetoothMapMessageListingElement e, Cursor c, FilterInfo fi,
@@ -1194,25 +1187,29 @@ public class BluetoothMapContent {
     void setDateTime(BluetoothMapMessageListingElement e, Cursor c, FilterInfo fi,
             BluetoothMapAppParams ap) {
         if ((ap.getParameterMask() & MASK_DATETIME) != 0) {
-            long date = 0;
-            if (fi.mMsgType == FilterInfo.TYPE_SMS) {
-                date = c.getLong(fi.mSmsColDate);
-            } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
-                /* Use Mms.DATE for all messages. Although contract class states */
-                /* Mms.DATE_SENT are for outgoing messages. But that is not working. */
-                date = c.getLong(fi.mMmsColDate) * 1000L;
-
-                /* int msgBox = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX)); */
-                /* if (msgBox == Mms.MESSAGE_BOX_INBOX) { */
-                /*     date = c.getLong(c.getColumnIndex(Mms.DATE)) * 1000L; */
-                /* } else { */
-                /*     date = c.getLong(c.getColumnIndex(Mms.DATE_SENT)) * 1000L; */
-                /* } */
-            } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL || fi.mMsgType == FilterInfo.TYPE_IM) {
-                date = c.getLong(fi.mMessageColDate);
-            }
-            e.setDateTime(date);
+            e.setDateTime(getDateTime(c, fi));
+        }
+    }
+
+    private static long getDateTime(Cursor c, FilterInfo fi) {
+        long date = 0;
+        if (fi.mMsgType == FilterInfo.TYPE_SMS) {
+            date = c.getLong(fi.mSmsColDate);
+        } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
+            /* Use Mms.DATE for all messages. Although contract class states */
+            /* Mms.DATE_SENT are for outgoing messages. But that is not working. */
+            date = c.getLong(fi.mMmsColDate) * 1000L;
+
+            /* int msgBox = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX)); */
+            /* if (msgBox == Mms.MESSAGE_BOX_INBOX) { */
+            /*     date = c.getLong(c.getColumnIndex(Mms.DATE)) * 1000L; */
+            /* } else { */
+            /*     date = c.getLong(c.getColumnIndex(Mms.DATE_SENT)) * 1000L; */
+            /* } */
+        } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL || fi.mMsgType == FilterInfo.TYPE_IM) {
+            date = c.getLong(fi.mMessageColDate);
         }
+        return date;
     }
 
     @VisibleForTesting
@@ -2119,6 +2116,67 @@ public class BluetoothMapContent {
         }
     }
 
+    /** A per message type cursor taking part in the message listing merge. */
+    private static final class ListingSource {
+        final Cursor mCursor;
+        final int mMsgType;
+        boolean mHasRow;
+        long mDate;
+
+        ListingSource(Cursor cursor, int msgType) {
+            mCursor = cursor;
+            mMsgType = msgType;
+        }
+    }
+
+    private static void selectListingSource(ListingSource source, FilterInfo fi) {
+        if (fi.mMsgType == source.mMsgType) {
+            return;
+        }
+        fi.mMsgType = source.mMsgType;
+        // Email and IM share the message column indexes
+        if (source.mMsgType == FilterInfo.TYPE_EMAIL) {
+            fi.setEmailMessageColumns(source.mCursor);
+        } else if (source.mMsgType == FilterInfo.TYPE_IM) {
+            fi.setImMessageColumns(source.mCursor);
+        }
+    }
+
+    /* Moves the cursor of a listing source to its next message passing the filters */
+    private void moveToNextListingRow(ListingSource source, FilterInfo fi,
+            BluetoothMapAppParams ap) {
+        source.mHasRow = false;
+        if (source.mCursor == null) {
+            return;
+        }
+        selectListingSource(source, fi);
+        boolean smsMms = source.mMsgType == FilterInfo.TYPE_SMS
+                || source.mMsgType == FilterInfo.TYPE_MMS;
+        while (source.mCursor.moveToNext()) {
+            if (smsMms && !matchAddresses(source.mCursor, fi, ap)) {
+                continue;
+            }
+            if (V) {
+                BluetoothMapUtils.printCursor(source.mCursor);
+            }
+            source.mDate = getDateTime(source.mCursor, fi);
+            source.mHasRow = true;
+            return;
+        }
+    }
+
+    private static boolean isRead(Cursor c, FilterInfo fi) {
+        int read = 0;
+        if (fi.mMsgType == FilterInfo.TYPE_SMS) {
+            read = c.getInt(fi.mSmsColRead);
+        } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
+            read = c.getInt(fi.mMmsColRead);
+        } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL || fi.mMsgType == FilterInfo.TYPE_IM) {
+            read = c.getInt(fi.mMessageColRead);
+        }
+        return read == 1;
+    }
+
     /**
      * Get a listing of message in folder after applying filter.
      * @param folderElement Must contain a valid folder string != null
@@ -2188,21 +2246,11 @@ public class BluetoothMapContent {
                             Sms.CONTENT_URI, SMS_PROJECTION, where, null,
                             Sms.DATE + " DESC" + limit);
                     if (smsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         if (D) {
                             Log.d(TAG, "Found " + smsCursor.getCount() + " sms messages.");
                         }
                         fi.setSmsColumns(smsCursor);
-                        while (smsCursor.moveToNext()) {
-                            if (matchAddresses(smsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(smsCursor);
-                                }
-                                e = element(smsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
                     }
                 }
             }
@@ -2231,21 +2279,11 @@ public class BluetoothMapContent {
                             Mms.CONTENT_URI, MMS_PROJECTION, where, null,
                             Mms.DATE + " DESC" + limit);
                     if (mmsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setMmsColumns(mmsCursor);
                         if (D) {
                             Log.d(TAG, "Found " + mmsCursor.getCount() + " mms messages.");
                         }
-                        while (mmsCursor.moveToNext()) {
-                            if (matchAddresses(mmsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(mmsCursor);
-                                }
-                                e = element(mmsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
                     }
                 }
             }
@@ -2275,20 +2313,11 @@ public class BluetoothMapContent {
                             contentUri, BluetoothMapContract.BT_MESSAGE_PROJECTION, where, null,
                             BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                     if (emailCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setEmailMessageColumns(emailCursor);
                         if (D) {
                             Log.d(TAG, "Found " + emailCursor.getCount() + " email messages.");
                         }
-                        while (emailCursor.moveToNext()) {
-                            if (V) {
-                                BluetoothMapUtils.printCursor(emailCursor);
-                            }
-                            e = element(emailCursor, fi, ap);
-                            bmList.add(e);
-                        }
-                        //   emailCursor.close();
                     }
                 }
             }
@@ -2317,68 +2346,84 @@ public class BluetoothMapContent {
                         contentUri, BluetoothMapContract.BT_INSTANT_MESSAGE_PROJECTION, where, null,
                         BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                 if (imCursor != null) {
-                    BluetoothMapMessageListingElement e = null;
                     // store column index so we dont have to look them up anymore (optimization)
                     fi.setImMessageColumns(imCursor);
                     if (D) {
                         Log.d(TAG, "Found " + imCursor.getCount() + " im messages.");
                     }
-                    while (imCursor.moveToNext()) {
-                        if (V) {
-                            BluetoothMapUtils.printCursor(imCursor);
-                        }
-                        e = element(imCursor, fi, ap);
-                        bmList.add(e);
+                }
+            }
+
+            /* Each cursor is sorted by date, newest first. Merging them yields the listing in
+             * order, so only the messages on the requested page become listing elements. Past the
+             * page, the messages are only checked for being unread. */
+            ListingSource[] sources = new ListingSource[] {
+                    new ListingSource(smsCursor, FilterInfo.TYPE_SMS),
+                    new ListingSource(mmsCursor, FilterInfo.TYPE_MMS),
+                    new ListingSource(emailCursor, FilterInfo.TYPE_EMAIL),
+                    new ListingSource(imCursor, FilterInfo.TYPE_IM)};
+            for (ListingSource source : sources) {
+                moveToNextListingRow(source, fi, ap);
+            }
+            int pageEnd = (ap.getMaxListCount() > 0)
+                    ? offsetNum + ap.getMaxListCount() : Integer.MAX_VALUE;
+            List<ListingSource> elementSources = new ArrayList<>();
+            for (int position = 0; position < pageEnd; position++) {
+                ListingSource newest = null;
+                for (ListingSource source : sources) {
+                    // On equal dates the earlier type wins, as with the former stable sort
+                    if (source.mHasRow && (newest == null || source.mDate > newest.mDate)) {
+                        newest = source;
                     }
                 }
+                if (newest == null) {
+                    break;
+                }
+                selectListingSource(newest, fi);
+                if (position >= offsetNum) {
+                    bmList.add(element(newest.mCursor, fi, ap));
+                    elementSources.add(newest);
+                } else if (!isRead(newest.mCursor, fi)) {
+                    bmList.setHasUnread();
+                }
+                moveToNextListingRow(newest, fi, ap);
+            }
+            // The messages after the page are not listed, but still count for NewMessage
+            for (ListingSource source : sources) {
+                while (source.mHasRow && !bmList.hasUnread()) {
+                    selectListingSource(source, fi);
+                    if (!isRead(source.mCursor, fi)) {
+                        bmList.setHasUnread();
+                    }
+                    moveToNextListingRow(source, fi, ap);
+                }
             }
 
-            /* Enable this if post sorting and segmenting needed */
-            bmList.sort();
-            bmList.segment(ap.getMaxListCount(), offsetNum);
             List<BluetoothMapMessageListingElement> list = bmList.getList();
             int listSize = list.size();
-            Cursor tmpCursor = null;
             for (int x = 0; x < listSize; x++) {
                 BluetoothMapMessageListingElement ele = list.get(x);
-                /* If OBEX "GET" request header includes "ParameterMask" with 'Type' NOT set,
-                 * then ele.getType() returns "null" even for a valid cursor.
-                 * Avoid NullPointerException in equals() check when 'mType' value is "null" */
-                TYPE tmpType = ele.getType();
-                if (smsCursor != null && ((TYPE.SMS_GSM).equals(tmpType) || (TYPE.SMS_CDMA).equals(
-                        tmpType))) {
-                    tmpCursor = smsCursor;
-                    fi.mMsgType = FilterInfo.TYPE_SMS;
-                } else if (mmsCursor != null && (TYPE.MMS).equals(tmpType)) {
-                    tmpCursor = mmsCursor;
-                    fi.mMsgType = FilterInfo.TYPE_MMS;
-                } else if (emailCursor != null && ((TYPE.EMAIL).equals(tmpType))) {
-                    tmpCursor = emailCursor;
-                    fi.mMsgType = FilterInfo.TYPE_EMAIL;
-                } else if (imCursor != null && ((TYPE.IM).equals(tmpType))) {
-                    tmpCursor = imCursor;
-                    fi.mMsgType = FilterInfo.TYPE_IM;
-                }
-                if (tmpCursor != null) {
-                    tmpCursor.moveToPosition(ele.getCursorIndex());
-                    setSenderAddressing(ele, tmpCursor, fi, ap);
-                    setSenderName(ele, tmpCursor, fi, ap);
-                    setRecipientAddressing(ele, tmpCursor, fi, ap);
-                    setRecipientName(ele, tmpCursor, fi, ap);
-                    setSubject(ele, tmpCursor, fi, ap);
-                    setSize(ele, tmpCursor, fi, ap);
-                    setText(ele, tmpCursor, fi, ap);
-                    setPriority(ele, tmpCursor, fi, ap);
-                    setSent(ele, tmpCursor, fi, ap);
-                    setProtected(ele, tmpCursor, fi, ap);
-                    setReceptionStatus(ele, ap);
-                    setAttachment(ele, tmpCursor, fi, ap);
-
-                    if (mMsgListingVersion > BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10) {
-                        setDeliveryStatus(ele, tmpCursor, fi, ap);
-                        setThreadId(ele, tmpCursor, fi, ap);
-                        setThreadName(ele, tmpCursor, fi, ap);
-                    }
+                ListingSource source = elementSources.get(x);
+                Cursor tmpCursor = source.mCursor;
+                selectListingSource(source, fi);
+                tmpCursor.moveToPosition(ele.getCursorIndex());
+                setSenderAddressing(ele, tmpCursor, fi, ap);
+                setSenderName(ele, tmpCursor, fi, ap);
+                setRecipientAddressing(ele, tmpCursor, fi, ap);
+                setRecipientName(ele, tmpCursor, fi, ap);
+                setSubject(ele, tmpCursor, fi, ap);
+                setSize(ele, tmpCursor, fi, ap);
+                setText(ele, tmpCursor, fi, ap);
+                setPriority(ele, tmpCursor, fi, ap);
+                setSent(ele, tmpCursor, fi, ap);
+                setProtected(ele, tmpCursor, fi, ap);
+                setReceptionStatus(ele, ap);
+                setAttachment(ele, tmpCursor, fi, ap);
+
+                if (mMsgListingVersion > BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10) {
+                    setDeliveryStatus(ele, tmpCursor, fi, ap);
+                    setThreadId(ele, tmpCursor, fi, ap);
+                    setThreadName(ele, tmpCursor, fi, ap);
                 }
             }
         } finally {
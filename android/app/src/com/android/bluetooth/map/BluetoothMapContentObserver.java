@@ -741,6 +741,23 @@ public class BluetoothMapContentObserver {
             }
         }
 
+        /**
+         * Returns the key under which a queued report of this event may be replaced by a newer
+         * one, or null if every report must be sent. Only events that just tell the remote to
+         * refresh the state of a message or participant are merged.
+         */
+        String getCoalesceKey() {
+            if (Objects.equals(eventType, EVENT_TYPE_READ_STATUS)) {
+                return eventType + ":" + handle + ":" + msgType;
+            }
+            if (Objects.equals(eventType, EVENT_TYPE_CONVERSATION)
+                    || Objects.equals(eventType, EVENT_TYPE_PRESENCE)
+                    || Objects.equals(eventType, EVENT_TYPE_CHAT_STATE)) {
+                return eventType + ":" + uci + ":" + conversationID;
+            }
+            return null;
+        }
+
         public byte[] encode() throws UnsupportedEncodingException {
             StringWriter sw = new StringWriter();
             XmlSerializer xmlEvtReport = Xml.newSerializer();
@@ -1255,7 +1272,7 @@ public class BluetoothMapContentObserver {
         }
 
         try {
-            mMnsClient.sendEvent(evt.encode(), mMasId);
+            mMnsClient.sendEvent(evt.encode(), mMasId, evt.getCoalesceKey());
         } catch (UnsupportedEncodingException ex) {
             /* do nothing */
             if (D) {
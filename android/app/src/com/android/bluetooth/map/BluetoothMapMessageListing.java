@@ -22,8 +22,9 @@ import com.android.bluetooth.Utils;
 
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -48,6 +49,14 @@ public class BluetoothMapMessageListing {
         }
     }
 
+    /**
+     * Marks the listing as containing unread messages, used for messages that matched the filter
+     * but are outside of the requested page.
+     */
+    public void setHasUnread() {
+        mHasUnread = true;
+    }
+
     /**
      * Used to fetch the number of BluetoothMapMessageListingElement elements in the list.
      * @return the number of elements in the list.
@@ -90,7 +99,26 @@ public class BluetoothMapMessageListing {
     // TODO: Remove includeThreadId when MAP-IM is adopted
     public byte[] encode(boolean includeThreadId, String version)
             throws UnsupportedEncodingException {
-        StringWriter sw = new StringWriter();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            encode(out, includeThreadId, version);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode the list of BluetoothMapMessageListingElement(s) as UTF-8 formatted XML directly
+     * into a stream, so a large listing never has to be held in memory as a whole.
+     *
+     * @param out the stream to write to, it is flushed but not closed.
+     * @param version the version as a string, see {@link #encode(boolean, String)}.
+     * @throws IOException if writing to {@code out} failed.
+     */
+    // TODO: Remove includeThreadId when MAP-IM is adopted
+    public void encode(OutputStream out, boolean includeThreadId, String version)
+            throws IOException {
         boolean isBenzCarkit;
 
         if (Utils.isInstrumentationTestMode()) {
@@ -100,9 +128,20 @@ public class BluetoothMapMessageListing {
                     BluetoothMapService.getRemoteDevice().getAddress(),
                     DeviceWorkArounds.MERCEDES_BENZ_CARKIT);
         }
+        /* Fix IOT issue to replace '&amp;' by '&', &lt; by < and '&gt; by '>' in MessageListing */
+        if (!Utils.isInstrumentationTestMode() && DeviceWorkArounds.addressStartsWith(
+                BluetoothMapService.getRemoteDevice().getAddress(),
+                DeviceWorkArounds.BREZZA_ZDI_CARKIT)) {
+            // Same order as chained String replacements: '&amp;' is replaced first
+            out = new BluetoothMapReplacingOutputStream(
+                    new BluetoothMapReplacingOutputStream(
+                            new BluetoothMapReplacingOutputStream(out, "&gt;", ">"),
+                            "&lt;", "<"),
+                    "&amp;", "&");
+        }
         try {
             XmlSerializer xmlMsgElement = Xml.newSerializer();
-            xmlMsgElement.setOutput(sw);
+            xmlMsgElement.setOutput(out, "UTF-8");
             if (isBenzCarkit) {
                 Log.d(TAG, "java_interop: Remote is Mercedes Benz, "
                         + "using Xml Workaround.");
@@ -124,20 +163,8 @@ public class BluetoothMapMessageListing {
             Log.w(TAG, e);
         } catch (IllegalStateException e) {
             Log.w(TAG, e);
-        } catch (IOException e) {
-            Log.w(TAG, e);
-        }
-        /* Fix IOT issue to replace '&amp;' by '&', &lt; by < and '&gt; by '>' in MessageListing */
-        if (!Utils.isInstrumentationTestMode() && DeviceWorkArounds.addressStartsWith(
-                BluetoothMapService.getRemoteDevice().getAddress(),
-                DeviceWorkArounds.BREZZA_ZDI_CARKIT)) {
-            return sw.toString()
-                    .replaceAll("&amp;", "&")
-                    .replaceAll("&lt;", "<")
-                    .replaceAll("&gt;", ">")
-                    .getBytes("UTF-8");
         }
-        return sw.toString().getBytes("UTF-8");
+        out.flush();
     }
 
     public void sort() {
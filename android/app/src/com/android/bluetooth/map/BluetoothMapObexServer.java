@@ -39,6 +39,7 @@ import com.android.obex.Operation;
 import com.android.obex.ResponseCodes;
 import com.android.obex.ServerRequestHandler;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -1139,12 +1140,12 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
     private int sendMessageListingRsp(Operation op, BluetoothMapAppParams appParams,
             String folderName) {
         OutputStream outStream = null;
-        byte[] outBytes = null;
-        int maxChunkSize, bytesToWrite, bytesWritten = 0, listSize;
+        int maxChunkSize, listSize;
         boolean hasUnread = false;
         HeaderSet replyHeaders = new HeaderSet();
         BluetoothMapAppParams outAppParams = new BluetoothMapAppParams();
-        BluetoothMapMessageListing outList;
+        BluetoothMapMessageListing outList = null;
+        String version = null;
         if (appParams == null) {
             appParams = new BluetoothMapAppParams();
             appParams.setMaxListCount(1024);
@@ -1193,16 +1194,12 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                 outList = mOutContent.msgListing(folderToList, appParams);
                 // Generate the byte stream
                 outAppParams.setMessageListingSize(outList.getCount());
-                String version;
                 if (0 < (mRemoteFeatureMask
                         & BluetoothMapUtils.MAP_FEATURE_MESSAGE_LISTING_FORMAT_V11_BIT)) {
                     version = BluetoothMapUtils.MAP_V11_STR;
                 } else {
                     version = BluetoothMapUtils.MAP_V10_STR;
                 }
-                /* This will only set the version, the bit must also be checked before adding any
-                 * 1.1 bits to the listing. */
-                outBytes = outList.encode(mThreadIdSupport, version);
                 hasUnread = outList.hasUnread();
             } else {
                 listSize = mOutContent.msgListingSize(folderToList, appParams);
@@ -1265,13 +1262,15 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         }
 
         maxChunkSize = op.getMaxPacketSize(); // This must be called after setting the headers.
-        if (outBytes != null) {
+        if (outList != null) {
+            boolean complete = false;
             try {
-                while (bytesWritten < outBytes.length && !mIsAborted) {
-                    bytesToWrite = Math.min(maxChunkSize, outBytes.length - bytesWritten);
-                    outStream.write(outBytes, bytesWritten, bytesToWrite);
-                    bytesWritten += bytesToWrite;
-                }
+                /* The listing is encoded straight into the body stream in packet sized writes.
+                 * This will only set the version, the bit must also be checked before adding any
+                 * 1.1 bits to the listing. */
+                outList.encode(new AbortableOutputStream(outStream, maxChunkSize),
+                        mThreadIdSupport, version);
+                complete = true;
             } catch (IOException e) {
                 if (D) {
                     Log.w(TAG, e);
@@ -1286,8 +1285,8 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                     }
                 }
             }
-            if (bytesWritten != outBytes.length && !mIsAborted) {
-                Log.w(TAG, "sendMessageListingRsp: bytesWritten != outBytes.length"
+            if (!complete && !mIsAborted) {
+                Log.w(TAG, "sendMessageListingRsp: listing not completely sent"
                         + " - sending OBEX_HTTP_BAD_REQUEST");
                 return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
             }
@@ -1358,12 +1357,12 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
      */
     private int sendConvoListingRsp(Operation op, BluetoothMapAppParams appParams) {
         OutputStream outStream = null;
-        byte[] outBytes = null;
-        int maxChunkSize, bytesToWrite, bytesWritten = 0;
+        int maxChunkSize;
         //boolean hasUnread = false;
         HeaderSet replyHeaders = new HeaderSet();
         BluetoothMapAppParams outAppParams = new BluetoothMapAppParams();
-        BluetoothMapConvoListing outList;
+        BluetoothMapConvoListing outList = null;
+        boolean sendBody = false;
         if (appParams == null) {
             appParams = new BluetoothMapAppParams();
             appParams.setMaxListCount(1024);
@@ -1386,11 +1385,7 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
             if (appParams.getMaxListCount() != 0) {
                 outList = mOutContent.convoListing(appParams, false);
                 outAppParams.setConvoListingSize(outList.getCount());
-                // Generate the byte stream
-                outBytes = outList.encode(); // Include thread ID for clients that supports it.
-                if (D) {
-                    Log.d(TAG, "outBytes size:" + outBytes.length);
-                }
+                sendBody = true;
             } else {
                 outList = mOutContent.convoListing(appParams, true);
                 outAppParams.setConvoListingSize(outList.getCount());
@@ -1413,7 +1408,9 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                 Log.d(TAG, "outList size:" + outList.getCount() + " MaxListCount: "
                         + appParams.getMaxListCount());
             }
-            outList = null; // We don't need it anymore - we might as well give it up for GC
+            if (!sendBody) {
+                outList = null; // We don't need it anymore - we might as well give it up for GC
+            }
             outAppParams.setDatabaseIdentifier(0, mMasInstance.getDbIdentifier());
 
             // Build the application parameter header
@@ -1455,13 +1452,12 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         }
 
         maxChunkSize = op.getMaxPacketSize(); // This must be called after setting the headers.
-        if (outBytes != null) {
+        if (outList != null) {
+            boolean complete = false;
             try {
-                while (bytesWritten < outBytes.length && !mIsAborted) {
-                    bytesToWrite = Math.min(maxChunkSize, outBytes.length - bytesWritten);
-                    outStream.write(outBytes, bytesWritten, bytesToWrite);
-                    bytesWritten += bytesToWrite;
-                }
+                // Generate the byte stream straight into the body stream
+                outList.encode(new AbortableOutputStream(outStream, maxChunkSize));
+                complete = true;
             } catch (IOException e) {
                 if (D) {
                     Log.w(TAG, e);
@@ -1476,8 +1472,8 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                     }
                 }
             }
-            if (bytesWritten != outBytes.length && !mIsAborted) {
-                Log.w(TAG, "sendConvoListingRsp: bytesWritten != outBytes.length"
+            if (!complete && !mIsAborted) {
+                Log.w(TAG, "sendConvoListingRsp: listing not completely sent"
                         + " - sending OBEX_HTTP_BAD_REQUEST");
                 return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
             }
@@ -1901,4 +1897,29 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
     private static void logHeader(HeaderSet hs) {
         Log.v(TAG, hs.dump());
     }
+
+    /* Collects body data into packet sized writes and fails them once the peer aborted */
+    private class AbortableOutputStream extends BufferedOutputStream {
+        AbortableOutputStream(OutputStream out, int packetSize) {
+            super(out, packetSize);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            checkAborted();
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            checkAborted();
+            super.write(b, off, len);
+        }
+
+        private void checkAborted() throws IOException {
+            if (mIsAborted) {
+                throw new IOException("Operation aborted by the peer");
+            }
+        }
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Replaces every occurrence of a byte sequence with another one while writing, with the same
+ * result as {@link String#replace} on the whole content.
+ *
+ * <p>Used to apply carkit workarounds to XML listings while they are streamed. The pattern must
+ * not contain its first byte a second time, which holds for XML entities such as "&amp;amp;".
+ * A partial match at the end of the content is written out on {@link #flush()}.
+ */
+class BluetoothMapReplacingOutputStream extends FilterOutputStream {
+    private final byte[] mPattern;
+    private final byte[] mReplacement;
+    private int mMatched;
+
+    BluetoothMapReplacingOutputStream(OutputStream out, String pattern, String replacement) {
+        super(out);
+        mPattern = pattern.getBytes(StandardCharsets.UTF_8);
+        mReplacement = replacement.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if ((byte) b == mPattern[mMatched]) {
+            mMatched++;
+            if (mMatched == mPattern.length) {
+                out.write(mReplacement);
+                mMatched = 0;
+            }
+            return;
+        }
+        if (mMatched > 0) {
+            out.write(mPattern, 0, mMatched);
+            mMatched = 0;
+            if ((byte) b == mPattern[0]) {
+                mMatched = 1;
+                return;
+            }
+        }
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // Bytes that can't start or continue a match are passed on in bulk
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (mMatched == 0 && b[i] != mPattern[0]) {
+                continue;
+            }
+            if (i > start) {
+                out.write(b, start, i - start);
+            }
+            write(b[i]);
+            start = i + 1;
+        }
+        if (end > start) {
+            out.write(b, start, end - start);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (mMatched > 0) {
+            out.write(mPattern, 0, mMatched);
+            mMatched = 0;
+        }
+        out.flush();
+    }
+}
@@ -1427,6 +1427,10 @@ public class BluetoothMapService extends ProfileService {
         println(sb, "mPermission: " + mPermission);
         println(sb, "mAccountChanged: " + mAccountChanged);
         println(sb, "mBluetoothMnsObexClient: " + mBluetoothMnsObexClient);
+        BluetoothMnsObexClient mnsClient = mBluetoothMnsObexClient;
+        if (mnsClient != null) {
+            mnsClient.dump(sb);
+        }
         println(sb, "mMasInstanceMap:");
         for (BluetoothMapAccountItem key : mMasInstanceMap.keySet()) {
             println(sb, "  " + key + " : " + mMasInstanceMap.get(key));
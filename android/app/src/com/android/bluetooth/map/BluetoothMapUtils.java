@@ -20,7 +20,6 @@ import android.util.Log;
 
 import com.android.bluetooth.mapapi.BluetoothMapContract;
 
-import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -31,10 +30,7 @@ import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Calendar;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 /**
@@ -422,13 +418,10 @@ public class BluetoothMapUtils {
     public static byte[] truncateUtf8StringToBytearray(String utf8String, int maxLength)
             throws UnsupportedEncodingException {
 
+        // Only the first utf8String.length() bytes of the UTF-8 encoding are kept, and only the
+        // first maxLength of those can make it into the result, so encode no more than that.
         byte[] utf8Bytes = new byte[utf8String.length() + 1];
-        try {
-            System.arraycopy(utf8String.getBytes("UTF-8"), 0, utf8Bytes, 0, utf8String.length());
-        } catch (UnsupportedEncodingException e) {
-            Log.e(TAG, "truncateUtf8StringToBytearray: getBytes exception ", e);
-            throw e;
-        }
+        encodeUtf8Prefix(utf8String, utf8Bytes, Math.min(utf8String.length(), maxLength));
 
         if (utf8Bytes.length > maxLength) {
             /* if 'continuation' byte is in place 200,
@@ -452,6 +445,36 @@ public class BluetoothMapUtils {
         return utf8Bytes;
     }
 
+    /**
+     * Write the first limit bytes of the UTF-8 encoding of s to dest, the same bytes
+     * String.getBytes() would produce. Unpaired surrogates are encoded as '?'.
+     */
+    private static void encodeUtf8Prefix(String s, byte[] dest, int limit) {
+        int out = 0;
+        for (int i = 0, l = s.length(); i < l && out < limit; i++) {
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                dest[out++] = (byte) c;
+                continue;
+            }
+            if (Character.isSurrogate((char) c)) {
+                if (Character.isHighSurrogate((char) c) && i + 1 < l
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    c = Character.toCodePoint((char) c, s.charAt(++i));
+                } else {
+                    dest[out++] = '?';
+                    continue;
+                }
+            }
+            int len = c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+            int lead = len == 2 ? 0xC0 : len == 3 ? 0xE0 : 0xF0;
+            for (int shift = 6 * (len - 1); shift >= 0 && out < limit; shift -= 6) {
+                int bits = (c >> shift) & 0x3F;
+                dest[out++] = (byte) (shift == 6 * (len - 1) ? lead | (c >> shift) : 0x80 | bits);
+            }
+        }
+    }
+
     /**
      * Truncate UTF-8 string encoded to desired length
      * @param utf8InString String to truncate
@@ -478,8 +501,6 @@ public class BluetoothMapUtils {
         return new String(validUtf8Buffer.array(), 0, validUtf8Buffer.position());
     }
 
-    private static final Pattern PATTERN = Pattern.compile("=\\?(.+?)\\?(.)\\?(.+?(?=\\?=))\\?=");
-
     /**
      * Method for converting quoted printable og base64 encoded string from headers.
      * @param in the string with encoding
@@ -492,29 +513,40 @@ public class BluetoothMapUtils {
             String charset;
             String encodedText;
             String match;
-            Matcher m = PATTERN.matcher(in);
-            while (m.find()) {
-                match = m.group(0);
-                charset = m.group(1);
-                encoding = m.group(2);
-                encodedText = m.group(3);
-                Log.v(TAG,
-                        "Matching:" + match + "\nCharset: " + charset + "\nEncoding : " + encoding
-                                + "\nText: " + encodedText);
+            // Encoded words are searched for in the original string, while the replacements
+            // are done on the updated one.
+            final String original = in;
+            int[] word = new int[4];
+            int from = 0;
+            while (findEncodedWord(original, from, word)) {
+                match = original.substring(word[0], word[3] + 2);
+                charset = original.substring(word[0] + 2, word[1]);
+                encoding = original.substring(word[1] + 1, word[1] + 2);
+                encodedText = original.substring(word[2], word[3]);
+                from = word[3] + 2;
+                if (V) {
+                    Log.v(TAG, "Matching:" + match + "\nCharset: " + charset + "\nEncoding : "
+                            + encoding + "\nText: " + encodedText);
+                }
                 if (encoding.equalsIgnoreCase("Q")) {
                     //quoted printable
-                    Log.d(TAG, "StripEncoding: Quoted Printable string : " + encodedText);
+                    if (D) {
+                        Log.d(TAG, "StripEncoding: Quoted Printable string : " + encodedText);
+                    }
                     str = new String(quotedPrintableToUtf8(encodedText, charset));
                     in = in.replace(match, str);
                 } else if (encoding.equalsIgnoreCase("B")) {
                     // base64
                     try {
-
-                        Log.d(TAG, "StripEncoding: base64 string : " + encodedText);
+                        if (D) {
+                            Log.d(TAG, "StripEncoding: base64 string : " + encodedText);
+                        }
                         str = new String(
                                 Base64.decode(encodedText.getBytes(charset), Base64.DEFAULT),
                                 charset);
-                        Log.d(TAG, "StripEncoding: decoded string : " + str);
+                        if (D) {
+                            Log.d(TAG, "StripEncoding: decoded string : " + str);
+                        }
                         in = in.replace(match, str);
                     } catch (UnsupportedEncodingException e) {
                         Log.e(TAG, "stripEncoding: Unsupported charset: " + charset);
@@ -529,6 +561,54 @@ public class BluetoothMapUtils {
         return in;
     }
 
+    /**
+     * Find the next RFC 2047 encoded word "=?charset?encoding?text?=" in s at or after from.
+     * Matches exactly what the regex "=\\?(.+?)\\?(.)\\?(.+?(?=\\?=))\\?=" would: the
+     * shortest charset that lets the rest match, a single character encoding and the shortest
+     * text, none of which may span a line terminator.
+     * @param word on success, filled with the index of the "=?", the "?" before the encoding,
+     *      the start of the text and the "?=" that ends it
+     * @return true if an encoded word was found
+     */
+    private static boolean findEncodedWord(String s, int from, int[] word) {
+        int length = s.length();
+        int lastEnd = s.lastIndexOf("?=");
+        for (int start = s.indexOf("=?", from); start >= 0; start = s.indexOf("=?", start + 1)) {
+            // The charset is at least one character and is extended until the rest matches
+            for (int q1 = start + 3; q1 + 2 < length; q1++) {
+                if (q1 + 4 > lastEnd) {
+                    // No "?=" left that could end the text, here or at any later start
+                    return false;
+                }
+                if (isLineTerminator(s.charAt(q1 - 1))) {
+                    break;
+                }
+                if (s.charAt(q1) != '?' || isLineTerminator(s.charAt(q1 + 1))
+                        || s.charAt(q1 + 2) != '?') {
+                    continue;
+                }
+                int textStart = q1 + 3;
+                for (int end = textStart + 1; end <= lastEnd; end++) {
+                    if (isLineTerminator(s.charAt(end - 1))) {
+                        break;
+                    }
+                    if (s.charAt(end) == '?' && s.charAt(end + 1) == '=') {
+                        word[0] = start;
+                        word[1] = q1;
+                        word[2] = textStart;
+                        word[3] = end;
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Characters the regex "." doesn't match. */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
 
     /**
      * Convert a quoted-printable encoded string to a UTF-8 string:
@@ -538,17 +618,9 @@ public class BluetoothMapUtils {
      * @return decoded UTF-8 string
      */
     public static byte[] quotedPrintableToUtf8(String text, String charset) {
-        byte[] output = new byte[text.length()]; // We allocate for the worst case memory need
-        byte[] input = null;
-        try {
-            input = text.getBytes("US-ASCII");
-        } catch (UnsupportedEncodingException e) {
-            /* This cannot happen as "US-ASCII" is supported for all Java implementations */
-        }
-
-        if (input == null) {
-            return "".getBytes();
-        }
+        // Decoded in place: the output never gets ahead of the input
+        byte[] input = toUsAsciiBytes(text);
+        byte[] output = input;
 
         int in, out, stopCnt = input.length - 2; // Leave room for peaking the next two bytes
 
@@ -620,6 +692,11 @@ public class BluetoothMapUtils {
         // the MAP specification suggest to use, and is compatible with US-ASCII.
         if (charset == null) {
             charset = "UTF-8";
+        }
+        if (isAscii(output, out) && (charset.equalsIgnoreCase("UTF-8")
+                || charset.equalsIgnoreCase("US-ASCII"))) {
+            // Decoding and re-encoding as UTF-8 would give the same bytes back
+            return Arrays.copyOf(output, out);
         } else {
             charset = charset.toUpperCase();
             try {
@@ -644,6 +721,38 @@ public class BluetoothMapUtils {
         return result.getBytes(); /* return the result as "UTF-8" bytes */
     }
 
+    /**
+     * Same as text.getBytes("US-ASCII"): every character, or surrogate pair, that is not
+     * US-ASCII is replaced by a single '?'.
+     */
+    private static byte[] toUsAsciiBytes(String text) {
+        int length = text.length();
+        byte[] bytes = new byte[length];
+        int out = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes[out++] = (byte) c;
+                continue;
+            }
+            if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                i++;
+            }
+            bytes[out++] = '?';
+        }
+        return out == length ? bytes : Arrays.copyOf(bytes, out);
+    }
+
+    private static boolean isAscii(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Encodes an array of bytes into an array of quoted-printable 7-bit characters.
      * Unsafe characters are escaped.
@@ -654,50 +763,29 @@ public class BluetoothMapUtils {
      * @return UTF-8 string containing quoted-printable characters
      */
 
-    private static final byte ESCAPE_CHAR = '=';
-    private static final byte TAB = 9;
-    private static final byte SPACE = 32;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
     public static final String encodeQuotedPrintable(byte[] bytes) {
         if (bytes == null) {
             return null;
         }
 
-        BitSet printable = new BitSet(256);
-        // alpha characters
-        for (int i = 33; i <= 60; i++) {
-            printable.set(i);
-        }
-        for (int i = 62; i <= 126; i++) {
-            printable.set(i);
-        }
-        printable.set(TAB);
-        printable.set(SPACE);
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        char[] buffer = new char[bytes.length * 3];
+        int out = 0;
         for (int i = 0; i < bytes.length; i++) {
-            int b = bytes[i];
-            if (b < 0) {
-                b = 256 + b;
-            }
-            if (printable.get(b)) {
-                buffer.write(b);
+            int b = bytes[i] & 0xff;
+            // Printable characters except '=', tab and space are written as is
+            if ((b >= 33 && b <= 126 && b != '=') || b == '\t' || b == ' ') {
+                buffer[out++] = (char) b;
             } else {
-                buffer.write(ESCAPE_CHAR);
-                char hex1 = Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16));
-                char hex2 = Character.toUpperCase(Character.forDigit(b & 0xF, 16));
-                buffer.write(hex1);
-                buffer.write(hex2);
+                buffer[out++] = '=';
+                buffer[out++] = HEX_DIGITS[b >> 4];
+                buffer[out++] = HEX_DIGITS[b & 0xF];
             }
         }
-        try {
-            return buffer.toString("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            //cannot happen
-            return "";
-        }
+        return new String(buffer, 0, out);
     }
 
-
     static String getDateTimeString( long timestamp) {
         SimpleDateFormat format = (mPeerSupportUtcTimeStamp) ? new
             SimpleDateFormat("yyyyMMdd'T'HHmmssZ") : new SimpleDateFormat("yyyyMMdd'T'HHmmss");
@@ -22,10 +22,13 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.SparseBooleanArray;
 
 import com.android.bluetooth.BluetoothObexTransport;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.obex.ClientOperation;
 import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
@@ -34,6 +37,8 @@ import com.android.obex.ResponseCodes;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 /**
  * The Message Notification Service class runs its own message handler thread,
@@ -72,6 +77,48 @@ public class BluetoothMnsObexClient {
     public static final ParcelUuid BLUETOOTH_UUID_OBEX_MNS =
             ParcelUuid.fromString("00001133-0000-1000-8000-00805F9B34FB");
 
+    // Once the remote takes longer than this to answer a PUT, the next event is held back for
+    // the average response time (at most MAX_EVENT_PACING_MS) to let a burst coalesce.
+    @VisibleForTesting
+    static final int SLOW_REMOTE_RESPONSE_MS = 50;
+    @VisibleForTesting
+    static final int MAX_EVENT_PACING_MS = 500;
+
+    // Event reports waiting to be sent, in order. Reports queued with a coalesce key are
+    // replaced in place by a newer report with the same key.
+    @GuardedBy("mPendingEvents")
+    private final LinkedHashMap<Object, PendingEvent> mPendingEvents = new LinkedHashMap<>();
+    @GuardedBy("mPendingEvents")
+    private boolean mSendScheduled = false;
+    @GuardedBy("mPendingEvents")
+    private int mMaxQueueDepth = 0;
+    @GuardedBy("mPendingEvents")
+    private int mEventsQueued = 0;
+    @GuardedBy("mPendingEvents")
+    private int mEventsCoalesced = 0;
+    @GuardedBy("mPendingEvents")
+    private int mEventsSent = 0;
+    @GuardedBy("mPendingEvents")
+    private int mEventsFailed = 0;
+    @GuardedBy("mPendingEvents")
+    private long mTotalQueueLatencyMs = 0;
+    @GuardedBy("mPendingEvents")
+    private long mMaxQueueLatencyMs = 0;
+    // Exponentially weighted average of the PUT response time, updated on the handler thread
+    private volatile long mAvgResponseTimeMs = 0;
+
+    private static final class PendingEvent {
+        byte[] mEventBytes;
+        final int mMasInstanceId;
+        final long mQueuedTimeMs;
+
+        PendingEvent(byte[] eventBytes, int masInstanceId, long queuedTimeMs) {
+            mEventBytes = eventBytes;
+            mMasInstanceId = masInstanceId;
+            mQueuedTimeMs = queuedTimeMs;
+        }
+    }
+
 
     public BluetoothMnsObexClient(BluetoothDevice remoteDevice, SdpMnsRecord mnsRecord,
             Handler callback) {
@@ -135,7 +182,7 @@ public class BluetoothMnsObexClient {
                     }
                     break;
                 case MSG_MNS_SEND_EVENT:
-                    sendEventHandler((byte[]) msg.obj/*byte[]*/, msg.arg1 /*masId*/);
+                    sendNextEvent();
                     break;
                 case MSG_MNS_SDP_SEARCH_REGISTRATION:
                     //Initiate SDP Search
@@ -217,6 +264,10 @@ public class BluetoothMnsObexClient {
         if (mHandler != null) {
             // Shut down the thread
             mHandler.removeCallbacksAndMessages(null);
+            synchronized (mPendingEvents) {
+                mPendingEvents.clear();
+                mSendScheduled = false;
+            }
             Looper looper = mHandler.getLooper();
             if (looper != null) {
                 looper.quit();
@@ -413,16 +464,121 @@ public class BluetoothMnsObexClient {
      * @param masInstanceId the MasId of the instance sending the event.
      */
     public void sendEvent(byte[] eventBytes, int masInstanceId) {
+        sendEvent(eventBytes, masInstanceId, null);
+    }
+
+    /**
+     * Call this method to queue an event report to be send to the MNS server.
+     * If a report with the same coalesceKey from the same MAS instance is still waiting to be
+     * sent, it is replaced by this one instead, keeping its place in the queue.
+     * @param eventBytes the encoded event data.
+     * @param masInstanceId the MasId of the instance sending the event.
+     * @param coalesceKey identifies reports that supersede each other, or null.
+     */
+    public void sendEvent(byte[] eventBytes, int masInstanceId, String coalesceKey) {
         // We need to check for null, to handle shutdown.
         if (mHandler != null) {
-            Message msg = mHandler.obtainMessage(MSG_MNS_SEND_EVENT, masInstanceId, 0, eventBytes);
-            if (msg != null) {
-                msg.sendToTarget();
+            boolean schedule = false;
+            synchronized (mPendingEvents) {
+                mEventsQueued++;
+                PendingEvent pending = null;
+                Object key;
+                if (coalesceKey != null) {
+                    key = masInstanceId + "/" + coalesceKey;
+                    pending = mPendingEvents.get(key);
+                } else {
+                    key = new Object();
+                }
+                if (pending != null) {
+                    pending.mEventBytes = eventBytes;
+                    mEventsCoalesced++;
+                    if (V) {
+                        Log.v(TAG, "sendEvent: coalesced " + key);
+                    }
+                } else {
+                    mPendingEvents.put(key, new PendingEvent(eventBytes, masInstanceId,
+                            SystemClock.elapsedRealtime()));
+                    mMaxQueueDepth = Math.max(mMaxQueueDepth, mPendingEvents.size());
+                }
+                if (!mSendScheduled) {
+                    mSendScheduled = true;
+                    schedule = true;
+                }
+            }
+            if (schedule) {
+                mHandler.sendEmptyMessage(MSG_MNS_SEND_EVENT);
             }
         }
         notifyUpdateWakeLock();
     }
 
+    /**
+     * Sends the oldest queued event report and schedules the next one, paced by how fast the
+     * remote has been answering.
+     */
+    private void sendNextEvent() {
+        PendingEvent event;
+        synchronized (mPendingEvents) {
+            Iterator<PendingEvent> it = mPendingEvents.values().iterator();
+            if (!it.hasNext()) {
+                mSendScheduled = false;
+                return;
+            }
+            event = it.next();
+            it.remove();
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        int responseCode = sendEventHandler(event.mEventBytes, event.mMasInstanceId);
+        long now = SystemClock.elapsedRealtime();
+        long responseTime = now - startTime;
+        mAvgResponseTimeMs = mAvgResponseTimeMs == 0
+                ? responseTime : (mAvgResponseTimeMs * 7 + responseTime) / 8;
+
+        boolean more;
+        synchronized (mPendingEvents) {
+            long latency = now - event.mQueuedTimeMs;
+            mTotalQueueLatencyMs += latency;
+            mMaxQueueLatencyMs = Math.max(mMaxQueueLatencyMs, latency);
+            if (responseCode == ResponseCodes.OBEX_HTTP_OK) {
+                mEventsSent++;
+            } else {
+                mEventsFailed++;
+            }
+            more = !mPendingEvents.isEmpty();
+            mSendScheduled = more;
+        }
+        if (more) {
+            mHandler.sendEmptyMessageDelayed(MSG_MNS_SEND_EVENT,
+                    getEventPacingDelayMs(mAvgResponseTimeMs));
+        }
+    }
+
+    @VisibleForTesting
+    static long getEventPacingDelayMs(long avgResponseTimeMs) {
+        if (avgResponseTimeMs < SLOW_REMOTE_RESPONSE_MS) {
+            return 0;
+        }
+        return Math.min(avgResponseTimeMs, MAX_EVENT_PACING_MS);
+    }
+
+    /** Dumps the event queue state and metrics. */
+    public void dump(StringBuilder sb) {
+        synchronized (mPendingEvents) {
+            int done = mEventsSent + mEventsFailed;
+            sb.append("  MNS events: queued=").append(mEventsQueued)
+                    .append(" coalesced=").append(mEventsCoalesced)
+                    .append(" sent=").append(mEventsSent)
+                    .append(" failed=").append(mEventsFailed)
+                    .append(" depth=").append(mPendingEvents.size())
+                    .append(" maxDepth=").append(mMaxQueueDepth)
+                    .append(" avgLatencyMs=").append(done == 0 ? 0 : mTotalQueueLatencyMs / done)
+                    .append(" maxLatencyMs=").append(mMaxQueueLatencyMs)
+                    .append(" avgResponseMs=").append(mAvgResponseTimeMs)
+                    .append("\n");
+        }
+    }
+
     private void notifyMnsSdpSearch() {
         if (mCallback != null) {
             Message msg = Message.obtain(mCallback);
@@ -431,7 +587,8 @@ public class BluetoothMnsObexClient {
         }
     }
 
-    private int sendEventHandler(byte[] eventBytes, int masInstanceId) {
+    @VisibleForTesting
+    int sendEventHandler(byte[] eventBytes, int masInstanceId) {
 
         boolean error = false;
         int responseCode = -1;
@@ -24,6 +24,9 @@ import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
 import android.provider.Telephony.MmsSms;
@@ -39,14 +42,17 @@ import android.util.Log;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.map.BluetoothMapbMessageMime;
 import com.android.bluetooth.map.BluetoothMapbMessageMime.MimePart;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.vcard.VCardConstants;
 import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardProperty;
 
 import com.google.android.mms.pdu.PduHeaders;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -58,10 +64,21 @@ class MapClientContent {
     private static final int ORIGINATOR_ADDRESS_TYPE = 137;
     private static final int RECIPIENT_ADDRESS_TYPE = 151;
 
+    // Provider changes usually come in bursts (a message and its parts, a thread update), they
+    // are collected for this long before the tracked messages are checked
+    @VisibleForTesting
+    static final long DATABASE_CHANGE_DELAY_MS = 200;
+    // Stays well below the SQLite limit on expression and variable counts
+    private static final int MAX_IDS_PER_QUERY = 500;
+    private static final String[] DATABASE_CHANGE_PROJECTION =
+            new String[]{BaseColumns._ID, Sms.READ};
+
     final BluetoothDevice mDevice;
     private final Context mContext;
     private final Callbacks mCallbacks;
     private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final Runnable mFindChangeInDatabase = this::findChangeInDatabase;
     ContentObserver mContentObserver;
     String mPhoneNumber = null;
     private int mSubscriptionId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
@@ -91,9 +108,20 @@ class MapClientContent {
      * locally
      * device: the associated Bluetooth device used for associating messages with a subscription
      */
+    @VisibleForTesting
     MapClientContent(Context context, Callbacks callbacks,
             BluetoothDevice device) {
+        this(context, callbacks, device, Looper.getMainLooper());
+    }
+
+    /**
+     * looper: the looper the local changes are checked on, it should be the one the messages are
+     * stored from
+     */
+    MapClientContent(Context context, Callbacks callbacks,
+            BluetoothDevice device, Looper looper) {
         mContext = context;
+        mHandler = new Handler(looper);
         mDevice = device;
         mCallbacks = callbacks;
         mResolver = mContext.getContentResolver();
@@ -118,13 +146,13 @@ class MapClientContent {
             @Override
             public void onChange(boolean selfChange) {
                 logV("onChange(self=" + selfChange + ")");
-                findChangeInDatabase();
+                scheduleFindChangeInDatabase();
             }
 
             @Override
             public void onChange(boolean selfChange, Uri uri) {
                 logV("onChange(self=" + selfChange + ", uri=" + uri.toString() + ")");
-                findChangeInDatabase();
+                scheduleFindChangeInDatabase();
             }
         };
 
@@ -268,24 +296,69 @@ class MapClientContent {
         }
     }
 
+    private void scheduleFindChangeInDatabase() {
+        if (!mHandler.hasCallbacks(mFindChangeInDatabase)) {
+            mHandler.postDelayed(mFindChangeInDatabase, DATABASE_CHANGE_DELAY_MS);
+        }
+    }
+
     /**
      * findChangeInDatabase
      * compare the current state of the local content provider to the expected state and propagate
-     * changes to the remote.
+     * changes to the remote. Only the messages stored by us are looked up, so the cost follows
+     * the number of tracked messages rather than the size of the provider.
      */
     private void findChangeInDatabase() {
-        HashMap<Uri, MessageStatus> originalUriToHandleMap;
-        HashMap<Uri, MessageStatus> duplicateUriToHandleMap;
+        for (Uri tableUri : new Uri[]{Mms.CONTENT_URI, Sms.CONTENT_URI}) {
+            ArrayList<Uri> trackedUris = new ArrayList<>();
+            for (Uri uri : mUriToHandleMap.keySet()) {
+                if (tableUri.getAuthority().equals(uri.getAuthority())) {
+                    trackedUris.add(uri);
+                }
+            }
+            for (int start = 0; start < trackedUris.size(); start += MAX_IDS_PER_QUERY) {
+                findChangeInTable(tableUri, trackedUris.subList(start,
+                        Math.min(start + MAX_IDS_PER_QUERY, trackedUris.size())));
+            }
+        }
+    }
+
+    private void findChangeInTable(Uri tableUri, List<Uri> trackedUris) {
+        HashSet<Uri> missingUris = new HashSet<>();
+        StringBuilder selection = new StringBuilder(BaseColumns._ID + " IN (");
+        for (Uri uri : trackedUris) {
+            long id;
+            try {
+                id = Long.parseLong(uri.getLastPathSegment());
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Unexpected message uri " + uri);
+                continue;
+            }
+            if (!missingUris.isEmpty()) {
+                selection.append(',');
+            }
+            selection.append(id);
+            missingUris.add(uri);
+        }
+        if (missingUris.isEmpty()) {
+            return;
+        }
+        selection.append(')');
 
-        originalUriToHandleMap = mUriToHandleMap;
-        duplicateUriToHandleMap = new HashMap<>(originalUriToHandleMap);
-        for (Uri uri : new Uri[]{Mms.CONTENT_URI, Sms.CONTENT_URI}) {
-            Cursor cursor = mResolver.query(uri, null, null, null, null);
+        Cursor cursor = mResolver.query(tableUri, DATABASE_CHANGE_PROJECTION,
+                selection.toString(), null, null);
+        if (cursor == null) {
+            // Can't tell what was deleted, check again on the next change
+            return;
+        }
+        try {
+            int idColumn = cursor.getColumnIndex(BaseColumns._ID);
+            int readColumn = cursor.getColumnIndex(Sms.READ);
             while (cursor.moveToNext()) {
-                Uri index = Uri
-                        .withAppendedPath(uri, cursor.getString(cursor.getColumnIndex("_id")));
-                int readStatus = cursor.getInt(cursor.getColumnIndex(Sms.READ));
-                MessageStatus currentMessage = duplicateUriToHandleMap.remove(index);
+                Uri index = Uri.withAppendedPath(tableUri, cursor.getString(idColumn));
+                int readStatus = cursor.getInt(readColumn);
+                missingUris.remove(index);
+                MessageStatus currentMessage = mUriToHandleMap.get(index);
                 if (currentMessage != null && currentMessage.mRead != readStatus) {
                     logV(currentMessage.mHandle);
                     currentMessage.mRead = readStatus;
@@ -293,12 +366,14 @@ class MapClientContent {
                             BluetoothMapClient.READ);
                 }
             }
+        } finally {
+            cursor.close();
         }
-        for (HashMap.Entry record : duplicateUriToHandleMap.entrySet()) {
-            logV("Deleted " + ((MessageStatus) record.getValue()).mHandle);
-            originalUriToHandleMap.remove(record.getKey());
-            mCallbacks.onMessageStatusChanged(((MessageStatus) record.getValue()).mHandle,
-                    BluetoothMapClient.DELETED);
+
+        for (Uri uri : missingUris) {
+            MessageStatus record = mUriToHandleMap.remove(uri);
+            logV("Deleted " + record.mHandle);
+            mCallbacks.onMessageStatusChanged(record.mHandle, BluetoothMapClient.DELETED);
         }
     }
 
@@ -412,6 +487,7 @@ class MapClientContent {
         logD("cleanUp(device=" + Utils.getLoggableAddress(mDevice)
                 + "subscriptionId=" + mSubscriptionId);
         mResolver.unregisterContentObserver(mContentObserver);
+        mHandler.removeCallbacks(mFindChangeInDatabase);
         clearMessages(mContext, mSubscriptionId);
         try {
             mSubscriptionManager.removeSubscriptionInfoRecord(mDevice.getAddress(),
@@ -54,6 +54,7 @@ import android.bluetooth.SdpMasRecord;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Message;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.provider.Telephony;
 import android.telecom.PhoneAccount;
@@ -73,6 +74,7 @@ import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardProperty;
 
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
@@ -102,6 +104,7 @@ class MceStateMachine extends StateMachine {
     // Set message status to read or deleted
     static final int MSG_SET_MESSAGE_STATUS = 2006;
     static final int MSG_SEARCH_OWN_NUMBER_TIMEOUT = 2007;
+    static final int MSG_MESSAGE_DOWNLOAD_TIMEOUT = 2008;
 
     private static final String TAG = "MceStateMachine";
     private static final Boolean DBG = MapClientService.DBG;
@@ -208,6 +211,22 @@ class MceStateMachine extends StateMachine {
     ConcurrentHashMap<String, MessageMetadata> mMessages =
             new ConcurrentHashMap<String, MessageMetadata>();
 
+    // Messages are handed to the MasClient a few at a time: the next download is already in
+    // flight while the state machine parses and stores the previous one, but a first sync of
+    // hundreds of messages doesn't queue all of them (and their payloads) at once.
+    @VisibleForTesting
+    static final int MAX_MESSAGE_DOWNLOADS_IN_FLIGHT = 2;
+    // A download whose completion never arrives (the request failed or its completion was
+    // dropped) gives its slot back after this long, so it can't stall the other downloads.
+    @VisibleForTesting
+    static int sMessageDownloadTimeoutMs = 30_000;
+    private final ArrayDeque<String> mPendingDownloads = new ArrayDeque<>();
+    private final HashMap<String, RequestGetMessage> mDownloadsInFlight = new HashMap<>();
+    private int mDownloadsCompleted = 0;
+    private long mDownloadedBytes = 0;
+    private long mDownloadBusyStartMillis = 0;
+    private long mDownloadBusyMillis = 0;
+
     MceStateMachine(MapClientService service, BluetoothDevice device) {
         this(service, device, null, null);
     }
@@ -467,9 +486,91 @@ class MceStateMachine extends StateMachine {
         } else {
             ProfileService.println(sb, "  Device Message DB: null");
         }
+        long busyMillis = mDownloadBusyMillis;
+        ProfileService.println(sb, "  Message downloads: completed=" + mDownloadsCompleted
+                + " pending=" + mPendingDownloads.size() + " inFlight=" + mDownloadsInFlight.size()
+                + " bytes=" + mDownloadedBytes + " throughput="
+                + (busyMillis > 0 ? mDownloadedBytes * 1000 / busyMillis : 0) + " B/s");
         sb.append("\n");
     }
 
+    /**
+     * Queues the download of a message. Urgent downloads (new messages and explicit requests) go
+     * ahead of the ones from a message listing.
+     */
+    private void queueMessageDownload(String handle, boolean urgent) {
+        if (mDownloadsInFlight.containsKey(handle)) {
+            return;
+        }
+        mPendingDownloads.remove(handle);
+        if (urgent) {
+            mPendingDownloads.addFirst(handle);
+        } else {
+            mPendingDownloads.addLast(handle);
+        }
+        startMessageDownloads();
+    }
+
+    private void startMessageDownloads() {
+        while (mDownloadsInFlight.size() < MAX_MESSAGE_DOWNLOADS_IN_FLIGHT
+                && !mPendingDownloads.isEmpty()) {
+            String handle = mPendingDownloads.pollFirst();
+            RequestGetMessage request =
+                    new RequestGetMessage(handle, MasClient.CharsetType.UTF_8, false);
+            if (!mMasClient.makeRequest(request)) {
+                Log.w(TAG, Utils.getLoggableAddress(mDevice)
+                        + " [Connected]: can't download message, handle=" + handle);
+                continue;
+            }
+            if (mDownloadsInFlight.isEmpty()) {
+                mDownloadBusyStartMillis = SystemClock.elapsedRealtime();
+            }
+            mDownloadsInFlight.put(handle, request);
+            sendMessageDelayed(MSG_MESSAGE_DOWNLOAD_TIMEOUT, request, sMessageDownloadTimeoutMs);
+        }
+    }
+
+    private void onMessageDownloaded(RequestGetMessage request) {
+        if (mDownloadsInFlight.remove(request.getHandle()) == null) {
+            return;
+        }
+        mDownloadsCompleted++;
+        mDownloadedBytes += request.getMessageSize();
+        if (mDownloadsInFlight.isEmpty()) {
+            mDownloadBusyMillis += SystemClock.elapsedRealtime() - mDownloadBusyStartMillis;
+        }
+        if (DBG) {
+            Log.d(TAG, Utils.getLoggableAddress(mDevice) + " [Connected]: message downloaded"
+                    + ", handle=" + request.getHandle() + ", size=" + request.getMessageSize()
+                    + ", completed=" + mDownloadsCompleted + ", pending="
+                    + mPendingDownloads.size());
+        }
+        startMessageDownloads();
+    }
+
+    private void onMessageDownloadTimeout(RequestGetMessage request) {
+        // Only the download this timeout was set for, not a later one of the same handle
+        if (mDownloadsInFlight.get(request.getHandle()) != request) {
+            return;
+        }
+        Log.w(TAG, Utils.getLoggableAddress(mDevice)
+                + " [Connected]: message download timed out, handle=" + request.getHandle());
+        mDownloadsInFlight.remove(request.getHandle());
+        if (mDownloadsInFlight.isEmpty()) {
+            mDownloadBusyMillis += SystemClock.elapsedRealtime() - mDownloadBusyStartMillis;
+        }
+        startMessageDownloads();
+    }
+
+    private void clearMessageDownloads() {
+        if (!mDownloadsInFlight.isEmpty()) {
+            mDownloadBusyMillis += SystemClock.elapsedRealtime() - mDownloadBusyStartMillis;
+        }
+        mPendingDownloads.clear();
+        mDownloadsInFlight.clear();
+        removeMessages(MSG_MESSAGE_DOWNLOAD_TIMEOUT);
+    }
+
     class Disconnected extends State {
         @Override
         public void enter() {
@@ -576,7 +677,8 @@ class MceStateMachine extends StateMachine {
             };
             // Keeps mock database from being overwritten in tests
             if (mDatabase == null) {
-                mDatabase = new MapClientContent(mService, callbacks, mDevice);
+                mDatabase = new MapClientContent(mService, callbacks, mDevice,
+                        getHandler().getLooper());
             }
             onConnectionStateChanged(mPreviousState, BluetoothProfile.STATE_CONNECTED);
             if (Utils.isPtsTestMode()) return;
@@ -627,9 +729,7 @@ class MceStateMachine extends StateMachine {
                     break;
 
                 case MSG_INBOUND_MESSAGE:
-                    mMasClient.makeRequest(
-                            new RequestGetMessage((String) message.obj, MasClient.CharsetType.UTF_8,
-                                    false));
+                    queueMessageDownload((String) message.obj, true);
                     break;
 
                 case MSG_NOTIFICATION:
@@ -660,6 +760,8 @@ class MceStateMachine extends StateMachine {
 
                 case MSG_MAS_REQUEST_COMPLETED:
                     if (message.obj instanceof RequestGetMessage) {
+                        // Let the next download go out before this one is stored
+                        onMessageDownloaded((RequestGetMessage) message.obj);
                         processInboundMessage((RequestGetMessage) message.obj);
                     } else if (message.obj instanceof RequestPushMessage) {
                         RequestPushMessage requestPushMessage = (RequestPushMessage) message.obj;
@@ -708,12 +810,18 @@ class MceStateMachine extends StateMachine {
                     // the only MAS Request enqueued at this point, since none of the other MAS
                     // Requests should trigger/start until after getOwnNumber has completed.
                     removeMessages(MSG_MAS_REQUEST_COMPLETED);
+                    // A message download that got its completion dropped here gives its slot
+                    // back on MSG_MESSAGE_DOWNLOAD_TIMEOUT.
                     // If failed to complete search for remote device's own phone number,
                     // proceed without it (i.e., register MCE for MNS and start download
                     // of existing messages from MSE).
                     notificationRegistrationAndStartDownloadMessages();
                     break;
 
+                case MSG_MESSAGE_DOWNLOAD_TIMEOUT:
+                    onMessageDownloadTimeout((RequestGetMessage) message.obj);
+                    break;
+
                 default:
                     Log.w(TAG, Utils.getLoggableAddress(mDevice)
                             + " [Connected]: Unexpected message: " + getMessageName(message.what));
@@ -724,6 +832,7 @@ class MceStateMachine extends StateMachine {
 
         @Override
         public void exit() {
+            clearMessageDownloads();
             mDatabase.cleanUp();
             mDatabase = null;
             mPreviousState = BluetoothProfile.STATE_CONNECTED;
@@ -761,8 +870,7 @@ class MceStateMachine extends StateMachine {
                                 timestamp, false, MESSAGE_NOT_SEEN);
                         mMessages.put(event.getHandle(), metadata);
                     }
-                    mMasClient.makeRequest(new RequestGetMessage(event.getHandle(),
-                            MasClient.CharsetType.UTF_8, false));
+                    queueMessageDownload(event.getHandle(), true);
                     break;
                 case DELIVERY_SUCCESS:
                 case SENDING_SUCCESS:
@@ -809,9 +917,10 @@ class MceStateMachine extends StateMachine {
 
             ArrayList<com.android.bluetooth.mapclient.Message> messageListing = request.getList();
             if (messageListing != null) {
-                // Message listings by spec arrive ordered newest first but we wish to broadcast as
-                // oldest first. Iterate in reverse order so we initiate requests oldest first.
-                for (int i = messageListing.size() - 1; i >= 0; i--) {
+                // Message listings by spec arrive ordered newest first. Download them in that order
+                // so the most relevant messages show up first on a large sync, each broadcast
+                // carries the message timestamp for ordering.
+                for (int i = 0; i < messageListing.size(); i++) {
                     com.android.bluetooth.mapclient.Message msg = messageListing.get(i);
                     if (DBG) {
                         Log.d(TAG, Utils.getLoggableAddress(mDevice)
@@ -825,7 +934,7 @@ class MceStateMachine extends StateMachine {
                     }
                     mMessages.put(msg.getHandle(), new MessageMetadata(msg.getHandle(),
                             msg.getDateTime().getTime(), msg.isRead(), MESSAGE_SEEN));
-                    getMessage(msg.getHandle());
+                    queueMessageDownload(msg.getHandle(), false);
                 }
             }
         }
@@ -935,6 +1044,9 @@ class MceStateMachine extends StateMachine {
             }
 
             if (message == null) {
+                Log.w(TAG, Utils.getLoggableAddress(mDevice)
+                        + " [Connected]: couldn't download message, handle="
+                        + request.getHandle());
                 return;
             }
             mDatabase.storeMessage(message, request.getHandle(),
@@ -1184,6 +1296,8 @@ class MceStateMachine extends StateMachine {
                 return "MSG_GET_MESSAGE_LISTING";
             case MSG_SET_MESSAGE_STATUS:
                 return "MSG_SET_MESSAGE_STATUS";
+            case MSG_MESSAGE_DOWNLOAD_TIMEOUT:
+                return "MSG_MESSAGE_DOWNLOAD_TIMEOUT";
             case DISCONNECT_TIMEOUT:
                 return "DISCONNECT_TIMEOUT";
             case CONNECT_TIMEOUT:
@@ -21,6 +21,7 @@ import com.android.vcard.VCardEntry;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 
 /**
@@ -43,6 +44,10 @@ public class Bmessage {
 
     String mMessage;
 
+    // Undecoded body content, decoded into mMessage the first time it is needed
+    private byte[] mMessageData;
+    private Charset mMessageCharset;
+
     ArrayList<VCardEntry> mOriginators;
     ArrayList<VCardEntry> mRecipients;
 
@@ -135,11 +140,27 @@ public class Bmessage {
     }
 
     public String getBodyContent() {
+        if (mMessageData != null) {
+            mMessage = new String(mMessageData, mMessageCharset);
+            mMessageData = null;
+        }
         return mMessage;
     }
 
     public Bmessage setBodyContent(String body) {
         mMessage = body;
+        mMessageData = null;
+        return this;
+    }
+
+    /**
+     * Sets the body content from its encoded bytes, which are only decoded once the content is
+     * requested.
+     */
+    Bmessage setBodyContent(byte[] data, Charset charset) {
+        mMessage = null;
+        mMessageData = data;
+        mMessageCharset = charset;
         return this;
     }
 
@@ -152,7 +173,7 @@ public class Bmessage {
             json.put("type", mBmsgType);
             json.put("folder", mBmsgFolder);
             json.put("charset", mBbodyCharset);
-            json.put("message", mMessage);
+            json.put("message", getBodyContent());
         } catch (JSONException e) {
             // do nothing
         }
@@ -69,7 +69,7 @@ class BmessageBuilder {
 
     private void build(Bmessage bmsg) {
         int bodyLen = MSG_BEGIN.length() + MSG_END.length() + 3 * CRLF.length()
-                + bmsg.mMessage.getBytes().length;
+                + bmsg.getBodyContent().getBytes().length;
 
         mBmsg.append(BMSG_BEGIN).append(CRLF);
 
@@ -109,7 +109,7 @@ class BmessageBuilder {
                 {
                     mBmsg.append(MSG_BEGIN).append(CRLF);
 
-                    mBmsg.append(bmsg.mMessage).append(CRLF);
+                    mBmsg.append(bmsg.getBodyContent()).append(CRLF);
 
                     mBmsg.append(MSG_END).append(CRLF);
                 }
@@ -29,22 +29,31 @@ import com.android.vcard.exception.VCardException;
 import com.android.vcard.exception.VCardVersionException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 
-/* BMessage as defined by MAP_SPEC_V101 Section 3.1.3 Message format (x-bt/message) */
+/*
+ * BMessage as defined by MAP_SPEC_V101 Section 3.1.3 Message format (x-bt/message)
+ *
+ * The bMessage is parsed incrementally from the OBEX stream: properties are read one line at a
+ * time and the message body is read in one go using its declared LENGTH, so large messages are
+ * never copied as a whole.
+ */
 class BmessageParser {
     private static final String TAG = "BmessageParser";
     private static final boolean DBG = MapClientService.DBG;
 
-    private static final String CRLF = "\r\n";
-
     private static final Property BEGIN_BMSG = new Property("BEGIN", "BMSG");
     private static final Property END_BMSG = new Property("END", "BMSG");
 
     private static final Property BEGIN_VCARD = new Property("BEGIN", "VCARD");
     private static final Property END_VCARD = new Property("END", "VCARD");
+    private static final byte[] BEGIN_VCARD_LINE =
+            BEGIN_VCARD.toString().getBytes(StandardCharsets.UTF_8);
 
     private static final Property BEGIN_BENV = new Property("BEGIN", "BENV");
     private static final Property END_BENV = new Property("END", "BENV");
@@ -70,14 +79,18 @@ class BmessageParser {
     }
 
     public static Bmessage createBmessage(String str) {
-        BmessageParser p = new BmessageParser();
-
         if (DBG) {
             Log.d(TAG, "actual wired contents: " + str);
         }
 
+        return createBmessage(new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static Bmessage createBmessage(InputStream stream) {
+        BmessageParser p = new BmessageParser();
+
         try {
-            p.parse(str);
+            p.parse(stream);
         } catch (IOException e) {
             Log.e(TAG, "I/O exception when parsing bMessage", e);
             return null;
@@ -104,14 +117,14 @@ class BmessageParser {
         return new ParseException("Expected: " + sb.toString(), mParser.pos());
     }
 
-    private void parse(String str) throws IOException, ParseException {
+    private void parse(InputStream stream) throws IOException, ParseException {
         Property prop;
 
         /*
          * <bmessage-object>::= { "BEGIN:BMSG" <CRLF> <bmessage-property>
          * [<bmessage-originator>]* <bmessage-envelope> "END:BMSG" <CRLF> }
          */
-        mParser = new BmsgTokenizer(str + CRLF);
+        mParser = new BmsgTokenizer(stream);
 
         prop = mParser.next();
         if (!prop.equals(BEGIN_BMSG)) {
@@ -123,10 +136,10 @@ class BmessageParser {
         while (prop.equals(BEGIN_VCARD)) {
             /* <bmessage-originator>::= <vcard> <CRLF> */
 
-            StringBuilder vcard = new StringBuilder();
+            VcardBuffer vcard = new VcardBuffer();
             prop = extractVcard(vcard);
 
-            VCardEntry entry = parseVcard(vcard.toString());
+            VCardEntry entry = parseVcard(vcard);
             mBmsg.mOriginators.add(entry);
         }
 
@@ -147,7 +160,7 @@ class BmessageParser {
         mParser = null;
     }
 
-    private Property parseProperties() throws ParseException {
+    private Property parseProperties() throws IOException, ParseException {
         Property prop;
         /*
          * <bmessage-property>::=<bmessage-version-property>
@@ -214,11 +227,11 @@ class BmessageParser {
 
             /* <bmessage-originator>::= <vcard> <CRLF> */
 
-            StringBuilder vcard = new StringBuilder();
+            VcardBuffer vcard = new VcardBuffer();
             prop = extractVcard(vcard);
 
             if (level == 1) {
-                VCardEntry entry = parseVcard(vcard.toString());
+                VCardEntry entry = parseVcard(vcard);
                 mBmsg.mRecipients.add(entry);
             }
         }
@@ -303,33 +316,38 @@ class BmessageParser {
          */
 
         int messageLen = mBmsg.mBbodyLength - MSG_CONTAINER_LEN;
-        int offset = messageLen + CRLF_LEN;
-        int restartPos = mParser.pos() + offset;
-        /*
-         * length is specified in bytes so we need to convert from unicode
-         * string back to bytes array
-         */
-        String remng = mParser.remaining();
-        byte[] data = remng.getBytes();
-
-        if (offset < 0 || offset > data.length) {
+        if (messageLen < 0) {
             /* Handle possible exception for incorrect LENGTH value
              * from MSE while parsing end of props */
             throw new ParseException("Invalid LENGTH value", mParser.pos());
         }
 
-        /* restart parsing from after 'message'<CRLF> */
-        mParser = new BmsgTokenizer(new String(data, offset, data.length - offset), restartPos);
+        /*
+         * length is specified in bytes, read the message as is and decode it only when the body
+         * content is needed
+         */
+        byte[] data = mParser.read(messageLen);
+        if (data.length != messageLen) {
+            throw new ParseException("Invalid LENGTH value", mParser.pos());
+        }
+
+        /* restart parsing from after 'message'<CRLF>, keeping what is read in case the LENGTH
+         * turns out to be a number of characters */
+        mParser.startRecording();
+        byte[] crlf = new byte[CRLF_LEN];
+        if (mParser.read(crlf) != CRLF_LEN) {
+            mParser.stopRecording();
+            throw new ParseException("Invalid LENGTH value", mParser.pos());
+        }
 
         prop = mParser.next(true);
+        byte[] consumed = mParser.stopRecording();
 
         if (prop != null) {
             if (prop.equals(END_MSG)) {
-                if ("UTF-8".equals(mBmsg.mBbodyCharset)) {
-                    mBmsg.mMessage = new String(data, 0, messageLen, StandardCharsets.UTF_8);
-                } else {
-                    mBmsg.mMessage = new String(data, 0, messageLen);
-                }
+                Charset charset = "UTF-8".equals(mBmsg.mBbodyCharset)
+                        ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+                mBmsg.setBodyContent(data, charset);
             } else {
                 /* Handle possible exception for incorrect LENGTH value
                  * from MSE while parsing  GET Message response */
@@ -338,21 +356,22 @@ class BmessageParser {
                 throw expected(END_MSG);
             }
         } else {
-            data = null;
-
             /*
              * now we check if bMessage can be parsed if LENGTH is handled as
              * number of characters instead of number of bytes
              */
-            if (offset < 0 || offset > remng.length()) {
+            Log.w(TAG, "byte LENGTH seems to be invalid, trying with char length");
+
+            mParser.unread(consumed);
+            // messageLen bytes were actually read above, so this is bounded by the input
+            ByteArrayOutputStream message = new ByteArrayOutputStream(messageLen);
+            if (!mParser.readChars(data, messageLen, message)
+                    || !mParser.skipChars(CRLF_LEN)) {
                 /* Handle possible exception for incorrect LENGTH value
                  * from MSE while parsing  GET Message response */
                 throw new ParseException("Invalid LENGTH value", mParser.pos());
             }
-
-            Log.w(TAG, "byte LENGTH seems to be invalid, trying with char length");
-
-            mParser = new BmsgTokenizer(remng.substring(offset));
+            data = null;
 
             prop = mParser.next();
 
@@ -361,7 +380,7 @@ class BmessageParser {
             }
 
             if ("UTF-8".equals(mBmsg.mBbodyCharset)) {
-                mBmsg.mMessage = remng.substring(0, messageLen);
+                mBmsg.setBodyContent(message.toByteArray(), StandardCharsets.UTF_8);
             } else {
                 mBmsg.mMessage = null;
             }
@@ -376,20 +395,21 @@ class BmessageParser {
         return mParser.next();
     }
 
-    private Property extractVcard(StringBuilder out) throws IOException, ParseException {
+    private Property extractVcard(VcardBuffer out) throws IOException, ParseException {
         Property prop;
 
-        out.append(BEGIN_VCARD).append(CRLF);
+        out.writeLine(BEGIN_VCARD_LINE);
 
         do {
             prop = mParser.next();
-            out.append(prop).append(CRLF);
+            mParser.writeLine(out);
+            out.writeLine(null);
         } while (!prop.equals(END_VCARD));
 
         return mParser.next();
     }
 
-    private VCardEntry parseVcard(String str) throws IOException, ParseException {
+    private VCardEntry parseVcard(VcardBuffer vcardBuffer) throws IOException, ParseException {
         VCardEntry vcard = null;
 
         try {
@@ -398,7 +418,7 @@ class BmessageParser {
             VcardHandler handler = new VcardHandler();
             c.addEntryHandler(handler);
             p.addInterpreter(c);
-            p.parse(new ByteArrayInputStream(str.getBytes()));
+            p.parse(vcardBuffer.toInputStream());
 
             vcard = handler.vcard;
 
@@ -409,7 +429,7 @@ class BmessageParser {
                 VcardHandler handler = new VcardHandler();
                 c.addEntryHandler(handler);
                 p.addInterpreter(c);
-                p.parse(new ByteArrayInputStream(str.getBytes()));
+                p.parse(vcardBuffer.toInputStream());
 
                 vcard = handler.vcard;
 
@@ -431,6 +451,22 @@ class BmessageParser {
         return vcard;
     }
 
+    /** Holds the raw bytes of a vCard, which can be read back without copying them. */
+    private static class VcardBuffer extends ByteArrayOutputStream {
+        /** Appends {@code line}, if any, followed by CRLF. */
+        void writeLine(byte[] line) {
+            if (line != null) {
+                write(line, 0, line.length);
+            }
+            write('\r');
+            write('\n');
+        }
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
     private class VcardHandler implements VCardEntryHandler {
         public VCardEntry vcard;
 
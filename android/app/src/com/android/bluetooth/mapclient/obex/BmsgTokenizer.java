@@ -18,65 +18,296 @@ package com.android.bluetooth.mapclient;
 
 import android.util.Log;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
+/**
+ * Splits a bMessage read from a stream into properties, one CRLF terminated line at a time.
+ *
+ * <p>Only the current line is held in memory. Message bodies, whose size is declared by the
+ * LENGTH property, are read in bulk with {@link #read(int)} without going through the line
+ * buffer. Positions reported in {@link ParseException}s are byte offsets in the stream.
+ */
 public final class BmsgTokenizer {
     private static final String TAG = "BmsgTokenizer";
     private static final boolean VDBG = MapClientService.VDBG;
 
-    private final String mStr;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int INITIAL_LINE_SIZE = 256;
+
+    private final InputStream mInputStream;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mBufferPos = 0;
+    private int mBufferEnd = 0;
+
+    // Bytes given back with unread(), consumed before the stream
+    private byte[] mPushback;
+    private int mPushbackPos;
+
+    // Copy of the consumed bytes while recording, null otherwise
+    private ByteArrayOutputStream mRecording;
+
+    private byte[] mLine = new byte[INITIAL_LINE_SIZE];
+    private int mLineLength = 0;
 
-    private final Matcher mMatcher;
-    private final int mOffset;
     private int mPos = 0;
 
-    public BmsgTokenizer(String str) {
-        this(str, 0);
+    public BmsgTokenizer(InputStream inputStream) {
+        mInputStream = inputStream;
     }
 
-    public BmsgTokenizer(String str, int offset) {
-        mStr = str;
-        mOffset = offset;
-        mMatcher = Pattern.compile("(([^:]*):(.*))?\r\n").matcher(str);
-        mPos = mMatcher.regionStart();
+    public Property next(boolean alwaysReturn) throws IOException, ParseException {
+        while (readLine()) {
+            if (mLineLength == 0) {
+                // empty lines are skipped
+                continue;
+            }
+            String line = new String(mLine, 0, mLineLength, StandardCharsets.UTF_8);
+            int colon = line.indexOf(':');
+            if (colon >= 0 && isSingleLine(line, colon + 1)) {
+                return new Property(line.substring(0, colon), line.substring(colon + 1));
+            }
+            break;
+        }
+
+        if (alwaysReturn) {
+            return null;
+        }
+        throw new ParseException("Property or empty line expected", pos());
     }
 
-    public Property next(boolean alwaysReturn) throws ParseException {
-        boolean found = false;
+    public Property next() throws IOException, ParseException {
+        return next(false);
+    }
 
-        do {
-            mMatcher.region(mPos, mMatcher.regionEnd());
+    /** Writes the raw bytes of the last line returned by {@link #next()}, without its CRLF. */
+    public void writeLine(OutputStream out) throws IOException {
+        out.write(mLine, 0, mLineLength);
+    }
 
-            if (!mMatcher.lookingAt()) {
-                if (alwaysReturn) {
-                    return null;
-                }
+    /**
+     * Reads up to {@code b.length} bytes, returning fewer only if the stream ends first.
+     */
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
 
-                throw new ParseException("Property or empty line expected", pos());
+    /**
+     * Reads up to {@code count} bytes, returning fewer only if the stream ends first.
+     *
+     * <p>The count comes from the remote device, so the result is grown as data arrives rather
+     * than allocated upfront: a count larger than the stream costs no more than the stream.
+     */
+    public byte[] read(int count) throws IOException {
+        byte[] data = new byte[Math.min(count, BUFFER_SIZE)];
+        int done = 0;
+        while (true) {
+            done += read(data, done, data.length - done);
+            if (done < data.length || done == count) {
+                break;
             }
+            data = Arrays.copyOf(data, (int) Math.min(count, 2L * data.length));
+        }
+        return done == data.length ? data : Arrays.copyOf(data, done);
+    }
 
-            mPos = mMatcher.end();
+    private int read(byte[] b, int off, int len) throws IOException {
+        int done = 0;
+        if (mPushback != null) {
+            int n = Math.min(len, mPushback.length - mPushbackPos);
+            System.arraycopy(mPushback, mPushbackPos, b, off, n);
+            mPushbackPos += n;
+            if (mPushbackPos == mPushback.length) {
+                mPushback = null;
+            }
+            done += n;
+        }
+        int buffered = Math.min(len - done, mBufferEnd - mBufferPos);
+        System.arraycopy(mBuffer, mBufferPos, b, off + done, buffered);
+        mBufferPos += buffered;
+        done += buffered;
+        // large reads bypass the buffer
+        while (done < len) {
+            int got = mInputStream.read(b, off + done, len - done);
+            if (got <= 0) {
+                break;
+            }
+            done += got;
+        }
+        mPos += done;
+        if (mRecording != null) {
+            mRecording.write(b, off, done);
+        }
+        return done;
+    }
+
+    /**
+     * Skips {@code count} UTF-8 encoded characters.
+     *
+     * @return false if the stream ended first
+     */
+    public boolean skipChars(int count) throws IOException {
+        return readChars(null, count, null);
+    }
 
-            if (mMatcher.group(1) != null) {
-                found = true;
+    /**
+     * Reads UTF-8 encoded characters until {@code count} UTF-16 code units have been read. The
+     * bytes of {@code prefix} are consumed before the stream.
+     *
+     * @param out receives the encoded bytes of the characters read, may be null
+     * @return false if the stream ended first
+     */
+    public boolean readChars(byte[] prefix, int count, OutputStream out) throws IOException {
+        int prefixPos = 0;
+        int units = 0;
+        while (units < count) {
+            int b = (prefix != null && prefixPos < prefix.length)
+                    ? prefix[prefixPos++] & 0xff : readByte();
+            if (b < 0) {
+                return false;
+            }
+            int sequenceLength = utf8SequenceLength(b);
+            if (out != null) {
+                out.write(b);
+            }
+            for (int i = 1; i < sequenceLength; i++) {
+                int c = (prefix != null && prefixPos < prefix.length)
+                        ? prefix[prefixPos++] & 0xff : readByte();
+                if (c < 0) {
+                    return false;
+                }
+                if (out != null) {
+                    out.write(c);
+                }
             }
-        } while (!found);
+            // characters outside of the BMP take two UTF-16 code units
+            units += sequenceLength == 4 ? 2 : 1;
+        }
+        return true;
+    }
 
-        return new Property(mMatcher.group(2), mMatcher.group(3));
+    /** Starts keeping a copy of every consumed byte, so they can be given back. */
+    public void startRecording() {
+        mRecording = new ByteArrayOutputStream();
     }
 
-    public Property next() throws ParseException {
-        return next(false);
+    /** Stops recording and returns the bytes consumed since {@link #startRecording()}. */
+    public byte[] stopRecording() {
+        byte[] recorded = mRecording.toByteArray();
+        mRecording = null;
+        return recorded;
     }
 
-    public String remaining() {
-        return mStr.substring(mPos);
+    /** Gives back bytes, they will be consumed again before the rest of the stream. */
+    public void unread(byte[] data) {
+        if (data.length == 0) {
+            return;
+        }
+        if (mPushback != null) {
+            byte[] pending = Arrays.copyOfRange(mPushback, mPushbackPos, mPushback.length);
+            data = Arrays.copyOf(data, data.length + pending.length);
+            System.arraycopy(pending, 0, data, data.length - pending.length, pending.length);
+        }
+        mPushback = data;
+        mPushbackPos = 0;
+        mPos -= data.length;
     }
 
     public int pos() {
-        return mPos + mOffset;
+        return mPos;
+    }
+
+    private int readByte() throws IOException {
+        int b;
+        if (mPushback != null) {
+            b = mPushback[mPushbackPos++] & 0xff;
+            if (mPushbackPos == mPushback.length) {
+                mPushback = null;
+            }
+        } else {
+            if (mBufferPos == mBufferEnd && !fill()) {
+                return -1;
+            }
+            b = mBuffer[mBufferPos++] & 0xff;
+        }
+        mPos++;
+        if (mRecording != null) {
+            mRecording.write(b);
+        }
+        return b;
+    }
+
+    private boolean fill() throws IOException {
+        int got = mInputStream.read(mBuffer, 0, mBuffer.length);
+        if (got <= 0) {
+            return false;
+        }
+        mBufferPos = 0;
+        mBufferEnd = got;
+        return true;
+    }
+
+    /**
+     * Reads the next line into {@link #mLine}. The last line of the stream doesn't need to be
+     * terminated by CRLF.
+     *
+     * @return false if the stream has no more data
+     */
+    private boolean readLine() throws IOException {
+        mLineLength = 0;
+        int b = readByte();
+        if (b < 0) {
+            return false;
+        }
+        while (b >= 0) {
+            if (b == '\r') {
+                int next = readByte();
+                if (next == '\n') {
+                    break;
+                }
+                appendToLine(b);
+                b = next;
+                continue;
+            }
+            appendToLine(b);
+            b = readByte();
+        }
+        return true;
+    }
+
+    private void appendToLine(int b) {
+        if (mLineLength == mLine.length) {
+            mLine = Arrays.copyOf(mLine, mLine.length * 2);
+        }
+        mLine[mLineLength++] = (byte) b;
+    }
+
+    /** Property values can't contain line terminators. */
+    private static boolean isSingleLine(String line, int start) {
+        for (int i = start; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\r' || c == '\n' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int utf8SequenceLength(int leadByte) {
+        if ((leadByte & 0xe0) == 0xc0) {
+            return 2;
+        } else if ((leadByte & 0xf0) == 0xe0) {
+            return 3;
+        } else if ((leadByte & 0xf8) == 0xf0) {
+            return 4;
+        }
+        // ASCII, or an invalid lead byte which decodes to a single replacement character
+        return 1;
     }
 
     public static class Property {
@@ -29,11 +29,9 @@ import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
 import com.android.obex.ResponseCodes;
 
-import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 
 class RequestGetMessage extends Request {
 
@@ -41,6 +39,8 @@ class RequestGetMessage extends Request {
 
     private static final String TYPE = "x-bt/message";
 
+    private int mMessageSize;
+
     private Bmessage mBmessage;
 
     RequestGetMessage(String handle, MasClient.CharsetType charset, boolean attachment) {
@@ -61,32 +61,12 @@ class RequestGetMessage extends Request {
 
     @Override
     protected void readResponse(InputStream stream) {
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] buf = new byte[1024];
-
-        try {
-            int len;
-            while ((len = stream.read(buf)) != -1) {
-                baos.write(buf, 0, len);
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "I/O exception while reading response", e);
-        }
-
-        // Convert the input stream using UTF-8 since the attributes in the payload are all encoded
-        // according to it. The actual message body may need to be transcoded depending on
-        // charset/encoding defined for body-content.
-        String bmsg;
-        try {
-            bmsg = baos.toString(StandardCharsets.UTF_8.name());
-        } catch (UnsupportedEncodingException ex) {
-            Log.e(TAG,
-                    "Coudn't decode the bmessage with UTF-8. Something must be really messed up.");
-            return;
-        }
-
-        mBmessage = BmessageParser.createBmessage(bmsg);
+        // The bMessage is parsed as it is received. Its attributes are all encoded in UTF-8, the
+        // actual message body may need to be transcoded depending on charset/encoding defined for
+        // body-content.
+        CountingInputStream countingStream = new CountingInputStream(stream);
+        mBmessage = BmessageParser.createBmessage(countingStream);
+        mMessageSize = countingStream.mCount;
 
         if (mBmessage == null) {
             mResponseCode = ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
@@ -97,6 +77,11 @@ class RequestGetMessage extends Request {
         return mBmessage;
     }
 
+    /** Returns the size in bytes of the bMessage read from the response */
+    public int getMessageSize() {
+        return mMessageSize;
+    }
+
     public String getHandle() {
         try {
             return (String) mHeaderSet.getHeader(HeaderSet.NAME);
@@ -109,5 +94,44 @@ class RequestGetMessage extends Request {
     @Override
     public void execute(ClientSession session) throws IOException {
         executeGet(session);
+        // executeGet() takes the response code of the operation once the response is read, which
+        // would hide that the bMessage couldn't be parsed
+        if (mBmessage == null && isSuccess()) {
+            mResponseCode = ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+        }
+    }
+
+    /** Counts the bytes read through it */
+    private static class CountingInputStream extends FilterInputStream {
+        int mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                mCount += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(n);
+            mCount += (int) count;
+            return count;
+        }
     }
 }
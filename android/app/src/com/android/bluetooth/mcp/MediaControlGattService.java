@@ -132,8 +132,40 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
     private static final int INTERVAL_UNAVAILABLE = 0xFFFFFFFF;
 
+    private static final short CCC_NOTIFICATION_ENABLED = 0x0001;
+    private static final short CCC_NOTIFICATION_DISABLED = 0x0000;
+
+    /* Rapid changes of these characteristics are merged into a single notification */
+    private static final int COALESCED_CHAR_MASK = (1 << CharId.TRACK_POSITION)
+            | (1 << CharId.PLAYBACK_SPEED)
+            | (1 << CharId.SEEKING_SPEED)
+            | (1 << CharId.MEDIA_STATE);
+    @VisibleForTesting
+    static final int NOTIFICATION_COALESCE_WINDOW_MS = 100;
+    @VisibleForTesting
+    static final int CCC_STORE_DELAY_MS = 1000;
+
+    /** CCC state of a single peer device, indexed by {@link CharId}. */
+    private static final class DeviceCcc {
+        final short[] mValues = new short[CharId.COUNT];
+        /* Characteristics with a CCC value written by the peer or restored from storage */
+        int mSetMask;
+        /* Characteristics with notifications enabled */
+        int mNotifyMask;
+        /* Characteristics whose CCC value was not persisted yet */
+        int mStoreMask;
+    }
+
     private final int mCcid;
-    private HashMap<String, HashMap<UUID, Short>> mCccDescriptorValues;
+    private final HashMap<BluetoothDevice, DeviceCcc> mCccDescriptorValues = new HashMap<>();
+    private final Object mNotifyLock = new Object();
+    /* Characteristics whose coalescing window is open, guarded by mNotifyLock */
+    private int mNotifyWindowMask;
+    /* Characteristics changed since their last notification, guarded by mNotifyLock */
+    private int mNotifyPendingMask;
+    private long mCoalescedNotificationCount;
+    private final Runnable mStoreCccRunnable = this::storeCccValues;
+    private boolean mStoreCccScheduled;
     private long mFeatures;
     private Context mContext;
     private MediaControlServiceCallbacks mCallbacks;
@@ -579,7 +611,7 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
     private void restoreCccValuesForStoredDevices() {
         for (BluetoothDevice device : mAdapterService.getBondedDevices()) {
-            byte[] gmcs_cccd = device.getMetadata(METADATA_GMCS_CCCD);
+            byte[] gmcs_cccd = mAdapterService.getMetadata(device, METADATA_GMCS_CCCD);
 
             if ((gmcs_cccd == null) || (gmcs_cccd.length == 0)) {
                 return;
@@ -892,7 +924,9 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
     }
 
     protected boolean init(UUID scvUuid) {
-        mCccDescriptorValues = new HashMap<>();
+        synchronized (mCccDescriptorValues) {
+            mCccDescriptorValues.clear();
+        }
 
         mFeatures = mCallbacks.onGetFeatureFlags();
 
@@ -1081,87 +1115,112 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
         return mBluetoothGattServer.addService(mGattService);
     }
 
-    private void removeUuidFromMetadata(ParcelUuid charUuid, BluetoothDevice device) {
-        List<ParcelUuid> uuidList;
-        byte[] gmcs_cccd = device.getMetadata(METADATA_GMCS_CCCD);
-
-        if ((gmcs_cccd == null) || (gmcs_cccd.length == 0)) {
-            uuidList = new ArrayList<ParcelUuid>();
-        } else {
-            uuidList = new ArrayList<>(Arrays.asList(Utils.byteArrayToUuid(gmcs_cccd)));
-
-            if (!uuidList.contains(charUuid)) {
-                Log.d(TAG, "Characteristic CCCD can't be removed (not cached): "
-                        + charUuid.toString());
-                return;
+    private void storeCccValues() {
+        synchronized (mCccDescriptorValues) {
+            mStoreCccScheduled = false;
+            for (Map.Entry<BluetoothDevice, DeviceCcc> entry : mCccDescriptorValues.entrySet()) {
+                DeviceCcc ccc = entry.getValue();
+                if (ccc.mStoreMask != 0) {
+                    storeCccValues(entry.getKey(), ccc);
+                    ccc.mStoreMask = 0;
+                }
             }
         }
-
-        uuidList.remove(charUuid);
-
-        if (!device.setMetadata(METADATA_GMCS_CCCD,
-                Utils.uuidsToByteArray(uuidList.toArray(new ParcelUuid[0])))) {
-            Log.e(TAG, "Can't set CCCD for GMCS characteristic UUID: " + charUuid.toString()
-                    + ", (remove)");
-        }
     }
 
-    private void addUuidToMetadata(ParcelUuid charUuid, BluetoothDevice device) {
+    /* Applies all pending CCC changes of a device with a single metadata write */
+    private void storeCccValues(BluetoothDevice device, DeviceCcc ccc) {
         List<ParcelUuid> uuidList;
-        byte[] gmcs_cccd = device.getMetadata(METADATA_GMCS_CCCD);
+        byte[] gmcs_cccd = mAdapterService.getMetadata(device, METADATA_GMCS_CCCD);
 
         if ((gmcs_cccd == null) || (gmcs_cccd.length == 0)) {
             uuidList = new ArrayList<ParcelUuid>();
         } else {
             uuidList = new ArrayList<>(Arrays.asList(Utils.byteArrayToUuid(gmcs_cccd)));
+        }
 
-            if (uuidList.contains(charUuid)) {
-                Log.d(TAG, "Characteristic CCCD already added: " + charUuid.toString());
-                return;
+        boolean changed = false;
+        for (int mask = ccc.mStoreMask; mask != 0; mask &= mask - 1) {
+            int charId = Integer.numberOfTrailingZeros(mask);
+            ParcelUuid charUuid = new ParcelUuid(CHAR_UUIDS[charId]);
+            if (ccc.mValues[charId] == CCC_NOTIFICATION_ENABLED) {
+                if (uuidList.contains(charUuid)) {
+                    Log.d(TAG, "Characteristic CCCD already added: " + charUuid.toString());
+                } else {
+                    uuidList.add(charUuid);
+                    changed = true;
+                }
+            } else if (uuidList.remove(charUuid)) {
+                changed = true;
+            } else {
+                Log.d(TAG, "Characteristic CCCD can't be removed (not cached): "
+                        + charUuid.toString());
             }
         }
 
-        uuidList.add(charUuid);
+        if (!changed) {
+            return;
+        }
 
-        if (!device.setMetadata(METADATA_GMCS_CCCD,
+        if (!mAdapterService.setMetadata(device, METADATA_GMCS_CCCD,
                 Utils.uuidsToByteArray(uuidList.toArray(new ParcelUuid[0])))) {
-            Log.e(TAG, "Can't set CCCD for GMCS characteristic UUID: " + charUuid.toString()
-                    + ", (add)");
+            Log.e(TAG, "Can't set CCCD for GMCS characteristics of device: " + device);
         }
     }
 
     @VisibleForTesting
     void setCcc(BluetoothDevice device, UUID charUuid, int offset, byte[] value, boolean store) {
-        HashMap<UUID, Short> characteristicCcc = mCccDescriptorValues.get(device.getAddress());
-        if (characteristicCcc == null) {
-            characteristicCcc = new HashMap<>();
-            mCccDescriptorValues.put(device.getAddress(), characteristicCcc);
+        Integer charId = CHAR_ID_BY_UUID.get(charUuid);
+        if (charId == null) {
+            Log.e(TAG, "setCcc: unknown characteristic " + charUuid);
+            return;
         }
 
-        characteristicCcc.put(charUuid,
-                ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getShort());
+        short cccValue = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getShort();
+        int charBit = 1 << charId;
 
-        if (!store) {
-            return;
-        }
+        synchronized (mCccDescriptorValues) {
+            DeviceCcc ccc = mCccDescriptorValues.get(device);
+            if (ccc == null) {
+                ccc = new DeviceCcc();
+                mCccDescriptorValues.put(device, ccc);
+            }
 
-        if (Arrays.equals(value, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) {
-            addUuidToMetadata(new ParcelUuid(charUuid), device);
-        } else if (Arrays.equals(value, BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE)) {
-            removeUuidFromMetadata(new ParcelUuid(charUuid), device);
-        } else {
-            Log.e(TAG, "Not handled CCC value: " + Arrays.toString(value));
+            ccc.mValues[charId] = cccValue;
+            ccc.mSetMask |= charBit;
+            if (cccValue == CCC_NOTIFICATION_ENABLED) {
+                ccc.mNotifyMask |= charBit;
+            } else {
+                ccc.mNotifyMask &= ~charBit;
+            }
+
+            if (!store) {
+                return;
+            }
+
+            if (cccValue != CCC_NOTIFICATION_ENABLED && cccValue != CCC_NOTIFICATION_DISABLED) {
+                Log.e(TAG, "Not handled CCC value: " + Arrays.toString(value));
+                return;
+            }
+
+            // Peers write several descriptors in a row after connecting, persist them at once
+            ccc.mStoreMask |= charBit;
+            if (!mStoreCccScheduled) {
+                mStoreCccScheduled = true;
+                mHandler.postDelayed(mStoreCccRunnable, CCC_STORE_DELAY_MS);
+            }
         }
     }
 
     private byte[] getCccBytes(BluetoothDevice device, UUID charUuid) {
-        Map<UUID, Short> characteristicCcc = mCccDescriptorValues.get(device.getAddress());
-        if (characteristicCcc != null) {
-            ByteBuffer bb = ByteBuffer.allocate(Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
-            Short ccc = characteristicCcc.get(charUuid);
-            if (ccc != null) {
-                bb.putShort(characteristicCcc.get(charUuid));
-                return bb.array();
+        Integer charId = CHAR_ID_BY_UUID.get(charUuid);
+        synchronized (mCccDescriptorValues) {
+            DeviceCcc ccc = mCccDescriptorValues.get(device);
+            if (ccc != null && charId != null && (ccc.mSetMask & (1 << charId)) != 0) {
+                return ByteBuffer.allocate(Short.BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .putShort(ccc.mValues[charId])
+                        .array();
             }
         }
         return BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
@@ -1429,6 +1488,13 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
             Log.d(TAG, "Destroy");
         }
 
+        // Don't lose CCC changes still waiting to be persisted
+        mHandler.removeCallbacks(mStoreCccRunnable);
+        storeCccValues();
+        synchronized (mNotifyLock) {
+            mNotifyPendingMask = 0;
+        }
+
         if (mBluetoothGattServer == null) {
             return;
         }
@@ -1466,28 +1532,80 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
     private void notifyCharacteristic(@NonNull BluetoothGattCharacteristic characteristic,
             @Nullable BluetoothDevice originDevice) {
+        Integer charId = CHAR_ID_BY_UUID.get(characteristic.getUuid());
+        if (charId == null) {
+            return;
+        }
+
+        int charBit = 1 << charId;
+        boolean coalesced = (originDevice == null) && ((COALESCED_CHAR_MASK & charBit) != 0);
+        if (coalesced) {
+            synchronized (mNotifyLock) {
+                if ((mNotifyWindowMask & charBit) != 0) {
+                    // The latest value is sent once the window closes
+                    mNotifyPendingMask |= charBit;
+                    mCoalescedNotificationCount++;
+                    return;
+                }
+            }
+        }
+
+        if (sendNotification(characteristic, charBit, originDevice) == 0 || !coalesced) {
+            return;
+        }
+
+        // Hold back further changes of this characteristic for a while
+        synchronized (mNotifyLock) {
+            mNotifyWindowMask |= charBit;
+        }
+        mHandler.postDelayed(() -> onNotificationWindowClosed(charId),
+                NOTIFICATION_COALESCE_WINDOW_MS);
+    }
+
+    private void onNotificationWindowClosed(int charId) {
+        int charBit = 1 << charId;
+        synchronized (mNotifyLock) {
+            mNotifyWindowMask &= ~charBit;
+            if ((mNotifyPendingMask & charBit) == 0) {
+                return;
+            }
+            mNotifyPendingMask &= ~charBit;
+        }
+
+        BluetoothGattCharacteristic characteristic = mCharacteristics.get(charId);
+        if (characteristic != null) {
+            notifyCharacteristic(characteristic, null);
+        }
+    }
+
+    /* Notifies all subscribed devices but the origin one, returns the number of notifications */
+    private int sendNotification(BluetoothGattCharacteristic characteristic, int charBit,
+            BluetoothDevice originDevice) {
+        int count = 0;
         for (BluetoothDevice device : mBluetoothGattServer.getConnectedDevices()) {
             // Skip the origin device who changed the characteristic
             if (device.equals(originDevice)) {
                 continue;
             }
 
-            HashMap<UUID, Short> charCccMap = mCccDescriptorValues.get(device.getAddress());
-            if (charCccMap == null) continue;
-
-            byte[] ccc = getCccBytes(device, characteristic.getUuid());
+            boolean enabled;
+            synchronized (mCccDescriptorValues) {
+                DeviceCcc ccc = mCccDescriptorValues.get(device);
+                enabled = (ccc != null) && ((ccc.mNotifyMask & charBit) != 0);
+            }
             if (VDBG) {
                 Log.d(TAG, "notifyCharacteristic char= " + characteristic.getUuid().toString()
-                        + " cccVal= "
-                        + ByteBuffer.wrap(ccc).order(ByteOrder.LITTLE_ENDIAN).getShort());
+                        + " enabled= " + enabled);
             }
 
-            if (!Arrays.equals(ccc, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) continue;
+            if (!enabled) continue;
 
             if (VDBG) Log.d(TAG, "notifyCharacteristic sending notification");
 
             mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
+            count++;
         }
+        return count;
     }
 
     private static int SpeedFloatToCharacteristicIntValue(float speed) {
@@ -1874,6 +1992,7 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
                 Long.numberOfTrailingZeros(ServiceFeature.SEARCH_CONTROL_POINT);
         public static final int CONTENT_CONTROL_ID =
                 Long.numberOfTrailingZeros(ServiceFeature.CONTENT_CONTROL_ID);
+        public static final int COUNT = CONTENT_CONTROL_ID + 1;
 
         public static int FromFeature(long feature) {
             return Long.numberOfTrailingZeros(feature);
@@ -1999,6 +2118,16 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
         return characteristics;
     }
 
+    private static final Map<UUID, Integer> CHAR_ID_BY_UUID = new HashMap<>();
+    private static final UUID[] CHAR_UUIDS = new UUID[CharId.COUNT];
+
+    static {
+        for (Pair<UUID, CharacteristicData> entry : getUuidCharacteristicList()) {
+            CHAR_ID_BY_UUID.put(entry.first, entry.second.id);
+            CHAR_UUIDS[entry.second.id] = entry.first;
+        }
+    }
+
     public void dump(StringBuilder sb) {
         sb.append("\tMediaControlService instance:");
         sb.append("\n\t\tCcid = " + mCcid);
@@ -2013,13 +2142,20 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
         }
 
         sb.append("\n\t\tCurrentPlaybackState = " + mCurrentMediaState);
-        for (Map.Entry<String, HashMap<UUID, Short>> deviceEntry
-                : mCccDescriptorValues.entrySet()) {
-            sb.append("\n\t\tCCC states for device: " + "xx:xx:xx:xx:"
-                    + deviceEntry.getKey().substring(12));
-            for (Map.Entry<UUID, Short> entry : deviceEntry.getValue().entrySet()) {
-                sb.append("\n\t\t\tCharacteristic: " + mcsUuidToString(entry.getKey()) + ", value: "
-                        + Utils.cccIntToStr(entry.getValue()));
+        synchronized (mNotifyLock) {
+            sb.append("\n\t\tCoalesced notifications = " + mCoalescedNotificationCount);
+        }
+        synchronized (mCccDescriptorValues) {
+            for (Map.Entry<BluetoothDevice, DeviceCcc> deviceEntry
+                    : mCccDescriptorValues.entrySet()) {
+                sb.append("\n\t\tCCC states for device: " + "xx:xx:xx:xx:"
+                        + deviceEntry.getKey().getAddress().substring(12));
+                DeviceCcc ccc = deviceEntry.getValue();
+                for (int mask = ccc.mSetMask; mask != 0; mask &= mask - 1) {
+                    int charId = Integer.numberOfTrailingZeros(mask);
+                    sb.append("\n\t\t\tCharacteristic: " + mcsUuidToString(CHAR_UUIDS[charId])
+                            + ", value: " + Utils.cccIntToStr(ccc.mValues[charId]));
+                }
             }
         }
     }
@@ -54,9 +54,9 @@ import com.android.obex.ResponseCodes;
 
 import com.google.common.annotations.VisibleForTesting;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 
 /**
@@ -395,6 +395,9 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
             ClientOperation putOperation = null;
             OutputStream outputStream = null;
             InputStream inputStream = null;
+            BluetoothOppPacketReader packetReader = null;
+            long startTime = 0;
+            long startPosition = 0;
             try {
                 synchronized (this) {
                     mWaitingForRemote = true;
@@ -463,11 +466,14 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     long currentTime = 0;
                     long prevTimestamp = SystemClock.elapsedRealtime();
                     int outputBufferSize = putOperation.getMaxPacketSize();
-                    byte[] buffer = new byte[outputBufferSize];
-                    BufferedInputStream a = new BufferedInputStream(fileInfo.mInputStream, 0x4000);
+                    packetReader = new BluetoothOppPacketReader(fileInfo.mInputStream,
+                            fileInfo.mLength, outputBufferSize,
+                            BluetoothOppPacketReader.DEFAULT_DEPTH);
+                    packetReader.start();
 
                     if (!mInterrupted && (position != fileInfo.mLength)) {
-                        readLength = readFully(a, buffer, outputBufferSize);
+                        BluetoothOppPacketReader.Packet packet = takePacket(packetReader);
+                        readLength = packet.mLength;
 
                         mCallback.sendMessageDelayed(mCallback.obtainMessage(
                                 BluetoothOppObexSession.MSG_CONNECT_TIMEOUT),
@@ -477,9 +483,14 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                         }
 
                         // first packet will block here
-                        outputStream.write(buffer, 0, readLength);
+                        outputStream.write(packet.mBuffer, 0, readLength);
+                        packetReader.recycle(packet);
 
                         position += readLength;
+                        // The first packet waited for the remote user to accept, it is left out
+                        // of the throughput
+                        startTime = SystemClock.elapsedRealtime();
+                        startPosition = position;
 
                         if (position == fileInfo.mLength) {
                             // if file length is smaller than buffer size, only one packet
@@ -517,8 +528,11 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                             timestamp = SystemClock.elapsedRealtime();
                         }
 
-                        readLength = a.read(buffer, 0, outputBufferSize);
-                        outputStream.write(buffer, 0, readLength);
+                        // The next packet has usually been read while the previous one was sent
+                        BluetoothOppPacketReader.Packet packet = takePacket(packetReader);
+                        readLength = packet.mLength;
+                        outputStream.write(packet.mBuffer, 0, readLength);
+                        packetReader.recycle(packet);
 
                         /* check remote abort */
                         responseCode = putOperation.getResponseCode();
@@ -537,10 +551,12 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                                         + " readLength " + readLength + " bytes took "
                                         + (currentTime - timestamp) + " ms");
                             }
-                            // Update the Progress Bar only if there is change in percentage
-                            // or once per a period to notify NFC of this transfer is still alive
+                            // Update the Progress Bar only if there is change in percentage and
+                            // the last update is old enough, or once per a period to notify NFC
+                            // of this transfer is still alive
                             percent = position * 100 / fileInfo.mLength;
-                            if (percent > prevPercent
+                            if ((percent > prevPercent && currentTime - prevTimestamp
+                                    >= Constants.PROGRESS_UPDATE_INTERVAL_MS)
                                     || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
                                 updateValues = new ContentValues();
                                 updateValues.put(BluetoothShare.CURRENT_BYTES, position);
@@ -561,9 +577,18 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                         Log.i(TAG, "Remote reject file type " + fileInfo.mMimetype);
                         status = BluetoothShare.STATUS_NOT_ACCEPTABLE;
                     } else if (!mInterrupted && position == fileInfo.mLength) {
+                        long throughput = BluetoothOppUtility.computeThroughput(
+                                position - startPosition,
+                                SystemClock.elapsedRealtime() - startTime);
                         Log.i(TAG,
                                 "SendFile finished send out file " + fileInfo.mFileName + " length "
-                                        + fileInfo.mLength);
+                                        + fileInfo.mLength + " at " + throughput + " bytes/s");
+                        // Progress is throttled, make sure the final position is persisted
+                        updateValues = new ContentValues();
+                        updateValues.put(BluetoothShare.CURRENT_BYTES, position);
+                        updateValues.put(BluetoothShare.THROUGHPUT, throughput);
+                        mContext1.getContentResolver()
+                                .update(contentUri, updateValues, null, null);
                     } else {
                         error = true;
                         status = BluetoothShare.STATUS_CANCELED;
@@ -587,6 +612,9 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                 } catch (IOException e) {
                     Log.e(TAG, "Error when closing output stream after send");
                 }
+                if (packetReader != null) {
+                    packetReader.close();
+                }
 
                 // Close InputStream and remove SendFileInfo from map
                 BluetoothOppUtility.closeSendFileInfo(mInfo.mUri);
@@ -637,6 +665,25 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
             return status;
         }
 
+        /**
+         * Takes the next packet read ahead from the file, failing if the file ends before its
+         * advertised length or if the thread is interrupted while waiting.
+         */
+        private BluetoothOppPacketReader.Packet takePacket(BluetoothOppPacketReader reader)
+                throws IOException {
+            BluetoothOppPacketReader.Packet packet;
+            try {
+                packet = reader.take();
+            } catch (InterruptedException e) {
+                mInterrupted = true;
+                throw new InterruptedIOException("Interrupted while reading file");
+            }
+            if (packet.mLength < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            return packet;
+        }
+
         private void handleSendException(String exception) {
             Log.e(TAG, "Error when sending file: " + exception);
             // Update interrupted outbound content resolver entry when
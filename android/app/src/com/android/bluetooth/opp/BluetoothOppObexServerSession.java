@@ -38,9 +38,12 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
+import android.os.ParcelFileDescriptor;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
@@ -59,9 +62,12 @@ import com.android.obex.ServerSession;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 /**
@@ -439,7 +445,8 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
         return obexResponse;
     }
 
-    private int receiveFile(BluetoothOppReceiveFileInfo fileInfo, Operation op) {
+    @VisibleForTesting
+    int receiveFile(BluetoothOppReceiveFileInfo fileInfo, Operation op) {
         /*
          * implement receive file
          */
@@ -465,13 +472,25 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
         }
 
         long position = 0;
+        long written = 0;
         long percent;
         long prevPercent = 0;
+        FileChannel channel = null;
 
         if (!error) {
             try {
-                os = BluetoothMethodProxy.getInstance().contentResolverOpenOutputStream(
-                        mContext.getContentResolver(), fileInfo.mInsertUri);
+                ParcelFileDescriptor pfd =
+                        BluetoothMethodProxy.getInstance().contentResolverOpenFileDescriptor(
+                                mContext.getContentResolver(), fileInfo.mInsertUri, "w");
+                if (pfd != null) {
+                    preallocate(pfd, fileInfo.mLength);
+                    FileOutputStream fos = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+                    channel = fos.getChannel();
+                    os = fos;
+                } else {
+                    os = BluetoothMethodProxy.getInstance().contentResolverOpenOutputStream(
+                            mContext.getContentResolver(), fileInfo.mInsertUri);
+                }
             } catch (FileNotFoundException e) {
                 Log.e(TAG, "Error when openOutputStream");
                 error = true;
@@ -479,12 +498,17 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
         }
 
         if (!error) {
-            int outputBufferSize = op.getMaxPacketSize();
+            // Several OBEX packets are gathered before each write to storage, the buffer size
+            // is a multiple of the file system block size so writes stay block aligned.
+            int outputBufferSize = Math.max(op.getMaxPacketSize(), Constants.RECEIVE_BUFFER_SIZE);
             byte[] b = new byte[outputBufferSize];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(b);
+            int buffered = 0;
             int readLength;
             long timestamp = 0;
             long currentTime;
-            long prevTimestamp = SystemClock.elapsedRealtime();
+            long startTime = SystemClock.elapsedRealtime();
+            long prevTimestamp = startTime;
             try {
                 while ((!mInterrupted) && (position != fileInfo.mLength)) {
 
@@ -492,7 +516,8 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                         timestamp = SystemClock.elapsedRealtime();
                     }
 
-                    readLength = is.read(b);
+                    readLength = is.read(b, buffered,
+                            (int) Math.min(b.length - buffered, fileInfo.mLength - position));
 
                     if (readLength == -1) {
                         if (D) {
@@ -501,8 +526,13 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                         break;
                     }
 
-                    os.write(b, 0, readLength);
+                    buffered += readLength;
                     position += readLength;
+                    if (buffered == b.length || position == fileInfo.mLength) {
+                        writeBuffer(os, channel, byteBuffer, buffered);
+                        written += buffered;
+                        buffered = 0;
+                    }
                     percent = position * 100 / fileInfo.mLength;
                     currentTime = SystemClock.elapsedRealtime();
 
@@ -512,9 +542,11 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                                         + " bytes took " + (currentTime - timestamp) + " ms");
                     }
 
-                    // Update the Progress Bar only if there is change in percentage
-                    // or once per a period to notify NFC of this transfer is still alive
-                    if (percent > prevPercent
+                    // Update the Progress Bar only if there is change in percentage and the last
+                    // update is old enough, or once per a period to notify NFC of this transfer
+                    // is still alive
+                    if ((percent > prevPercent
+                            && currentTime - prevTimestamp >= Constants.PROGRESS_UPDATE_INTERVAL_MS)
                             || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
                         ContentValues updateValues = new ContentValues();
                         updateValues.put(BluetoothShare.CURRENT_BYTES, position);
@@ -525,6 +557,24 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                         prevTimestamp = currentTime;
                     }
                 }
+                if (buffered > 0) {
+                    writeBuffer(os, channel, byteBuffer, buffered);
+                    written += buffered;
+                }
+                if (!mInterrupted && position == fileInfo.mLength) {
+                    long throughput = BluetoothOppUtility.computeThroughput(
+                            position, SystemClock.elapsedRealtime() - startTime);
+                    if (D) {
+                        Log.d(TAG, "Received " + position + " bytes at " + throughput
+                                + " bytes/s");
+                    }
+                    // Progress is throttled, make sure the final position is persisted
+                    ContentValues updateValues = new ContentValues();
+                    updateValues.put(BluetoothShare.CURRENT_BYTES, position);
+                    updateValues.put(BluetoothShare.THROUGHPUT, throughput);
+                    BluetoothMethodProxy.getInstance().contentResolverUpdate(
+                            mContext.getContentResolver(), contentUri, updateValues, null, null);
+                }
             } catch (IOException e1) {
                 Log.e(TAG, "Error when receiving file: " + e1);
                 /* OBEX Abort packet received from remote device */
@@ -558,6 +608,9 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
             }
         }
 
+        if (channel != null && status != BluetoothShare.STATUS_SUCCESS) {
+            truncate(channel, written);
+        }
         if (os != null) {
             try {
                 os.flush();
@@ -570,6 +623,43 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
         return status;
     }
 
+    /**
+     * Reserves the space of the incoming file up front, so the file system does not have to
+     * extend the file on every write. Failing to do so is not fatal.
+     */
+    private static void preallocate(ParcelFileDescriptor pfd, long length) {
+        try {
+            Os.posix_fallocate(pfd.getFileDescriptor(), 0, length);
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Unable to preallocate " + length + " bytes: " + e);
+        }
+    }
+
+    /**
+     * Gives back the space reserved by {@link #preallocate} that was not received, so that an
+     * incomplete file doesn't end with zeroes up to the advertised length.
+     */
+    private static void truncate(FileChannel channel, long length) {
+        try {
+            channel.truncate(length);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to truncate to " + length + " bytes: " + e);
+        }
+    }
+
+    private static void writeBuffer(OutputStream os, FileChannel channel, ByteBuffer byteBuffer,
+            int length) throws IOException {
+        if (channel == null) {
+            os.write(byteBuffer.array(), 0, length);
+            return;
+        }
+        byteBuffer.clear();
+        byteBuffer.limit(length);
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+    }
+
     private BluetoothOppReceiveFileInfo processShareInfo() {
         if (D) {
             Log.d(TAG, "processShareInfo() " + mInfo.mId);
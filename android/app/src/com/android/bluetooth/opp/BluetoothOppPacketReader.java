@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a file ahead of the OBEX client on a dedicated thread.
+ *
+ * <p>The file is read into a small ring of packet sized buffers, so reading the next packet from
+ * storage overlaps with sending the current one over the air. Buffers are handed to the consumer
+ * with {@link #take()} and must be given back with {@link #recycle(Packet)} once sent.
+ */
+class BluetoothOppPacketReader {
+    private static final String TAG = "BluetoothOppPacketReader";
+
+    private static final boolean V = Constants.VERBOSE;
+
+    /** Number of packets that can be read ahead of the consumer. */
+    static final int DEFAULT_DEPTH = 4;
+
+    /** A buffer filled by the reader thread. */
+    static final class Packet {
+        final byte[] mBuffer;
+        int mLength;
+        IOException mError;
+
+        Packet(int size) {
+            mBuffer = new byte[size];
+        }
+    }
+
+    private final InputStream mInputStream;
+    private final long mLength;
+    private final BlockingQueue<Packet> mFree;
+    private final BlockingQueue<Packet> mFilled;
+    private final Thread mThread;
+    private volatile boolean mClosed;
+
+    /**
+     * @param inputStream the file content
+     * @param length number of bytes to read from {@code inputStream}
+     * @param packetSize size of each buffer, usually the OBEX maximum packet size
+     * @param depth number of buffers in the ring
+     */
+    BluetoothOppPacketReader(InputStream inputStream, long length, int packetSize, int depth) {
+        mInputStream = inputStream;
+        mLength = length;
+        mFree = new ArrayBlockingQueue<>(depth);
+        mFilled = new ArrayBlockingQueue<>(depth);
+        for (int i = 0; i < depth; i++) {
+            mFree.add(new Packet(packetSize));
+        }
+        mThread = new Thread(this::readLoop, TAG);
+    }
+
+    void start() {
+        mThread.start();
+    }
+
+    /**
+     * Returns the next packet, blocking until it has been read. A packet with a length of -1
+     * marks the end of the stream.
+     *
+     * @throws IOException if reading the file failed
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    Packet take() throws IOException, InterruptedException {
+        Packet packet = mFilled.take();
+        if (packet.mError != null) {
+            throw packet.mError;
+        }
+        return packet;
+    }
+
+    /** Gives a packet back to the reader thread once its content has been consumed. */
+    void recycle(Packet packet) {
+        mFree.offer(packet);
+    }
+
+    /** Stops the reader thread. Does not close the underlying stream. */
+    void close() {
+        mClosed = true;
+        mThread.interrupt();
+    }
+
+    private void readLoop() {
+        long position = 0;
+        try {
+            while (!mClosed) {
+                Packet packet = mFree.take();
+                packet.mError = null;
+                if (position >= mLength) {
+                    packet.mLength = -1;
+                    mFilled.put(packet);
+                    return;
+                }
+                int size = (int) Math.min(packet.mBuffer.length, mLength - position);
+                try {
+                    packet.mLength = BluetoothOppObexClientSession.readFully(
+                            mInputStream, packet.mBuffer, size);
+                } catch (IOException e) {
+                    packet.mError = e;
+                    mFilled.put(packet);
+                    return;
+                } catch (RuntimeException e) {
+                    // Report to the consumer instead of crashing the process
+                    packet.mError = new IOException(e);
+                    mFilled.put(packet);
+                    return;
+                }
+                if (packet.mLength <= 0) {
+                    // Premature end of file
+                    packet.mLength = -1;
+                    mFilled.put(packet);
+                    return;
+                }
+                position += packet.mLength;
+                mFilled.put(packet);
+            }
+        } catch (InterruptedException e) {
+            if (V) {
+                Log.v(TAG, "Read ahead interrupted at " + position);
+            }
+        }
+    }
+}
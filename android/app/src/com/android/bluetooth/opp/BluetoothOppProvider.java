@@ -62,7 +62,7 @@ public final class BluetoothOppProvider extends ContentProvider {
     private static final String DB_NAME = "btopp.db";
 
     /** Current database version */
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 2;
 
     /** Database version from which upgrading is a nop */
     private static final int DB_VERSION_NOP_UPGRADE_FROM = 0;
@@ -70,6 +70,9 @@ public final class BluetoothOppProvider extends ContentProvider {
     /** Database version to which upgrading is a nop */
     private static final int DB_VERSION_NOP_UPGRADE_TO = 1;
 
+    /** Database version that added the throughput column */
+    private static final int DB_VERSION_ADD_THROUGHPUT = 2;
+
     /** Name of table in the database */
     private static final String DB_TABLE = "btopp";
 
@@ -133,12 +136,30 @@ public final class BluetoothOppProvider extends ContentProvider {
                 // Upgrading from NOP_FROM is the same as upgrading from NOP_TO.
                 oldV = DB_VERSION_NOP_UPGRADE_TO;
             }
+            if (oldV == DB_VERSION_NOP_UPGRADE_TO && newV == DB_VERSION_ADD_THROUGHPUT) {
+                Log.i(TAG, "Upgrading downloads database from version " + oldV + " to " + newV);
+                db.execSQL("ALTER TABLE " + DB_TABLE + " ADD COLUMN " + BluetoothShare.THROUGHPUT
+                        + " INTEGER");
+                return;
+            }
             Log.i(TAG, "Upgrading downloads database from version " + oldV + " to " + newV
                     + ", which will destroy all old data");
             dropTable(db);
             createTable(db);
         }
 
+        /**
+         * Recreates the database when it was created by a newer version of the provider, e.g.
+         * before the module was rolled back, as the columns added since are unknown here.
+         */
+        @Override
+        public void onDowngrade(final SQLiteDatabase db, int oldV, final int newV) {
+            Log.i(TAG, "Downgrading downloads database from version " + oldV + " to " + newV
+                    + ", which will destroy all old data");
+            dropTable(db);
+            createTable(db);
+        }
+
     }
 
     private static void createTable(SQLiteDatabase db) {
@@ -152,7 +173,7 @@ public final class BluetoothOppProvider extends ContentProvider {
                     + BluetoothShare.STATUS + " INTEGER, " + BluetoothShare.TOTAL_BYTES
                     + " INTEGER, " + BluetoothShare.CURRENT_BYTES + " INTEGER, "
                     + BluetoothShare.TIMESTAMP + " INTEGER," + Constants.MEDIA_SCANNED
-                    + " INTEGER); ");
+                    + " INTEGER, " + BluetoothShare.THROUGHPUT + " INTEGER); ");
         } catch (SQLException ex) {
             Log.e(TAG, "createTable: Failed.");
             throw ex;
@@ -311,9 +332,11 @@ public final class BluetoothOppProvider extends ContentProvider {
             return null;
         }
 
-        context.getContentResolver().notifyChange(uri, null);
+        // Notify the new row so that observers only need to look at this share
+        Uri shareUri = Uri.parse(BluetoothShare.CONTENT_URI + "/" + rowID);
+        context.getContentResolver().notifyChange(shareUri, null);
 
-        return Uri.parse(BluetoothShare.CONTENT_URI + "/" + rowID);
+        return shareUri;
     }
 
     @Override
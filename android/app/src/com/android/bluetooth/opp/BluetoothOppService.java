@@ -38,6 +38,7 @@ import android.bluetooth.BluetoothDevicePicker;
 import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -52,8 +53,10 @@ import android.os.Binder;
 import android.os.Handler;
 import android.os.Message;
 import android.os.Process;
+import android.os.SystemClock;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.bluetooth.BluetoothObexTransport;
 import com.android.bluetooth.IObexConnectionHandler;
@@ -68,7 +71,10 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.TreeSet;
 
 /**
  * Performs the background Bluetooth OPP transfer. It also starts thread to
@@ -112,11 +118,11 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         }
 
         @Override
-        public void onChange(boolean selfChange) {
+        public void onChange(boolean selfChange, Uri uri) {
             if (V) {
-                Log.v(TAG, "ContentObserver received notification");
+                Log.v(TAG, "ContentObserver received notification for " + uri);
             }
-            updateFromProvider();
+            updateFromProvider(getShareId(uri));
         }
     }
 
@@ -130,11 +136,28 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
 
     private boolean mPendingUpdate;
 
+    /** Whether the next update has to sync the whole table instead of the changed shares only */
+    private boolean mPendingFullSync;
+
+    /** IDs of the shares changed since the last update */
+    private final TreeSet<Integer> mPendingShareIds = new TreeSet<>();
+
+    private long mLastFullSyncTime;
+
+    /**
+     * Row notifications are synced one share at a time. The whole table is still reconciled
+     * with this period, in case a change was notified without the row it affects.
+     */
+    @VisibleForTesting
+    static final long FULL_SYNC_INTERVAL_MS = 5 * 60 * 1000;
+
     private UpdateThread mUpdateThread;
 
     private boolean mUpdateThreadRunning;
 
-    private ArrayList<BluetoothOppShareInfo> mShares;
+    /** Local copy of the shares in the provider, by share ID */
+    @VisibleForTesting
+    SparseArray<BluetoothOppShareInfo> mShares;
 
     private ArrayList<BluetoothOppBatch> mBatches;
 
@@ -153,7 +176,8 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
      */
     private CharArrayBuffer mNewChars;
 
-    private boolean mListenStarted;
+    @VisibleForTesting
+    boolean mListenStarted;
 
     private boolean mMediaScanInProgress;
 
@@ -217,7 +241,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         if (V) {
             Log.v(TAG, "onCreate");
         }
-        mShares = new ArrayList();
+        mShares = new SparseArray<>();
         mBatches = new ArrayList();
         mBatchId = 1;
 
@@ -308,7 +332,8 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         super.dump(sb);
         if (mShares.size() > 0) {
             println(sb, "Shares:");
-            for (BluetoothOppShareInfo info : mShares) {
+            for (int i = 0; i < mShares.size(); i++) {
+                BluetoothOppShareInfo info = mShares.valueAt(i);
                 String dir = info.mDirection == BluetoothShare.DIRECTION_OUTBOUND ? " -> " : " <- ";
                 SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss", Locale.US);
                 Date date = new Date(info.mTimestamp);
@@ -604,8 +629,38 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         }
     };
 
+    /**
+     * Returns the ID of the share a provider URI points to, or -1 if it refers to the whole
+     * table.
+     */
+    @VisibleForTesting
+    static int getShareId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(segments.get(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private void updateFromProvider() {
+        updateFromProvider(-1);
+    }
+
+    /** Syncs the share with the given ID from the provider, or all shares if it is negative */
+    private void updateFromProvider(int shareId) {
         synchronized (BluetoothOppService.this) {
+            if (shareId < 0) {
+                mPendingFullSync = true;
+            } else {
+                mPendingShareIds.add(shareId);
+            }
             mPendingUpdate = true;
             if (mUpdateThread == null) {
                 mUpdateThread = new UpdateThread();
@@ -638,6 +693,8 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
             while (!mIsInterrupted) {
+                boolean fullSync;
+                ArrayList<Integer> shareIds;
                 synchronized (BluetoothOppService.this) {
                     if (mUpdateThread != this) {
                         mUpdateThreadRunning = false;
@@ -654,106 +711,144 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                         return;
                     }
                     mPendingUpdate = false;
+                    long now = SystemClock.elapsedRealtime();
+                    fullSync = mPendingFullSync || mLastFullSyncTime == 0
+                            || now - mLastFullSyncTime >= FULL_SYNC_INTERVAL_MS;
+                    if (fullSync) {
+                        mLastFullSyncTime = now;
+                    }
+                    shareIds = new ArrayList<>(mPendingShareIds);
+                    mPendingFullSync = false;
+                    mPendingShareIds.clear();
                 }
-                Cursor cursor =
-                        getContentResolver().query(BluetoothShare.CONTENT_URI, null, null, null,
-                                BluetoothShare._ID);
 
-                if (cursor == null) {
-                    mUpdateThreadRunning = false;
-                    return;
+                if (fullSync) {
+                    if (!syncAllShares()) {
+                        mUpdateThreadRunning = false;
+                        return;
+                    }
+                } else {
+                    for (int shareId : shareIds) {
+                        syncShare(shareId);
+                    }
                 }
 
-                cursor.moveToFirst();
-
-                int arrayPos = 0;
-
-                boolean isAfterLast = cursor.isAfterLast();
-
-                int idColumn = cursor.getColumnIndexOrThrow(BluetoothShare._ID);
-                /*
-                 * Walk the cursor and the local array to keep them in sync. The
-                 * key to the algorithm is that the ids are unique and sorted
-                 * both in the cursor and in the array, so that they can be
-                 * processed in order in both sources at the same time: at each
-                 * step, both sources point to the lowest id that hasn't been
-                 * processed from that source, and the algorithm processes the
-                 * lowest id from those two possibilities. At each step: -If the
-                 * array contains an entry that's not in the cursor, remove the
-                 * entry, move to next entry in the array. -If the array
-                 * contains an entry that's in the cursor, nothing to do, move
-                 * to next cursor row and next array entry. -If the cursor
-                 * contains an entry that's not in the array, insert a new entry
-                 * in the array, move to next cursor row and next array entry.
-                 */
-                while (!isAfterLast || arrayPos < mShares.size() && mListenStarted) {
-                    if (isAfterLast) {
-                        // We're beyond the end of the cursor but there's still some
-                        // stuff in the local array, which can only be junk
-                        if (mShares.size() != 0) {
-                            if (V) {
-                                Log.v(TAG, "Array update: trimming " + mShares.get(arrayPos).mId
-                                        + " @ " + arrayPos);
-                            }
-                        }
+                mNotifier.updateNotification();
+            }
 
-                        deleteShare(arrayPos); // this advances in the array
-                    } else {
-                        int id = cursor.getInt(idColumn);
+            mUpdateThreadRunning = false;
+        }
+    }
 
-                        if (arrayPos == mShares.size()) {
-                            insertShare(cursor, arrayPos);
-                            if (V) {
-                                Log.v(TAG, "Array update: inserting " + id + " @ " + arrayPos);
-                            }
-                            ++arrayPos;
-                            cursor.moveToNext();
-                            isAfterLast = cursor.isAfterLast();
-                        } else {
-                            int arrayId = 0;
-                            if (mShares.size() != 0) {
-                                arrayId = mShares.get(arrayPos).mId;
-                            }
+    /** Returns whether updates from the provider are being synced */
+    @VisibleForTesting
+    synchronized boolean isUpdating() {
+        return mUpdateThread != null;
+    }
 
-                            if (arrayId < id) {
-                                if (V) {
-                                    Log.v(TAG,
-                                            "Array update: removing " + arrayId + " @ " + arrayPos);
-                                }
-                                deleteShare(arrayPos);
-                            } else if (arrayId == id) {
-                                // This cursor row already exists in the stored array.
-                                updateShare(cursor, arrayPos);
-                                scanFileIfNeeded(arrayPos);
-                                ++arrayPos;
-                                cursor.moveToNext();
-                                isAfterLast = cursor.isAfterLast();
-                            } else {
-                                // This cursor entry didn't exist in the stored
-                                // array
-                                if (V) {
-                                    Log.v(TAG, "Array update: appending " + id + " @ " + arrayPos);
-                                }
-                                insertShare(cursor, arrayPos);
-
-                                ++arrayPos;
-                                cursor.moveToNext();
-                                isAfterLast = cursor.isAfterLast();
-                            }
-                        }
-                    }
-                }
+    /**
+     * Reconciles the local copy of the shares with the whole provider table.
+     *
+     * @return false if the provider couldn't be queried
+     */
+    private boolean syncAllShares() {
+        Cursor cursor =
+                getContentResolver().query(BluetoothShare.CONTENT_URI, null, null, null,
+                        BluetoothShare._ID);
 
-                mNotifier.updateNotification();
+        if (cursor == null) {
+            return false;
+        }
 
-                cursor.close();
+        try {
+            syncAllShares(cursor);
+        } finally {
+            cursor.close();
+        }
+        return true;
+    }
+
+    /** Reconciles the local copy of the shares with all the rows of the table, sorted by ID */
+    @VisibleForTesting
+    void syncAllShares(Cursor cursor) {
+        int idColumn = cursor.getColumnIndexOrThrow(BluetoothShare._ID);
+        HashSet<Integer> ids = new HashSet<>();
+        int lastId = -1;
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+            lastId = cursor.getInt(idColumn);
+            ids.add(lastId);
+        }
+
+        // Shares that are gone from the provider are removed first, the ones beyond the end
+        // of the table only once listening has started
+        ArrayList<BluetoothOppShareInfo> removed = new ArrayList<>();
+        for (int i = 0; i < mShares.size(); i++) {
+            BluetoothOppShareInfo info = mShares.valueAt(i);
+            if (!ids.contains(info.mId) && (info.mId < lastId || mListenStarted)) {
+                removed.add(info);
             }
+        }
+        for (BluetoothOppShareInfo info : removed) {
+            if (V) {
+                Log.v(TAG, "Array update: removing " + info.mId);
+            }
+            deleteShare(info);
+        }
 
-            mUpdateThreadRunning = false;
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+            BluetoothOppShareInfo info = mShares.get(cursor.getInt(idColumn));
+            if (info == null) {
+                if (V) {
+                    Log.v(TAG, "Array update: inserting " + cursor.getInt(idColumn));
+                }
+                insertShare(cursor);
+            } else {
+                updateShare(cursor, info);
+                scanFileIfNeeded(info);
+            }
+        }
+    }
+
+    /** Syncs the local copy of a single share with its row in the provider */
+    private void syncShare(int shareId) {
+        Cursor cursor = getContentResolver().query(
+                ContentUris.withAppendedId(BluetoothShare.CONTENT_URI, shareId), null, null, null,
+                null);
+
+        if (cursor == null) {
+            return;
+        }
+
+        try {
+            syncShare(shareId, cursor);
+        } finally {
+            cursor.close();
         }
     }
 
-    private void insertShare(Cursor cursor, int arrayPos) {
+    /** Syncs the local copy of a share with the result of the query of its row */
+    @VisibleForTesting
+    void syncShare(int shareId, Cursor cursor) {
+        BluetoothOppShareInfo info = mShares.get(shareId);
+        if (cursor.moveToFirst()) {
+            if (info == null) {
+                if (V) {
+                    Log.v(TAG, "Share update: inserting " + shareId);
+                }
+                insertShare(cursor);
+            } else {
+                updateShare(cursor, info);
+                scanFileIfNeeded(info);
+            }
+        } else if (info != null) {
+            if (V) {
+                Log.v(TAG, "Share update: removing " + shareId);
+            }
+            deleteShare(info);
+        }
+    }
+
+    private void insertShare(Cursor cursor) {
         String uriString = cursor.getString(cursor.getColumnIndexOrThrow(BluetoothShare.URI));
         Uri uri;
         if (uriString != null) {
@@ -798,7 +893,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
             Log.v(TAG, "SCANNED : " + info.mMediaScanned);
         }
 
-        mShares.add(arrayPos, info);
+        mShares.put(info.mId, info);
 
         /* Mark the info as failed if it's in invalid status */
         if (info.isObsolete()) {
@@ -884,8 +979,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         }
     }
 
-    private void updateShare(Cursor cursor, int arrayPos) {
-        BluetoothOppShareInfo info = mShares.get(arrayPos);
+    private void updateShare(Cursor cursor, BluetoothOppShareInfo info) {
         int statusColumn = cursor.getColumnIndexOrThrow(BluetoothShare.STATUS);
 
         info.mId = cursor.getInt(cursor.getColumnIndexOrThrow(BluetoothShare._ID));
@@ -988,11 +1082,9 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
     /**
      * Removes the local copy of the info about a share.
      */
-    private void deleteShare(int arrayPos) {
-        BluetoothOppShareInfo info = mShares.get(arrayPos);
-
+    private void deleteShare(BluetoothOppShareInfo info) {
         /*
-         * Delete arrayPos from a batch. The logic is
+         * Delete the share from a batch. The logic is
          * 1) Search existing batch for the info
          * 2) cancel the batch
          * 3) If the batch become empty delete the batch
@@ -1013,7 +1105,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                 removeBatch(batch);
             }
         }
-        mShares.remove(arrayPos);
+        mShares.remove(info.mId);
     }
 
     private String stringFromCursor(String old, Cursor cursor, String column) {
@@ -1092,8 +1184,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         }
     }
 
-    private void scanFileIfNeeded(int arrayPos) {
-        BluetoothOppShareInfo info = mShares.get(arrayPos);
+    private void scanFileIfNeeded(BluetoothOppShareInfo info) {
         boolean isFileReceived = BluetoothShare.isStatusSuccess(info.mStatus)
                 && info.mDirection == BluetoothShare.DIRECTION_INBOUND && !info.mMediaScanned
                 && info.mConfirm != BluetoothShare.USER_CONFIRMATION_HANDOVER_CONFIRMED;
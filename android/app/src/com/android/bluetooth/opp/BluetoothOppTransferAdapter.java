@@ -113,6 +113,12 @@ public class BluetoothOppTransferAdapter extends ResourceCursorAdapter {
                     completeText = r.getString(R.string.upload_success,
                             Formatter.formatFileSize(mContext, totalBytes));
                 }
+                long throughput =
+                        cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.THROUGHPUT));
+                if (throughput > 0) {
+                    completeText = r.getString(R.string.transfer_throughput, completeText,
+                            Formatter.formatFileSize(mContext, throughput));
+                }
                 tv.setText(completeText);
             }
 
@@ -127,7 +127,8 @@ public class BluetoothOppTransferHistory extends Activity
                 BluetoothShare.TIMESTAMP,
                 BluetoothShare.VISIBILITY,
                 BluetoothShare.DESTINATION,
-                BluetoothShare.DIRECTION
+                BluetoothShare.DIRECTION,
+                BluetoothShare.THROUGHPUT
         }, selection, null, sortOrder);
 
         // only attach everything to the listbox if we can access
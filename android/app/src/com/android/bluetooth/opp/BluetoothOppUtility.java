@@ -338,6 +338,17 @@ public class BluetoothOppUtility {
         return df.format(percent);
     }
 
+    /**
+     * Helper function to compute the average throughput of a transfer, in bytes per second.
+     */
+    static long computeThroughput(long bytes, long elapsedMs) {
+        if (bytes <= 0) {
+            return 0;
+        }
+        // Transfers faster than the clock resolution are accounted as lasting 1ms
+        return bytes * 1000 / Math.max(elapsedMs, 1);
+    }
+
     /**
      * Helper function to build the result notification text content.
      */
@@ -218,6 +218,18 @@ public final class BluetoothShare implements BaseColumns {
      */
     public static final String TIMESTAMP = "timestamp";
 
+    /**
+     * The name of the column containing the average throughput of the
+     * transfer, in bytes per second. It is set once the transfer has finished.
+     * <P>
+     * Type: INTEGER
+     * </P>
+     * <P>
+     * Owner can Read
+     * </P>
+     */
+    public static final String THROUGHPUT = "throughput";
+
     /**
      * This transfer is outbound, e.g. share file to other device.
      */
@@ -206,6 +206,12 @@ public class Constants {
     /** Notify NFC of the transfer progress periodically, or it will timeout after 20sec. */
     static final int NFC_ALIVE_CHECK_MS = 10000;
 
+    /** Minimum interval between two transfer progress updates written to the provider. */
+    static final int PROGRESS_UPDATE_INTERVAL_MS = 500;
+
+    /** Size of the buffer gathering received packets before they are written to storage. */
+    static final int RECEIVE_BUFFER_SIZE = 256 * 1024;
+
     static final boolean DEBUG = true;
 
     static final boolean VERBOSE = false;
@@ -51,14 +51,19 @@ import com.android.obex.Operation;
 import com.android.obex.ResponseCodes;
 import com.android.obex.ServerRequestHandler;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 public class BluetoothPbapObexServer extends ServerRequestHandler {
 
@@ -799,15 +804,15 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
         return parseOk;
     }
 
-    /** Form and Send an XML format String to client for Phone book listing */
+    /**
+     * Form and Send an XML format String to client for Phone book listing. The listing is written
+     * to the OBEX output stream entry by entry, so a page of a large phonebook doesn't need the
+     * whole document in memory.
+     */
     private int sendVcardListingXml(AppParamValue appParamValue, Operation op, int needSendBody,
             int size) {
-        StringBuilder result = new StringBuilder();
-        int itemsFound = 0;
-        result.append("<?xml version=\"1.0\"?>");
-        result.append("<!DOCTYPE vcard-listing SYSTEM \"vcard-listing.dtd\">");
-        result.append("<vCard-listing version=\"1.0\">");
         String type = "";
+        ContactsType contactType = null;
         // Phonebook listing request
         if ((appParamValue.needTag == ContentType.PHONEBOOK)
                 || (appParamValue.needTag == ContentType.FAVORITES)) {
@@ -816,55 +821,86 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
             } else if (appParamValue.searchAttr.equals("1")) {
                 type = "number";
             }
-            if (type.length() > 0) {
-                itemsFound = createList(appParamValue, needSendBody, size, result, type,
-                        ContactsType.TYPE_PHONEBOOK);
-            } else {
+            if (type.length() == 0) {
                 return ResponseCodes.OBEX_HTTP_PRECON_FAILED;
             }
+            contactType = ContactsType.TYPE_PHONEBOOK;
         // SIM Phonebook listing Request
         } else if (appParamValue.needTag == ContentType.SIM_PHONEBOOK) {
             type = mVcardSimManager.getType(appParamValue.searchAttr);
-            if (type.length() > 0) {
-                itemsFound = createList(appParamValue, needSendBody, size, result, type,
-                        ContactsType.TYPE_SIM);
-            } else {
+            if (type.length() == 0) {
                 return ResponseCodes.OBEX_HTTP_PRECON_FAILED;
             }
-        // Call history listing request
-        } else {
-            ArrayList<String> nameList = mVcardManager.loadCallHistoryList(appParamValue.needTag);
-            int requestSize =
-                    nameList.size() >= appParamValue.maxListCount ? appParamValue.maxListCount
-                            : nameList.size();
-            int startPoint = appParamValue.listStartOffset;
-            int endPoint = startPoint + requestSize;
-            if (endPoint > nameList.size()) {
-                endPoint = nameList.size();
+            contactType = ContactsType.TYPE_SIM;
+        }
+
+        OutputStream outputStream = null;
+        int pushResult = ResponseCodes.OBEX_HTTP_OK;
+        int itemsFound = 0;
+        try {
+            outputStream = op.openOutputStream();
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            writer.write("<?xml version=\"1.0\"?>");
+            writer.write("<!DOCTYPE vcard-listing SYSTEM \"vcard-listing.dtd\">");
+            writer.write("<vCard-listing version=\"1.0\">");
+            if (contactType != null) {
+                itemsFound = createList(appParamValue, needSendBody, size, writer, type,
+                        contactType);
+            } else {
+                // Call history listing request
+                itemsFound = createCallHistoryList(appParamValue, writer);
             }
-            if (D) {
-                Log.d(TAG, "call log list, size=" + requestSize + " offset="
-                        + appParamValue.listStartOffset);
+            writer.write("</vCard-listing>");
+            writer.flush();
+            if (V) {
+                Log.v(TAG, "Send Data complete!");
             }
+        } catch (IOException e) {
+            Log.e(TAG, "open/write outputstrem failed" + e.toString());
+            pushResult = ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+        }
 
-            for (int j = startPoint; j < endPoint; j++) {
-                writeVCardEntry(j + 1, nameList.get(j), result);
-            }
+        if (!closeStream(outputStream, op)) {
+            pushResult = ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
         }
-        result.append("</vCard-listing>");
 
         if (D) {
             Log.d(TAG, "itemsFound =" + itemsFound);
         }
+        return pushResult;
+    }
+
+    private int createCallHistoryList(AppParamValue appParamValue, Writer writer)
+            throws IOException {
+        ArrayList<String> nameList = mVcardManager.loadCallHistoryList(appParamValue.needTag);
+        int requestSize =
+                nameList.size() >= appParamValue.maxListCount ? appParamValue.maxListCount
+                        : nameList.size();
+        int startPoint = appParamValue.listStartOffset;
+        int endPoint = startPoint + requestSize;
+        if (endPoint > nameList.size()) {
+            endPoint = nameList.size();
+        }
+        if (D) {
+            Log.d(TAG, "call log list, size=" + requestSize + " offset="
+                    + appParamValue.listStartOffset);
+        }
 
-        return pushBytes(op, result.toString());
+        StringBuilder entry = new StringBuilder();
+        int itemsFound = 0;
+        for (int j = startPoint; j < endPoint; j++) {
+            itemsFound++;
+            writeVCardEntry(j + 1, nameList.get(j), entry, writer);
+        }
+        return itemsFound;
     }
 
     private int createList(AppParamValue appParamValue, int needSendBody, int size,
-            StringBuilder result, String type, ContactsType contactType) {
+            Writer writer, String type, ContactsType contactType) throws IOException {
         int itemsFound = 0;
 
-        ArrayList<String> nameList = null;
+        List<String> nameList = null;
         if (mVcardSelector) {
             if (contactType == ContactsType.TYPE_PHONEBOOK) {
                 nameList = mVcardManager.getSelectedPhonebookNameList(mOrderBy,
@@ -885,7 +921,10 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
                 nameList.size() >= appParamValue.maxListCount ? appParamValue.maxListCount
                         : nameList.size();
         final int listSize = nameList.size();
+        final StringBuilder entry = new StringBuilder();
         String compareValue = "", currentValue;
+        // Matching entries before listStartOffset are counted but not sent
+        int matched = 0;
 
         if (D) {
             Log.d(TAG, "search by " + type + ", requestSize=" + requestSize + " offset="
@@ -893,8 +932,6 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
         }
 
         if (type.equals("number")) {
-            ArrayList<Integer> savedPosList = new ArrayList<>();
-            ArrayList<String> selectedNameList = new ArrayList<String>();
             // query the number, to get the names
             ArrayList<String> names =  new ArrayList<>();
             if (contactType == ContactsType.TYPE_PHONEBOOK) {
@@ -903,63 +940,58 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
                 names = mVcardSimManager.getSIMContactNamesByNumber(appParamValue.searchValue);
             }
             if (mOrderBy == ORDER_BY_ALPHABETICAL) Collections.sort(names);
-            for (int i = 0; i < names.size(); i++) {
+            for (int i = 0; i < names.size() && itemsFound < requestSize; i++) {
                 compareValue = names.get(i).trim();
                 if (D) Log.d(TAG, "compareValue=" + compareValue);
-                for (int pos = 0; pos < listSize; pos++) {
+                for (int pos = 0; pos < listSize && itemsFound < requestSize; pos++) {
                     currentValue = nameList.get(pos);
                     if (V) {
                         Log.d(TAG, "currentValue=" + currentValue);
                     }
                     if (currentValue.equals(compareValue)) {
-                        if (currentValue.contains(",")) {
-                            currentValue = currentValue.substring(0, currentValue.lastIndexOf(','));
+                        if (matched++ < appParamValue.listStartOffset) {
+                            continue;
                         }
-                        selectedNameList.add(currentValue);
-                        savedPosList.add(pos);
+                        itemsFound++;
+                        writeVCardEntry(pos, stripContactId(currentValue), entry, writer);
                     }
                 }
             }
 
-            for (int j = appParamValue.listStartOffset;
-                    j < selectedNameList.size() && itemsFound < requestSize; j++) {
+        } else if (appParamValue.searchValue != null && appParamValue.searchValue.isEmpty()) {
+            // Every entry matches, the requested page maps directly onto the name list
+            for (int pos = appParamValue.listStartOffset;
+                    pos < listSize && itemsFound < requestSize; pos++) {
                 itemsFound++;
-                writeVCardEntry(savedPosList.get(j), selectedNameList.get(j), result);
+                writeVCardEntry(pos, stripContactId(nameList.get(pos)), entry, writer);
             }
 
-        } else {
-            ArrayList<Integer> savedPosList = new ArrayList<>();
-            ArrayList<String> selectedNameList = new ArrayList<String>();
-            if (appParamValue.searchValue != null) {
-                compareValue = appParamValue.searchValue.trim().toLowerCase();
-            }
-
-            for (int pos = 0; pos < listSize; pos++) {
-                currentValue = nameList.get(pos);
+        } else if (appParamValue.searchValue != null) {
+            compareValue = appParamValue.searchValue.trim().toLowerCase();
 
-                if (currentValue.contains(",")) {
-                    currentValue = currentValue.substring(0, currentValue.lastIndexOf(','));
-                }
+            for (int pos = 0; pos < listSize && itemsFound < requestSize; pos++) {
+                currentValue = stripContactId(nameList.get(pos));
 
-                if (appParamValue.searchValue != null) {
-                    if (appParamValue.searchValue.isEmpty()
-                            || ((currentValue.toLowerCase())
-                                               .startsWith(compareValue.toLowerCase()))) {
-                        selectedNameList.add(currentValue);
-                        savedPosList.add(pos);
+                if ((currentValue.toLowerCase()).startsWith(compareValue)) {
+                    if (matched++ < appParamValue.listStartOffset) {
+                        continue;
                     }
+                    itemsFound++;
+                    writeVCardEntry(pos, currentValue, entry, writer);
                 }
             }
-
-            for (int i = appParamValue.listStartOffset;
-                    i < selectedNameList.size() && itemsFound < requestSize; i++) {
-                itemsFound++;
-                writeVCardEntry(savedPosList.get(i), selectedNameList.get(i), result);
-            }
         }
         return itemsFound;
     }
 
+    /** Removes the ",contact_id" suffix of a phonebook name list entry */
+    private static String stripContactId(String nameId) {
+        if (nameId.contains(",")) {
+            return nameId.substring(0, nameId.lastIndexOf(','));
+        }
+        return nameId;
+    }
+
     /**
      * Function to send obex header back to client such as get phonebook size
      * request
@@ -1521,6 +1553,14 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
         result.append("\"/>");
     }
 
+    /** Writes one listing entry, using {@code entry} as scratch buffer */
+    private static void writeVCardEntry(int vcfIndex, String name, StringBuilder entry,
+            Writer writer) throws IOException {
+        entry.setLength(0);
+        writeVCardEntry(vcfIndex, name, entry);
+        writer.append(entry);
+    }
+
     private void notifyUpdateWakeLock() {
         Message msg = Message.obtain(mCallback);
         msg.what = BluetoothPbapService.MSG_ACQUIRE_WAKE_LOCK;
@@ -497,6 +497,7 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
                     break;
                 case CONTACTS_LOADED:
                     mContactsLoaded = true;
+                    BluetoothPbapVcardManager.setNameListCacheEnabled(true);
                     break;
                 case CHECK_SECONDARY_VERSION_COUNTER:
                     updateSecondaryVersion();
@@ -666,6 +667,7 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
 
         mContext = this;
         mContactsLoaded = false;
+        BluetoothPbapVcardManager.setNameListCacheEnabled(false);
         mHandlerThread = new HandlerThread("PbapHandlerThread");
         mHandlerThread.start();
         mSessionStatusHandler = new PbapHandler(mHandlerThread.getLooper());
@@ -717,6 +719,7 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
             mHandlerThread.quitSafely();
         }
         mContactsLoaded = false;
+        BluetoothPbapVcardManager.setNameListCacheEnabled(false);
         if (mContactChangeObserver == null) {
             Log.i(TAG, "Avoid unregister when receiver it is not registered");
             return true;
@@ -30,6 +30,7 @@ import android.provider.ContactsContract.CommonDataKinds.StructuredName;
 import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.DeletedContacts;
 import android.provider.ContactsContract.Profile;
 import android.provider.ContactsContract.RawContactsEntity;
 import android.util.Log;
@@ -40,10 +41,9 @@ import com.android.vcard.VCardComposer;
 import com.android.vcard.VCardConfig;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -68,7 +68,7 @@ class BluetoothPbapUtils {
 
     static AtomicLong sDbIdentifier = new AtomicLong();
 
-    static long sPrimaryVersionCounter = 0;
+    static volatile long sPrimaryVersionCounter = 0;
     static long sSecondaryVersionCounter = 0;
     @VisibleForTesting
     static long sTotalContacts = 0;
@@ -82,41 +82,56 @@ class BluetoothPbapUtils {
     @VisibleForTesting
     static long sContactsLastUpdated = 0;
 
-    private static class ContactData {
-        private String mName;
-        private ArrayList<String> mEmail;
-        private ArrayList<String> mPhone;
-        private ArrayList<String> mAddress;
+    // Number of contacts read back per query when applying a batch of updated contacts
+    private static final int MAX_CONTACTS_PER_QUERY = 500;
 
-        ContactData() {
-            mPhone = new ArrayList<>();
-            mEmail = new ArrayList<>();
-            mAddress = new ArrayList<>();
+    /* Compact summary of a contact's fields, used to tell whether an update touched the
+     * fields covered by the secondary version counter (name, phone, email and address)
+     * without keeping the fields themselves. */
+    @VisibleForTesting
+    static class ContactData {
+        long mSvcFieldsHash;
+        int mSvcFields;
+        int mTotalFields;
+
+        void addField(String mimeType, String data) {
+            mTotalFields++;
+            if (!isSvcField(mimeType)) {
+                return;
+            }
+            mSvcFields++;
+            long h = ((long) mimeType.hashCode() << 32) | (Objects.hashCode(data) & 0xffffffffL);
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            // Summed so the hash doesn't depend on the order the provider returns rows in
+            mSvcFieldsHash += h;
         }
 
-        ContactData(String name, ArrayList<String> phone, ArrayList<String> email,
-                ArrayList<String> address) {
-            this.mName = name;
-            this.mPhone = phone;
-            this.mEmail = email;
-            this.mAddress = address;
+        boolean hasSameSvcFields(ContactData other) {
+            return mSvcFields == other.mSvcFields && mSvcFieldsHash == other.mSvcFieldsHash;
         }
     }
 
     @VisibleForTesting
     static HashMap<String, ContactData> sContactDataset = new HashMap<>();
 
-    @VisibleForTesting
-    static HashSet<String> sContactSet = new HashSet<>();
-
-    @VisibleForTesting
-    static final String TYPE_NAME = "name";
-    @VisibleForTesting
-    static final String TYPE_PHONE = "phone";
-    @VisibleForTesting
-    static final String TYPE_EMAIL = "email";
-    @VisibleForTesting
-    static final String TYPE_ADDRESS = "address";
+    private static boolean isSvcField(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        switch (mimeType) {
+            case StructuredName.CONTENT_ITEM_TYPE:
+            case Phone.CONTENT_ITEM_TYPE:
+            case Email.CONTENT_ITEM_TYPE:
+            case StructuredPostal.CONTENT_ITEM_TYPE:
+                return true;
+            default:
+                return false;
+        }
+    }
 
     private static boolean hasFilter(byte[] filter) {
         return filter != null && filter.length > 0;
@@ -272,155 +287,99 @@ class BluetoothPbapUtils {
     }
 
     static void updateSecondaryVersionCounter(Context context, Handler handler) {
-            /* updatedList stores list of contacts which are added/updated after
-             * the time when contacts were last updated. (contactsLastUpdated
-             * indicates the time when contact/contacts were last updated and
-             * corresponding changes were reflected in Folder Version Counters).*/
+        /* Only contacts added/updated or deleted after contactsLastUpdated are read back
+         * (contactsLastUpdated indicates the time when contact/contacts were last updated
+         * and corresponding changes were reflected in Folder Version Counters).*/
+        long newestChange = sContactsLastUpdated;
+        String[] sinceArgs = {Long.toString(sContactsLastUpdated)};
         ArrayList<String> updatedList = new ArrayList<>();
-        HashSet<String> currentContactSet = new HashSet<>();
 
         String[] projection = {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP};
         Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(
-                context.getContentResolver(), Contacts.CONTENT_URI, projection, null, null, null);
+                context.getContentResolver(), Contacts.CONTENT_URI, projection,
+                Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + ">?", sinceArgs, null);
 
         if (c == null) {
             Log.d(TAG, "Failed to fetch data from contact database");
             return;
         }
         while (c.moveToNext()) {
-            String contactId = c.getString(0);
-            long lastUpdatedTime = c.getLong(1);
-            if (lastUpdatedTime > sContactsLastUpdated) {
-                updatedList.add(contactId);
-            }
-            currentContactSet.add(contactId);
+            updatedList.add(c.getString(0));
+            newestChange = Math.max(newestChange, c.getLong(1));
+        }
+        c.close();
+
+        String[] deletedProjection =
+                {DeletedContacts.CONTACT_ID, DeletedContacts.CONTACT_DELETED_TIMESTAMP};
+        c = BluetoothMethodProxy.getInstance().contentResolverQuery(
+                context.getContentResolver(), DeletedContacts.CONTENT_URI, deletedProjection,
+                DeletedContacts.CONTACT_DELETED_TIMESTAMP + ">?", sinceArgs, null);
+
+        if (c == null) {
+            Log.d(TAG, "Failed to fetch deleted contacts from contact database");
+            return;
+        }
+        ArrayList<String> deletedList = new ArrayList<>();
+        while (c.moveToNext()) {
+            deletedList.add(c.getString(0));
+            newestChange = Math.max(newestChange, c.getLong(1));
         }
-        int currentContactCount = c.getCount();
         c.close();
 
         if (V) {
-            Log.v(TAG, "updated list =" + updatedList);
+            Log.v(TAG, "updated list =" + updatedList + ", deleted list =" + deletedList);
         }
-        String[] dataProjection = {Data.CONTACT_ID, Data.DATA1, Data.MIMETYPE};
 
-        String whereClause = Data.CONTACT_ID + "=?";
+        /* When contact/contacts are deleted */
+        for (String deletedContact : deletedList) {
+            ContactData data = sContactDataset.remove(deletedContact);
+            if (data == null) {
+                continue;
+            }
+            sPrimaryVersionCounter++;
+            sSecondaryVersionCounter++;
+            sTotalFields -= data.mTotalFields;
+            sTotalSvcFields -= data.mSvcFields;
+        }
 
-            /* code to check if new contact/contacts are added */
-        if (currentContactCount > sTotalContacts) {
-            for (String contact : updatedList) {
-                String[] selectionArgs = {contact};
-                fetchAndSetContacts(context, handler, dataProjection, whereClause, selectionArgs,
-                        false);
-                sSecondaryVersionCounter++;
-                sPrimaryVersionCounter++;
-                sTotalContacts = currentContactCount;
+        /* When contacts are added, or fields of existing contacts are added/updated/deleted */
+        String[] dataProjection = {Data.CONTACT_ID, Data.DATA1, Data.MIMETYPE};
+        for (int i = 0; i < updatedList.size(); i += MAX_CONTACTS_PER_QUERY) {
+            int batchEnd = Math.min(i + MAX_CONTACTS_PER_QUERY, updatedList.size());
+            List<String> batch = updatedList.subList(i, batchEnd);
+            StringBuilder whereClause = new StringBuilder(Data.CONTACT_ID).append(" IN (");
+            for (int j = 0; j < batch.size(); j++) {
+                whereClause.append(j == 0 ? "?" : ",?");
             }
-                /* When contact/contacts are deleted */
-        } else if (currentContactCount < sTotalContacts) {
-            sTotalContacts = currentContactCount;
-            ArrayList<String> svcFields = new ArrayList<>(
-                    Arrays.asList(StructuredName.CONTENT_ITEM_TYPE, Phone.CONTENT_ITEM_TYPE,
-                            Email.CONTENT_ITEM_TYPE, StructuredPostal.CONTENT_ITEM_TYPE));
-            HashSet<String> deletedContacts = new HashSet<>(sContactSet);
-            deletedContacts.removeAll(currentContactSet);
-            sPrimaryVersionCounter += deletedContacts.size();
-            sSecondaryVersionCounter += deletedContacts.size();
-            if (V) {
-                Log.v(TAG, "Deleted Contacts : " + deletedContacts);
+            whereClause.append(')');
+            HashMap<String, ContactData> fetched = fetchContactData(context, dataProjection,
+                    whereClause.toString(), batch.toArray(new String[0]));
+            if (fetched == null) {
+                Log.d(TAG, "Failed to fetch data from contact database");
+                return;
             }
 
-            // to decrement totalFields and totalSvcFields count
-            for (String deletedContact : deletedContacts) {
-                sContactSet.remove(deletedContact);
-                String[] selectionArgs = {deletedContact};
-                Cursor dataCursor = BluetoothMethodProxy.getInstance().contentResolverQuery(
-                        context.getContentResolver(), Data.CONTENT_URI, dataProjection, whereClause,
-                        selectionArgs, null);
-
-                if (dataCursor == null) {
-                    Log.d(TAG, "Failed to fetch data from contact database");
-                    return;
+            for (String contact : batch) {
+                ContactData newData = fetched.get(contact);
+                if (newData == null) {
+                    newData = new ContactData();
                 }
-
-                while (dataCursor.moveToNext()) {
-                    if (svcFields.contains(
-                            dataCursor.getString(dataCursor.getColumnIndex(Data.MIMETYPE)))) {
-                        sTotalSvcFields--;
-                    }
-                    sTotalFields--;
-                }
-                dataCursor.close();
-            }
-
-                /* When contacts are updated. i.e. Fields of existing contacts are
-                 * added/updated/deleted */
-        } else {
-            for (String contact : updatedList) {
+                ContactData oldData = sContactDataset.put(contact, newData);
                 sPrimaryVersionCounter++;
-                ArrayList<String> phoneTmp = new ArrayList<>();
-                ArrayList<String> emailTmp = new ArrayList<>();
-                ArrayList<String> addressTmp = new ArrayList<>();
-                String nameTmp = null;
-                boolean updated = false;
-
-                String[] selectionArgs = {contact};
-                Cursor dataCursor = BluetoothMethodProxy.getInstance().contentResolverQuery(
-                        context.getContentResolver(), Data.CONTENT_URI, dataProjection, whereClause,
-                        selectionArgs, null);
-
-                if (dataCursor == null) {
-                    Log.d(TAG, "Failed to fetch data from contact database");
-                    return;
-                }
-                // fetch all updated contacts and compare with cached copy of contacts
-                int indexData = dataCursor.getColumnIndex(Data.DATA1);
-                int indexMimeType = dataCursor.getColumnIndex(Data.MIMETYPE);
-                String data;
-                String mimeType;
-                while (dataCursor.moveToNext()) {
-                    data = dataCursor.getString(indexData);
-                    mimeType = dataCursor.getString(indexMimeType);
-                    switch (mimeType) {
-                        case Email.CONTENT_ITEM_TYPE:
-                            emailTmp.add(data);
-                            break;
-                        case Phone.CONTENT_ITEM_TYPE:
-                            phoneTmp.add(data);
-                            break;
-                        case StructuredPostal.CONTENT_ITEM_TYPE:
-                            addressTmp.add(data);
-                            break;
-                        case StructuredName.CONTENT_ITEM_TYPE:
-                            nameTmp = data;
-                            break;
-                    }
-                }
-                ContactData cData = new ContactData(nameTmp, phoneTmp, emailTmp, addressTmp);
-                dataCursor.close();
-
-                ContactData currentContactData = sContactDataset.get(contact);
-                if (currentContactData == null) {
-                    Log.e(TAG, "Null contact in the updateList: " + contact);
-                    continue;
-                }
-
-                if (!Objects.equals(nameTmp, currentContactData.mName)) {
-                    updated = true;
-                } else if (checkFieldUpdates(currentContactData.mPhone, phoneTmp)) {
-                    updated = true;
-                } else if (checkFieldUpdates(currentContactData.mEmail, emailTmp)) {
-                    updated = true;
-                } else if (checkFieldUpdates(currentContactData.mAddress, addressTmp)) {
-                    updated = true;
-                }
-
-                if (updated) {
+                if (oldData == null) {
+                    sSecondaryVersionCounter++;
+                    oldData = new ContactData();
+                } else if (!oldData.hasSameSvcFields(newData)) {
                     sSecondaryVersionCounter++;
-                    sContactDataset.put(contact, cData);
                 }
+                sTotalFields += newData.mTotalFields - oldData.mTotalFields;
+                sTotalSvcFields += newData.mSvcFields - oldData.mSvcFields;
             }
         }
 
+        sTotalContacts = sContactDataset.size();
+        sContactsLastUpdated = newestChange;
+
         Log.d(TAG,
                 "primaryVersionCounter = " + sPrimaryVersionCounter + ", secondaryVersionCounter="
                         + sSecondaryVersionCounter);
@@ -431,37 +390,36 @@ class BluetoothPbapUtils {
         }
     }
 
-    /* checkFieldUpdates checks update contact fields of a particular contact.
-     * Field update can be a field updated/added/deleted in an existing contact.
-     * Returns true if any contact field is updated else return false. */
-    @VisibleForTesting
-    static boolean checkFieldUpdates(ArrayList<String> oldFields,
-            ArrayList<String> newFields) {
-        if (newFields != null && oldFields != null) {
-            if (newFields.size() != oldFields.size()) {
-                sTotalSvcFields += Math.abs(newFields.size() - oldFields.size());
-                sTotalFields += Math.abs(newFields.size() - oldFields.size());
-                return true;
+    /* fetchContactData reads the data rows matching whereClause and summarizes them per
+     * contact. Returns null if the contact database could not be queried. */
+    private static HashMap<String, ContactData> fetchContactData(Context context,
+            String[] projection, String whereClause, String[] selectionArgs) {
+        Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(
+                context.getContentResolver(), Data.CONTENT_URI, projection, whereClause,
+                selectionArgs, null);
+        if (c == null) {
+            return null;
+        }
+
+        HashMap<String, ContactData> contacts = new HashMap<>();
+        int indexCId = c.getColumnIndex(Data.CONTACT_ID);
+        int indexData = c.getColumnIndex(Data.DATA1);
+        int indexMimeType = c.getColumnIndex(Data.MIMETYPE);
+        while (c.moveToNext()) {
+            if (c.isNull(indexCId)) {
+                Log.w(TAG, "_id column is null. Row was deleted during iteration, skipping");
+                continue;
             }
-            for (String newField : newFields) {
-                if (!oldFields.contains(newField)) {
-                    return true;
-                }
+            String contactId = c.getString(indexCId);
+            ContactData data = contacts.get(contactId);
+            if (data == null) {
+                data = new ContactData();
+                contacts.put(contactId, data);
             }
-            /* when all fields of type(phone/email/address) are deleted in a given contact*/
-        } else if (newFields == null && oldFields != null && oldFields.size() > 0) {
-            sTotalSvcFields += oldFields.size();
-            sTotalFields += oldFields.size();
-            return true;
-
-            /* when new fields are added for a type(phone/email/address) in a contact
-             * for which there were no fields of this type earliar.*/
-        } else if (oldFields == null && newFields != null && newFields.size() > 0) {
-            sTotalSvcFields += newFields.size();
-            sTotalFields += newFields.size();
-            return true;
+            data.addField(c.getString(indexMimeType), c.getString(indexData));
         }
-        return false;
+        c.close();
+        return contacts;
     }
 
     /* fetchAndSetContacts reads contacts and caches them
@@ -470,15 +428,13 @@ class BluetoothPbapUtils {
     @VisibleForTesting
     static int fetchAndSetContacts(Context context, Handler handler, String[] projection,
             String whereClause, String[] selectionArgs, boolean isLoad) {
-        long currentTotalFields = 0, currentSvcFieldCount = 0;
-        Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(
-                context.getContentResolver(), Data.CONTENT_URI, projection, whereClause,
-                selectionArgs, null);
+        HashMap<String, ContactData> contacts =
+                fetchContactData(context, projection, whereClause, selectionArgs);
 
         /* send delayed message to loadContact when ContentResolver is unable
          * to fetch data from contact database using the specified URI at that
          * moment (Case: immediate Pbap connect on system boot with BT ON)*/
-        if (c == null) {
+        if (contacts == null) {
             Log.d(TAG, "Failed to fetch contacts data from database..");
             if (isLoad) {
                 handler.sendMessageDelayed(
@@ -488,51 +444,33 @@ class BluetoothPbapUtils {
             return -1;
         }
 
-        int indexCId = c.getColumnIndex(Data.CONTACT_ID);
-        int indexData = c.getColumnIndex(Data.DATA1);
-        int indexMimeType = c.getColumnIndex(Data.MIMETYPE);
-        String contactId, data, mimeType;
-
-        while (c.moveToNext()) {
-            if (c.isNull(indexCId)) {
-                Log.w(TAG, "_id column is null. Row was deleted during iteration, skipping");
-                continue;
-            }
-            contactId = c.getString(indexCId);
-            data = c.getString(indexData);
-            mimeType = c.getString(indexMimeType);
-            /* fetch phone/email/address/name information of the contact */
-            switch (mimeType) {
-                case Phone.CONTENT_ITEM_TYPE:
-                    setContactFields(TYPE_PHONE, contactId, data);
-                    currentSvcFieldCount++;
-                    break;
-                case Email.CONTENT_ITEM_TYPE:
-                    setContactFields(TYPE_EMAIL, contactId, data);
-                    currentSvcFieldCount++;
-                    break;
-                case StructuredPostal.CONTENT_ITEM_TYPE:
-                    setContactFields(TYPE_ADDRESS, contactId, data);
-                    currentSvcFieldCount++;
-                    break;
-                case StructuredName.CONTENT_ITEM_TYPE:
-                    setContactFields(TYPE_NAME, contactId, data);
-                    currentSvcFieldCount++;
-                    break;
+        long currentTotalFields = 0, currentSvcFieldCount = 0;
+        for (ContactData data : contacts.values()) {
+            currentTotalFields += data.mTotalFields;
+            currentSvcFieldCount += data.mSvcFields;
+        }
+        if (isLoad) {
+            sContactDataset.clear();
+        } else {
+            // Only count the fields the cache didn't already account for
+            for (String contactId : contacts.keySet()) {
+                ContactData oldData = sContactDataset.get(contactId);
+                if (oldData != null) {
+                    currentTotalFields -= oldData.mTotalFields;
+                    currentSvcFieldCount -= oldData.mSvcFields;
+                }
             }
-            sContactSet.add(contactId);
-            currentTotalFields++;
         }
-        c.close();
+        sContactDataset.putAll(contacts);
 
         /* This code checks if there is any update in contacts after last pbap
          * disconnect has happenned (even if BT is turned OFF during this time)*/
         if (isLoad && currentTotalFields != sTotalFields) {
-            sPrimaryVersionCounter += Math.abs(sTotalContacts - sContactSet.size());
+            sPrimaryVersionCounter += Math.abs(sTotalContacts - sContactDataset.size());
 
             if (currentSvcFieldCount != sTotalSvcFields) {
-                if (sTotalContacts != sContactSet.size()) {
-                    sSecondaryVersionCounter += Math.abs(sTotalContacts - sContactSet.size());
+                if (sTotalContacts != sContactDataset.size()) {
+                    sSecondaryVersionCounter += Math.abs(sTotalContacts - sContactDataset.size());
                 } else {
                     sSecondaryVersionCounter++;
                 }
@@ -548,40 +486,10 @@ class BluetoothPbapUtils {
                     + "Pbap Connect, primaryVersionCounter=" + sPrimaryVersionCounter
                     + ", secondaryVersionCounter=" + sSecondaryVersionCounter);
         } else if (!isLoad) {
-            sTotalFields++;
-            sTotalSvcFields++;
-        }
-        return sContactSet.size();
-    }
-
-    /* setContactFields() is used to store contacts data in local cache (phone,
-     * email or address which is required for updating Secondary Version counter).
-     * contactsFieldData - List of field data for phone/email/address.
-     * contactId - Contact ID, data1 - field value from data table for phone/email/address*/
-    @VisibleForTesting
-    static void setContactFields(String fieldType, String contactId, String data) {
-        ContactData cData;
-        if (sContactDataset.containsKey(contactId)) {
-            cData = sContactDataset.get(contactId);
-        } else {
-            cData = new ContactData();
-        }
-
-        switch (fieldType) {
-            case TYPE_NAME:
-                cData.mName = data;
-                break;
-            case TYPE_PHONE:
-                cData.mPhone.add(data);
-                break;
-            case TYPE_EMAIL:
-                cData.mEmail.add(data);
-                break;
-            case TYPE_ADDRESS:
-                cData.mAddress.add(data);
-                break;
+            sTotalFields += currentTotalFields;
+            sTotalSvcFields += currentSvcFieldCount;
         }
-        sContactDataset.put(contactId, cData);
+        return sContactDataset.size();
     }
 
     /* As per Pbap 1.2 specification, Database Identifies shall be
@@ -64,7 +64,10 @@ import com.android.vcard.VCardPhoneNumberTranslationCallback;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 
 public class BluetoothPbapVcardManager {
     private static final String TAG = "BluetoothPbapVcardManager";
@@ -102,6 +105,33 @@ public class BluetoothPbapVcardManager {
 
     private static final int NEED_SEND_BODY = -1;
 
+    // Phonebook name index per sort order (ORDER_BY_INDEXED, ORDER_BY_ALPHABETICAL), shared by
+    // all sessions. An entry is reused as long as the database identifier and the primary folder
+    // version counter, which moves on every contact add, delete or update, stay the same.
+    private static final Object sNameListLock = new Object();
+    private static final NameListCache[] sNameListCache = new NameListCache[2];
+    private static boolean sNameListCacheEnabled = false;
+
+    private static final class NameListCache {
+        final long mDbIdentifier;
+        final long mPrimaryVersionCounter;
+        final String mOwnerName;
+        final List<String> mNameList;
+
+        NameListCache(long dbIdentifier, long primaryVersionCounter, String ownerName,
+                List<String> nameList) {
+            mDbIdentifier = dbIdentifier;
+            mPrimaryVersionCounter = primaryVersionCounter;
+            mOwnerName = ownerName;
+            mNameList = nameList;
+        }
+
+        boolean isValid(long dbIdentifier, long primaryVersionCounter, String ownerName) {
+            return mDbIdentifier == dbIdentifier && mPrimaryVersionCounter == primaryVersionCounter
+                    && TextUtils.equals(mOwnerName, ownerName);
+        }
+    }
+
     public BluetoothPbapVcardManager(final Context context) {
         mContext = context;
         mResolver = mContext.getContentResolver();
@@ -271,8 +301,22 @@ public class BluetoothPbapVcardManager {
         return list;
     }
 
-    public final ArrayList<String> getPhonebookNameList(final int orderByWhat) {
-        ArrayList<String> nameList = new ArrayList<String>();
+    /**
+     * Enables or disables the phonebook name index cache. The folder version counters are only
+     * maintained once all contacts have been loaded, so the cache must stay disabled until then.
+     */
+    static void setNameListCacheEnabled(boolean enabled) {
+        synchronized (sNameListLock) {
+            sNameListCacheEnabled = enabled;
+            Arrays.fill(sNameListCache, null);
+        }
+    }
+
+    /**
+     * Returns the "display_name,contact_id" list of the phonebook, the owner's name first. The
+     * list is shared between sessions and must not be modified.
+     */
+    public final List<String> getPhonebookNameList(final int orderByWhat) {
         //Owner vCard enhancement. Use "ME" profile if configured
         String ownerName = null;
         if (BluetoothPbapConfig.useProfileForOwnerVcard()) {
@@ -281,15 +325,36 @@ public class BluetoothPbapVcardManager {
         if (ownerName == null || ownerName.length() == 0) {
             ownerName = BluetoothPbapService.getLocalPhoneName();
         }
+        //End enhancement
+
+        final int cacheIndex =
+                orderByWhat == BluetoothPbapObexServer.ORDER_BY_ALPHABETICAL ? 1 : 0;
+        // Read the counters before querying, a change racing with the query then only makes the
+        // next request query again
+        final long dbIdentifier = BluetoothPbapUtils.sDbIdentifier.get();
+        final long primaryVersionCounter = BluetoothPbapUtils.sPrimaryVersionCounter;
+        synchronized (sNameListLock) {
+            NameListCache cache = sNameListCache[cacheIndex];
+            if (sNameListCacheEnabled && cache != null
+                    && cache.isValid(dbIdentifier, primaryVersionCounter, ownerName)) {
+                if (V) {
+                    Log.v(TAG, "getPhonebookNameList: reusing " + cache.mNameList.size()
+                            + " entries, primaryVersionCounter=" + primaryVersionCounter);
+                }
+                return cache.mNameList;
+            }
+        }
+
+        ArrayList<String> nameList = new ArrayList<String>();
         if (ownerName != null) {
             nameList.add(ownerName);
         }
-        //End enhancement
 
         final Uri myUri = DevicePolicyUtils.getEnterprisePhoneUri(mContext);
         Cursor contactCursor = null;
         // By default order is indexed
         String orderBy = Phone.CONTACT_ID;
+        boolean complete = false;
         try {
             if (orderByWhat == BluetoothPbapObexServer.ORDER_BY_ALPHABETICAL) {
                 orderBy = Phone.DISPLAY_NAME;
@@ -299,6 +364,7 @@ public class BluetoothPbapVcardManager {
             if (contactCursor != null) {
                 appendDistinctNameIdList(nameList, mContext.getString(android.R.string.unknownName),
                         contactCursor);
+                complete = true;
             }
         } catch (CursorWindowAllocationException e) {
             Log.e(TAG, "CursorWindowAllocationException while getting phonebook name list");
@@ -310,7 +376,17 @@ public class BluetoothPbapVcardManager {
                 contactCursor = null;
             }
         }
-        return nameList;
+
+        List<String> result = Collections.unmodifiableList(nameList);
+        if (complete) {
+            synchronized (sNameListLock) {
+                if (sNameListCacheEnabled) {
+                    sNameListCache[cacheIndex] = new NameListCache(dbIdentifier,
+                            primaryVersionCounter, ownerName, result);
+                }
+            }
+        }
+        return result;
     }
 
     final ArrayList<String> getSelectedPhonebookNameList(final int orderByWhat,
@@ -1268,6 +1344,8 @@ public class BluetoothPbapVcardManager {
         final int contactIdColumn = cursor.getColumnIndex(Data.CONTACT_ID);
         final int idColumn = cursor.getColumnIndex(Data._ID);
         final int nameColumn = cursor.getColumnIndex(Data.DISPLAY_NAME);
+        // Phone rows repeat the contact for every number, keep the lookup linear
+        final HashSet<String> seen = new HashSet<>(resultList);
         cursor.moveToPosition(-1);
         while (cursor.moveToNext()) {
             final long contactId =
@@ -1278,7 +1356,7 @@ public class BluetoothPbapVcardManager {
             }
 
             String newString = displayName + "," + contactId;
-            if (!resultList.contains(newString)) {
+            if (seen.add(newString)) {
                 resultList.add(newString);
             }
         }
@@ -147,6 +147,12 @@ public class BluetoothInCallService extends InCallService {
     // A map from Calls to indexes used to identify calls for CLCC (C* List Current Calls).
     private final Map<String, Integer> mClccIndexMap = new HashMap<>();
 
+    // CLCC responses computed after the last call event, replayed for each AT+CLCC.
+    private final List<ClccResponse> mClccResponses = new ArrayList<>();
+    // Cleared by call events on the main thread, set by the AT+CLCC handler before it rebuilds
+    // mClccResponses, so that an event landing during the rebuild is not lost.
+    private volatile boolean mClccResponsesValid = false;
+
     private static BluetoothInCallService sInstance = null;
 
     public CallInfo mCallInfo = new CallInfo();
@@ -234,6 +240,8 @@ public class BluetoothInCallService extends InCallService {
             if (mCallInfo.isNullCall(call)) {
                 return;
             }
+            // Also needed for the transient states that don't update the headset below
+            mClccResponsesValid = false;
             if (call.isExternalCall()) {
                 return;
             }
@@ -285,6 +293,8 @@ public class BluetoothInCallService extends InCallService {
             if (mCallInfo.isNullCall(call)) {
                 return;
             }
+            // Handle, gateway info or capabilities may have changed
+            mClccResponsesValid = false;
             if (call.isExternalCall()) {
                 onCallRemoved(call, false /* forceRemoveCallback */);
             } else {
@@ -302,6 +312,7 @@ public class BluetoothInCallService extends InCallService {
             if (call.isExternalCall()) {
                 return;
             }
+            mClccResponsesValid = false;
             if (call.getParentId() != null) {
                 // If this BluetoothCall is newly conferenced, ignore the callback.
                 // We only care about the one sent for the parent conference call.
@@ -323,6 +334,7 @@ public class BluetoothInCallService extends InCallService {
             if (call.isExternalCall()) {
                 return;
             }
+            mClccResponsesValid = false;
             if (call.getChildrenIds().size() == 1) {
                 // If this is a parent BluetoothCall with only one child,
                 // ignore the callback as well since the minimum number of child calls to
@@ -745,6 +757,8 @@ public class BluetoothInCallService extends InCallService {
         mCallbacks.clear();
         mBluetoothCallHashMap.clear();
         mClccIndexMap.clear();
+        mClccResponses.clear();
+        mClccResponsesValid = false;
         mBluetoothConferenceCallInference.clear();
         mClccInferenceIndexMap.clear();
         mBluetoothCallQueue.clear();
@@ -758,6 +772,32 @@ public class BluetoothInCallService extends InCallService {
     }
 
     private void sendListOfCalls(boolean shouldLog) {
+        if (!mClccResponsesValid) {
+            mClccResponsesValid = true;
+            updateClccResponses();
+        }
+        for (ClccResponse response : mClccResponses) {
+            if (shouldLog) {
+                Log.i(TAG, "sending clcc for BluetoothCall " + response);
+            }
+            if (mBluetoothHeadset == null) {
+                Log.w(TAG, "mBluetoothHeasdset is null when sending clcc for BluetoothCall "
+                        + response);
+            } else {
+                mBluetoothHeadset.clccResponse(response.mIndex, response.mDirection,
+                        response.mState, 0, response.mIsPartOfConference, response.mAddress,
+                        response.mAddressType);
+            }
+        }
+        sendClccEndMarker();
+    }
+
+    /**
+     * Computes the CLCC responses for the current calls. Called on the first AT+CLCC after a call
+     * event, the responses are then replayed until the calls change again.
+     */
+    private void updateClccResponses() {
+        mClccResponses.clear();
         Collection<BluetoothCall> calls = mCallInfo.getBluetoothCalls();
         boolean isInferenceEnabled =
                 DeviceConfig.getBoolean(DeviceConfig.NAMESPACE_BLUETOOTH, CLCC_INFERENCE, false);
@@ -765,7 +805,7 @@ public class BluetoothInCallService extends InCallService {
         for (BluetoothCall call : calls) {
             if (isInferenceEnabled && call.isConference()
                     && !mBluetoothConferenceCallInference.isEmpty()) {
-                SortedMap<Integer, Object[]> clccResponseMap = new TreeMap<>();
+                SortedMap<Integer, ClccResponse> clccResponseMap = new TreeMap<>();
                 Log.d(
                         TAG,
                         "conference call inferred size: "
@@ -795,50 +835,20 @@ public class BluetoothInCallService extends InCallService {
                     int direction = inferredCall.isIncoming() ? 1 : 0;
                     int state = CALL_STATE_ACTIVE;
                     boolean isPartOfConference = true;
-                    final Uri addressUri;
-                    if (inferredCall.getGatewayInfo() != null) {
-                        addressUri = inferredCall.getGatewayInfo().getOriginalAddress();
-                    } else {
-                        addressUri = inferredCall.getHandle();
-                    }
-                    String address = addressUri == null ? null : addressUri.getSchemeSpecificPart();
-                    if (address != null) {
-                        address = PhoneNumberUtils.stripSeparators(address);
-                    }
+                    String address = getClccAddress(inferredCall);
                     int addressType =
                             address == null ? -1 : PhoneNumberUtils.toaFromString(address);
                     clccResponseMap.put(
                             index,
-                            new Object[] {
-                                index, direction, state, 0, isPartOfConference, address, addressType
-                            });
+                            new ClccResponse(
+                                    index, direction, state, isPartOfConference, address,
+                                    addressType));
                 }
                 // ensure response is sorted by index
-                for (Object[] response : clccResponseMap.values()) {
-                    if (response.length < 7) {
-                        Log.e(TAG, "clccResponseMap entry too short");
-                        continue;
-                    }
-                    Log.i(
-                            TAG,
-                            String.format(
-                                    "sending inferred clcc for BluetoothCall: index %d, direction"
-                                        + " %d, state %d, isPartOfConference %b, addressType %d",
-                                    (int) response[0],
-                                    (int) response[1],
-                                    (int) response[2],
-                                    (boolean) response[4],
-                                    (int) response[6]));
-                    mBluetoothHeadset.clccResponse(
-                            (int) response[0],
-                            (int) response[1],
-                            (int) response[2],
-                            (int) response[3],
-                            (boolean) response[4],
-                            (String) response[5],
-                            (int) response[6]);
+                for (ClccResponse response : clccResponseMap.values()) {
+                    Log.i(TAG, "inferred clcc for BluetoothCall: " + response);
+                    mClccResponses.add(response);
                 }
-                sendClccEndMarker();
                 return;
             }
         }
@@ -851,10 +861,12 @@ public class BluetoothInCallService extends InCallService {
             Log.i(TAG, "sendListOfCalls isConferenceWithNoChildren " + isConferenceWithNoChildren
                 + ", call.getChildrenIds() size " + call.getChildrenIds().size());
             if (!call.isConference() || isConferenceWithNoChildren) {
-                sendClccForCall(call, shouldLog);
+                ClccResponse response = getClccResponseForCall(call);
+                if (response != null) {
+                    mClccResponses.add(response);
+                }
             }
         }
-        sendClccEndMarker();
     }
 
     private void sendClccEndMarker() {
@@ -865,16 +877,17 @@ public class BluetoothInCallService extends InCallService {
     }
 
     /**
-     * Sends a single clcc (C* List Current Calls) event for the specified call.
+     * Returns the clcc (C* List Current Calls) response for the specified call, or null if the
+     * call is not reported.
      */
-    private void sendClccForCall(BluetoothCall call, boolean shouldLog) {
+    private ClccResponse getClccResponseForCall(BluetoothCall call) {
         boolean isForeground = mCallInfo.getForegroundCall() == call;
         int state = getBtCallState(call, isForeground);
         boolean isPartOfConference = false;
         boolean isConferenceWithNoChildren = isConferenceWithNoChildren(call);
 
         if (state == CALL_STATE_IDLE) {
-            return;
+            return null;
         }
 
         BluetoothCall conferenceCall = getBluetoothCallById(call.getParentId());
@@ -931,6 +944,13 @@ public class BluetoothInCallService extends InCallService {
 
         int index = getIndexForCall(call);
         int direction = call.isIncoming() ? 1 : 0;
+        String address = getClccAddress(call);
+        int addressType = address == null ? -1 : PhoneNumberUtils.toaFromString(address);
+        return new ClccResponse(
+                index, direction, state, isPartOfConference, address, addressType);
+    }
+
+    private static String getClccAddress(BluetoothCall call) {
         final Uri addressUri;
         if (call.getGatewayInfo() != null) {
             addressUri = call.getGatewayInfo().getOriginalAddress();
@@ -942,28 +962,32 @@ public class BluetoothInCallService extends InCallService {
         if (address != null) {
             address = PhoneNumberUtils.stripSeparators(address);
         }
+        return address;
+    }
 
-        int addressType = address == null ? -1 : PhoneNumberUtils.toaFromString(address);
+    /** A single AT+CLCC response line. */
+    private static final class ClccResponse {
+        final int mIndex;
+        final int mDirection;
+        final int mState;
+        final boolean mIsPartOfConference;
+        final String mAddress;
+        final int mAddressType;
+
+        ClccResponse(int index, int direction, int state, boolean isPartOfConference,
+                String address, int addressType) {
+            mIndex = index;
+            mDirection = direction;
+            mState = state;
+            mIsPartOfConference = isPartOfConference;
+            mAddress = address;
+            mAddressType = addressType;
+        }
 
-        if (shouldLog) {
-            Log.i(TAG, "sending clcc for BluetoothCall "
-                            + index + ", "
-                            + direction + ", "
-                            + state + ", "
-                            + isPartOfConference + ", "
-                            + addressType);
-        }
-
-        if (mBluetoothHeadset == null) {
-            Log.w(TAG, "mBluetoothHeasdset is null when sending clcc for BluetoothCall "
-                    + index + ", "
-                    + direction + ", "
-                    + state + ", "
-                    + isPartOfConference + ", "
-                    + addressType);
-        } else {
-            mBluetoothHeadset.clccResponse(
-                    index, direction, state, 0, isPartOfConference, address, addressType);
+        @Override
+        public String toString() {
+            return mIndex + ", " + mDirection + ", " + mState + ", " + mIsPartOfConference + ", "
+                    + mAddressType;
         }
     }
 
@@ -1100,6 +1124,9 @@ public class BluetoothInCallService extends InCallService {
      * has changed.
      */
     private void updateHeadsetWithCallState(boolean force) {
+        // Every Telecom call event ends up here, the CLCC list has to be computed again
+        mClccResponsesValid = false;
+
         BluetoothCall activeCall = mCallInfo.getActiveCall();
         BluetoothCall ringingCall = mCallInfo.getRingingOrSimulatedRingingCall();
         BluetoothCall heldCall = mCallInfo.getHeldCall();
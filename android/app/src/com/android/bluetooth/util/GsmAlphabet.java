@@ -20,6 +20,8 @@ import android.content.res.Resources;
 import android.util.Log;
 import android.util.SparseIntArray;
 
+import java.util.Arrays;
+
 /**
  * This class implements the character set mapping between
  * the GSM SMS 7-bit alphabet specified in TS 23.038 6.2.1
@@ -140,7 +142,8 @@ public class GsmAlphabet {
     public static String gsm7BitPackedToString(byte[] pdu, int offset, int lengthSeptets,
                                                int numPaddingBits, int languageTable,
                                                int shiftTable) {
-        StringBuilder ret = new StringBuilder(lengthSeptets);
+        char[] ret = new char[lengthSeptets];
+        int length = 0;
 
         if (languageTable < 0 || languageTable > sLanguageTables.length) {
             Log.w(TAG, "unknown language table " + languageTable + ", using default");
@@ -153,16 +156,16 @@ public class GsmAlphabet {
 
         try {
             boolean prevCharWasEscape = false;
-            String languageTableToChar = sLanguageTables[languageTable];
-            String shiftTableToChar = sLanguageShiftTables[shiftTable];
+            char[] languageTableToChar = sLanguageTableChars[languageTable];
+            char[] shiftTableToChar = sLanguageShiftTableChars[shiftTable];
 
-            if (languageTableToChar.isEmpty()) {
+            if (languageTableToChar.length == 0) {
                 Log.w(TAG, "no language table for code " + languageTable + ", using default");
-                languageTableToChar = sLanguageTables[0];
+                languageTableToChar = sLanguageTableChars[0];
             }
-            if (shiftTableToChar.isEmpty()) {
+            if (shiftTableToChar.length == 0) {
                 Log.w(TAG, "no single shift table for code " + shiftTable + ", using default");
-                shiftTableToChar = sLanguageShiftTables[0];
+                shiftTableToChar = sLanguageShiftTableChars[0];
             }
 
             for (int i = 0; i < lengthSeptets; i++) {
@@ -184,20 +187,20 @@ public class GsmAlphabet {
 
                 if (prevCharWasEscape) {
                     if (gsmVal == GSM_EXTENDED_ESCAPE) {
-                        ret.append(' ');    // display ' ' for reserved double escape sequence
+                        ret[length++] = ' ';    // display ' ' for reserved double escape sequence
                     } else {
-                        char c = shiftTableToChar.charAt(gsmVal);
+                        char c = shiftTableToChar[gsmVal];
                         if (c == ' ') {
-                            ret.append(languageTableToChar.charAt(gsmVal));
+                            ret[length++] = languageTableToChar[gsmVal];
                         } else {
-                            ret.append(c);
+                            ret[length++] = c;
                         }
                     }
                     prevCharWasEscape = false;
                 } else if (gsmVal == GSM_EXTENDED_ESCAPE) {
                     prevCharWasEscape = true;
                 } else {
-                    ret.append(languageTableToChar.charAt(gsmVal));
+                    ret[length++] = languageTableToChar[gsmVal];
                 }
             }
         } catch (RuntimeException ex) {
@@ -205,7 +208,7 @@ public class GsmAlphabet {
             return null;
         }
 
-        return ret.toString();
+        return new String(ret, 0, length);
     }
 
     /**
@@ -241,15 +244,17 @@ public class GsmAlphabet {
         int outByteIndex = offset;
         SparseIntArray charToLanguageTable = sCharsToGsmTables[0];
         SparseIntArray charToShiftTable = sCharsToShiftTables[0];
+        short[] latin1ToLanguageTable = sLatin1ToGsmTables[0];
+        short[] latin1ToShiftTable = sLatin1ToShiftTables[0];
 
         // Septets are stored in byte-aligned octets
         for (int i = 0, sz = s.length(); i < sz && (outByteIndex - offset) < length; i++) {
             char c = s.charAt(i);
-            int v = charToLanguageTable.get(c, -1);
+            int v = charToGsm(c, latin1ToLanguageTable, charToLanguageTable);
             if (v == -1) {
-                v = charToShiftTable.get(c, -1);
+                v = charToGsm(c, latin1ToShiftTable, charToShiftTable);
                 if (v == -1) {
-                    v = charToLanguageTable.get(' ', ' ');  // fall back to ASCII space
+                    v = latin1ToLanguageTable[' '];  // fall back to ASCII space
                 } else {
                     // make sure we can fit an escaped char
                     if (!(outByteIndex + 1 - offset < length)) {
@@ -288,15 +293,17 @@ public class GsmAlphabet {
         int sz = s.length();
         SparseIntArray charToLanguageTable = sCharsToGsmTables[languageTable];
         SparseIntArray charToShiftTable = sCharsToShiftTables[languageShiftTable];
+        short[] latin1ToLanguageTable = sLatin1ToGsmTables[languageTable];
+        short[] latin1ToShiftTable = sLatin1ToShiftTables[languageShiftTable];
         for (int i = 0; i < sz; i++) {
             char c = s.charAt(i);
             if (c == GSM_EXTENDED_ESCAPE) {
                 Log.w(TAG, "countGsmSeptets() string contains Escape character, skipping.");
                 continue;
             }
-            if (charToLanguageTable.get(c, -1) != -1) {
+            if (charToGsm(c, latin1ToLanguageTable, charToLanguageTable) != -1) {
                 count++;
-            } else if (charToShiftTable.get(c, -1) != -1) {
+            } else if (charToGsm(c, latin1ToShiftTable, charToShiftTable) != -1) {
                 count += 2; // escape + shift table index
             } else if (use7bitOnly) {
                 count++;    // encode as space
@@ -307,6 +314,14 @@ public class GsmAlphabet {
         return count;
     }
 
+    /**
+     * Look up the table index of a character, or -1 if it is not in the table. Latin-1
+     * characters, which make up most text, are looked up directly without a binary search.
+     */
+    private static int charToGsm(char c, short[] latin1Table, SparseIntArray table) {
+        return c < LATIN1_TABLE_SIZE ? latin1Table[c] : table.get(c, -1);
+    }
+
     /**
      * Enable country-specific language tables from MCC-specific overlays.
      */
@@ -332,6 +347,20 @@ public class GsmAlphabet {
     /** Reverse mapping from Unicode characters to indexes into language shift tables. */
     private static final SparseIntArray[] sCharsToShiftTables;
 
+    private static final int LATIN1_TABLE_SIZE = 256;
+
+    /** Same as sCharsToGsmTables for characters below LATIN1_TABLE_SIZE, -1 if not mapped. */
+    private static final short[][] sLatin1ToGsmTables;
+
+    /** Same as sCharsToShiftTables for characters below LATIN1_TABLE_SIZE, -1 if not mapped. */
+    private static final short[][] sLatin1ToShiftTables;
+
+    /** Characters of sLanguageTables, indexed by septet value. */
+    private static final char[][] sLanguageTableChars;
+
+    /** Characters of sLanguageShiftTables, indexed by septet value. */
+    private static final char[][] sLanguageShiftTableChars;
+
     /** OEM configured list of enabled national language single shift tables for encoding. */
     private static int[] sEnabledSingleShiftTables;
 
@@ -680,8 +709,11 @@ public class GsmAlphabet {
         }
 
         sCharsToGsmTables = new SparseIntArray[numTables];
+        sLatin1ToGsmTables = new short[numTables][LATIN1_TABLE_SIZE];
+        sLanguageTableChars = new char[numTables][];
         for (int i = 0; i < numTables; i++) {
             String table = sLanguageTables[i];
+            sLanguageTableChars[i] = table.toCharArray();
 
             int tableLen = table.length();
             if (tableLen != 0 && tableLen != 128) {
@@ -691,15 +723,23 @@ public class GsmAlphabet {
 
             SparseIntArray charToGsmTable = new SparseIntArray(tableLen);
             sCharsToGsmTables[i] = charToGsmTable;
+            short[] latin1ToGsmTable = sLatin1ToGsmTables[i];
+            Arrays.fill(latin1ToGsmTable, (short) -1);
             for (int j = 0; j < tableLen; j++) {
                 char c = table.charAt(j);
                 charToGsmTable.put(c, j);
+                if (c < LATIN1_TABLE_SIZE) {
+                    latin1ToGsmTable[c] = (short) j;
+                }
             }
         }
 
         sCharsToShiftTables = new SparseIntArray[numShiftTables];
+        sLatin1ToShiftTables = new short[numShiftTables][LATIN1_TABLE_SIZE];
+        sLanguageShiftTableChars = new char[numShiftTables][];
         for (int i = 0; i < numShiftTables; i++) {
             String shiftTable = sLanguageShiftTables[i];
+            sLanguageShiftTableChars[i] = shiftTable.toCharArray();
 
             int shiftTableLen = shiftTable.length();
             if (shiftTableLen != 0 && shiftTableLen != 128) {
@@ -709,10 +749,15 @@ public class GsmAlphabet {
 
             SparseIntArray charToShiftTable = new SparseIntArray(shiftTableLen);
             sCharsToShiftTables[i] = charToShiftTable;
+            short[] latin1ToShiftTable = sLatin1ToShiftTables[i];
+            Arrays.fill(latin1ToShiftTable, (short) -1);
             for (int j = 0; j < shiftTableLen; j++) {
                 char c = shiftTable.charAt(j);
                 if (c != ' ') {
                     charToShiftTable.put(c, j);
+                    if (c < LATIN1_TABLE_SIZE) {
+                        latin1ToShiftTable[c] = (short) j;
+                    }
                 }
             }
         }
@@ -36,7 +36,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
-import android.os.HandlerThread;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
@@ -45,6 +46,7 @@ import android.util.Log;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ProfileLooperPool;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -58,6 +60,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class VolumeControlService extends ProfileService {
     private static final boolean DBG = false;
@@ -75,7 +78,7 @@ public class VolumeControlService extends ProfileService {
 
     private AdapterService mAdapterService;
     private DatabaseManager mDatabaseManager;
-    private HandlerThread mStateMachinesThread;
+    private Looper mStateMachinesLooper;
     private BluetoothDevice mPreviousAudioDevice;
 
     @VisibleForTesting
@@ -190,8 +193,9 @@ public class VolumeControlService extends ProfileService {
     private final Map<BluetoothDevice, VolumeControlStateMachine> mStateMachines = new HashMap<>();
     private final Map<BluetoothDevice, VolumeControlOffsetDescriptor> mAudioOffsets =
                                                                             new HashMap<>();
-    private final Map<Integer, Integer> mGroupVolumeCache = new HashMap<>();
-    private final Map<Integer, Boolean> mGroupMuteCache = new HashMap<>();
+    // Accessed from binder, audio framework and native callback threads
+    private final Map<Integer, Integer> mGroupVolumeCache = new ConcurrentHashMap<>();
+    private final Map<Integer, Boolean> mGroupMuteCache = new ConcurrentHashMap<>();
 
     private BroadcastReceiver mBondStateChangedReceiver;
     private BroadcastReceiver mConnectionStateChangedReceiver;
@@ -237,10 +241,9 @@ public class VolumeControlService extends ProfileService {
         Objects.requireNonNull(mAudioManager,
                 "AudioManager cannot be null when VolumeControlService starts");
 
-        // Start handler thread for state machines
+        // Get a looper for state machines
         mStateMachines.clear();
-        mStateMachinesThread = new HandlerThread("VolumeControlService.StateMachines");
-        mStateMachinesThread.start();
+        mStateMachinesLooper = ProfileLooperPool.getInstance().acquire(TAG);
 
         // Setup broadcast receivers
         IntentFilter filter = new IntentFilter();
@@ -287,23 +290,20 @@ public class VolumeControlService extends ProfileService {
         unregisterReceiver(mConnectionStateChangedReceiver);
         mConnectionStateChangedReceiver = null;
 
-        // Destroy state machines and stop handler thread
+        // Destroy state machines and release their looper
+        List<Handler> handlers = new ArrayList<>();
         synchronized (mStateMachines) {
             for (VolumeControlStateMachine sm : mStateMachines.values()) {
+                handlers.add(sm.getHandler());
                 sm.doQuit();
                 sm.cleanup();
             }
             mStateMachines.clear();
         }
 
-        if (mStateMachinesThread != null) {
-            try {
-                mStateMachinesThread.quitSafely();
-                mStateMachinesThread.join(SM_THREAD_JOIN_TIMEOUT_MS);
-                mStateMachinesThread = null;
-            } catch (InterruptedException e) {
-                // Do not rethrow as we are shutting down anyway
-            }
+        if (mStateMachinesLooper != null) {
+            ProfileLooperPool.getInstance().release(TAG, SM_THREAD_JOIN_TIMEOUT_MS, handlers);
+            mStateMachinesLooper = null;
         }
 
         // Cleanup native interface
@@ -1008,7 +1008,7 @@ public class VolumeControlService extends ProfileService {
                 Log.d(TAG, "Creating a new state machine for " + device);
             }
             sm = VolumeControlStateMachine.make(device, this,
-                    mVolumeControlNativeInterface, mStateMachinesThread.getLooper());
+                    mVolumeControlNativeInterface, mStateMachinesLooper);
             mStateMachines.put(device, sm);
             return sm;
         }
@@ -0,0 +1,53 @@
+ifneq ($(TARGET_USE_QTI_BT_STACK),true)
+
+#############################################################
+# Bluetooth host benchmark target.                          #
+#############################################################
+LOCAL_PATH := $(call my-dir)
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := BluetoothHostBenchmarks
+LOCAL_LICENSE_KINDS := SPDX-license-identifier-Apache-2.0
+LOCAL_LICENSE_CONDITIONS := notice
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
+
+LOCAL_JAVA_RESOURCE_DIRS := config
+
+# Include the testing libraries
+LOCAL_JAVA_LIBRARIES := \
+    robolectric_android-all-stub \
+    Robolectric_all-target \
+    mockito-robolectric-prebuilt \
+    truth-prebuilt
+
+LOCAL_INSTRUMENTATION_FOR := Bluetooth
+
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_STATIC_JAVA_LIBRARY)
+
+#############################################################
+# Bluetooth runner target to run the previous target.       #
+# Use run_benchmarks.sh to record the results of a commit.  #
+#############################################################
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := RunBluetoothHostBenchmarks
+LOCAL_LICENSE_KINDS := SPDX-license-identifier-Apache-2.0
+LOCAL_LICENSE_CONDITIONS := notice
+
+LOCAL_JAVA_LIBRARIES := \
+    BluetoothHostBenchmarks \
+    robolectric_android-all-stub \
+    Robolectric_all-target \
+    mockito-robolectric-prebuilt \
+    truth-prebuilt
+
+LOCAL_TEST_PACKAGE := Bluetooth
+
+# No LOCAL_INSTRUMENT_SOURCE_DIRS: coverage instrumentation would skew the results
+
+include external/robolectric-shadows/run_robotests.mk
+
+endif
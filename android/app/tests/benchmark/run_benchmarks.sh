@@ -0,0 +1,72 @@
+#!/bin/bash
+# A utility script that runs the Bluetooth app benchmarks on the host JVM and records the
+# results of the current commit, one JSON object per benchmark and line.
+#
+# Example usage:
+#   $ cd packages/modules/Bluetooth/android/app
+#   $ ./tests/benchmark/run_benchmarks.sh ScanBenchmark
+#   $ cat ${ANDROID_BUILD_TOP}/out/bluetooth_benchmarks/<commit>.jsonl
+
+usage() {
+  binary="$(basename "$0")"
+  echo "Usage: ${binary} --help"
+  echo "       ${binary} [-o <output directory>] [<benchmark class regex>]"
+  echo
+  echo "Results go to <output directory>/<commit>.jsonl, by default the output directory is"
+  echo "\${ANDROID_BUILD_TOP}/out/bluetooth_benchmarks."
+}
+
+out_dir="${ANDROID_BUILD_TOP}/out/bluetooth_benchmarks"
+filter=
+while [ $# -gt 0 ]
+do
+  case "$1" in
+    -h|--help)
+      usage
+      exit 0
+      ;;
+    -o)
+      shift
+      if [ $# -eq 0 ]; then
+        echo "error: output directory expected" 1>&2
+        usage
+        exit 2
+      fi
+      out_dir="$1"
+      shift
+      ;;
+    *)
+      filter="$1"
+      shift
+      ;;
+  esac
+done
+
+if [ -z "${ANDROID_BUILD_TOP}" ]; then
+  echo "error: run build/envsetup.sh and lunch first" 1>&2
+  exit 2
+fi
+
+script_dir="$(cd "$(dirname "$0")" && pwd)"
+commit="$(git -C "${script_dir}" rev-parse --short=12 HEAD)"
+if [ -n "$(git -C "${script_dir}" status --porcelain --untracked-files=no)" ]; then
+  # Local changes: keep the results apart from the ones of the commit itself
+  commit="${commit}-dirty"
+fi
+
+mkdir -p "${out_dir}"
+output="${out_dir}/${commit}.jsonl"
+rm -f "${output}"
+
+export BLUETOOTH_BENCHMARK_OUTPUT="${output}"
+export BLUETOOTH_BENCHMARK_COMMIT="${commit}"
+if [ -n "${filter}" ]; then
+  export ROBOTEST_FILTER="${filter}"
+fi
+
+cd "${ANDROID_BUILD_TOP}" || exit 1
+source build/envsetup.sh
+m RunBluetoothHostBenchmarks || exit 1
+
+echo "Results written to ${output}"
+exit 0
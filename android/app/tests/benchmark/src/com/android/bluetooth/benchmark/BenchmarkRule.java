@@ -0,0 +1,249 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.benchmark;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and allocation rate of an operation on the host JVM.
+ *
+ * <p>Each measurement warms the operation up, then runs it for a few rounds of fixed duration.
+ * The median round gives the throughput, the bytes allocated by the thread over all rounds give
+ * the allocation per operation. Results are printed, and appended as one JSON object per line to
+ * the file named by {@link #ENV_OUTPUT} so they can be compared from one commit to the next.
+ *
+ * <pre>
+ * &#64;Rule public final BenchmarkRule mBenchmark = new BenchmarkRule();
+ *
+ * &#64;Test
+ * public void parse() throws Exception {
+ *     mBenchmark.measure("small", () -&gt; Parser.parse(SMALL_INPUT));
+ * }
+ * </pre>
+ *
+ * <p>{@link #measurePeakHeap} records how much heap an operation needs at once instead, for
+ * operations on large inputs where holding several copies of the input is the cost to watch.
+ */
+public class BenchmarkRule implements TestRule {
+    /** File the results are appended to, nothing is written if unset. */
+    public static final String ENV_OUTPUT = "BLUETOOTH_BENCHMARK_OUTPUT";
+    /** Commit the results belong to. */
+    public static final String ENV_COMMIT = "BLUETOOTH_BENCHMARK_COMMIT";
+
+    private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long ROUND_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int ROUNDS = 5;
+
+    // Keeps the JIT from removing operations whose result is not used
+    private static volatile Object sSink;
+
+    private String mName;
+
+    /** Operation to measure, its result is consumed so that it can't be optimized away. */
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    @Override
+    public Statement apply(Statement base, Description description) {
+        mName = description.getTestClass().getSimpleName() + "#" + description.getMethodName();
+        return base;
+    }
+
+    /**
+     * Measure an operation and record it under the name of the test and the given variant.
+     *
+     * @param variant what distinguishes this measurement from the others of the test, e.g. the
+     *                input size, or null if the test measures a single operation
+     */
+    public void measure(String variant, Operation operation) throws Exception {
+        String name = variant == null ? mName : mName + "/" + variant;
+
+        long warmupOps = 0;
+        long deadline = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < deadline) {
+            sSink = operation.run();
+            warmupOps++;
+        }
+        // Read the clock about once a millisecond, so that it does not weigh on fast operations
+        long batch = Math.max(1, warmupOps * TimeUnit.MILLISECONDS.toNanos(1) / WARMUP_NANOS);
+
+        double[] opsPerSec = new double[ROUNDS];
+        long totalOps = 0;
+        long allocatedBefore = getAllocatedBytes();
+        for (int round = 0; round < ROUNDS; round++) {
+            long ops = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                for (long i = 0; i < batch; i++) {
+                    sSink = operation.run();
+                }
+                ops += batch;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < ROUND_NANOS);
+            opsPerSec[round] = ops * 1e9 / elapsed;
+            totalOps += ops;
+        }
+        long allocated = getAllocatedBytes() - allocatedBefore;
+        sSink = null;
+
+        Arrays.sort(opsPerSec);
+        report(name, opsPerSec[ROUNDS / 2], opsPerSec[0], opsPerSec[ROUNDS - 1], totalOps,
+                allocatedBefore < 0 ? -1 : (double) allocated / totalOps);
+    }
+
+    /**
+     * Measure the heap used at most while an operation runs, above what was used before it, and
+     * record it under the name of the test and the given variant.
+     *
+     * <p>The peak is summed over the heap memory pools, so the operation should allocate well
+     * more than the JVM does meanwhile, e.g. parse an input of a few megabytes. Nothing is
+     * recorded if the JVM can't tell.
+     */
+    public void measurePeakHeap(String variant, Operation operation) throws Exception {
+        String name = variant == null ? mName : mName + "/" + variant;
+        List<Object> pools = getHeapPools();
+        if (pools == null) {
+            return;
+        }
+        // Warm up so that class loading and compilation don't count
+        sSink = operation.run();
+        sSink = null;
+
+        long[] peakBytes = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            System.gc();
+            long usedBefore = 0;
+            for (Object pool : pools) {
+                usedBefore += getUsed(pool, "getUsage");
+                invoke(pool, "resetPeakUsage");
+            }
+            sSink = operation.run();
+            long peak = 0;
+            for (Object pool : pools) {
+                peak += getUsed(pool, "getPeakUsage");
+            }
+            sSink = null;
+            peakBytes[round] = peak - usedBefore;
+        }
+
+        Arrays.sort(peakBytes);
+        long median = peakBytes[ROUNDS / 2];
+        System.out.println(String.format(Locale.US, "%-60s %14d B peak heap", name, median));
+
+        String output = System.getenv(ENV_OUTPUT);
+        if (output == null || output.isEmpty()) {
+            return;
+        }
+        String commit = System.getenv(ENV_COMMIT);
+        String line = String.format(Locale.US, "{\"commit\":\"%s\",\"timestamp\":%d,"
+                + "\"benchmark\":\"%s\",\"peak_heap_bytes\":%d,\"min_peak_heap_bytes\":%d,"
+                + "\"max_peak_heap_bytes\":%d,\"jvm\":\"%s\"}\n",
+                commit == null ? "unknown" : commit, System.currentTimeMillis(),
+                name + "/peak_heap", median, peakBytes[0], peakBytes[ROUNDS - 1],
+                System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        try (Writer writer = new FileWriter(output, /* append= */ true)) {
+            writer.write(line);
+        }
+    }
+
+    private static void report(String name, double opsPerSec, double minOpsPerSec,
+            double maxOpsPerSec, long ops, double bytesPerOp) throws IOException {
+        double allocMbPerSec = bytesPerOp < 0 ? -1 : bytesPerOp * opsPerSec / (1024 * 1024);
+        System.out.println(String.format(Locale.US,
+                "%-60s %14.1f ops/s  %12.1f ns/op  %12.1f B/op  %9.1f MB/s", name, opsPerSec,
+                1e9 / opsPerSec, bytesPerOp, allocMbPerSec));
+
+        String output = System.getenv(ENV_OUTPUT);
+        if (output == null || output.isEmpty()) {
+            return;
+        }
+        String commit = System.getenv(ENV_COMMIT);
+        String line = String.format(Locale.US, "{\"commit\":\"%s\",\"timestamp\":%d,"
+                + "\"benchmark\":\"%s\",\"ops_per_sec\":%.1f,\"min_ops_per_sec\":%.1f,"
+                + "\"max_ops_per_sec\":%.1f,\"ns_per_op\":%.1f,\"bytes_per_op\":%.1f,"
+                + "\"alloc_mb_per_sec\":%.2f,\"ops\":%d,\"jvm\":\"%s\"}\n",
+                commit == null ? "unknown" : commit, System.currentTimeMillis(), name,
+                opsPerSec, minOpsPerSec, maxOpsPerSec, 1e9 / opsPerSec, bytesPerOp,
+                allocMbPerSec, ops, System.getProperty("java.vm.name") + " "
+                        + System.getProperty("java.version"));
+        try (Writer writer = new FileWriter(output, /* append= */ true)) {
+            writer.write(line);
+        }
+    }
+
+    /** Get the MemoryPoolMXBeans of the heap, or null if the JVM can't tell. */
+    private static List<Object> getHeapPools() {
+        try {
+            List<?> pools = (List<?>) Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getMemoryPoolMXBeans").invoke(null);
+            List<Object> heapPools = new ArrayList<>();
+            for (Object pool : pools) {
+                if ("HEAP".equals(((Enum<?>) invoke(pool, "getType")).name())) {
+                    heapPools.add(pool);
+                }
+            }
+            return heapPools.isEmpty() ? null : heapPools;
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static long getUsed(Object pool, String usageGetter)
+            throws ReflectiveOperationException {
+        Object usage = invoke(pool, usageGetter);
+        return (long) Class.forName("java.lang.management.MemoryUsage").getMethod("getUsed")
+                .invoke(usage);
+    }
+
+    private static Object invoke(Object pool, String method) throws ReflectiveOperationException {
+        return Class.forName("java.lang.management.MemoryPoolMXBean").getMethod(method)
+                .invoke(pool);
+    }
+
+    /**
+     * Get the bytes allocated so far by the current thread, or -1 if the JVM can't tell.
+     *
+     * <p>Goes through reflection as java.lang.management is not part of the Android library this
+     * module is compiled against, even though it is there when running on the host.
+     */
+    private static long getAllocatedBytes() {
+        try {
+            Object threadMxBean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean").invoke(null);
+            Method getThreadAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            return (long) getThreadAllocatedBytes.invoke(threadMxBean,
+                    Thread.currentThread().getId());
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothQualityReport;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Benchmarks of decoding the Bluetooth Quality Reports of the controller, as done by
+ * {@link BluetoothQualityReportNativeInterface} for every report.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BluetoothQualityReportBenchmark {
+    private static final String ADDRESS = "00:1A:7D:DA:71:13";
+    private static final int BQR_COMMON_LEN = 55;
+    private static final int BQR_VS_LSTO_LEN = 26;
+    private static final int BQR_VS_SCO_CHOPPY_LEN = 34;
+
+    @Rule public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    private byte[] mMonitor;
+    private byte[] mApproachLsto;
+    private byte[] mScoChoppy;
+    private BluetoothClass mBluetoothClass;
+
+    @Before
+    public void setUp() {
+        // Reported periodically for each link, the most frequent report
+        mMonitor = rawData(BluetoothQualityReport.QUALITY_REPORT_ID_MONITOR, 0).array();
+
+        ByteBuffer lsto = rawData(BluetoothQualityReport.QUALITY_REPORT_ID_APPROACH_LSTO,
+                BQR_VS_LSTO_LEN);
+        lsto.put((byte) 2); // Connection state
+        lsto.putInt(123456); // Baseband stats
+        lsto.putInt(8000); // Slots used
+        lsto.putShort((short) 12); // Coexistence denials
+        mApproachLsto = lsto.array();
+
+        ByteBuffer sco = rawData(BluetoothQualityReport.QUALITY_REPORT_ID_SCO_CHOPPY,
+                BQR_VS_SCO_CHOPPY_LEN);
+        sco.putShort((short) 7); // Glitch count
+        sco.put((byte) 12); // eSCO interval
+        sco.put((byte) 2); // eSCO window
+        sco.put((byte) 3); // Air format: mSBC
+        mScoChoppy = sco.array();
+
+        mBluetoothClass = new BluetoothClass(0x240404);
+    }
+
+    @Test
+    public void build() throws Exception {
+        assertThat(build(mMonitor).getBqrCommon().getRssi()).isEqualTo(-62);
+        assertThat(build(mApproachLsto).getBqrEvent()).isNotNull();
+        assertThat(build(mScoChoppy).getBqrEvent()).isNotNull();
+
+        mBenchmark.measure("monitor", () -> build(mMonitor));
+        mBenchmark.measure("approach_lsto", () -> build(mApproachLsto));
+        mBenchmark.measure("sco_choppy", () -> build(mScoChoppy));
+    }
+
+    @Test
+    public void buildAndLog() throws Exception {
+        // Each report is logged once decoded
+        mBenchmark.measure("monitor", () -> build(mMonitor).toString());
+        mBenchmark.measure("sco_choppy", () -> build(mScoChoppy).toString());
+    }
+
+    private BluetoothQualityReport build(byte[] rawData) {
+        return new BluetoothQualityReport.Builder(rawData)
+                .setRemoteAddress(ADDRESS)
+                .setLmpVersion(11)
+                .setLmpSubVersion(0x220E)
+                .setManufacturerId(0x000F)
+                .setRemoteName("Pixel Buds Pro")
+                .setBluetoothClass(mBluetoothClass)
+                .build();
+    }
+
+    /** Get a buffer holding the common part of a report, positioned at its event part. */
+    private static ByteBuffer rawData(int id, int eventLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(BQR_COMMON_LEN + eventLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) id);
+        buffer.put((byte) 0x0F); // Packet type: 2-DH5
+        buffer.putShort((short) 0x0003); // Connection handle
+        buffer.put((byte) 0); // Role: central
+        buffer.put((byte) 9); // Tx power level
+        buffer.put((byte) -62); // RSSI
+        buffer.put((byte) 25); // SNR
+        buffer.put((byte) 4); // Unused AFH channels
+        buffer.put((byte) 2); // AFH select unideal channels
+        buffer.putShort((short) 8000); // Link supervision timeout
+        buffer.putInt(0x0012D687); // Piconet clock
+        buffer.putInt(312); // Retransmissions
+        buffer.putInt(17); // No RX
+        buffer.putInt(41); // NAK
+        buffer.putInt(0x0012D600); // Last TX ack timestamp
+        buffer.putInt(3); // Flow off
+        buffer.putInt(0x0012D500); // Last flow on timestamp
+        buffer.putInt(0); // Buffer overflow
+        buffer.putInt(1); // Buffer underflow
+        buffer.put(new byte[] {0x13, 0x71, (byte) 0xDA, 0x7D, 0x1A, 0x00}); // Address
+        buffer.put((byte) 0); // Calibration failed items
+        return buffer;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of the LE scan path: parsing advertisements, matching them against the filters
+ * of the scanning apps, and parsing the batch reports of the controller.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ScanBenchmark {
+    private static final int BATCH_RECORDS = 50;
+    private static final int TRUNCATED_RECORDS = 100;
+
+    private static final ParcelUuid FAST_PAIR_UUID =
+            ParcelUuid.fromString("0000FE2C-0000-1000-8000-00805F9B34FB");
+    private static final ParcelUuid HEART_RATE_UUID =
+            ParcelUuid.fromString("0000180D-0000-1000-8000-00805F9B34FB");
+    private static final int APPLE_ID = 0x004C;
+
+    // Flags: LE general discoverable, BR/EDR not supported
+    private static final byte[] FLAGS = ad(0x01, "06");
+    private static final byte[] IBEACON = concat(FLAGS,
+            ad(0xFF, "4C000215" + "E2C56DB5DFFB48D2B060D0F5A71096E0" + "0001" + "0002" + "C5"));
+    private static final byte[] EDDYSTONE_URL = concat(FLAGS, ad(0x03, "AAFE"),
+            ad(0x16, "AAFE" + "10" + "EB" + "03" + hex("android") + "00"));
+    private static final byte[] EARBUDS = concat(FLAGS, ad(0x03, "4418" + "4E18"),
+            ad(0x0A, "08"), ad(0x19, "4109"), ad(0xFF, "E000" + "0102030405060708"));
+    private static final byte[] EARBUDS_SCAN_RESPONSE =
+            concat(ad(0x09, hex("Pixel Buds Pro")), ad(0x16, "2CFE" + "0A2B3C"));
+    private static final byte[] HEART_RATE_MONITOR = concat(FLAGS, ad(0x03, "0D18"),
+            ad(0x09, hex("HRM-Pro 4521")), ad(0x0A, "00"));
+
+    @Rule public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    private GattService mService;
+    private List<ScanResult> mResults;
+    private List<ScanFilter> mFilters;
+    private byte[] mFullBatch;
+    private byte[] mTruncatedBatch;
+
+    @Before
+    public void setUp() {
+        mService = new GattService();
+
+        // What a crowded place looks like: mostly beacons, some headphones and wearables
+        byte[][][] records = {
+            {IBEACON, new byte[0]},
+            {EDDYSTONE_URL, new byte[0]},
+            {IBEACON, new byte[0]},
+            {EARBUDS, EARBUDS_SCAN_RESPONSE},
+            {HEART_RATE_MONITOR, new byte[0]},
+        };
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mResults = new ArrayList<>();
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        for (int i = 0; i < BATCH_RECORDS; i++) {
+            byte[] address = {0x00, 0x1A, 0x7D, (byte) 0xDA, 0x71, (byte) i};
+            byte[] advertisement = records[i % records.length][0];
+            byte[] scanResponse = records[i % records.length][1];
+            int rssi = -40 - i;
+
+            mResults.add(new ScanResult(adapter.getRemoteDevice(address),
+                    ScanRecord.parseFromBytes(concat(advertisement, scanResponse)), rssi, 0));
+
+            // The controller reports addresses little endian
+            for (int j = address.length - 1; j >= 0; j--) {
+                full.write(address[j]);
+            }
+            full.write(0); // Address type
+            full.write(0); // Tx power
+            full.write(rssi);
+            full.write(i); // Timestamp, little endian in units of 50ms
+            full.write(0);
+            full.write(advertisement.length);
+            full.write(advertisement, 0, advertisement.length);
+            full.write(scanResponse.length);
+            full.write(scanResponse, 0, scanResponse.length);
+        }
+        mFullBatch = full.toByteArray();
+
+        mTruncatedBatch = new byte[TRUNCATED_RECORDS * 11];
+        for (int i = 0; i < TRUNCATED_RECORDS; i++) {
+            byte[] record = {(byte) i, 0x71, (byte) 0xDA, 0x7D, 0x1A, 0x00, 0, 0,
+                    (byte) (-40 - i % 50), (byte) i, 0};
+            System.arraycopy(record, 0, mTruncatedBatch, i * record.length, record.length);
+        }
+
+        // The kind of filters apps register: a service, a beacon, a name
+        mFilters = new ArrayList<>();
+        mFilters.add(new ScanFilter.Builder().setServiceData(FAST_PAIR_UUID, new byte[0])
+                .build());
+        mFilters.add(new ScanFilter.Builder().setManufacturerData(APPLE_ID,
+                bytes("0215" + "E2C56DB5DFFB48D2B060D0F5A71096E0"),
+                bytes("FFFF" + "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF")).build());
+        mFilters.add(new ScanFilter.Builder().setServiceUuid(HEART_RATE_UUID).build());
+        mFilters.add(new ScanFilter.Builder().setDeviceName("Pixel Buds Pro").build());
+    }
+
+    @Test
+    public void scanRecordParseFromBytes() throws Exception {
+        assertThat(ScanRecord.parseFromBytes(IBEACON).getManufacturerSpecificData(APPLE_ID))
+                .isNotNull();
+        assertThat(ScanRecord.parseFromBytes(concat(EARBUDS, EARBUDS_SCAN_RESPONSE))
+                .getDeviceName()).isEqualTo("Pixel Buds Pro");
+
+        mBenchmark.measure("ibeacon", () -> ScanRecord.parseFromBytes(IBEACON));
+        mBenchmark.measure("eddystone", () -> ScanRecord.parseFromBytes(EDDYSTONE_URL));
+        byte[] earbuds = concat(EARBUDS, EARBUDS_SCAN_RESPONSE);
+        mBenchmark.measure("earbuds", () -> ScanRecord.parseFromBytes(earbuds));
+        mBenchmark.measure("heart_rate", () -> ScanRecord.parseFromBytes(HEART_RATE_MONITOR));
+    }
+
+    @Test
+    public void scanFilterMatches() throws Exception {
+        // Out of every 5 results the earbuds match 2 filters, the Eddystone beacon none
+        assertThat(countMatches()).isEqualTo(BATCH_RECORDS);
+
+        // One operation matches every result of a batch against every filter
+        mBenchmark.measure(BATCH_RECORDS + "x" + mFilters.size(), this::countMatches);
+    }
+
+    @Test
+    public void parseBatchScanResults() throws Exception {
+        assertThat(mService.parseBatchScanResults(BATCH_RECORDS,
+                ScanManager.SCAN_RESULT_TYPE_FULL, mFullBatch)).hasSize(BATCH_RECORDS);
+        assertThat(mService.parseBatchScanResults(TRUNCATED_RECORDS,
+                ScanManager.SCAN_RESULT_TYPE_TRUNCATED, mTruncatedBatch))
+                .hasSize(TRUNCATED_RECORDS);
+
+        mBenchmark.measure("full_" + BATCH_RECORDS, () -> mService.parseBatchScanResults(
+                BATCH_RECORDS, ScanManager.SCAN_RESULT_TYPE_FULL, mFullBatch));
+        mBenchmark.measure("truncated_" + TRUNCATED_RECORDS, () -> mService.parseBatchScanResults(
+                TRUNCATED_RECORDS, ScanManager.SCAN_RESULT_TYPE_TRUNCATED, mTruncatedBatch));
+    }
+
+    private Integer countMatches() {
+        int matches = 0;
+        for (ScanResult result : mResults) {
+            for (ScanFilter filter : mFilters) {
+                if (filter.matches(result)) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static byte[] ad(int type, String hexData) {
+        byte[] data = bytes(hexData);
+        byte[] structure = new byte[data.length + 2];
+        structure[0] = (byte) (data.length + 1);
+        structure[1] = (byte) type;
+        System.arraycopy(data, 0, structure, 2, data.length);
+        return structure;
+    }
+
+    private static String hex(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            sb.append(String.format("%02X", b));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            out.write(array, 0, array.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regex and String based text codecs BluetoothMapUtils used before, the same as the
+ * reference implementations of BluetoothMapUtilsTest. Kept as the baseline
+ * {@link MapUtilsBenchmark} compares {@link BluetoothMapUtils} against.
+ */
+class LegacyMapUtils {
+    private static final Pattern ENCODED_WORD =
+            Pattern.compile("=\\?(.+?)\\?(.)\\?(.+?(?=\\?=))\\?=");
+
+    private LegacyMapUtils() {}
+
+    static String stripEncoding(String in) throws Exception {
+        if (!in.contains("=?") || !in.contains("?=")) {
+            return in;
+        }
+        Matcher m = ENCODED_WORD.matcher(in);
+        while (m.find()) {
+            String charset = m.group(1);
+            String encoding = m.group(2);
+            String encodedText = m.group(3);
+            if (encoding.equalsIgnoreCase("Q")) {
+                in = in.replace(m.group(0),
+                        new String(quotedPrintableToUtf8(encodedText, charset)));
+            } else if (encoding.equalsIgnoreCase("B")) {
+                try {
+                    in = in.replace(m.group(0), new String(Base64.decode(
+                            encodedText.getBytes(charset), Base64.DEFAULT), charset));
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    // Left as is
+                }
+            }
+        }
+        return in;
+    }
+
+    static byte[] quotedPrintableToUtf8(String text, String charset) throws Exception {
+        byte[] input = text.getBytes("US-ASCII");
+        byte[] output = new byte[text.length()];
+        int in;
+        int out = 0;
+        for (in = 0; in < input.length - 2; in++) {
+            byte b0 = input[in];
+            if (b0 != '=') {
+                output[out++] = b0;
+                continue;
+            }
+            byte b1 = input[++in];
+            byte b2 = input[++in];
+            if (b1 == '\r' && b2 == '\n') {
+                continue;
+            }
+            int hi = Character.digit(b1, 16);
+            int lo = Character.digit(b2, 16);
+            if (hi >= 0 && lo >= 0) {
+                output[out++] = (byte) (hi << 4 | lo);
+                continue;
+            }
+            output[out++] = b0;
+            in -= 2;
+        }
+        while (in < input.length) {
+            output[out++] = input[in++];
+        }
+        if (charset == null) {
+            charset = "UTF-8";
+        } else {
+            charset = charset.toUpperCase();
+            try {
+                if (!Charset.isSupported(charset)) {
+                    charset = "UTF-8";
+                }
+            } catch (IllegalArgumentException e) {
+                charset = "UTF-8";
+            }
+        }
+        return new String(output, 0, out, charset).getBytes();
+    }
+
+    static String encodeQuotedPrintable(byte[] bytes) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (byte value : bytes) {
+            int b = value & 0xff;
+            if ((b >= 33 && b <= 60) || (b >= 62 && b <= 126) || b == 9 || b == 32) {
+                buffer.write(b);
+            } else {
+                buffer.write('=');
+                buffer.write(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+                buffer.write(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+        }
+        return buffer.toString("UTF-8");
+    }
+
+    static byte[] truncateUtf8StringToBytearray(String utf8String, int maxLength)
+            throws Exception {
+        byte[] utf8Bytes = new byte[utf8String.length() + 1];
+        System.arraycopy(utf8String.getBytes("UTF-8"), 0, utf8Bytes, 0, utf8String.length());
+        if (utf8Bytes.length > maxLength) {
+            if ((utf8Bytes[maxLength - 1] & 0xC0) == 0x80) {
+                for (int i = maxLength - 2; i >= 0; i--) {
+                    if ((utf8Bytes[i] & 0xC0) == 0xC0) {
+                        utf8Bytes = Arrays.copyOf(utf8Bytes, i + 1);
+                        utf8Bytes[i] = 0;
+                        break;
+                    }
+                }
+            } else {
+                utf8Bytes = Arrays.copyOf(utf8Bytes, maxLength);
+                utf8Bytes[maxLength - 1] = 0;
+            }
+        }
+        return utf8Bytes;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+
+import android.content.Context;
+import android.telephony.TelephonyManager;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Benchmarks of the MAP server: parsing the bMessages pushed by the client and encoding the
+ * SMS PDUs sent to it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MapBenchmark {
+    private static final String ADDRESS = "+15551234567";
+    private static final long DATE = 1690000000000L;
+    private static final String SHORT_TEXT = "Running 10 min late, save me a seat";
+    // Needs 3 concatenated 7 bit messages
+    private static final String LONG_TEXT = "Hi! The plan for Saturday: we meet at the station at "
+            + "9:30, take the 9:45 train and should be at the trailhead by 11. Bring water, "
+            + "sunscreen and something to eat, there is no shop on the way. If it rains we go to "
+            + "the museum instead and have lunch in town. Let me know by Friday evening if you "
+            + "are in so I can book the tickets (about 12 EUR each, return). Call me if anything "
+            + "changes @ 555-0100.";
+    // Needs 16 bit encoding
+    private static final String UNICODE_TEXT = "C'est not\u00e9 \u2014 \u00e0 demain \ud83d\ude00 "
+            + "\u0412\u0441\u0442\u0440\u0435\u0447\u0430\u0435\u043c\u0441\u044f \u0432 "
+            + "\u0434\u0435\u0441\u044f\u0442\u044c";
+    private static final int ATTACHMENT_SIZE = 48 * 1024;
+
+    @Rule public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    @Mock private Context mContext;
+    @Mock private TelephonyManager mTelephonyManager;
+
+    private byte[] mSmsUtf8;
+    private byte[] mSmsNative;
+    private byte[] mMms;
+    private String mMime;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        doReturn(mTelephonyManager).when(mContext).getSystemService(TelephonyManager.class);
+        doReturn(TelephonyManager.PHONE_TYPE_GSM).when(mTelephonyManager).getCurrentPhoneType();
+
+        mSmsUtf8 = bMessage("SMS_GSM", "CHARSET:UTF-8\r\n", LONG_TEXT);
+        // One hex encoded submit PDU per part
+        ArrayList<String> pdus = new ArrayList<>();
+        for (BluetoothMapSmsPdu.SmsPdu pdu :
+                BluetoothMapSmsPdu.getSubmitPdus(mContext, LONG_TEXT, ADDRESS)) {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : pdu.getData()) {
+                hex.append(String.format("%02X", b));
+            }
+            pdus.add(hex.toString());
+        }
+        mSmsNative = bMessage("SMS_GSM", "", pdus.toArray(new String[0]));
+
+        // A photo taken with the car kit's messaging app, sent as MMS
+        byte[] photo = new byte[ATTACHMENT_SIZE];
+        new Random(0).nextBytes(photo);
+        mMime = "Date: Sat, 22 Jul 2023 09:30:00 +0200\r\n"
+                + "Subject: =?UTF-8?B?" + Base64.getEncoder().encodeToString(
+                        "Vue depuis le sommet \u26f0".getBytes(StandardCharsets.UTF_8)) + "?=\r\n"
+                + "From: " + ADDRESS + "\r\n"
+                + "To: +15557654321\r\n"
+                + "Mime-Version: 1.0\r\n"
+                + "Content-Type: multipart/mixed; boundary=\"--=_part_boundary_0001\"\r\n"
+                + "\r\n"
+                + "----=_part_boundary_0001\r\n"
+                + "Content-Type: text/plain; charset=UTF-8\r\n"
+                + "Content-Transfer-Encoding: quoted-printable\r\n"
+                + "\r\n"
+                + "On est arriv=C3=A9s au sommet, la vue est magnifique =E2=80=94 photo en=\r\n"
+                + "pi=C3=A8ce jointe.\r\n"
+                + "\r\n"
+                + "----=_part_boundary_0001\r\n"
+                + "Content-Type: image/jpeg\r\n"
+                + "Content-Location: IMG_20230722_093000.jpg\r\n"
+                + "Content-Transfer-Encoding: base64\r\n"
+                + "\r\n"
+                + Base64.getMimeEncoder().encodeToString(photo) + "\r\n"
+                + "\r\n"
+                + "----=_part_boundary_0001--\r\n";
+        mMms = bMessage("MMS", "CHARSET:UTF-8\r\n", mMime);
+    }
+
+    @Test
+    public void bMessageParse() throws Exception {
+        BluetoothMapbMessageSms sms = (BluetoothMapbMessageSms) parse(mSmsUtf8,
+                BluetoothMapAppParams.CHARSET_UTF8);
+        assertThat(sms.getSmsBody()).isEqualTo(LONG_TEXT);
+        sms = (BluetoothMapbMessageSms) parse(mSmsNative, BluetoothMapAppParams.CHARSET_NATIVE);
+        assertThat(sms.getSmsBody()).isEqualTo(LONG_TEXT);
+        assertThat(parse(mMms, BluetoothMapAppParams.CHARSET_UTF8))
+                .isInstanceOf(BluetoothMapbMessageMime.class);
+
+        mBenchmark.measure("sms_utf8",
+                () -> parse(mSmsUtf8, BluetoothMapAppParams.CHARSET_UTF8));
+        mBenchmark.measure("sms_native",
+                () -> parse(mSmsNative, BluetoothMapAppParams.CHARSET_NATIVE));
+        mBenchmark.measure("mms_" + mMms.length / 1024 + "k",
+                () -> parse(mMms, BluetoothMapAppParams.CHARSET_UTF8));
+    }
+
+    @Test
+    public void mimeParse() throws Exception {
+        BluetoothMapbMessageMime mime = new BluetoothMapbMessageMime();
+        mime.parseMsgPart(mMime);
+        assertThat(mime.getMimeParts()).hasSize(2);
+        assertThat(mime.getMimeParts().get(1).mData).hasLength(ATTACHMENT_SIZE);
+
+        mBenchmark.measure("mms_" + mMime.length() / 1024 + "k", () -> {
+            BluetoothMapbMessageMime message = new BluetoothMapbMessageMime();
+            message.parseMsgPart(mMime);
+            return message;
+        });
+    }
+
+    @Test
+    public void smsPduEncode() throws Exception {
+        assertThat(BluetoothMapSmsPdu.getSubmitPdus(mContext, SHORT_TEXT, ADDRESS)).hasSize(1);
+        assertThat(BluetoothMapSmsPdu.getSubmitPdus(mContext, LONG_TEXT, ADDRESS)).hasSize(3);
+
+        mBenchmark.measure("submit_short",
+                () -> BluetoothMapSmsPdu.getSubmitPdus(mContext, SHORT_TEXT, ADDRESS));
+        mBenchmark.measure("submit_long",
+                () -> BluetoothMapSmsPdu.getSubmitPdus(mContext, LONG_TEXT, ADDRESS));
+        mBenchmark.measure("submit_unicode",
+                () -> BluetoothMapSmsPdu.getSubmitPdus(mContext, UNICODE_TEXT, ADDRESS));
+        mBenchmark.measure("deliver_long",
+                () -> BluetoothMapSmsPdu.getDeliverPdus(mContext, LONG_TEXT, ADDRESS, DATE));
+    }
+
+    @Test
+    public void smsPduDecode() throws Exception {
+        ArrayList<BluetoothMapSmsPdu.SmsPdu> pdus =
+                BluetoothMapSmsPdu.getSubmitPdus(mContext, SHORT_TEXT, ADDRESS);
+        byte[] data = pdus.get(0).getData();
+        assertThat(BluetoothMapSmsPdu.decodePdu(data, BluetoothMapSmsPdu.SMS_TYPE_GSM))
+                .isEqualTo(SHORT_TEXT);
+
+        mBenchmark.measure("gsm_short",
+                () -> BluetoothMapSmsPdu.decodePdu(data, BluetoothMapSmsPdu.SMS_TYPE_GSM));
+    }
+
+    private static BluetoothMapbMessage parse(byte[] bMessage, int charset) {
+        return BluetoothMapbMessage.parse(new ByteArrayInputStream(bMessage), charset);
+    }
+
+    /** Build a bMessage as pushed by a car kit, from a phone number to a single recipient. */
+    private static byte[] bMessage(String type, String charset, String... contents) {
+        String msg = "";
+        for (String content : contents) {
+            msg += "BEGIN:MSG\r\n" + content + "\r\nEND:MSG\r\n";
+        }
+        return ("BEGIN:BMSG\r\n"
+                + "VERSION:1.0\r\n"
+                + "STATUS:READ\r\n"
+                + "TYPE:" + type + "\r\n"
+                + "FOLDER:telecom/msg/outbox\r\n"
+                + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:;;;;\r\nTEL:" + ADDRESS + "\r\nEND:VCARD\r\n"
+                + "BEGIN:BENV\r\n"
+                + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:Doe;Jane;;;\r\nFN:Jane Doe\r\n"
+                + "TEL:+15557654321\r\nEND:VCARD\r\n"
+                + "BEGIN:BBODY\r\n"
+                + "ENCODING:8BIT\r\n"
+                + charset
+                + "LENGTH:" + msg.getBytes(StandardCharsets.UTF_8).length + "\r\n"
+                + msg
+                + "END:BBODY\r\n"
+                + "END:BENV\r\n"
+                + "END:BMSG\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
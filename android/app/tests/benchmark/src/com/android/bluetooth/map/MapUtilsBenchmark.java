@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Benchmarks of the MAP text codecs run for every message listing entry and bMessage, compared
+ * to the implementations they replaced.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MapUtilsBenchmark {
+    private static final String SUBJECT_PLAIN = "Running 10 min late, save me a seat";
+    private static final String TEXT = "On est arriv\u00e9s au sommet, la vue est magnifique "
+            + "\u2014 photo en pi\u00e8ce jointe. On redescend vers 16h, \u00e0 tout \u00e0 "
+            + "l'heure au caf\u00e9 \u2615";
+    // Bodies of emails and MMS are typically a few hundred characters
+    private static final int BODY_REPEAT = 4;
+    // Subjects in message listings are truncated to this many bytes
+    private static final int SUBJECT_LENGTH = 64;
+
+    @Rule public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    private String mSubjectEncoded;
+    private byte[] mBodyUtf8;
+    private String mBodyQuotedPrintable;
+
+    @Before
+    public void setUp() throws Exception {
+        // How mail clients encode non ASCII subjects, one encoded word per part
+        mSubjectEncoded = "=?UTF-8?Q?" + BluetoothMapUtils.encodeQuotedPrintable(
+                "Caf\u00e9 ce soir \u2615".getBytes(StandardCharsets.UTF_8)) + "?= et =?UTF-8?B?"
+                + Base64.getEncoder().encodeToString(
+                        "\u00e0 demain".getBytes(StandardCharsets.UTF_8)) + "?=";
+
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < BODY_REPEAT; i++) {
+            body.append(TEXT).append("\r\n");
+        }
+        mBodyUtf8 = body.toString().getBytes(StandardCharsets.UTF_8);
+        mBodyQuotedPrintable = LegacyMapUtils.encodeQuotedPrintable(mBodyUtf8);
+    }
+
+    @Test
+    public void stripEncoding() throws Exception {
+        assertThat(BluetoothMapUtils.stripEncoding(mSubjectEncoded))
+                .isEqualTo(LegacyMapUtils.stripEncoding(mSubjectEncoded));
+
+        mBenchmark.measure("plain", () -> BluetoothMapUtils.stripEncoding(SUBJECT_PLAIN));
+        mBenchmark.measure("plain_legacy", () -> LegacyMapUtils.stripEncoding(SUBJECT_PLAIN));
+        mBenchmark.measure("encoded", () -> BluetoothMapUtils.stripEncoding(mSubjectEncoded));
+        mBenchmark.measure("encoded_legacy",
+                () -> LegacyMapUtils.stripEncoding(mSubjectEncoded));
+    }
+
+    @Test
+    public void quotedPrintableToUtf8() throws Exception {
+        assertThat(BluetoothMapUtils.quotedPrintableToUtf8(mBodyQuotedPrintable, "UTF-8"))
+                .isEqualTo(LegacyMapUtils.quotedPrintableToUtf8(mBodyQuotedPrintable, "UTF-8"));
+
+        mBenchmark.measure("body",
+                () -> BluetoothMapUtils.quotedPrintableToUtf8(mBodyQuotedPrintable, "UTF-8"));
+        mBenchmark.measure("body_legacy",
+                () -> LegacyMapUtils.quotedPrintableToUtf8(mBodyQuotedPrintable, "UTF-8"));
+    }
+
+    @Test
+    public void encodeQuotedPrintable() throws Exception {
+        assertThat(BluetoothMapUtils.encodeQuotedPrintable(mBodyUtf8))
+                .isEqualTo(mBodyQuotedPrintable);
+
+        mBenchmark.measure("body", () -> BluetoothMapUtils.encodeQuotedPrintable(mBodyUtf8));
+        mBenchmark.measure("body_legacy",
+                () -> LegacyMapUtils.encodeQuotedPrintable(mBodyUtf8));
+    }
+
+    @Test
+    public void truncateUtf8StringToBytearray() throws Exception {
+        assertThat(BluetoothMapUtils.truncateUtf8StringToBytearray(TEXT, SUBJECT_LENGTH))
+                .isEqualTo(LegacyMapUtils.truncateUtf8StringToBytearray(TEXT, SUBJECT_LENGTH));
+
+        mBenchmark.measure("subject",
+                () -> BluetoothMapUtils.truncateUtf8StringToBytearray(TEXT, SUBJECT_LENGTH));
+        mBenchmark.measure("subject_legacy",
+                () -> LegacyMapUtils.truncateUtf8StringToBytearray(TEXT, SUBJECT_LENGTH));
+    }
+}
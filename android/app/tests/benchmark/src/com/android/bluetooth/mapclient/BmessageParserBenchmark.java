@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.mapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/** Benchmarks of the MAP client parsing the bMessages downloaded from the phone. */
+@RunWith(RobolectricTestRunner.class)
+public class BmessageParserBenchmark {
+    private static final String SMS_TEXT = "Running 10 min late, save me a seat \ud83d\ude00";
+    // Long group MMS thread, with some non ASCII to exercise the UTF-8 decoding
+    private static final String MMS_LINE = "Rendez-vous \u00e0 la gare \u00e0 9h30, on prend "
+            + "le train de 9h45 et on sera au d\u00e9part du sentier vers 11h.";
+    private static final int MMS_SIZE = 64 * 1024;
+    private static final int LARGE_SIZE = 1024 * 1024;
+
+    @Rule public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    private byte[] mSms;
+    private byte[] mMms;
+    private String mMmsText;
+    private byte[] mLarge;
+    private String mLargeText;
+
+    @Before
+    public void setUp() {
+        mSms = bMessage("SMS_GSM", SMS_TEXT);
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < MMS_SIZE) {
+            text.append(MMS_LINE).append("\r\n");
+        }
+        mMmsText = text.toString().trim();
+        mMms = bMessage("MMS", mMmsText);
+
+        while (text.length() < LARGE_SIZE) {
+            text.append(MMS_LINE).append("\r\n");
+        }
+        mLargeText = text.toString().trim();
+        mLarge = bMessage("MMS", mLargeText);
+    }
+
+    @Test
+    public void createBmessage() throws Exception {
+        assertThat(parse(mSms).getBodyContent()).isEqualTo(SMS_TEXT);
+        assertThat(parse(mMms).getBodyContent()).isEqualTo(mMmsText);
+
+        mBenchmark.measure("sms", () -> parse(mSms));
+        mBenchmark.measure("mms_" + mMms.length / 1024 + "k", () -> parse(mMms));
+    }
+
+    @Test
+    public void createBmessage_1Mb_comparedToLegacy() throws Exception {
+        assertThat(parse(mLarge).getBodyContent()).isEqualTo(mLargeText);
+        assertThat(parseLegacy(mLarge).getBodyContent()).isEqualTo(mLargeText);
+
+        // The body is decoded as the message is displayed, include it for both parsers
+        mBenchmark.measure("new", () -> parse(mLarge).getBodyContent());
+        mBenchmark.measure("legacy", () -> parseLegacy(mLarge).getBodyContent());
+        mBenchmark.measurePeakHeap("new", () -> parse(mLarge).getBodyContent());
+        mBenchmark.measurePeakHeap("legacy", () -> parseLegacy(mLarge).getBodyContent());
+    }
+
+    private static Bmessage parseLegacy(byte[] bMessage) throws IOException {
+        return LegacyBmessageParser.createBmessage(new ByteArrayInputStream(bMessage));
+    }
+
+    private static Bmessage parse(byte[] bMessage) {
+        return BmessageParser.createBmessage(new ByteArrayInputStream(bMessage));
+    }
+
+    /** Build a received bMessage as listed by the phone, with the sender's vCard. */
+    private static byte[] bMessage(String type, String body) {
+        String msg = "BEGIN:MSG\r\n" + body + "\r\nEND:MSG\r\n";
+        return ("BEGIN:BMSG\r\n"
+                + "VERSION:1.0\r\n"
+                + "STATUS:UNREAD\r\n"
+                + "TYPE:" + type + "\r\n"
+                + "FOLDER:telecom/msg/inbox\r\n"
+                + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:Doe;Jane;;;\r\nFN:Jane Doe\r\n"
+                + "TEL:+15557654321\r\nEND:VCARD\r\n"
+                + "BEGIN:BENV\r\n"
+                + "BEGIN:BBODY\r\n"
+                + "CHARSET:UTF-8\r\n"
+                + "LENGTH:" + msg.getBytes(StandardCharsets.UTF_8).length + "\r\n"
+                + msg
+                + "END:BBODY\r\n"
+                + "END:BENV\r\n"
+                + "END:BMSG\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
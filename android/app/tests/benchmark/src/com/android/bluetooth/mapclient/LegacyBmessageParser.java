@@ -0,0 +1,525 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.mapclient;
+
+import android.util.Log;
+
+import com.android.bluetooth.mapclient.BmsgTokenizer.Property;
+import com.android.vcard.VCardEntry;
+import com.android.vcard.VCardEntryConstructor;
+import com.android.vcard.VCardEntryHandler;
+import com.android.vcard.VCardParser;
+import com.android.vcard.VCardParser_V21;
+import com.android.vcard.VCardParser_V30;
+import com.android.vcard.exception.VCardException;
+import com.android.vcard.exception.VCardVersionException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The bMessage parser as it was before it parsed the OBEX stream incrementally: the response is
+ * buffered and decoded into a String, which is matched line by line with a regular expression.
+ * Kept as the baseline {@link BmessageParserBenchmark} compares {@link BmessageParser} against.
+ */
+class LegacyBmessageParser {
+    private static final String TAG = "LegacyBmessageParser";
+    private static final boolean DBG = false;
+
+    private static final String CRLF = "\r\n";
+
+    private static final Property BEGIN_BMSG = new Property("BEGIN", "BMSG");
+    private static final Property END_BMSG = new Property("END", "BMSG");
+
+    private static final Property BEGIN_VCARD = new Property("BEGIN", "VCARD");
+    private static final Property END_VCARD = new Property("END", "VCARD");
+
+    private static final Property BEGIN_BENV = new Property("BEGIN", "BENV");
+    private static final Property END_BENV = new Property("END", "BENV");
+
+    private static final Property BEGIN_BBODY = new Property("BEGIN", "BBODY");
+    private static final Property END_BBODY = new Property("END", "BBODY");
+
+    private static final Property BEGIN_MSG = new Property("BEGIN", "MSG");
+    private static final Property END_MSG = new Property("END", "MSG");
+
+    private static final int CRLF_LEN = 2;
+
+    /**
+     * length of "container" for 'message' in bmessage-body-content:
+     * BEGIN:MSG<CRLF> + <CRLF> + END:MSG<CRFL>
+     */
+    private static final int MSG_CONTAINER_LEN = 22;
+    private final Bmessage mBmsg;
+    private LegacyBmsgTokenizer mParser;
+
+    private LegacyBmessageParser() {
+        mBmsg = new Bmessage();
+    }
+
+    /** Parse a GET Message response the way RequestGetMessage used to read it. */
+    public static Bmessage createBmessage(InputStream stream) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int len;
+        while ((len = stream.read(buf)) != -1) {
+            baos.write(buf, 0, len);
+        }
+        return createBmessage(baos.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    public static Bmessage createBmessage(String str) {
+        LegacyBmessageParser p = new LegacyBmessageParser();
+
+        if (DBG) {
+            Log.d(TAG, "actual wired contents: " + str);
+        }
+
+        try {
+            p.parse(str);
+        } catch (IOException e) {
+            Log.e(TAG, "I/O exception when parsing bMessage", e);
+            return null;
+        } catch (ParseException e) {
+            Log.e(TAG, "Cannot parse bMessage", e);
+            return null;
+        }
+
+        return p.mBmsg;
+    }
+
+    private ParseException expected(Property... props) {
+        boolean first = true;
+        StringBuilder sb = new StringBuilder();
+
+        for (Property prop : props) {
+            if (!first) {
+                sb.append(" or ");
+            }
+            sb.append(prop);
+            first = false;
+        }
+
+        return new ParseException("Expected: " + sb.toString(), mParser.pos());
+    }
+
+    private void parse(String str) throws IOException, ParseException {
+        Property prop;
+
+        /*
+         * <bmessage-object>::= { "BEGIN:BMSG" <CRLF> <bmessage-property>
+         * [<bmessage-originator>]* <bmessage-envelope> "END:BMSG" <CRLF> }
+         */
+        mParser = new LegacyBmsgTokenizer(str + CRLF);
+
+        prop = mParser.next();
+        if (!prop.equals(BEGIN_BMSG)) {
+            throw expected(BEGIN_BMSG);
+        }
+
+        prop = parseProperties();
+
+        while (prop.equals(BEGIN_VCARD)) {
+            /* <bmessage-originator>::= <vcard> <CRLF> */
+
+            StringBuilder vcard = new StringBuilder();
+            prop = extractVcard(vcard);
+
+            VCardEntry entry = parseVcard(vcard.toString());
+            mBmsg.mOriginators.add(entry);
+        }
+
+        if (!prop.equals(BEGIN_BENV)) {
+            throw expected(BEGIN_BENV);
+        }
+
+        prop = parseEnvelope(1);
+
+        if (!prop.equals(END_BMSG)) {
+            throw expected(END_BENV);
+        }
+
+        /*
+         * there should be no meaningful data left in stream here so we just
+         * ignore whatever is left
+         */
+        mParser = null;
+    }
+
+    private Property parseProperties() throws ParseException {
+        Property prop;
+        /*
+         * <bmessage-property>::=<bmessage-version-property>
+         * <bmessage-readstatus-property> <bmessage-type-property>
+         * <bmessage-folder-property> <bmessage-version-property>::="VERSION:"
+         * <common-digit>*"."<common-digit>* <CRLF>
+         * <bmessage-readstatus-property>::="STATUS:" 'readstatus' <CRLF>
+         * <bmessage-type-property>::="TYPE:" 'type' <CRLF>
+         * <bmessage-folder-property>::="FOLDER:" 'foldername' <CRLF>
+         */
+        do {
+            prop = mParser.next();
+
+            if (prop.name.equals("VERSION")) {
+                mBmsg.mBmsgVersion = prop.value;
+
+            } else if (prop.name.equals("STATUS")) {
+                for (Bmessage.Status s : Bmessage.Status.values()) {
+                    if (prop.value.equals(s.toString())) {
+                        mBmsg.mBmsgStatus = s;
+                        break;
+                    }
+                }
+
+            } else if (prop.name.equals("TYPE")) {
+                for (Bmessage.Type t : Bmessage.Type.values()) {
+                    if (prop.value.equals(t.toString())) {
+                        mBmsg.mBmsgType = t;
+                        break;
+                    }
+                }
+
+            } else if (prop.name.equals("FOLDER")) {
+                mBmsg.mBmsgFolder = prop.value;
+
+            }
+
+        } while (!prop.equals(BEGIN_VCARD) && !prop.equals(BEGIN_BENV));
+
+        return prop;
+    }
+
+    private Property parseEnvelope(int level) throws IOException, ParseException {
+        Property prop;
+
+        /*
+         * we can support as many nesting level as we want, but MAP spec clearly
+         * defines that there should be no more than 3 levels. so we verify it
+         * here.
+         */
+
+        if (level > 3) {
+            throw new ParseException("bEnvelope is nested more than 3 times", mParser.pos());
+        }
+
+        /*
+         * <bmessage-envelope> ::= { "BEGIN:BENV" <CRLF> [<bmessage-recipient>]*
+         * <bmessage-envelope> | <bmessage-content> "END:BENV" <CRLF> }
+         */
+
+        prop = mParser.next();
+
+        while (prop.equals(BEGIN_VCARD)) {
+
+            /* <bmessage-originator>::= <vcard> <CRLF> */
+
+            StringBuilder vcard = new StringBuilder();
+            prop = extractVcard(vcard);
+
+            if (level == 1) {
+                VCardEntry entry = parseVcard(vcard.toString());
+                mBmsg.mRecipients.add(entry);
+            }
+        }
+
+        if (prop.equals(BEGIN_BENV)) {
+            prop = parseEnvelope(level + 1);
+
+        } else if (prop.equals(BEGIN_BBODY)) {
+            prop = parseBody();
+
+        } else {
+            throw expected(BEGIN_BENV, BEGIN_BBODY);
+        }
+
+        if (!prop.equals(END_BENV)) {
+            throw expected(END_BENV);
+        }
+
+        return mParser.next();
+    }
+
+    private Property parseBody() throws IOException, ParseException {
+        Property prop;
+
+        /*
+         * <bmessage-content>::= { "BEGIN:BBODY"<CRLF> [<bmessage-body-part-ID>
+         * <CRLF>] <bmessage-body-property> <bmessage-body-content>* <CRLF>
+         * "END:BBODY"<CRLF> } <bmessage-body-part-ID>::="PARTID:" 'Part-ID'
+         * <bmessage-body-property>::=[<bmessage-body-encoding-property>]
+         * [<bmessage-body-charset-property>]
+         * [<bmessage-body-language-property>]
+         * <bmessage-body-content-length-property>
+         * <bmessage-body-encoding-property>::="ENCODING:"'encoding' <CRLF>
+         * <bmessage-body-charset-property>::="CHARSET:"'charset' <CRLF>
+         * <bmessage-body-language-property>::="LANGUAGE:"'language' <CRLF>
+         * <bmessage-body-content-length-property>::= "LENGTH:" <common-digit>*
+         * <CRLF>
+         */
+
+        do {
+            prop = mParser.next();
+
+            if (prop.name.equals("PARTID")) {
+                // Do nothing
+            } else if (prop.name.equals("ENCODING")) {
+                mBmsg.mBbodyEncoding = prop.value;
+
+            } else if (prop.name.equals("CHARSET")) {
+                mBmsg.mBbodyCharset = prop.value;
+
+            } else if (prop.name.equals("LANGUAGE")) {
+                mBmsg.mBbodyLanguage = prop.value;
+
+            } else if (prop.name.equals("LENGTH")) {
+                try {
+                    mBmsg.mBbodyLength = Integer.parseInt(prop.value);
+                } catch (NumberFormatException e) {
+                    throw new ParseException("Invalid LENGTH value", mParser.pos());
+                }
+
+            }
+
+        } while (!prop.equals(BEGIN_MSG));
+
+        /*
+         * check that the charset is always set to UTF-8. We expect only text transfer (in lieu with
+         * the MAPv12 specifying only RFC2822 (text only) for MMS/EMAIL and SMS do not support
+         * non-text content. If the charset is not set to UTF-8, it is safe to set the message as
+         * empty. We force the getMessage (see Client) to only call getMessage with
+         * UTF-8 as the MCE is not obliged to support native charset.
+         *
+         * 2020-06-01: we could now expect MMS to be more than text, e.g., image-only, so charset
+         * not always UTF-8, downgrading log message from ERROR to DEBUG.
+         */
+        if (DBG && !"UTF-8".equals(mBmsg.mBbodyCharset)) {
+            Log.d(TAG, "The charset was not set to charset UTF-8: " + mBmsg.mBbodyCharset);
+        }
+
+        /*
+         * <bmessage-body-content>::={ "BEGIN:MSG"<CRLF> 'message'<CRLF>
+         * "END:MSG"<CRLF> }
+         */
+
+        int messageLen = mBmsg.mBbodyLength - MSG_CONTAINER_LEN;
+        int offset = messageLen + CRLF_LEN;
+        int restartPos = mParser.pos() + offset;
+        /*
+         * length is specified in bytes so we need to convert from unicode
+         * string back to bytes array
+         */
+        String remng = mParser.remaining();
+        byte[] data = remng.getBytes();
+
+        if (offset < 0 || offset > data.length) {
+            /* Handle possible exception for incorrect LENGTH value
+             * from MSE while parsing end of props */
+            throw new ParseException("Invalid LENGTH value", mParser.pos());
+        }
+
+        /* restart parsing from after 'message'<CRLF> */
+        mParser = new LegacyBmsgTokenizer(new String(data, offset, data.length - offset),
+                restartPos);
+
+        prop = mParser.next(true);
+
+        if (prop != null) {
+            if (prop.equals(END_MSG)) {
+                if ("UTF-8".equals(mBmsg.mBbodyCharset)) {
+                    mBmsg.mMessage = new String(data, 0, messageLen, StandardCharsets.UTF_8);
+                } else {
+                    mBmsg.mMessage = new String(data, 0, messageLen);
+                }
+            } else {
+                /* Handle possible exception for incorrect LENGTH value
+                 * from MSE while parsing  GET Message response */
+                Log.e(TAG, "Prop Invalid: " + prop.toString());
+                Log.e(TAG, "Possible Invalid LENGTH value");
+                throw expected(END_MSG);
+            }
+        } else {
+            data = null;
+
+            /*
+             * now we check if bMessage can be parsed if LENGTH is handled as
+             * number of characters instead of number of bytes
+             */
+            if (offset < 0 || offset > remng.length()) {
+                /* Handle possible exception for incorrect LENGTH value
+                 * from MSE while parsing  GET Message response */
+                throw new ParseException("Invalid LENGTH value", mParser.pos());
+            }
+
+            Log.w(TAG, "byte LENGTH seems to be invalid, trying with char length");
+
+            mParser = new LegacyBmsgTokenizer(remng.substring(offset));
+
+            prop = mParser.next();
+
+            if (!prop.equals(END_MSG)) {
+                throw expected(END_MSG);
+            }
+
+            if ("UTF-8".equals(mBmsg.mBbodyCharset)) {
+                mBmsg.mMessage = remng.substring(0, messageLen);
+            } else {
+                mBmsg.mMessage = null;
+            }
+        }
+
+        prop = mParser.next();
+
+        if (!prop.equals(END_BBODY)) {
+            throw expected(END_BBODY);
+        }
+
+        return mParser.next();
+    }
+
+    private Property extractVcard(StringBuilder out) throws IOException, ParseException {
+        Property prop;
+
+        out.append(BEGIN_VCARD).append(CRLF);
+
+        do {
+            prop = mParser.next();
+            out.append(prop).append(CRLF);
+        } while (!prop.equals(END_VCARD));
+
+        return mParser.next();
+    }
+
+    private VCardEntry parseVcard(String str) throws IOException, ParseException {
+        VCardEntry vcard = null;
+
+        try {
+            VCardParser p = new VCardParser_V21();
+            VCardEntryConstructor c = new VCardEntryConstructor();
+            VcardHandler handler = new VcardHandler();
+            c.addEntryHandler(handler);
+            p.addInterpreter(c);
+            p.parse(new ByteArrayInputStream(str.getBytes()));
+
+            vcard = handler.vcard;
+
+        } catch (VCardVersionException e1) {
+            try {
+                VCardParser p = new VCardParser_V30();
+                VCardEntryConstructor c = new VCardEntryConstructor();
+                VcardHandler handler = new VcardHandler();
+                c.addEntryHandler(handler);
+                p.addInterpreter(c);
+                p.parse(new ByteArrayInputStream(str.getBytes()));
+
+                vcard = handler.vcard;
+
+            } catch (VCardVersionException e2) {
+                // will throw below
+            } catch (VCardException e2) {
+                // will throw below
+            }
+
+        } catch (VCardException e1) {
+            // will throw below
+        }
+
+        if (vcard == null) {
+            throw new ParseException("Cannot parse vCard object (neither 2.1 nor 3.0?)",
+                    mParser.pos());
+        }
+
+        return vcard;
+    }
+
+    private class VcardHandler implements VCardEntryHandler {
+        public VCardEntry vcard;
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onEntryCreated(VCardEntry entry) {
+            vcard = entry;
+        }
+
+        @Override
+        public void onEnd() {
+        }
+    }
+
+    private static final class LegacyBmsgTokenizer {
+        private final String mStr;
+
+        private final Matcher mMatcher;
+        private final int mOffset;
+        private int mPos = 0;
+
+        LegacyBmsgTokenizer(String str) {
+            this(str, 0);
+        }
+
+        LegacyBmsgTokenizer(String str, int offset) {
+            mStr = str;
+            mOffset = offset;
+            mMatcher = Pattern.compile("(([^:]*):(.*))?\r\n").matcher(str);
+            mPos = mMatcher.regionStart();
+        }
+
+        public Property next(boolean alwaysReturn) throws ParseException {
+            boolean found = false;
+
+            do {
+                mMatcher.region(mPos, mMatcher.regionEnd());
+
+                if (!mMatcher.lookingAt()) {
+                    if (alwaysReturn) {
+                        return null;
+                    }
+
+                    throw new ParseException("Property or empty line expected", pos());
+                }
+
+                mPos = mMatcher.end();
+
+                if (mMatcher.group(1) != null) {
+                    found = true;
+                }
+            } while (!found);
+
+            return new Property(mMatcher.group(2), mMatcher.group(3));
+        }
+
+        public Property next() throws ParseException {
+            return next(false);
+        }
+
+        public String remaining() {
+            return mStr.substring(mPos);
+        }
+
+        public int pos() {
+            return mPos + mOffset;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Base64;
+import java.util.Random;
+
+/** Benchmarks of the PBAP server applying the property filter of the client to each vCard. */
+@RunWith(RobolectricTestRunner.class)
+public class VCardFilterBenchmark {
+    private static final String SEPARATOR = System.getProperty("line.separator");
+    private static final int PHOTO_SIZE = 6 * 1024;
+
+    // VERSION, FN, N, TEL and EMAIL: what car kits ask for when syncing the phonebook
+    private static final byte[] FILTER_NO_PHOTO = {0, 0, 0, 0, 0, 0, 0x01, (byte) 0x87};
+    // Same with PHOTO, when the car kit shows contact pictures
+    private static final byte[] FILTER_PHOTO = {0, 0, 0, 0, 0, 0, 0x01, (byte) 0x8F};
+
+    @Rule public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    private String mVCard21;
+    private String mVCard30;
+
+    @Before
+    public void setUp() {
+        byte[] photo = new byte[PHOTO_SIZE];
+        new Random(0).nextBytes(photo);
+        String encodedPhoto = Base64.getEncoder().encodeToString(photo);
+
+        mVCard21 = vCard("2.1", "PHOTO;ENCODING=BASE64;JPEG:", encodedPhoto);
+        mVCard30 = vCard("3.0", "PHOTO;ENCODING=b;TYPE=JPEG:", encodedPhoto);
+    }
+
+    @Test
+    public void apply() throws Exception {
+        BluetoothPbapVcardManager.VCardFilter noPhoto =
+                new BluetoothPbapVcardManager.VCardFilter(FILTER_NO_PHOTO);
+        BluetoothPbapVcardManager.VCardFilter photo =
+                new BluetoothPbapVcardManager.VCardFilter(FILTER_PHOTO);
+        assertThat(noPhoto.apply(mVCard30, false)).doesNotContain("PHOTO");
+        assertThat(noPhoto.apply(mVCard30, false)).contains("EMAIL");
+        assertThat(photo.apply(mVCard21, true)).contains("PHOTO");
+
+        mBenchmark.measure("v21_no_photo", () -> noPhoto.apply(mVCard21, true));
+        mBenchmark.measure("v30_no_photo", () -> noPhoto.apply(mVCard30, false));
+        mBenchmark.measure("v21_photo", () -> photo.apply(mVCard21, true));
+        mBenchmark.measure("v30_photo", () -> photo.apply(mVCard30, false));
+    }
+
+    /** Build a well filled contact as the vCard composer outputs it. */
+    private static String vCard(String version, String photoProperty, String encodedPhoto) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BEGIN:VCARD").append(SEPARATOR)
+                .append("VERSION:").append(version).append(SEPARATOR)
+                .append("N:Doe;Jane;Marie;Dr.;").append(SEPARATOR)
+                .append("FN:Dr. Jane Marie Doe").append(SEPARATOR)
+                .append("NICKNAME:JD").append(SEPARATOR)
+                .append("TEL;CELL:+15557654321").append(SEPARATOR)
+                .append("TEL;WORK:+15550100200").append(SEPARATOR)
+                .append("TEL;HOME:+15550100300").append(SEPARATOR)
+                .append("EMAIL;HOME:jane.doe@example.com").append(SEPARATOR)
+                .append("EMAIL;WORK:jdoe@corp.example.com").append(SEPARATOR)
+                .append("ADR;HOME:;;1600 Amphitheatre Pkwy;Mountain View;CA;94043;USA")
+                .append(SEPARATOR)
+                .append("ORG:Example Corp").append(SEPARATOR)
+                .append("TITLE:Staff Engineer").append(SEPARATOR)
+                .append("BDAY:1985-04-12").append(SEPARATOR)
+                .append("URL:https://www.example.com/~jdoe").append(SEPARATOR)
+                .append("NOTE:Met at the conference, prefers calls after 10am").append(SEPARATOR)
+                .append("X-ANDROID-CUSTOM:vnd.android.cursor.item/relation;John;1;;;;;;;;;;;;;")
+                .append(SEPARATOR)
+                .append("X-SIP:sip:jane@voip.example.com").append(SEPARATOR);
+        // Folded in lines of 75 characters, continuation lines start with a space
+        sb.append(photoProperty).append(encodedPhoto, 0, 75 - photoProperty.length())
+                .append(SEPARATOR);
+        for (int i = 75 - photoProperty.length(); i < encodedPhoto.length(); i += 74) {
+            sb.append(' ').append(encodedPhoto, i, Math.min(i + 74, encodedPhoto.length()))
+                    .append(SEPARATOR);
+        }
+        sb.append("END:VCARD").append(SEPARATOR);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Benchmarks of the GSM 7 bit alphabet, used by MAP for SMS PDUs and by HFP for phonebook
+ * entries, compared to the implementation it replaced.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GsmAlphabetBenchmark {
+    private static final String CONTACT_NAME = "J\u00f6rg M\u00fcller";
+    // Fills a single SMS, with a few characters of the extension table
+    private static final String SMS_TEXT = "Dinner tonight? Table for 4 @ 8pm, about 25\u20ac each "
+            + "[menu attached]. Reply by 6 so I can confirm, the place fills up quickly on "
+            + "Fridays. No cards {sigh}.";
+
+    @Rule public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    private byte[] mPacked;
+    private int mSeptets;
+
+    @Before
+    public void setUp() {
+        byte[] unpacked = GsmAlphabet.stringToGsm8BitPacked(SMS_TEXT);
+        mSeptets = unpacked.length;
+        mPacked = new byte[(mSeptets * 7 + 7) / 8];
+        for (int i = 0; i < mSeptets; i++) {
+            int bitOffset = i * 7;
+            int shift = bitOffset % 8;
+            mPacked[bitOffset / 8] |= (byte) (unpacked[i] << shift);
+            if (shift > 1) {
+                mPacked[bitOffset / 8 + 1] |= (byte) (unpacked[i] >> (8 - shift));
+            }
+        }
+    }
+
+    @Test
+    public void gsm7BitPackedToString() throws Exception {
+        assertThat(GsmAlphabet.gsm7BitPackedToString(mPacked, 0, mSeptets, 0, 0, 0))
+                .isEqualTo(SMS_TEXT);
+        assertThat(LegacyGsmAlphabet.gsm7BitPackedToString(mPacked, 0, mSeptets, 0))
+                .isEqualTo(SMS_TEXT);
+
+        mBenchmark.measure("sms",
+                () -> GsmAlphabet.gsm7BitPackedToString(mPacked, 0, mSeptets, 0, 0, 0));
+        mBenchmark.measure("sms_legacy",
+                () -> LegacyGsmAlphabet.gsm7BitPackedToString(mPacked, 0, mSeptets, 0));
+    }
+
+    @Test
+    public void countGsmSeptetsUsingTables() throws Exception {
+        assertThat(GsmAlphabet.countGsmSeptetsUsingTables(SMS_TEXT, false, 0, 0))
+                .isEqualTo(mSeptets);
+        assertThat(LegacyGsmAlphabet.countGsmSeptetsUsingTables(SMS_TEXT, false))
+                .isEqualTo(mSeptets);
+
+        // Compared so that the result is not boxed, which would count as an allocation
+        mBenchmark.measure("sms",
+                () -> GsmAlphabet.countGsmSeptetsUsingTables(SMS_TEXT, false, 0, 0) == mSeptets);
+        mBenchmark.measure("sms_legacy",
+                () -> LegacyGsmAlphabet.countGsmSeptetsUsingTables(SMS_TEXT, false) == mSeptets);
+    }
+
+    @Test
+    public void stringToGsm8BitPacked() throws Exception {
+        assertThat(GsmAlphabet.stringToGsm8BitPacked(CONTACT_NAME))
+                .isEqualTo(LegacyGsmAlphabet.stringToGsm8BitPacked(CONTACT_NAME));
+        assertThat(GsmAlphabet.stringToGsm8BitPacked(SMS_TEXT))
+                .isEqualTo(LegacyGsmAlphabet.stringToGsm8BitPacked(SMS_TEXT));
+
+        mBenchmark.measure("contact_name",
+                () -> GsmAlphabet.stringToGsm8BitPacked(CONTACT_NAME));
+        mBenchmark.measure("contact_name_legacy",
+                () -> LegacyGsmAlphabet.stringToGsm8BitPacked(CONTACT_NAME));
+        mBenchmark.measure("sms", () -> GsmAlphabet.stringToGsm8BitPacked(SMS_TEXT));
+        mBenchmark.measure("sms_legacy", () -> LegacyGsmAlphabet.stringToGsm8BitPacked(SMS_TEXT));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.util;
+
+import android.util.SparseIntArray;
+
+/**
+ * The GSM 7 bit alphabet as GsmAlphabet implemented it before it had direct tables for Latin-1
+ * characters: characters are looked up in SparseIntArrays and decoded into a StringBuilder.
+ * Limited to the default alphabet and extension table, which is what the benchmarks use. Kept
+ * as the baseline {@link GsmAlphabetBenchmark} compares {@link GsmAlphabet} against.
+ */
+class LegacyGsmAlphabet {
+    /* 3GPP TS 23.038 V9.1.1 section 6.2.1 - GSM 7 bit Default Alphabet
+     01.....23.....4.....5.....6.....7.....8.....9.....A.B.....C.....D.E.....F.....0.....1 */
+    private static final String LANGUAGE_TABLE =
+            "@\u00a3$\u00a5\u00e8\u00e9\u00f9\u00ec\u00f2\u00c7\n\u00d8\u00f8\r\u00c5\u00e5\u0394_"
+            // 2.....3.....4.....5.....6.....7.....8.....9.....A.....B.....C.....D.....E.....
+            + "\u03a6\u0393\u039b\u03a9\u03a0\u03a8\u03a3\u0398\u039e\uffff\u00c6\u00e6\u00df"
+            // F.....012.34.....56789ABCDEF0123456789ABCDEF0.....123456789ABCDEF0123456789A
+            + "\u00c9 !\"#\u00a4%&'()*+,-./0123456789:;<=>?\u00a1ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            // B.....C.....D.....E.....F.....0.....123456789ABCDEF0123456789AB.....C.....D.....
+            + "\u00c4\u00d6\u00d1\u00dc\u00a7\u00bfabcdefghijklmnopqrstuvwxyz\u00e4\u00f6\u00f1"
+            // E.....F.....
+            + "\u00fc\u00e0";
+
+    /* 6.2.1.1 GSM 7 bit Default Alphabet Extension Table
+     0123456789A.....BCDEF0123456789ABCDEF0123456789ABCDEF.0123456789ABCDEF0123456789ABCDEF */
+    private static final String SHIFT_TABLE =
+            "          \u000c         ^                   {}     \\            [~] |               "
+            // 0123456789ABCDEF012345.....6789ABCDEF0123456789ABCDEF
+            + "                     \u20ac                          ";
+
+    private static final SparseIntArray CHARS_TO_GSM = new SparseIntArray(128);
+    private static final SparseIntArray CHARS_TO_SHIFT = new SparseIntArray(128);
+
+    static {
+        for (int j = 0; j < LANGUAGE_TABLE.length(); j++) {
+            CHARS_TO_GSM.put(LANGUAGE_TABLE.charAt(j), j);
+        }
+        for (int j = 0; j < SHIFT_TABLE.length(); j++) {
+            char c = SHIFT_TABLE.charAt(j);
+            if (c != ' ') {
+                CHARS_TO_SHIFT.put(c, j);
+            }
+        }
+    }
+
+    private LegacyGsmAlphabet() {}
+
+    static String gsm7BitPackedToString(byte[] pdu, int offset, int lengthSeptets,
+            int numPaddingBits) {
+        StringBuilder ret = new StringBuilder(lengthSeptets);
+        try {
+            boolean prevCharWasEscape = false;
+            for (int i = 0; i < lengthSeptets; i++) {
+                int bitOffset = (7 * i) + numPaddingBits;
+
+                int byteOffset = bitOffset / 8;
+                int shift = bitOffset % 8;
+                int gsmVal;
+
+                gsmVal = (0x7f & (pdu[offset + byteOffset] >> shift));
+
+                // if it crosses a byte boundary
+                if (shift > 1) {
+                    // set msb bits to 0
+                    gsmVal &= 0x7f >> (shift - 1);
+
+                    gsmVal |= 0x7f & (pdu[offset + byteOffset + 1] << (8 - shift));
+                }
+
+                if (prevCharWasEscape) {
+                    if (gsmVal == GsmAlphabet.GSM_EXTENDED_ESCAPE) {
+                        ret.append(' ');    // display ' ' for reserved double escape sequence
+                    } else {
+                        char c = SHIFT_TABLE.charAt(gsmVal);
+                        if (c == ' ') {
+                            ret.append(LANGUAGE_TABLE.charAt(gsmVal));
+                        } else {
+                            ret.append(c);
+                        }
+                    }
+                    prevCharWasEscape = false;
+                } else if (gsmVal == GsmAlphabet.GSM_EXTENDED_ESCAPE) {
+                    prevCharWasEscape = true;
+                } else {
+                    ret.append(LANGUAGE_TABLE.charAt(gsmVal));
+                }
+            }
+        } catch (RuntimeException ex) {
+            return null;
+        }
+        return ret.toString();
+    }
+
+    static byte[] stringToGsm8BitPacked(String s) {
+        byte[] ret = new byte[countGsmSeptetsUsingTables(s, true)];
+        int outByteIndex = 0;
+        for (int i = 0, sz = s.length(); i < sz && outByteIndex < ret.length; i++) {
+            char c = s.charAt(i);
+            int v = CHARS_TO_GSM.get(c, -1);
+            if (v == -1) {
+                v = CHARS_TO_SHIFT.get(c, -1);
+                if (v == -1) {
+                    v = CHARS_TO_GSM.get(' ', ' ');  // fall back to ASCII space
+                } else {
+                    // make sure we can fit an escaped char
+                    if (!(outByteIndex + 1 < ret.length)) {
+                        break;
+                    }
+                    ret[outByteIndex++] = GsmAlphabet.GSM_EXTENDED_ESCAPE;
+                }
+            }
+            ret[outByteIndex++] = (byte) v;
+        }
+        // pad with 0xff's
+        while (outByteIndex < ret.length) {
+            ret[outByteIndex++] = (byte) 0xff;
+        }
+        return ret;
+    }
+
+    static int countGsmSeptetsUsingTables(CharSequence s, boolean use7bitOnly) {
+        int count = 0;
+        int sz = s.length();
+        for (int i = 0; i < sz; i++) {
+            char c = s.charAt(i);
+            if (c == GsmAlphabet.GSM_EXTENDED_ESCAPE) {
+                continue;
+            }
+            if (CHARS_TO_GSM.get(c, -1) != -1) {
+                count++;
+            } else if (CHARS_TO_SHIFT.get(c, -1) != -1) {
+                count += 2; // escape + shift table index
+            } else if (use7bitOnly) {
+                count++;    // encode as space
+            } else {
+                return -1;  // caller must check for this case
+            }
+        }
+        return count;
+    }
+}
@@ -429,6 +429,33 @@ public class MediaPlayerWrapperTest {
         verify(mMockController, times(2)).getQueue();
     }
 
+    /*
+     * This test checks that queue items are only converted again when they change, while the
+     * converted queue stays the same as a full conversion.
+     */
+    @Test
+    public void testQueueItemsConvertedOnlyWhenChanged() {
+        MediaPlayerWrapper wrapper =
+                MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
+
+        List<Metadata> first = wrapper.toMetadataList(getQueueFromDescriptions(mTestQueue));
+        Assert.assertEquals(
+                Util.toMetadataList(mMockContext, getQueueFromDescriptions(mTestQueue)), first);
+
+        // Change the second item and move the last one to the front
+        mTestQueue.get(1).setTitle("BT Test Song 2 (Live)");
+        mTestQueue.add(0, mTestQueue.remove(2));
+        List<Metadata> second = wrapper.toMetadataList(getQueueFromDescriptions(mTestQueue));
+        Assert.assertEquals(
+                Util.toMetadataList(mMockContext, getQueueFromDescriptions(mTestQueue)), second);
+
+        // Unchanged items keep their converted image, the changed one is converted again
+        Assert.assertSame(first.get(0).image, second.get(1).image);
+        Assert.assertSame(first.get(2).image, second.get(0).image);
+        Assert.assertNotSame(first.get(1).image, second.get(2).image);
+        Assert.assertEquals("3", second.get(2).trackNum);
+    }
+
     /*
      * This test checks if the currently playing song queue duration is completed
      * by the MediaController Metadata.
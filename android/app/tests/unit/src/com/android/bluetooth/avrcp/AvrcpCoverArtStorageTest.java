@@ -170,4 +170,57 @@ public class AvrcpCoverArtStorageTest {
         assertThat(mAvrcpCoverArtStorage.getImage(handle_green)).isEqualTo(artwork_green);
         assertThat(mAvrcpCoverArtStorage.getImage(handle_blue)).isNull();
     }
+
+    /**
+     * Make sure an image stored from a source bitmap can be found again by that same bitmap
+     */
+    @Test
+    public void testGetImageHandleBySourceBitmap() {
+        Bitmap bitmap = loadBitmap(com.android.bluetooth.tests.R.raw.image_200_200);
+        Bitmap sameContent = loadBitmap(com.android.bluetooth.tests.R.raw.image_200_200);
+        CoverArt artwork = new CoverArt(new Image(null, bitmap));
+
+        assertThat(mAvrcpCoverArtStorage.getImageHandle(bitmap)).isNull();
+        String handle = mAvrcpCoverArtStorage.storeImage(artwork, bitmap);
+
+        assertThat(handle).isNotNull();
+        assertThat(mAvrcpCoverArtStorage.getImageHandle(bitmap)).isEqualTo(handle);
+        // Only the exact bitmap is remembered, other bitmaps still go through hashing
+        assertThat(mAvrcpCoverArtStorage.getImageHandle(sameContent)).isNull();
+    }
+
+    /**
+     * Make sure a source bitmap isn't resolved to a handle once its image has been evicted
+     */
+    @Test
+    public void testGetImageHandleBySourceBitmapAfterEviction() {
+        Bitmap bitmap = loadBitmap(com.android.bluetooth.tests.R.raw.image_200_200);
+        String handle = mAvrcpCoverArtStorage.storeImage(
+                new CoverArt(new Image(null, bitmap)), bitmap);
+        mAvrcpCoverArtStorage.storeImage(
+                getCoverArt(com.android.bluetooth.tests.R.raw.image_200_200_blue));
+        mAvrcpCoverArtStorage.storeImage(
+                getCoverArt(com.android.bluetooth.tests.R.raw.image_200_200_orange));
+
+        assertThat(mAvrcpCoverArtStorage.getImage(handle)).isNull();
+        assertThat(mAvrcpCoverArtStorage.getImageHandle(bitmap)).isNull();
+    }
+
+    /**
+     * Make sure clearing the storage forgets source bitmaps, as image handles are reused after
+     */
+    @Test
+    public void testGetImageHandleBySourceBitmapAfterClear() {
+        Bitmap bitmap = loadBitmap(com.android.bluetooth.tests.R.raw.image_200_200);
+        mAvrcpCoverArtStorage.storeImage(new CoverArt(new Image(null, bitmap)), bitmap);
+
+        mAvrcpCoverArtStorage.clear();
+
+        assertThat(mAvrcpCoverArtStorage.getImageHandle(bitmap)).isNull();
+    }
+
+    private Bitmap loadBitmap(int resId) {
+        InputStream imageInputStream = mTestResources.openRawResource(resId);
+        return BitmapFactory.decodeStream(imageInputStream);
+    }
 }
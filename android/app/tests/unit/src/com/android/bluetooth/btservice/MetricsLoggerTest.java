@@ -223,6 +223,38 @@ public class MetricsLoggerTest {
         Assert.assertFalse(mTestableMetricsLogger.init(mMockAdapterService));
     }
 
+    @Test
+    public void testAddAndSendCountersSameStripe() {
+        mTestableMetricsLogger.init(mMockAdapterService);
+        // Keys 1, 9 and 17 share a counter stripe but must be accumulated separately
+        mTestableMetricsLogger.cacheCount(1, 1);
+        mTestableMetricsLogger.cacheCount(9, 2);
+        mTestableMetricsLogger.cacheCount(17, 3);
+        mTestableMetricsLogger.cacheCount(9, 2);
+        mTestableMetricsLogger.drainBufferedCounters();
+
+        Assert.assertEquals(1L, mTestableMetricsLogger.mTestableCounters.get(1).longValue());
+        Assert.assertEquals(4L, mTestableMetricsLogger.mTestableCounters.get(9).longValue());
+        Assert.assertEquals(3L, mTestableMetricsLogger.mTestableCounters.get(17).longValue());
+    }
+
+    @Test
+    public void testDeviceNameUploadingRepeatedName() {
+        initTestingBloomfitler();
+
+        mTestableMetricsLogger.logSanitizedBluetoothDeviceName(1, "My Pixel 7 PRO");
+        mTestableMetricsLogger.logSanitizedBluetoothDeviceName(1, "My Pixel 7 PRO");
+        Assert.assertEquals(2,
+                mTestableMetricsLogger.mTestableDeviceNames.get("pixel7pro").intValue());
+
+        // Replacing the bloom filter must not serve results computed against the old one
+        mTestableMetricsLogger.setBloomfilter(
+                BloomFilter.create(Funnels.byteArrayFunnel(), 10));
+        mTestableMetricsLogger.logSanitizedBluetoothDeviceName(1, "My Pixel 7 PRO");
+        Assert.assertEquals(2,
+                mTestableMetricsLogger.mTestableDeviceNames.get("pixel7pro").intValue());
+    }
+
     @Test
     public void testDeviceNameUploadingDeviceSet1() {
         initTestingBloomfitler();
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class ProfileLooperPoolTest {
+    private static final long TIMEOUT_MS = 1000;
+
+    private ProfileLooperPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new ProfileLooperPool();
+    }
+
+    @Test
+    public void acquire_spreadsClientsOverThePool() {
+        Set<Looper> loopers = new HashSet<>();
+        for (int i = 0; i < ProfileLooperPool.POOL_SIZE; i++) {
+            loopers.add(mPool.acquire("client" + i));
+        }
+        assertThat(loopers).hasSize(ProfileLooperPool.POOL_SIZE);
+
+        assertThat(loopers).contains(mPool.acquire("extra"));
+
+        for (int i = 0; i < ProfileLooperPool.POOL_SIZE; i++) {
+            mPool.release("client" + i, TIMEOUT_MS);
+        }
+        mPool.release("extra", TIMEOUT_MS);
+    }
+
+    @Test
+    public void release_lastClient_quitsThreadAfterQueuedMessages() throws Exception {
+        Looper looper = mPool.acquire("client");
+        AtomicBoolean handled = new AtomicBoolean();
+        new Handler(looper).post(() -> {
+            sleep(50);
+            handled.set(true);
+        });
+
+        mPool.release("client", TIMEOUT_MS);
+
+        assertThat(handled.get()).isTrue();
+        assertThat(looper.getThread().isAlive()).isFalse();
+    }
+
+    @Test
+    public void release_sharedLooper_waitsForQueuedMessagesAndKeepsThread() {
+        for (int i = 0; i < ProfileLooperPool.POOL_SIZE; i++) {
+            mPool.acquire("client" + i);
+        }
+        Looper looper = mPool.acquire("extra");
+        AtomicBoolean handled = new AtomicBoolean();
+        new Handler(looper).post(() -> {
+            sleep(50);
+            handled.set(true);
+        });
+
+        mPool.release("extra", TIMEOUT_MS);
+
+        assertThat(handled.get()).isTrue();
+        assertThat(looper.getThread().isAlive()).isTrue();
+
+        for (int i = 0; i < ProfileLooperPool.POOL_SIZE; i++) {
+            mPool.release("client" + i, TIMEOUT_MS);
+        }
+    }
+
+    @Test
+    public void release_sharedLooper_removesDelayedMessagesOfGivenHandlers() {
+        for (int i = 0; i < ProfileLooperPool.POOL_SIZE; i++) {
+            mPool.acquire("client" + i);
+        }
+        Looper looper = mPool.acquire("extra");
+        Handler handler = new Handler(looper);
+        Handler otherHandler = new Handler(looper);
+        AtomicBoolean handled = new AtomicBoolean();
+        handler.post(() -> handled.set(true));
+        handler.sendEmptyMessageDelayed(1, 60_000);
+        otherHandler.sendEmptyMessageDelayed(1, 60_000);
+
+        mPool.release("extra", TIMEOUT_MS, Arrays.asList(handler, null));
+
+        assertThat(handled.get()).isTrue();
+        assertThat(handler.hasMessages(1)).isFalse();
+        assertThat(otherHandler.hasMessages(1)).isTrue();
+
+        otherHandler.removeCallbacksAndMessages(null);
+        for (int i = 0; i < ProfileLooperPool.POOL_SIZE; i++) {
+            mPool.release("client" + i, TIMEOUT_MS);
+        }
+    }
+
+    @Test
+    public void dump_showsClientsAndDispatches() throws Exception {
+        Handler handler = new Handler(mPool.acquire("client"));
+        CountDownLatch latch = new CountDownLatch(2);
+        handler.post(latch::countDown);
+        // The last dispatch is recorded once it returns, which can be after the latch opens
+        handler.post(latch::countDown);
+        assertThat(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+
+        StringWriter out = new StringWriter();
+        mPool.dump(new PrintWriter(out));
+
+        assertThat(out.toString()).contains("[client]");
+        assertThat(out.toString()).containsMatch("dispatches: [12],");
+        mPool.release("client", TIMEOUT_MS);
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -475,6 +475,25 @@ public final class DatabaseManagerTest {
         testSetGetAudioPolicyMetadataCase(true, value, true);
     }
 
+    @Test
+    public void testSetGetHapPresetCache() {
+        byte[] value = "{preset cache}".getBytes();
+
+        Assert.assertTrue(mDatabaseManager.setHapPresetCache(mTestDevice, value));
+        Assert.assertArrayEquals(value, mDatabaseManager.getHapPresetCache(mTestDevice));
+        // Wait for database update
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+
+        // Check whether the value is saved in database
+        restartDatabaseManagerHelper();
+        Assert.assertArrayEquals(value, mDatabaseManager.getHapPresetCache(mTestDevice));
+
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        // Wait for clear database
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+    }
+
     @Test
     public void testSetConnection() {
         // Verify pre-conditions to ensure a fresh test
@@ -1337,6 +1356,28 @@ public final class DatabaseManagerTest {
         }
     }
 
+    @Test
+    public void testDatabaseMigration_117_118() throws IOException {
+        // Create a database with version 117
+        SupportSQLiteDatabase db = testHelper.createDatabase(DB_NAME, 117);
+        // insert a device to the database
+        ContentValues device = new ContentValues();
+        device.put("address", TEST_BT_ADDR);
+        device.put("migrated", false);
+        assertThat(db.insert("metadata", SQLiteDatabase.CONFLICT_IGNORE, device),
+                CoreMatchers.not(-1));
+        // Migrate database from 117 to 118
+        db.close();
+        db = testHelper.runMigrationsAndValidate(DB_NAME, 118, true,
+                MetadataDatabase.MIGRATION_117_118);
+        Cursor cursor = db.query("SELECT * FROM metadata");
+        assertHasColumn(cursor, "hap_preset_cache", true);
+        while (cursor.moveToNext()) {
+            // Check the new column was added with default value
+            assertColumnBlobData(cursor, "hap_preset_cache", null);
+        }
+    }
+
     /**
      * Helper function to check whether the database has the expected column
      */
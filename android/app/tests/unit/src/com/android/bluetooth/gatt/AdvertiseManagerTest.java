@@ -18,17 +18,22 @@ package com.android.bluetooth.gatt;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.junit.Assert.assertThrows;
+
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertisingSetCallback;
 import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.IAdvertisingSetCallback;
 import android.bluetooth.le.PeriodicAdvertisingParameters;
 import android.os.IBinder;
+import android.os.ParcelUuid;
 
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
@@ -43,12 +48,15 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.List;
+
 /**
  * Test cases for {@link AdvertiseManager}.
  */
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 public class AdvertiseManagerTest {
+    private static final int ADVERTISER_ID = 1;
 
     @Mock
     private AdapterService mAdapterService;
@@ -119,6 +127,144 @@ public class AdvertiseManagerTest {
         verify(mAdvertiserMap).setAdvertisingData(mAdvertiserId, advertiseData);
     }
 
+    @Test
+    public void advertisingData_unchanged_notSentToController() throws Exception {
+        // Same data as the advertising set was started with
+        AdvertiseData advertiseData = new AdvertiseData.Builder().build();
+
+        mAdvertiseManager.setAdvertisingData(mAdvertiserId, advertiseData);
+
+        verify(mCallback).onAdvertisingDataSet(mAdvertiserId,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        verify(mAdvertiserMap).setAdvertisingData(mAdvertiserId, advertiseData);
+        StringBuilder sb = new StringBuilder();
+        mAdvertiseManager.dump(sb);
+        assertThat(sb.toString()).contains("skipped (adv/scan rsp/periodic): 1/0/0");
+    }
+
+    @Test
+    public void advertisingData_failedUpdate_sentAgain() throws Exception {
+        AdvertiseData advertiseData = new AdvertiseData.Builder()
+                .addServiceUuid(ParcelUuid.fromString("0000FE2C-0000-1000-8000-00805F9B34FB"))
+                .build();
+
+        mAdvertiseManager.setAdvertisingData(mAdvertiserId, advertiseData);
+        mAdvertiseManager.onAdvertisingDataSet(mAdvertiserId,
+                AdvertisingSetCallback.ADVERTISE_FAILED_INTERNAL_ERROR);
+        mAdvertiseManager.setAdvertisingData(mAdvertiserId, advertiseData);
+
+        // Only the controller reports the outcome of both updates
+        verify(mCallback, never()).onAdvertisingDataSet(mAdvertiserId,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        StringBuilder sb = new StringBuilder();
+        mAdvertiseManager.dump(sb);
+        assertThat(sb.toString()).contains("skipped (adv/scan rsp/periodic): 0/0/0");
+    }
+
+    @Test
+    public void advertisingData_unchangedAfterParametersChange_sentToController()
+            throws Exception {
+        mAdvertiseManager.setAdvertisingParameters(mAdvertiserId,
+                new AdvertisingSetParameters.Builder().setConnectable(false).build());
+        mAdvertiseManager.setAdvertisingData(mAdvertiserId, new AdvertiseData.Builder().build());
+        mAdvertiseManager.setScanResponseData(mAdvertiserId, new AdvertiseData.Builder().build());
+
+        // The stack rebuilds the payloads with the new flags, only the controller answers
+        verify(mCallback, never()).onAdvertisingDataSet(mAdvertiserId,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        verify(mCallback, never()).onScanResponseDataSet(mAdvertiserId,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        StringBuilder sb = new StringBuilder();
+        mAdvertiseManager.dump(sb);
+        assertThat(sb.toString()).contains("skipped (adv/scan rsp/periodic): 0/0/0");
+    }
+
+    @Test
+    public void periodicData_unchangedAfterParametersChange_sentToController() throws Exception {
+        mAdvertiseManager.setPeriodicAdvertisingParameters(mAdvertiserId,
+                new PeriodicAdvertisingParameters.Builder().setIncludeTxPower(true).build());
+        mAdvertiseManager.setPeriodicAdvertisingData(mAdvertiserId,
+                new AdvertiseData.Builder().build());
+
+        verify(mCallback, never()).onPeriodicAdvertisingDataSet(mAdvertiserId,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        StringBuilder sb = new StringBuilder();
+        mAdvertiseManager.dump(sb);
+        assertThat(sb.toString()).contains("skipped (adv/scan rsp/periodic): 0/0/0");
+    }
+
+    @Test
+    public void advertisingData_unchangedAfterDurationChange_sentToController()
+            throws Exception {
+        // Same duration as the advertising set was started with
+        mAdvertiseManager.enableAdvertisingSet(mAdvertiserId, true, 10, 15);
+        mAdvertiseManager.setAdvertisingData(mAdvertiserId, new AdvertiseData.Builder().build());
+        mAdvertiseManager.enableAdvertisingSet(mAdvertiserId, true, 0, 15);
+        mAdvertiseManager.setAdvertisingData(mAdvertiserId, new AdvertiseData.Builder().build());
+
+        StringBuilder sb = new StringBuilder();
+        mAdvertiseManager.dump(sb);
+        assertThat(sb.toString()).contains("skipped (adv/scan rsp/periodic): 1/0/0");
+    }
+
+    @Test
+    public void advertisingDataRotation_swapsPayloads() throws Exception {
+        AdvertiseData first = new AdvertiseData.Builder()
+                .addServiceUuid(ParcelUuid.fromString("0000FE2C-0000-1000-8000-00805F9B34FB"))
+                .build();
+        AdvertiseData second = new AdvertiseData.Builder()
+                .addServiceUuid(ParcelUuid.fromString("0000FE9F-0000-1000-8000-00805F9B34FB"))
+                .build();
+        mAdvertiseManager.onAdvertisingSetStarted(mAdvertiserId, ADVERTISER_ID, 0,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        mAdvertiseManager.startAdvertisingDataRotation(ADVERTISER_ID, List.of(first, second),
+                AdvertiseManager.MIN_DATA_ROTATION_INTERVAL_MS);
+        AdvertiseManager.DataRotation rotation =
+                mAdvertiseManager.findAdvertiser(ADVERTISER_ID).getValue().rotation;
+        assertThat(rotation).isNotNull();
+
+        // Run each swap as the advertise handler would, acknowledged by the controller
+        rotation.run();
+        mAdvertiseManager.onAdvertisingDataSet(ADVERTISER_ID,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        rotation.run();
+        mAdvertiseManager.onAdvertisingDataSet(ADVERTISER_ID,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+
+        verify(mCallback, never()).onAdvertisingDataSet(ADVERTISER_ID,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        StringBuilder sb = new StringBuilder();
+        mAdvertiseManager.dump(sb);
+        assertThat(sb.toString()).contains("Advertising data rotation swaps: 2");
+
+        // The app takes over with the payload the controller already has
+        mAdvertiseManager.setAdvertisingData(ADVERTISER_ID, second);
+        assertThat(mAdvertiseManager.findAdvertiser(ADVERTISER_ID).getValue().rotation).isNull();
+        verify(mCallback).onAdvertisingDataSet(ADVERTISER_ID,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+
+        // A rotation that was stopped doesn't swap anymore
+        rotation.run();
+        sb = new StringBuilder();
+        mAdvertiseManager.dump(sb);
+        assertThat(sb.toString()).contains("Advertising data rotation swaps: 2");
+    }
+
+    @Test
+    public void advertisingDataRotation_invalidArguments_throws() {
+        AdvertiseData advertiseData = new AdvertiseData.Builder()
+                .addServiceUuid(ParcelUuid.fromString("0000FE2C-0000-1000-8000-00805F9B34FB"))
+                .build();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> mAdvertiseManager.startAdvertisingDataRotation(mAdvertiserId, List.of(),
+                        AdvertiseManager.MIN_DATA_ROTATION_INTERVAL_MS));
+        assertThrows(IllegalArgumentException.class,
+                () -> mAdvertiseManager.startAdvertisingDataRotation(mAdvertiserId,
+                        List.of(advertiseData),
+                        AdvertiseManager.MIN_DATA_ROTATION_INTERVAL_MS - 1));
+    }
+
     @Test
     public void scanResponseData() {
         AdvertiseData scanResponse = new AdvertiseData.Builder().build();
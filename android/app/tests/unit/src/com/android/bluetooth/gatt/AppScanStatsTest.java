@@ -116,4 +116,24 @@ public class AppScanStatsTest {
 
         appScanStats.dumpToString(stringBuilder);
     }
+
+    @Test
+    public void testDump_showsSkippedResults() throws Exception {
+        AppScanStats appScanStats = new AppScanStats("appName", null, map, mService);
+        int scannerId = 0;
+        appScanStats.recordScanStart(new ScanSettings.Builder().build(), new ArrayList<>(),
+                false, true, scannerId);
+
+        appScanStats.addResult(scannerId);
+        appScanStats.addSkippedResult(scannerId, ScanDeliveryTracker.SKIP_FILTER_MISMATCH);
+        appScanStats.addSkippedResult(scannerId, ScanDeliveryTracker.SKIP_FILTER_MISMATCH);
+        appScanStats.addSkippedResult(scannerId, ScanDeliveryTracker.DROP_DELIVERY_FAILED);
+
+        StringBuilder stringBuilder = new StringBuilder();
+        appScanStats.dumpToString(stringBuilder);
+
+        assertThat(stringBuilder.toString()).contains("1 results");
+        assertThat(stringBuilder.toString()).contains("filter_mismatch: 2");
+        assertThat(stringBuilder.toString()).contains("delivery_failed: 1");
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link ScanDeliveryTracker}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanDeliveryTrackerTest {
+
+    @Test
+    public void getBucket_usesPowersOfTwoMicroseconds() {
+        assertThat(ScanDeliveryTracker.getBucket(0)).isEqualTo(0);
+        assertThat(ScanDeliveryTracker.getBucket(999)).isEqualTo(0);
+        assertThat(ScanDeliveryTracker.getBucket(1_000)).isEqualTo(1);
+        assertThat(ScanDeliveryTracker.getBucket(3_999)).isEqualTo(2);
+        assertThat(ScanDeliveryTracker.getBucket(4_000)).isEqualTo(3);
+        assertThat(ScanDeliveryTracker.getBucket(-1)).isEqualTo(0);
+        assertThat(ScanDeliveryTracker.getBucket(Long.MAX_VALUE))
+                .isEqualTo(ScanDeliveryTracker.BUCKET_COUNT - 1);
+    }
+
+    @Test
+    public void recordStage_countsLatencyOfThatStage() {
+        ScanDeliveryTracker tracker = new ScanDeliveryTracker();
+
+        long start = tracker.recordStage(ScanDeliveryTracker.STAGE_PARSE, 0);
+        tracker.recordStage(ScanDeliveryTracker.STAGE_FILTER, start);
+
+        assertThat(tracker.getCount(ScanDeliveryTracker.STAGE_PARSE)).isEqualTo(1);
+        assertThat(tracker.getCount(ScanDeliveryTracker.STAGE_FILTER)).isEqualTo(1);
+        assertThat(tracker.getCount(ScanDeliveryTracker.STAGE_DELIVERY)).isEqualTo(0);
+    }
+
+    @Test
+    public void dump_showsLatenciesAndSkips() {
+        ScanDeliveryTracker tracker = new ScanDeliveryTracker();
+        tracker.addLatency(ScanDeliveryTracker.STAGE_DELIVERY, 1_500);
+        tracker.addLatency(ScanDeliveryTracker.STAGE_DELIVERY, 2_500);
+        tracker.recordSkip(ScanDeliveryTracker.SKIP_NO_PERMISSION);
+
+        StringBuilder sb = new StringBuilder();
+        tracker.dump(sb);
+
+        assertThat(tracker.getSkips(ScanDeliveryTracker.SKIP_NO_PERMISSION)).isEqualTo(1);
+        assertThat(sb.toString()).contains("delivery: 2, 2/2 [ <2:1 <4:1 ]");
+        assertThat(sb.toString()).contains("no_permission=1");
+    }
+}
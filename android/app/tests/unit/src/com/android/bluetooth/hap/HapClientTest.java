@@ -702,6 +702,48 @@ public class HapClientTest {
         Assert.assertEquals("One", info.getName());
     }
 
+    /**
+     * Test that the known presets are persisted and served again on the next connection.
+     */
+    @Test
+    public void testPresetCacheStoredAndRestored() {
+        testConnectingDevice(mDevice);
+
+        ArgumentCaptor<byte[]> cacheCaptor = ArgumentCaptor.forClass(byte[].class);
+        verify(mDatabaseManager, Mockito.atLeastOnce())
+                .setHapPresetCache(eq(mDevice), cacheCaptor.capture());
+        byte[] cache = cacheCaptor.getValue();
+        Assert.assertArrayEquals(
+                HapClientService.encodePresetCache(0x01, mService.getAllPresetInfo(mDevice)),
+                cache);
+
+        // The remote has not reported anything yet for this device
+        doReturn(cache).when(mDatabaseManager).getHapPresetCache(mDevice3);
+        mService.connectionStateChanged(mDevice3, BluetoothProfile.STATE_CONNECTING,
+                BluetoothProfile.STATE_CONNECTED);
+
+        List<BluetoothHapPresetInfo> presets = mService.getAllPresetInfo(mDevice3);
+        Assert.assertEquals(3, presets.size());
+        Assert.assertEquals(0x02, presets.get(1).getIndex());
+        Assert.assertEquals("Two", presets.get(1).getName());
+        Assert.assertTrue(presets.get(1).isWritable());
+        Assert.assertTrue(presets.get(1).isAvailable());
+        Assert.assertEquals(0x01, mService.getFeatures(mDevice3));
+    }
+
+    /**
+     * Test that selecting another preset doesn't rewrite the persisted presets.
+     */
+    @Test
+    public void testPresetCacheNotStoredOnActivePresetChange() {
+        testConnectingDevice(mDevice);
+        Mockito.clearInvocations(mDatabaseManager);
+
+        testOnPresetSelected(mDevice, 0x02);
+
+        verify(mDatabaseManager, Mockito.never()).setHapPresetCache(any(), any());
+    }
+
     /**
      * Test that setPresetName properly calls the native method for the valid parameters.
      */
@@ -23,6 +23,7 @@ import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -286,6 +287,41 @@ public class AtPhonebookTest {
         verify(mNativeInterface).atResponseString(mTestDevice, expected);
     }
 
+    @Test
+    public void processCpbrCommand_withRepeatedNumber_looksUpCallerIdOnce() {
+        Cursor mockCursorOne = mock(Cursor.class);
+        when(mockCursorOne.getCount()).thenReturn(3);
+        when(mockCursorOne.getColumnIndexOrThrow(CallLog.Calls.NUMBER)).thenReturn(1);
+        when(mockCursorOne.getColumnIndexOrThrow(CallLog.Calls.NUMBER_PRESENTATION)).thenReturn(2);
+        String number = "1234567";
+        when(mockCursorOne.getString(1)).thenReturn(number);
+        when(mockCursorOne.getInt(2)).thenReturn(CallLog.Calls.PRESENTATION_ALLOWED);
+        when(mockCursorOne.moveToNext()).thenReturn(true, true, false);
+        doReturn(mockCursorOne).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+                any(), any());
+
+        Cursor mockCursorTwo = mock(Cursor.class);
+        when(mockCursorTwo.moveToFirst()).thenReturn(true);
+        String name = "Name";
+        when(mockCursorTwo.getString(0)).thenReturn(name);
+        doReturn(mockCursorTwo).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+                any(), any(), any());
+
+        mAtPhonebook.mCurrentPhonebook = "MC";
+        mAtPhonebook.mCpbrIndex1 = 1;
+        mAtPhonebook.mCpbrIndex2 = 3;
+
+        mAtPhonebook.processCpbrCommand(mTestDevice);
+
+        verify(mHfpMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+        for (int index = 1; index <= 3; index++) {
+            String expected = "+CPBR: " + index + ",\"" + number + "\","
+                    + PhoneNumberUtils.toaFromString(number) + ",\"" + name + "\"" + "\r\n\r\n";
+            verify(mNativeInterface).atResponseString(mTestDevice, expected);
+        }
+    }
+
     @Test
     public void setCpbrIndex() {
         int index = 1;
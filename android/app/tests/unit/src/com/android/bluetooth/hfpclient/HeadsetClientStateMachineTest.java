@@ -130,6 +130,7 @@ public class HeadsetClientStateMachineTest {
         TestUtils.setAdapterService(mAdapterService);
         mNativeInterface = spy(NativeInterface.getInstance());
         doReturn(true).when(mNativeInterface).sendAndroidAt(anyObject(), anyString());
+        doReturn(true).when(mNativeInterface).queryCurrentCalls(any(BluetoothDevice.class));
 
         // This line must be called to make sure relevant objects are initialized properly
         mAdapter = BluetoothAdapter.getDefaultAdapter();
@@ -1416,6 +1417,105 @@ public class HeadsetClientStateMachineTest {
         verify(mNativeInterface).startVoiceRecognition(any(BluetoothDevice.class));
     }
 
+    @Test
+    public void testCallIndicatorsDuringQuery_areCoalesced_onConnectedState() {
+        initToConnectedState();
+
+        // +CIEV call and callsetup for the same call change
+        StackEvent event = new StackEvent(StackEvent.EVENT_TYPE_CALL);
+        event.device = mTestDevice;
+        mHeadsetClientStateMachine.sendMessage(StackEvent.STACK_EVENT, event);
+        event = new StackEvent(StackEvent.EVENT_TYPE_CALLSETUP);
+        event.device = mTestDevice;
+        mHeadsetClientStateMachine.sendMessage(StackEvent.STACK_EVENT, event);
+        verify(mNativeInterface, timeout(STANDARD_WAIT_MILLIS)).queryCurrentCalls(mTestDevice);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        verify(mNativeInterface).queryCurrentCalls(mTestDevice);
+
+        // The deferred query is sent once the pending AT+CLCC completes
+        event = new StackEvent(StackEvent.EVENT_TYPE_CMD_RESULT);
+        event.valueInt = StackEvent.CMD_RESULT_TYPE_OK;
+        event.device = mTestDevice;
+        mHeadsetClientStateMachine.sendMessage(StackEvent.STACK_EVENT, event);
+        verify(mNativeInterface, timeout(STANDARD_WAIT_MILLIS).times(2))
+                .queryCurrentCalls(mTestDevice);
+    }
+
+    @Test
+    public void testQueryCallsDelay_backsOffWhileCallListIsStable() {
+        initToConnectedState();
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        mHeadsetClientStateMachine.mQueuedActions.clear();
+        clearInvocations(mNativeInterface);
+
+        long[] expectedDelays = {2000, 4000, 8000, 16000, 16000};
+        for (int i = 0; i < expectedDelays.length; i++) {
+            mHeadsetClientStateMachine.sendMessage(HeadsetClientStateMachine.QUERY_CURRENT_CALLS);
+            verify(mNativeInterface, timeout(STANDARD_WAIT_MILLIS).times(i + 1))
+                    .queryCurrentCalls(mTestDevice);
+            sendCurrentCallAndResult();
+            Assert.assertEquals(expectedDelays[i],
+                    mHeadsetClientStateMachine.getQueryCallsDelayMillis(2000));
+        }
+    }
+
+    @Test
+    public void testQueryCallsFailedToSend_isNotQueued() {
+        initToConnectedState();
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        mHeadsetClientStateMachine.mQueuedActions.clear();
+        clearInvocations(mNativeInterface);
+
+        doReturn(false).when(mNativeInterface).queryCurrentCalls(any(BluetoothDevice.class));
+        mHeadsetClientStateMachine.sendMessage(HeadsetClientStateMachine.QUERY_CURRENT_CALLS);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        verify(mNativeInterface).queryCurrentCalls(mTestDevice);
+        Assert.assertEquals(0, mHeadsetClientStateMachine.mQueuedActions.size());
+
+        // Nothing is in flight, so the next query is sent right away
+        doReturn(true).when(mNativeInterface).queryCurrentCalls(any(BluetoothDevice.class));
+        mHeadsetClientStateMachine.sendMessage(HeadsetClientStateMachine.QUERY_CURRENT_CALLS);
+        verify(mNativeInterface, timeout(STANDARD_WAIT_MILLIS).times(2))
+                .queryCurrentCalls(mTestDevice);
+    }
+
+    @Test
+    public void testQueryCallsResultLost_deferredQueryIsSentAfterTimeout() {
+        initToConnectedState();
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        mHeadsetClientStateMachine.mQueuedActions.clear();
+        clearInvocations(mNativeInterface);
+
+        mHeadsetClientStateMachine.sendMessage(HeadsetClientStateMachine.QUERY_CURRENT_CALLS);
+        verify(mNativeInterface, timeout(STANDARD_WAIT_MILLIS)).queryCurrentCalls(mTestDevice);
+
+        // The AG never answers the first AT+CLCC, so the second one waits for the timeout
+        mHeadsetClientStateMachine.sendMessage(HeadsetClientStateMachine.QUERY_CURRENT_CALLS);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        verify(mNativeInterface).queryCurrentCalls(mTestDevice);
+        verify(mNativeInterface, timeout(
+                HeadsetClientStateMachine.QUERY_CURRENT_CALLS_TIMEOUT_MILLIS
+                        + STANDARD_WAIT_MILLIS).times(2))
+                .queryCurrentCalls(mTestDevice);
+    }
+
+    private void sendCurrentCallAndResult() {
+        StackEvent event = new StackEvent(StackEvent.EVENT_TYPE_CURRENT_CALLS);
+        event.valueInt = 1; //index
+        event.valueInt2 = 1; //direction
+        event.valueInt3 = 4; //state
+        event.valueInt4 = 0; //multi party
+        event.valueString = "5551212"; //phone number
+        event.device = mTestDevice;
+        mHeadsetClientStateMachine.sendMessage(StackEvent.STACK_EVENT, event);
+
+        event = new StackEvent(StackEvent.EVENT_TYPE_CMD_RESULT);
+        event.valueInt = AT_OK;
+        event.device = mTestDevice;
+        mHeadsetClientStateMachine.sendMessage(StackEvent.STACK_EVENT, event);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+    }
+
     @Test
     public void testProcessDisconnectMessage_onAudioOnState() {
         initToAudioOnState();
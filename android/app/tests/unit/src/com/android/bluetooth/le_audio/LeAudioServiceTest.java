@@ -1841,6 +1841,28 @@ public class LeAudioServiceTest {
         assertThat(secondGroupDevicesById.equals(secondGroupDevicesByDevice)).isTrue();
     }
 
+    @Test
+    public void testGetGroupDevices_followsGroupNodeChanges() {
+        int firstGroupId = 1;
+        int secondGroupId = 2;
+
+        doReturn(true).when(mNativeInterface).connectLeAudio(any(BluetoothDevice.class));
+        connectTestDevice(mLeftDevice, firstGroupId);
+        connectTestDevice(mRightDevice, firstGroupId);
+        connectTestDevice(mSingleDevice, secondGroupId);
+
+        generateGroupNodeRemoved(mRightDevice, firstGroupId);
+        assertThat(mService.getGroupDevices(firstGroupId)).containsExactly(mLeftDevice);
+        assertThat(mService.getGroupDevices(mRightDevice)).isEmpty();
+
+        // Members keep the order in which the devices were first seen
+        generateGroupNodeAdded(mRightDevice, secondGroupId);
+        assertThat(mService.getGroupDevices(secondGroupId))
+                .containsExactly(mRightDevice, mSingleDevice).inOrder();
+        assertThat(mService.getGroupDevices(mSingleDevice))
+                .containsExactly(mRightDevice, mSingleDevice).inOrder();
+    }
+
     /**
      * Tests that {@link LeAudioService#sendPreferredAudioProfileChangeToAudioFramework()} sends
      * requests to the audio framework for each active LEA device.
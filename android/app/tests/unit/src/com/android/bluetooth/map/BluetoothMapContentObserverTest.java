@@ -261,47 +261,47 @@ public class BluetoothMapContentObserverTest {
         BluetoothMapContentObserver.Event event = mObserver.new Event(eventType, TEST_HANDLE_ONE,
                 null, null);
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
 
         event.eventType = BluetoothMapContentObserver.EVENT_TYPE_DELETE;
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
 
         event.eventType = BluetoothMapContentObserver.EVENT_TYPE_REMOVED;
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
 
         event.eventType = BluetoothMapContentObserver.EVENT_TYPE_SHIFT;
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
 
         event.eventType = BluetoothMapContentObserver.EVENT_TYPE_DELEVERY_SUCCESS;
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
 
         event.eventType = BluetoothMapContentObserver.EVENT_TYPE_SENDING_SUCCESS;
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
 
         event.eventType = BluetoothMapContentObserver.EVENT_TYPE_SENDING_FAILURE;
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
 
         event.eventType = BluetoothMapContentObserver.EVENT_TYPE_READ_STATUS;
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
 
         event.eventType = BluetoothMapContentObserver.EVENT_TYPE_CONVERSATION;
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
 
         event.eventType = BluetoothMapContentObserver.EVENT_TYPE_PRESENCE;
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
 
         event.eventType = BluetoothMapContentObserver.EVENT_TYPE_CHAT_STATE;
         mObserver.sendEvent(event);
-        verify(mClient, never()).sendEvent(any(), anyInt());
+        verify(mClient, never()).sendEvent(any(), anyInt(), any());
     }
 
     @Test
@@ -314,7 +314,7 @@ public class BluetoothMapContentObserverTest {
 
         mObserver.sendEvent(event);
 
-        verify(mClient).sendEvent(event.encode(), TEST_ID);
+        verify(mClient).sendEvent(event.encode(), TEST_ID, null);
     }
 
     @Test
@@ -1416,6 +1416,92 @@ public class BluetoothMapContentTest {
         assertThat(imElement.getThreadName()).isEqualTo(TEST_NAME);
     }
 
+    @Test
+    public void msgListing_withSmsAndMmsCursors_mergesByDateAndReturnsPage() {
+        when(mParams.getParameterMask()).thenReturn((long) BluetoothMapContent.MASK_DATETIME);
+        int smsMms = BluetoothMapAppParams.FILTER_NO_EMAIL | BluetoothMapAppParams.FILTER_NO_IM;
+        when(mParams.getFilterMessageType()).thenReturn(smsMms);
+        when(mParams.getMaxListCount()).thenReturn(2);
+        when(mParams.getStartOffset()).thenReturn(1);
+
+        mCurrentFolder.setHasSmsMmsContent(true);
+        mCurrentFolder.setFolderId(TEST_ID);
+
+        MatrixCursor smsCursor = new MatrixCursor(new String[] {BaseColumns._ID, Telephony.Sms.TYPE,
+                Telephony.Sms.READ, Telephony.Sms.BODY, Telephony.Sms.ADDRESS, Telephony.Sms.DATE,
+                Telephony.Sms.THREAD_ID});
+        smsCursor.addRow(new Object[] {1L, TEST_SENT_NO, TEST_READ_FALSE, TEST_SUBJECT,
+                TEST_ADDRESS, 5000L, TEST_THREAD_ID});
+        smsCursor.addRow(new Object[] {3L, TEST_SENT_NO, TEST_READ_TRUE, TEST_SUBJECT,
+                TEST_ADDRESS, 2000L, TEST_THREAD_ID});
+        doReturn(smsCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(),
+                eq(BluetoothMapContent.SMS_PROJECTION), any(), any(), any());
+
+        // MMS dates are in seconds
+        MatrixCursor mmsCursor = new MatrixCursor(new String[] {BaseColumns._ID,
+                Telephony.Mms.MESSAGE_BOX, Telephony.Mms.READ, Telephony.Mms.MESSAGE_SIZE,
+                Telephony.Mms.TEXT_ONLY, Telephony.Mms.DATE, Telephony.Mms.SUBJECT,
+                Telephony.Mms.THREAD_ID});
+        mmsCursor.addRow(new Object[] {2L, TEST_SENT_NO, TEST_READ_TRUE, TEST_SIZE,
+                TEST_TEXT_ONLY, 4L, TEST_SUBJECT, TEST_THREAD_ID});
+        mmsCursor.addRow(new Object[] {4L, TEST_SENT_NO, TEST_READ_TRUE, TEST_SIZE,
+                TEST_TEXT_ONLY, 1L, TEST_SUBJECT, TEST_THREAD_ID});
+        doReturn(mmsCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(),
+                eq(BluetoothMapContent.MMS_PROJECTION), any(), any(), any());
+
+        BluetoothMapMessageListing listing = mContent.msgListing(mCurrentFolder, mParams);
+
+        assertThat(listing.getCount()).isEqualTo(2);
+        assertThat(listing.getList().get(0).getHandle()).isEqualTo(2L);
+        assertThat(listing.getList().get(0).getDateTime()).isEqualTo(4000L);
+        assertThat(listing.getList().get(1).getHandle()).isEqualTo(3L);
+        assertThat(listing.getList().get(1).getDateTime()).isEqualTo(2000L);
+        // The skipped newest message is unread
+        assertThat(listing.hasUnread()).isTrue();
+    }
+
+    @Test
+    public void msgListing_unreadMessageAfterPage_hasUnread() {
+        when(mParams.getParameterMask()).thenReturn((long) BluetoothMapContent.MASK_DATETIME);
+        int smsMms = BluetoothMapAppParams.FILTER_NO_EMAIL | BluetoothMapAppParams.FILTER_NO_IM;
+        when(mParams.getFilterMessageType()).thenReturn(smsMms);
+        when(mParams.getMaxListCount()).thenReturn(2);
+        when(mParams.getStartOffset()).thenReturn(0);
+
+        mCurrentFolder.setHasSmsMmsContent(true);
+        mCurrentFolder.setFolderId(TEST_ID);
+
+        MatrixCursor smsCursor = new MatrixCursor(new String[] {BaseColumns._ID, Telephony.Sms.TYPE,
+                Telephony.Sms.READ, Telephony.Sms.BODY, Telephony.Sms.ADDRESS, Telephony.Sms.DATE,
+                Telephony.Sms.THREAD_ID});
+        smsCursor.addRow(new Object[] {1L, TEST_SENT_NO, TEST_READ_TRUE, TEST_SUBJECT,
+                TEST_ADDRESS, 5000L, TEST_THREAD_ID});
+        smsCursor.addRow(new Object[] {3L, TEST_SENT_NO, TEST_READ_TRUE, TEST_SUBJECT,
+                TEST_ADDRESS, 2000L, TEST_THREAD_ID});
+        doReturn(smsCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(),
+                eq(BluetoothMapContent.SMS_PROJECTION), any(), any(), any());
+
+        // MMS dates are in seconds
+        MatrixCursor mmsCursor = new MatrixCursor(new String[] {BaseColumns._ID,
+                Telephony.Mms.MESSAGE_BOX, Telephony.Mms.READ, Telephony.Mms.MESSAGE_SIZE,
+                Telephony.Mms.TEXT_ONLY, Telephony.Mms.DATE, Telephony.Mms.SUBJECT,
+                Telephony.Mms.THREAD_ID});
+        mmsCursor.addRow(new Object[] {2L, TEST_SENT_NO, TEST_READ_TRUE, TEST_SIZE,
+                TEST_TEXT_ONLY, 4L, TEST_SUBJECT, TEST_THREAD_ID});
+        mmsCursor.addRow(new Object[] {4L, TEST_SENT_NO, TEST_READ_FALSE, TEST_SIZE,
+                TEST_TEXT_ONLY, 1L, TEST_SUBJECT, TEST_THREAD_ID});
+        doReturn(mmsCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(),
+                eq(BluetoothMapContent.MMS_PROJECTION), any(), any(), any());
+
+        BluetoothMapMessageListing listing = mContent.msgListing(mCurrentFolder, mParams);
+
+        assertThat(listing.getCount()).isEqualTo(2);
+        assertThat(listing.getList().get(0).getHandle()).isEqualTo(1L);
+        assertThat(listing.getList().get(1).getHandle()).isEqualTo(2L);
+        // Only the oldest message, beyond MaxListCount, is unread
+        assertThat(listing.hasUnread()).isTrue();
+    }
+
     @Test
     public void msgListingSize() {
         when(mParams.getFilterMessageType()).thenReturn(TEST_NO_FILTER);
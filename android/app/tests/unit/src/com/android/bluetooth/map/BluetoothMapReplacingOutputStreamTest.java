@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(AndroidJUnit4.class)
+public class BluetoothMapReplacingOutputStreamTest {
+    private static final String TEST_CONTENT =
+            "<msg subject=\"a &amp;amp; b &lt; c &gt; d &am &é\" /> &amp";
+
+    private static OutputStream unescape(OutputStream out) {
+        return new BluetoothMapReplacingOutputStream(
+                new BluetoothMapReplacingOutputStream(
+                        new BluetoothMapReplacingOutputStream(out, "&gt;", ">"),
+                        "&lt;", "<"),
+                "&amp;", "&");
+    }
+
+    private static String expected(String content) {
+        return content.replaceAll("&amp;", "&").replaceAll("&lt;", "<").replaceAll("&gt;", ">");
+    }
+
+    @Test
+    public void writeArray_matchesStringReplacement() throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        OutputStream out = unescape(result);
+
+        out.write(TEST_CONTENT.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        assertThat(result.toString("UTF-8")).isEqualTo(expected(TEST_CONTENT));
+    }
+
+    @Test
+    public void writeSingleBytes_matchesStringReplacement() throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        OutputStream out = unescape(result);
+
+        for (byte b : TEST_CONTENT.getBytes(StandardCharsets.UTF_8)) {
+            out.write(b);
+        }
+        out.flush();
+
+        assertThat(result.toString("UTF-8")).isEqualTo(expected(TEST_CONTENT));
+    }
+
+    @Test
+    public void writeSplitMatch_isReplaced() throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        OutputStream out = new BluetoothMapReplacingOutputStream(result, "&lt;", "<");
+
+        out.write("a&l".getBytes(StandardCharsets.UTF_8));
+        out.write("t;b".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        assertThat(result.toString("UTF-8")).isEqualTo("a<b");
+    }
+}
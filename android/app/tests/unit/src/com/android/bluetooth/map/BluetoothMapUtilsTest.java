@@ -19,6 +19,7 @@ package com.android.bluetooth.map;
 import static com.google.common.truth.Truth.assertThat;
 
 import android.database.MatrixCursor;
+import android.util.Base64;
 
 import androidx.test.filters.MediumTest;
 import androidx.test.runner.AndroidJUnit4;
@@ -28,7 +29,16 @@ import com.android.bluetooth.mapapi.BluetoothMapContract;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @MediumTest
 @RunWith(AndroidJUnit4.class)
@@ -38,6 +48,10 @@ public class BluetoothMapUtilsTest {
     private static final String QUOTED_PRINTABLE_ENCODED_TEXT = "=EC=BD=94=EB=93=9C";
     private static final String BASE64_ENCODED_TEXT = "7L2U65Oc";
 
+    /** Characters the codecs treat specially, mixed into the random test strings. */
+    private static final String SPECIAL_CHARS = "=?QqBb\r\n\t \u0085\u2028aZ09Ff"
+            + "\u00e9\u00ff\u0100\u20ac\ud83d\ude00\ud83d\ude00\ude00\ud83d";
+
     @Test
     public void encodeQuotedPrintable_withNullInput_returnsNull() {
         assertThat(BluetoothMapUtils.encodeQuotedPrintable(null)).isNull();
@@ -75,4 +89,164 @@ public class BluetoothMapUtilsTest {
         assertThat(BluetoothMapUtils.stripEncoding("=?UTF-8?B?" + BASE64_ENCODED_TEXT + "?="))
                 .isEqualTo(TEXT);
     }
+
+    @Test
+    public void codecs_matchReferenceImplementations() throws Exception {
+        for (String text : createCorpus()) {
+            assertThat(BluetoothMapUtils.stripEncoding(text))
+                    .isEqualTo(referenceStripEncoding(text));
+            for (String charset : new String[] {null, "UTF-8", "us-ascii", "ISO-8859-1", "bogus"}) {
+                assertThat(BluetoothMapUtils.quotedPrintableToUtf8(text, charset))
+                        .isEqualTo(referenceQuotedPrintableToUtf8(text, charset));
+            }
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            assertThat(BluetoothMapUtils.encodeQuotedPrintable(utf8))
+                    .isEqualTo(referenceEncodeQuotedPrintable(utf8));
+            for (int maxLength = 1; maxLength <= text.length() + 2; maxLength++) {
+                assertThat(BluetoothMapUtils.truncateUtf8StringToBytearray(text, maxLength))
+                        .isEqualTo(referenceTruncateUtf8StringToBytearray(text, maxLength));
+            }
+        }
+    }
+
+    private static List<String> createCorpus() {
+        List<String> corpus = new ArrayList<>(Arrays.asList(
+                "",
+                TEXT,
+                QUOTED_PRINTABLE_ENCODED_TEXT,
+                "=?UTF-8?Q?" + QUOTED_PRINTABLE_ENCODED_TEXT + "?= and =?UTF-8?B?"
+                        + BASE64_ENCODED_TEXT + "?=",
+                "=?UTF-8?Q?a?=?= =??Q??= =?a?X?b?= =?a\n?Q?b?= =?a?Q?b\r\n?=",
+                "=?ISO-8859-1?Q?caf=E9?= soft=\r\nbreak =4 =zz =",
+                "=?ISO-8859-1?B?Y2Fm6Q==?= =?UTF-8?B?not base64!?=",
+                "=?UTF-8?Q?=?UTF-8?Q?nested?=?="));
+        Random random = new Random(47);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(40); j > 0; j--) {
+                int kind = random.nextInt(10);
+                if (kind < 7) {
+                    sb.append(SPECIAL_CHARS.charAt(random.nextInt(SPECIAL_CHARS.length())));
+                } else if (kind < 8) {
+                    sb.append((char) random.nextInt(0x10000));
+                } else if (kind < 9) {
+                    sb.append("=?UTF-8?Q?=EC=BD=94?=");
+                } else {
+                    sb.append("=?ISO-8859-1?B?6Q==?=");
+                }
+            }
+            corpus.add(sb.toString());
+        }
+        return corpus;
+    }
+
+    // The implementations below are the regex and String based codecs BluetoothMapUtils used
+    // before, kept as the reference the current ones must produce identical output to.
+
+    private static final Pattern ENCODED_WORD =
+            Pattern.compile("=\\?(.+?)\\?(.)\\?(.+?(?=\\?=))\\?=");
+
+    private static String referenceStripEncoding(String in) throws Exception {
+        if (!in.contains("=?") || !in.contains("?=")) {
+            return in;
+        }
+        Matcher m = ENCODED_WORD.matcher(in);
+        while (m.find()) {
+            String charset = m.group(1);
+            String encoding = m.group(2);
+            String encodedText = m.group(3);
+            if (encoding.equalsIgnoreCase("Q")) {
+                in = in.replace(m.group(0),
+                        new String(referenceQuotedPrintableToUtf8(encodedText, charset)));
+            } else if (encoding.equalsIgnoreCase("B")) {
+                try {
+                    in = in.replace(m.group(0), new String(Base64.decode(
+                            encodedText.getBytes(charset), Base64.DEFAULT), charset));
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    // Left as is
+                }
+            }
+        }
+        return in;
+    }
+
+    private static byte[] referenceQuotedPrintableToUtf8(String text, String charset)
+            throws Exception {
+        byte[] input = text.getBytes("US-ASCII");
+        byte[] output = new byte[text.length()];
+        int in;
+        int out = 0;
+        for (in = 0; in < input.length - 2; in++) {
+            byte b0 = input[in];
+            if (b0 != '=') {
+                output[out++] = b0;
+                continue;
+            }
+            byte b1 = input[++in];
+            byte b2 = input[++in];
+            if (b1 == '\r' && b2 == '\n') {
+                continue;
+            }
+            int hi = Character.digit(b1, 16);
+            int lo = Character.digit(b2, 16);
+            if (hi >= 0 && lo >= 0) {
+                output[out++] = (byte) (hi << 4 | lo);
+                continue;
+            }
+            output[out++] = b0;
+            in -= 2;
+        }
+        while (in < input.length) {
+            output[out++] = input[in++];
+        }
+        if (charset == null) {
+            charset = "UTF-8";
+        } else {
+            charset = charset.toUpperCase();
+            try {
+                if (!Charset.isSupported(charset)) {
+                    charset = "UTF-8";
+                }
+            } catch (IllegalArgumentException e) {
+                charset = "UTF-8";
+            }
+        }
+        return new String(output, 0, out, charset).getBytes();
+    }
+
+    private static String referenceEncodeQuotedPrintable(byte[] bytes) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (byte value : bytes) {
+            int b = value & 0xff;
+            if ((b >= 33 && b <= 60) || (b >= 62 && b <= 126) || b == 9 || b == 32) {
+                buffer.write(b);
+            } else {
+                buffer.write('=');
+                buffer.write(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+                buffer.write(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+        }
+        return buffer.toString("UTF-8");
+    }
+
+    private static byte[] referenceTruncateUtf8StringToBytearray(String utf8String,
+            int maxLength) throws Exception {
+        byte[] utf8Bytes = new byte[utf8String.length() + 1];
+        System.arraycopy(utf8String.getBytes("UTF-8"), 0, utf8Bytes, 0, utf8String.length());
+        if (utf8Bytes.length > maxLength) {
+            if ((utf8Bytes[maxLength - 1] & 0xC0) == 0x80) {
+                for (int i = maxLength - 2; i >= 0; i--) {
+                    if ((utf8Bytes[i] & 0xC0) == 0xC0) {
+                        utf8Bytes = Arrays.copyOf(utf8Bytes, i + 1);
+                        utf8Bytes[i] = 0;
+                        break;
+                    }
+                }
+            } else {
+                utf8Bytes = Arrays.copyOf(utf8Bytes, maxLength);
+                utf8Bytes[maxLength - 1] = 0;
+            }
+        }
+        return utf8Bytes;
+    }
 }
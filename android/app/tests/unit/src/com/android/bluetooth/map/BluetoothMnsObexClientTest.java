@@ -0,0 +1,202 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.TestUtils;
+import com.android.obex.ResponseCodes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothMnsObexClientTest {
+    private static final int TEST_MAS_ID = 0;
+    private static final int OTHER_MAS_ID = 1;
+    private static final String READ_STATUS_KEY = "ReadStatusChanged:0001:SMS_GSM";
+    private static final long TIMEOUT_MS = 5000;
+
+    private final CountDownLatch mFirstEventSending = new CountDownLatch(1);
+    private final CountDownLatch mFirstEventReleased = new CountDownLatch(1);
+    // Events in the order the client sent them, with the time each PUT started
+    private final List<String> mSentEvents = new ArrayList<>();
+    private final List<Long> mSendTimes = new ArrayList<>();
+    private volatile long mResponseTimeMs = 0;
+
+    private TestMnsObexClient mClient;
+
+    @Before
+    public void setUp() {
+        BluetoothDevice device = TestUtils.getTestDevice(BluetoothAdapter.getDefaultAdapter(), 1);
+        mClient = new TestMnsObexClient(device);
+    }
+
+    @After
+    public void tearDown() {
+        mFirstEventReleased.countDown();
+        mClient.shutdown();
+    }
+
+    @Test
+    public void sendEvent_sendsInOrder() throws Exception {
+        mClient.sendEvent(event("a"), TEST_MAS_ID);
+        mClient.sendEvent(event("b"), TEST_MAS_ID);
+        mClient.sendEvent(event("c"), OTHER_MAS_ID);
+        mFirstEventReleased.countDown();
+
+        assertThat(waitForSentEvents(3)).containsExactly("0/a", "0/b", "1/c").inOrder();
+    }
+
+    @Test
+    public void sendEvent_sameKey_replacesPendingEventInPlace() throws Exception {
+        mClient.sendEvent(event("first"), TEST_MAS_ID);
+        assertThat(mFirstEventSending.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+
+        mClient.sendEvent(event("read1"), TEST_MAS_ID, READ_STATUS_KEY);
+        mClient.sendEvent(event("new"), TEST_MAS_ID);
+        mClient.sendEvent(event("read2"), TEST_MAS_ID, READ_STATUS_KEY);
+        mFirstEventReleased.countDown();
+
+        assertThat(waitForSentEvents(3)).containsExactly("0/first", "0/read2", "0/new")
+                .inOrder();
+    }
+
+    @Test
+    public void sendEvent_sameKeyOtherMasInstance_notCoalesced() throws Exception {
+        mClient.sendEvent(event("first"), TEST_MAS_ID);
+        assertThat(mFirstEventSending.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+
+        mClient.sendEvent(event("read1"), TEST_MAS_ID, READ_STATUS_KEY);
+        mClient.sendEvent(event("read2"), OTHER_MAS_ID, READ_STATUS_KEY);
+        mFirstEventReleased.countDown();
+
+        assertThat(waitForSentEvents(3)).containsExactly("0/first", "0/read1", "1/read2")
+                .inOrder();
+    }
+
+    @Test
+    public void sendEvent_eventBeingSent_notCoalesced() throws Exception {
+        mClient.sendEvent(event("read1"), TEST_MAS_ID, READ_STATUS_KEY);
+        assertThat(mFirstEventSending.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+
+        mClient.sendEvent(event("read2"), TEST_MAS_ID, READ_STATUS_KEY);
+        mFirstEventReleased.countDown();
+
+        assertThat(waitForSentEvents(2)).containsExactly("0/read1", "0/read2").inOrder();
+    }
+
+    @Test
+    public void sendEvent_slowRemote_pacesEvents() throws Exception {
+        long responseTimeMs = 2 * BluetoothMnsObexClient.SLOW_REMOTE_RESPONSE_MS;
+        mResponseTimeMs = responseTimeMs;
+        mFirstEventReleased.countDown();
+
+        mClient.sendEvent(event("a"), TEST_MAS_ID);
+        mClient.sendEvent(event("b"), TEST_MAS_ID);
+
+        assertThat(waitForSentEvents(2)).containsExactly("0/a", "0/b").inOrder();
+        // The next PUT waits for the response to the previous one, then for the pacing delay
+        synchronized (mSentEvents) {
+            assertThat(mSendTimes.get(1) - mSendTimes.get(0)).isAtLeast(
+                    responseTimeMs + BluetoothMnsObexClient.getEventPacingDelayMs(responseTimeMs));
+        }
+    }
+
+    @Test
+    public void getEventPacingDelayMs_fastRemote_noDelay() {
+        assertThat(BluetoothMnsObexClient.getEventPacingDelayMs(0)).isEqualTo(0);
+        assertThat(BluetoothMnsObexClient.getEventPacingDelayMs(
+                BluetoothMnsObexClient.SLOW_REMOTE_RESPONSE_MS - 1)).isEqualTo(0);
+    }
+
+    @Test
+    public void getEventPacingDelayMs_slowRemote_waitsForResponseTime() {
+        long responseTimeMs = BluetoothMnsObexClient.SLOW_REMOTE_RESPONSE_MS;
+        assertThat(BluetoothMnsObexClient.getEventPacingDelayMs(responseTimeMs))
+                .isEqualTo(responseTimeMs);
+        assertThat(BluetoothMnsObexClient.getEventPacingDelayMs(2 * responseTimeMs))
+                .isEqualTo(2 * responseTimeMs);
+    }
+
+    @Test
+    public void getEventPacingDelayMs_verySlowRemote_cappedDelay() {
+        assertThat(BluetoothMnsObexClient.getEventPacingDelayMs(
+                BluetoothMnsObexClient.MAX_EVENT_PACING_MS + 1))
+                .isEqualTo(BluetoothMnsObexClient.MAX_EVENT_PACING_MS);
+        assertThat(BluetoothMnsObexClient.getEventPacingDelayMs(Long.MAX_VALUE))
+                .isEqualTo(BluetoothMnsObexClient.MAX_EVENT_PACING_MS);
+    }
+
+    private static byte[] event(String name) {
+        return name.getBytes();
+    }
+
+    private List<String> waitForSentEvents(int count) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        synchronized (mSentEvents) {
+            while (mSentEvents.size() < count && SystemClock.elapsedRealtime() < deadline) {
+                mSentEvents.wait(TIMEOUT_MS);
+            }
+            // Give a wrongly queued extra event the chance to show up
+            mSentEvents.wait(100);
+            return new ArrayList<>(mSentEvents);
+        }
+    }
+
+    /** Records the events instead of sending them to a remote, the first one waits for a go. */
+    private class TestMnsObexClient extends BluetoothMnsObexClient {
+        TestMnsObexClient(BluetoothDevice device) {
+            super(device, /* mnsRecord= */ null, /* callback= */ null);
+        }
+
+        @Override
+        int sendEventHandler(byte[] eventBytes, int masInstanceId) {
+            long sendTime = SystemClock.elapsedRealtime();
+            mFirstEventSending.countDown();
+            try {
+                mFirstEventReleased.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (mResponseTimeMs > 0) {
+                    Thread.sleep(mResponseTimeMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (mSentEvents) {
+                mSentEvents.add(masInstanceId + "/" + new String(eventBytes));
+                mSendTimes.add(sendTime);
+                mSentEvents.notifyAll();
+            }
+            return ResponseCodes.OBEX_HTTP_OK;
+        }
+    }
+}
@@ -98,6 +98,30 @@ public class EventTest {
         assertThat(event.msgType).isEqualTo(TEST_TYPE);
     }
 
+    @Test
+    public void getCoalesceKey_onlyForStateChangeEvents() {
+        BluetoothMapContentObserver.Event readStatus = mObserver.new Event(
+                BluetoothMapContentObserver.EVENT_TYPE_READ_STATUS, TEST_HANDLE, TEST_FOLDER,
+                TEST_TYPE);
+        BluetoothMapContentObserver.Event readStatusAgain = mObserver.new Event(
+                BluetoothMapContentObserver.EVENT_TYPE_READ_STATUS, TEST_HANDLE, TEST_FOLDER,
+                TEST_TYPE);
+        BluetoothMapContentObserver.Event otherReadStatus = mObserver.new Event(
+                BluetoothMapContentObserver.EVENT_TYPE_READ_STATUS, TEST_HANDLE + 1, TEST_FOLDER,
+                TEST_TYPE);
+        BluetoothMapContentObserver.Event newMessage = mObserver.new Event(
+                BluetoothMapContentObserver.EVENT_TYPE_NEW, TEST_HANDLE, TEST_FOLDER, TEST_TYPE);
+        BluetoothMapContentObserver.Event deleted = mObserver.new Event(
+                BluetoothMapContentObserver.EVENT_TYPE_DELETE, TEST_HANDLE, TEST_FOLDER,
+                TEST_TYPE);
+
+        assertThat(readStatus.getCoalesceKey()).isNotNull();
+        assertThat(readStatus.getCoalesceKey()).isEqualTo(readStatusAgain.getCoalesceKey());
+        assertThat(readStatus.getCoalesceKey()).isNotEqualTo(otherReadStatus.getCoalesceKey());
+        assertThat(newMessage.getCoalesceKey()).isNull();
+        assertThat(deleted.getCoalesceKey()).isNull();
+    }
+
     @Test
     public void constructor_withNullOldFolder() {
         BluetoothMapContentObserver.Event event = mObserver.new Event(TEST_EVENT_TYPE, TEST_HANDLE,
@@ -25,10 +25,15 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
 @MediumTest
 @RunWith(AndroidJUnit4.class)
 public class BmessageTest {
     private static final String TAG = BmessageTest.class.getSimpleName();
+    // BEGIN:MSG<CRLF> + <CRLF> + END:MSG<CRLF>
+    private static final int MSG_CONTAINER_LEN = 22;
     private static final String SIMPLE_MMS_MESSAGE =
             "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:READ\r\nTYPE:MMS\r\nFOLDER:null\r\nBEGIN:BENV\r\n"
             + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:null;;;;\r\nTEL:555-5555\r\nEND:VCARD\r\n"
@@ -63,6 +68,48 @@ public class BmessageTest {
         Assert.assertNotNull(message);
     }
 
+    @Test
+    public void testNormalMessageContent() {
+        Bmessage message = BmessageParser.createBmessage(SIMPLE_MMS_MESSAGE);
+        Assert.assertEquals("This is a new msg", message.getBodyContent());
+        Assert.assertEquals(Bmessage.Type.MMS, message.getType());
+        Assert.assertEquals(1, message.getRecipients().size());
+    }
+
+    @Test
+    public void testParseUtf8Message() {
+        String body = "\u00e9t\u00e9 \u2603 \ud83d\ude00";
+        int length = body.getBytes(StandardCharsets.UTF_8).length + MSG_CONTAINER_LEN;
+        Bmessage message = BmessageParser.createBmessage(buildUtf8Message(body, length));
+        Assert.assertNotNull(message);
+        Assert.assertEquals(body, message.getBodyContent());
+    }
+
+    @Test
+    public void testParseMessageWithCharLength() {
+        // Some MSEs give the LENGTH as a number of characters instead of bytes
+        String body = "\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9 abcdef";
+        int length = body.length() + MSG_CONTAINER_LEN;
+        Bmessage message = BmessageParser.createBmessage(buildUtf8Message(body, length));
+        Assert.assertNotNull(message);
+        Assert.assertEquals(body, message.getBodyContent());
+    }
+
+    @Test
+    public void testParseLargeMessageFromStream() {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 1024 * 1024) {
+            body.append("The quick brown fox jumps over the lazy dog\r\n");
+        }
+        String bodyString = body.toString();
+        int length = bodyString.length() + MSG_CONTAINER_LEN;
+        byte[] bmsg = buildUtf8Message(bodyString, length).getBytes(StandardCharsets.UTF_8);
+
+        Bmessage message = BmessageParser.createBmessage(new ByteArrayInputStream(bmsg));
+        Assert.assertNotNull(message);
+        Assert.assertEquals(bodyString, message.getBodyContent());
+    }
+
     @Test
     public void testParseWrongLengthMessage() {
         Bmessage message = BmessageParser.createBmessage(WRONG_LENGTH_MESSAGE);
@@ -94,6 +141,20 @@ public class BmessageTest {
         Assert.assertNull(message);
     }
 
+    @Test
+    public void testHugeLengthMessage() {
+        // The body must not be allocated from the LENGTH before it is actually received
+        Bmessage message = BmessageParser.createBmessage(
+                buildUtf8Message("This is a new msg", Integer.MAX_VALUE));
+        Assert.assertNull(message);
+    }
+
+    private static String buildUtf8Message(String body, int length) {
+        return "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:UNREAD\r\nTYPE:SMS_GSM\r\nFOLDER:inbox\r\n"
+                + "BEGIN:BENV\r\nBEGIN:BBODY\r\nCHARSET:UTF-8\r\nLENGTH:" + length + "\r\n"
+                + "BEGIN:MSG\r\n" + body + "\r\nEND:MSG\r\nEND:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
+    }
+
     @Test
     public void setCharset() {
         Bmessage message = new Bmessage();
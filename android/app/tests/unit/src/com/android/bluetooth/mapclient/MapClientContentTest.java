@@ -18,11 +18,14 @@ package com.android.bluetooth.mapclient;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.contains;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -75,6 +78,7 @@ public class MapClientContentTest {
 
     private static final String TAG = "MapClientContentTest";
     private static final int READ = 1;
+    private static final long CHANGE_TIMEOUT_MS = MapClientContent.DATABASE_CHANGE_DELAY_MS + 1000;
 
     private BluetoothAdapter mAdapter;
     private BluetoothDevice mTestDevice;
@@ -278,8 +282,8 @@ public class MapClientContentTest {
             MESSAGE_SEEN);
         Assert.assertEquals(1, mMockMmsContentProvider.mContentValues.size());
         mMapClientContent.mContentObserver.onChange(false);
-        verify(mCallbacks).onMessageStatusChanged(eq(mTestMessage1Handle),
-                eq(BluetoothMapClient.READ));
+        verify(mCallbacks, timeout(CHANGE_TIMEOUT_MS))
+                .onMessageStatusChanged(eq(mTestMessage1Handle), eq(BluetoothMapClient.READ));
     }
 
     /**
@@ -389,8 +393,27 @@ public class MapClientContentTest {
         Assert.assertEquals(1, mMockSmsContentProvider.mContentValues.size());
         mMockSmsContentProvider.mContentValues.clear();
         mMapClientContent.mContentObserver.onChange(false);
-        verify(mCallbacks).onMessageStatusChanged(eq(mTestMessage1Handle),
-                eq(BluetoothMapClient.DELETED));
+        verify(mCallbacks, timeout(CHANGE_TIMEOUT_MS))
+                .onMessageStatusChanged(eq(mTestMessage1Handle), eq(BluetoothMapClient.DELETED));
+    }
+
+    /**
+     * Notify the observer about a burst of changes
+     * Verify that only the tracked message is looked up, once for the whole burst
+     */
+    @Test
+    public void testLocalChangesBurst_trackedMessagesQueriedOnce() {
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent.storeMessage(mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp,
+                MESSAGE_SEEN);
+        for (int i = 0; i < 5; i++) {
+            mMapClientContent.mContentObserver.onChange(false);
+        }
+
+        verify(mMockSmsContentProvider, after(CHANGE_TIMEOUT_MS).times(1)).query(
+                eq(Sms.CONTENT_URI), any(), contains("_id IN ("), any(), any());
+        verify(mMockMmsContentProvider, never())
+                .query(eq(Mms.CONTENT_URI), any(), contains("_id IN ("), any(), any());
     }
 
     /**
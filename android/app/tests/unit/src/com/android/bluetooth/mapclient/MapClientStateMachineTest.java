@@ -781,6 +781,124 @@ public class MapClientStateMachineTest {
                 any(), eq(MESSAGE_SEEN));
      }
 
+    /**
+     * Test that a message listing is downloaded newest first, with a bounded number of
+     * GetMessage requests handed to the MasClient at a time
+     */
+    @Test
+    public void testDownloadExistingMessages_boundedAndNewestFirst() {
+        setupSdpRecordReceipt();
+        Message msg = Message.obtain(mHandler, MceStateMachine.MSG_MAS_CONNECTED);
+        mMceStateMachine.sendMessage(msg);
+
+        verify(mMockMapClientService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(2)).sendBroadcastMultiplePermissions(
+                mIntentArgument.capture(), any(String[].class),
+                any(BroadcastOptions.class));
+        assertThat(mMceStateMachine.getState()).isEqualTo(BluetoothProfile.STATE_CONNECTED);
+
+        // Listings arrive newest first
+        ArrayList<com.android.bluetooth.mapclient.Message> messageList = new ArrayList<>();
+        messageList.add(createNewMessage("SMS_GSM", "0003"));
+        messageList.add(createNewMessage("SMS_GSM", "0002"));
+        messageList.add(createNewMessage("SMS_GSM", mTestMessageSmsHandle));
+        when(mMockRequestGetMessagesListing.getList()).thenReturn(messageList);
+
+        msg = Message.obtain(mHandler, MceStateMachine.MSG_MAS_REQUEST_COMPLETED,
+                mMockRequestGetMessagesListing);
+        mMceStateMachine.sendMessage(msg);
+
+        TestUtils.waitForLooperToBeIdle(mMceStateMachine.getHandler().getLooper());
+        verify(mMockMasClient, times(MceStateMachine.MAX_MESSAGE_DOWNLOADS_IN_FLIGHT))
+                .makeRequest(any(RequestGetMessage.class));
+        assertThat(getRequestedMessageHandles()).containsExactly("0003", "0002").inOrder();
+
+        RequestGetMessage completedRequest = mock(RequestGetMessage.class);
+        when(completedRequest.getHandle()).thenReturn("0003");
+        msg = Message.obtain(mHandler, MceStateMachine.MSG_MAS_REQUEST_COMPLETED,
+                completedRequest);
+        mMceStateMachine.sendMessage(msg);
+
+        TestUtils.waitForLooperToBeIdle(mMceStateMachine.getHandler().getLooper());
+        verify(mMockMasClient, times(MceStateMachine.MAX_MESSAGE_DOWNLOADS_IN_FLIGHT + 1))
+                .makeRequest(any(RequestGetMessage.class));
+        assertThat(getRequestedMessageHandles())
+                .containsExactly("0003", "0002", mTestMessageSmsHandle).inOrder();
+    }
+
+    /**
+     * Test that a message download whose completion never arrives gives its slot back once it
+     * times out, so the remaining downloads go on
+     */
+    @Test
+    public void testDownloadExistingMessages_timedOutDownloadReleasesSlot() {
+        setupSdpRecordReceipt();
+        Message msg = Message.obtain(mHandler, MceStateMachine.MSG_MAS_CONNECTED);
+        mMceStateMachine.sendMessage(msg);
+
+        verify(mMockMapClientService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(2)).sendBroadcastMultiplePermissions(
+                mIntentArgument.capture(), any(String[].class),
+                any(BroadcastOptions.class));
+        assertThat(mMceStateMachine.getState()).isEqualTo(BluetoothProfile.STATE_CONNECTED);
+
+        ArrayList<com.android.bluetooth.mapclient.Message> messageList = new ArrayList<>();
+        messageList.add(createNewMessage("SMS_GSM", "0003"));
+        messageList.add(createNewMessage("SMS_GSM", "0002"));
+        messageList.add(createNewMessage("SMS_GSM", mTestMessageSmsHandle));
+        when(mMockRequestGetMessagesListing.getList()).thenReturn(messageList);
+
+        msg = Message.obtain(mHandler, MceStateMachine.MSG_MAS_REQUEST_COMPLETED,
+                mMockRequestGetMessagesListing);
+        mMceStateMachine.sendMessage(msg);
+
+        TestUtils.waitForLooperToBeIdle(mMceStateMachine.getHandler().getLooper());
+        verify(mMockMasClient, times(MceStateMachine.MAX_MESSAGE_DOWNLOADS_IN_FLIGHT))
+                .makeRequest(any(RequestGetMessage.class));
+
+        // A timeout set for another download of the same handle is ignored
+        msg = Message.obtain(mHandler, MceStateMachine.MSG_MESSAGE_DOWNLOAD_TIMEOUT,
+                new RequestGetMessage("0003", MasClient.CharsetType.UTF_8, false));
+        mMceStateMachine.sendMessage(msg);
+        TestUtils.waitForLooperToBeIdle(mMceStateMachine.getHandler().getLooper());
+        verify(mMockMasClient, times(MceStateMachine.MAX_MESSAGE_DOWNLOADS_IN_FLIGHT))
+                .makeRequest(any(RequestGetMessage.class));
+
+        msg = Message.obtain(mHandler, MceStateMachine.MSG_MESSAGE_DOWNLOAD_TIMEOUT,
+                getRequestedMessage("0003"));
+        mMceStateMachine.sendMessage(msg);
+
+        TestUtils.waitForLooperToBeIdle(mMceStateMachine.getHandler().getLooper());
+        verify(mMockMasClient, times(MceStateMachine.MAX_MESSAGE_DOWNLOADS_IN_FLIGHT + 1))
+                .makeRequest(any(RequestGetMessage.class));
+        assertThat(getRequestedMessageHandles())
+                .containsExactly("0003", "0002", mTestMessageSmsHandle).inOrder();
+    }
+
+    private RequestGetMessage getRequestedMessage(String handle) {
+        ArgumentCaptor<Request> requestCaptor = ArgumentCaptor.forClass(Request.class);
+        verify(mMockMasClient, atLeastOnce()).makeRequest(requestCaptor.capture());
+        for (Request request : requestCaptor.getAllValues()) {
+            if (request instanceof RequestGetMessage
+                    && handle.equals(((RequestGetMessage) request).getHandle())) {
+                return (RequestGetMessage) request;
+            }
+        }
+        return null;
+    }
+
+    private List<String> getRequestedMessageHandles() {
+        ArgumentCaptor<Request> requestCaptor = ArgumentCaptor.forClass(Request.class);
+        verify(mMockMasClient, atLeastOnce()).makeRequest(requestCaptor.capture());
+        List<String> handles = new ArrayList<>();
+        for (Request request : requestCaptor.getAllValues()) {
+            if (request instanceof RequestGetMessage) {
+                handles.add(((RequestGetMessage) request).getHandle());
+            }
+        }
+        return handles;
+    }
+
     /**
      * Test receiving a new message notification.
      */
@@ -60,6 +60,8 @@ public class RequestTest {
 
 
     private static final String HANDLE = "0000001";
+    // Handle of a message the fake server sends truncated
+    private static final String TRUNCATED_MESSAGE_HANDLE = "0000002";
 
     private static final Bmessage TEST_MESSAGE = BmessageParser.createBmessage(SIMPLE_MMS_MESSAGE);
     private static final ArrayList<String> TEST_FOLDER_LIST = new ArrayList<String>(
@@ -104,6 +106,17 @@ public class RequestTest {
         assertThat(newRequest.isSuccess()).isTrue();
         assertThat(newRequest.getMessage().toString()).isEqualTo(TEST_MESSAGE.toString());
         assertThat(newRequest.getHandle()).isEqualTo(HANDLE);
+        assertThat(newRequest.getMessageSize()).isEqualTo(SIMPLE_MMS_MESSAGE.length());
+    }
+
+    @Test
+    public void testRequestGetMessage_truncatedMessage_fails() throws IOException {
+        RequestGetMessage newRequest = new RequestGetMessage(TRUNCATED_MESSAGE_HANDLE,
+                MasClient.CharsetType.UTF_8, /*attachment*/ false);
+        newRequest.execute(mFakeClientSession);
+
+        assertThat(newRequest.isSuccess()).isFalse();
+        assertThat(newRequest.getMessage()).isNull();
     }
 
     @Test
@@ -191,7 +204,11 @@ public class RequestTest {
                     case TYPE_MESSAGE:
                         op.sendHeaders(replyHeaders);
                         outputStream = op.openOutputStream();
-                        outputStream.write(SIMPLE_MMS_MESSAGE.getBytes());
+                        byte[] message = SIMPLE_MMS_MESSAGE.getBytes();
+                        if (TRUNCATED_MESSAGE_HANDLE.equals(request.getHeader(HeaderSet.NAME))) {
+                            message = Arrays.copyOf(message, message.length / 2);
+                        }
+                        outputStream.write(message);
                         outputStream.close();
                         return ResponseCodes.OBEX_HTTP_OK;
 
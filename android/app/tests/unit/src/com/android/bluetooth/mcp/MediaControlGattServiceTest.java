@@ -975,6 +975,77 @@ public class MediaControlGattServiceTest {
                 .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
     }
 
+    @Test
+    public void testPlaybackSpeedNotificationsCoalesced() {
+        BluetoothGattService service = initAllFeaturesGattService();
+
+        BluetoothGattCharacteristic characteristic =
+                service.getCharacteristic(MediaControlGattService.UUID_PLAYBACK_SPEED);
+        prepareConnectedDevicesCccVal(
+                characteristic, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE.clone());
+
+        // The first change is notified right away
+        mMcpService.updatePlaybackSpeedChar(0.5f, true);
+        verify(mMockGattServer, times(1))
+                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+
+        // Rapid changes are merged into a single notification of the latest value
+        mMcpService.updatePlaybackSpeedChar(1.0f, true);
+        mMcpService.updatePlaybackSpeedChar(2.0f, true);
+        verify(mMockGattServer, times(1))
+                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+        verify(mMockGattServer,
+                timeout(MediaControlGattService.NOTIFICATION_COALESCE_WINDOW_MS * 10).times(2))
+                .notifyCharacteristicChanged(eq(mCurrentDevice), eq(characteristic), eq(false));
+        Assert.assertEquals(2.0f, mMcpService.getPlaybackSpeedChar(), 0.01f);
+    }
+
+    @Test
+    public void testCccWritesPersistedOnceAndRestored() {
+        prepareConnectedDevice();
+        Map<Integer, byte[]> metadata = new HashMap<>();
+        doAnswer(invocation -> metadata.get(invocation.getArgument(1)))
+                .when(mAdapterService).getMetadata(eq(mCurrentDevice), anyInt());
+        doAnswer(invocation -> {
+            metadata.put(invocation.getArgument(1), invocation.getArgument(2));
+            return true;
+        }).when(mAdapterService).setMetadata(eq(mCurrentDevice), anyInt(), any());
+
+        // The peer subscribes to several characteristics in a row after connecting
+        UUID[] subscribed = {MediaControlGattService.UUID_TRACK_TITLE,
+                MediaControlGattService.UUID_TRACK_POSITION,
+                MediaControlGattService.UUID_PLAYBACK_SPEED};
+        for (UUID uuid : subscribed) {
+            mMcpService.setCcc(mCurrentDevice, uuid, 0,
+                    BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE.clone(), true);
+        }
+        verify(mAdapterService, never()).setMetadata(any(), anyInt(), any());
+        verify(mAdapterService, timeout(MediaControlGattService.CCC_STORE_DELAY_MS * 5))
+                .setMetadata(eq(mCurrentDevice), eq(BluetoothDevice.METADATA_GMCS_CCCD), any());
+
+        // A new instance, e.g. after a restart, gets the subscriptions back from storage
+        doReturn(new BluetoothDevice[] {mCurrentDevice}).when(mAdapterService).getBondedDevices();
+        reset(mMockGattServer);
+        doReturn(true).when(mMockGattServer).addService(any(BluetoothGattService.class));
+        mMcpService = new MediaControlGattService(mMockMcpService, mMockMcsCallbacks, TEST_CCID);
+        mMcpService.setBluetoothGattServerForTesting(mMockGattServer);
+        mMcpService.setServiceManagerForTesting(mMockMcpService);
+        mMcpService.setLeAudioServiceForTesting(mMockLeAudioService);
+        BluetoothGattService service = initAllFeaturesGattService();
+
+        int requestId = 0;
+        for (UUID uuid : subscribed) {
+            BluetoothGattDescriptor descriptor =
+                    service.getCharacteristic(uuid).getDescriptor(UUID_CCCD);
+            mMcpService.mServerCallback.onDescriptorReadRequest(
+                    mCurrentDevice, ++requestId, 0, descriptor);
+            verify(mMockGattServer).sendResponse(eq(mCurrentDevice), eq(requestId),
+                    eq(BluetoothGatt.GATT_SUCCESS), eq(0),
+                    eq(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE));
+        }
+        verify(mAdapterService, times(1)).setMetadata(any(), anyInt(), any());
+    }
+
     @Test
     public void testUpdateSupportedOpcodesChar() {
         BluetoothGattService service = initAllFeaturesGattService();
@@ -19,6 +19,7 @@ package com.android.bluetooth.opp;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
@@ -27,13 +28,17 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.net.Uri;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.ParcelFileDescriptor;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 import androidx.test.runner.AndroidJUnit4;
@@ -52,13 +57,22 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
 
 
 @RunWith(AndroidJUnit4.class)
 public class BluetoothOppObexServerSessionTest {
+    private static final int SHARE_ID = 1;
+    private static final int PACKET_SIZE = 990;
+
     @Mock
     BluetoothMethodProxy mMethodProxy;
 
@@ -276,11 +290,109 @@ public class BluetoothOppObexServerSessionTest {
         doReturn(is).when(mOperation).openInputStream();
         doReturn(10).when(mOperation).getMaxPacketSize();
         doReturn(os).when(mMethodProxy).contentResolverOpenOutputStream(any(), eq(uri));
-        doReturn((int) length, -1).when(is).read(any());
+        doReturn((int) length, -1).when(is).read(any(), anyInt(), anyInt());
 
         assertThat(mServerSession.onPut(mOperation)).isEqualTo(ResponseCodes.OBEX_HTTP_OK);
     }
 
+    @Test
+    public void receiveFile_withFileDescriptor_writesThroughFileChannel() throws IOException {
+        // Two full gather buffers and a partial one
+        byte[] data = randomBytes(Constants.RECEIVE_BUFFER_SIZE * 2 + 100);
+        File file = createTempFile();
+        Uri uri = Uri.fromFile(file);
+        doReturn(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_WRITE))
+                .when(mMethodProxy).contentResolverOpenFileDescriptor(any(), eq(uri), eq("w"));
+
+        int status = mServerSession.receiveFile(setUpReceive(uri, data, data.length),
+                mOperation);
+
+        assertThat(status).isEqualTo(BluetoothShare.STATUS_SUCCESS);
+        assertThat(Files.readAllBytes(file.toPath())).isEqualTo(data);
+        verify(mMethodProxy, never()).contentResolverOpenOutputStream(any(), any());
+    }
+
+    @Test
+    public void receiveFile_withFileDescriptor_shortTransfer_truncatesToReceivedLength()
+            throws IOException {
+        byte[] data = randomBytes(4096);
+        File file = createTempFile();
+        Uri uri = Uri.fromFile(file);
+        doReturn(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_WRITE))
+                .when(mMethodProxy).contentResolverOpenFileDescriptor(any(), eq(uri), eq("w"));
+
+        // The sender stops half way, the space reserved for the rest of the object is given back
+        int status = mServerSession.receiveFile(setUpReceive(uri, data, data.length / 2),
+                mOperation);
+
+        assertThat(status).isEqualTo(BluetoothShare.STATUS_UNKNOWN_ERROR);
+        assertThat(file.length()).isEqualTo(data.length / 2);
+        assertThat(Files.readAllBytes(file.toPath()))
+                .isEqualTo(Arrays.copyOf(data, data.length / 2));
+    }
+
+    @Test
+    public void receiveFile_withoutFileDescriptor_fallsBackToOutputStream() throws IOException {
+        byte[] data = randomBytes(10000);
+        Uri uri = Uri.parse("content://com.android.bluetooth.opp.test/received");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        doReturn(null).when(mMethodProxy).contentResolverOpenFileDescriptor(any(), eq(uri), any());
+        doReturn(os).when(mMethodProxy).contentResolverOpenOutputStream(any(), eq(uri));
+
+        int status = mServerSession.receiveFile(setUpReceive(uri, data, data.length),
+                mOperation);
+
+        assertThat(status).isEqualTo(BluetoothShare.STATUS_SUCCESS);
+        assertThat(os.toByteArray()).isEqualTo(data);
+    }
+
+    @Test
+    public void receiveFile_gathersPacketsBeforeWriting() throws IOException {
+        byte[] data = randomBytes(Constants.RECEIVE_BUFFER_SIZE * 2 + 100);
+        Uri uri = Uri.parse("content://com.android.bluetooth.opp.test/received");
+        OutputStream os = spy(new ByteArrayOutputStream());
+        doReturn(null).when(mMethodProxy).contentResolverOpenFileDescriptor(any(), eq(uri), any());
+        doReturn(os).when(mMethodProxy).contentResolverOpenOutputStream(any(), eq(uri));
+
+        mServerSession.receiveFile(setUpReceive(uri, data, data.length), mOperation);
+
+        // Full buffers as they fill up, then what is left once the object is complete
+        verify(os, times(2)).write(any(), eq(0), eq(Constants.RECEIVE_BUFFER_SIZE));
+        verify(os).write(any(), eq(0), eq(100));
+        verify(os, times(3)).write(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void receiveFile_whenComplete_persistsFinalPositionAndThroughput() throws IOException {
+        byte[] data = randomBytes(10000);
+        Uri uri = Uri.parse("content://com.android.bluetooth.opp.test/received");
+        doReturn(new ByteArrayOutputStream()).when(mMethodProxy)
+                .contentResolverOpenOutputStream(any(), eq(uri));
+
+        mServerSession.receiveFile(setUpReceive(uri, data, data.length), mOperation);
+
+        verify(mMethodProxy).contentResolverUpdate(any(), eq(shareUri()),
+                argThat(values -> values != null
+                        && values.containsKey(BluetoothShare.THROUGHPUT)
+                        && values.getAsLong(BluetoothShare.THROUGHPUT) > 0
+                        && Long.valueOf(data.length).equals(
+                                values.getAsLong(BluetoothShare.CURRENT_BYTES))), any(), any());
+    }
+
+    @Test
+    public void receiveFile_whenIncomplete_doesNotPersistThroughput() throws IOException {
+        byte[] data = randomBytes(10000);
+        Uri uri = Uri.parse("content://com.android.bluetooth.opp.test/received");
+        doReturn(new ByteArrayOutputStream()).when(mMethodProxy)
+                .contentResolverOpenOutputStream(any(), eq(uri));
+
+        mServerSession.receiveFile(setUpReceive(uri, data, data.length / 2), mOperation);
+
+        verify(mMethodProxy, never()).contentResolverUpdate(any(), eq(shareUri()),
+                argThat(values -> values != null
+                        && values.containsKey(BluetoothShare.THROUGHPUT)), any(), any());
+    }
+
     @Test
     public void onConnect_withNonNullTargetInHeader_returnsHttpNotAcceptable() {
         HeaderSet request = new HeaderSet();
@@ -321,4 +433,42 @@ public class BluetoothOppObexServerSessionTest {
         mServerSession.start(handler, 0);
         mServerSession.onClose();
     }
+
+    /**
+     * Set up the share and {@link #mOperation} to receive an object of {@code data.length} bytes
+     * in OBEX sized packets, of which the sender only sends the first {@code sent} bytes.
+     */
+    private BluetoothOppReceiveFileInfo setUpReceive(Uri uri, byte[] data, int sent)
+            throws IOException {
+        mServerSession.mInfo = new BluetoothOppShareInfo(SHARE_ID, uri, null, "received.bin",
+                "application/octet-stream", BluetoothShare.DIRECTION_INBOUND,
+                "01:23:45:67:89:AB", BluetoothShare.VISIBILITY_VISIBLE,
+                BluetoothShare.USER_CONFIRMATION_CONFIRMED, BluetoothShare.STATUS_PENDING,
+                data.length, 0, 0, false);
+        doReturn(new ByteArrayInputStream(data, 0, sent) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, PACKET_SIZE));
+            }
+        }).when(mOperation).openInputStream();
+        doReturn(PACKET_SIZE).when(mOperation).getMaxPacketSize();
+        return new BluetoothOppReceiveFileInfo("received.bin", data.length, uri,
+                BluetoothShare.STATUS_PENDING);
+    }
+
+    private File createTempFile() throws IOException {
+        File file = File.createTempFile("opp", ".bin", mTargetContext.getCacheDir());
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static Uri shareUri() {
+        return Uri.parse(BluetoothShare.CONTENT_URI + "/" + SHARE_ID);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
 }
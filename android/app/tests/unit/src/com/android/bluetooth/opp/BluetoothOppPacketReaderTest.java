@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppPacketReaderTest {
+
+    @Test
+    public void take_readsWholeFileInPackets() throws Exception {
+        byte[] content = new byte[10000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        BluetoothOppPacketReader reader = new BluetoothOppPacketReader(
+                new ByteArrayInputStream(content), content.length, 1024, 2);
+        reader.start();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BluetoothOppPacketReader.Packet packet = reader.take();
+        while (packet.mLength >= 0) {
+            assertThat(packet.mLength).isAtMost(1024);
+            out.write(packet.mBuffer, 0, packet.mLength);
+            reader.recycle(packet);
+            packet = reader.take();
+        }
+        reader.close();
+
+        assertThat(out.toByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    public void take_stopsAtAdvertisedLength() throws Exception {
+        BluetoothOppPacketReader reader = new BluetoothOppPacketReader(
+                new ByteArrayInputStream(new byte[100]), 10, 1024, 2);
+        reader.start();
+
+        BluetoothOppPacketReader.Packet packet = reader.take();
+        assertThat(packet.mLength).isEqualTo(10);
+        reader.recycle(packet);
+        assertThat(reader.take().mLength).isEqualTo(-1);
+        reader.close();
+    }
+
+    @Test
+    public void take_shortFile_returnsEndOfStream() throws Exception {
+        BluetoothOppPacketReader reader = new BluetoothOppPacketReader(
+                new ByteArrayInputStream(new byte[0]), 10, 1024, 2);
+        reader.start();
+
+        assertThat(reader.take().mLength).isEqualTo(-1);
+        reader.close();
+    }
+
+    @Test
+    public void take_readError_throwsIOException() {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("read error");
+            }
+        };
+        BluetoothOppPacketReader reader = new BluetoothOppPacketReader(failing, 10, 1024, 2);
+        reader.start();
+
+        assertThrows(IOException.class, reader::take);
+        reader.close();
+    }
+}
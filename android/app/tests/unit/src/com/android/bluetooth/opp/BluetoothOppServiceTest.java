@@ -19,7 +19,11 @@ import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
 
 import android.bluetooth.BluetoothAdapter;
+import android.content.ContentUris;
 import android.content.Context;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.SystemClock;
 
 import androidx.test.filters.MediumTest;
 import androidx.test.rule.ServiceTestRule;
@@ -42,6 +46,13 @@ import org.mockito.MockitoAnnotations;
 @MediumTest
 @RunWith(AndroidJUnit4.class)
 public class BluetoothOppServiceTest {
+    private static final long UPDATE_TIMEOUT_MS = 5000;
+    private static final String[] SHARE_COLUMNS = {BluetoothShare._ID, BluetoothShare.URI,
+            BluetoothShare.FILENAME_HINT, BluetoothShare._DATA, BluetoothShare.MIMETYPE,
+            BluetoothShare.DIRECTION, BluetoothShare.DESTINATION, BluetoothShare.VISIBILITY,
+            BluetoothShare.USER_CONFIRMATION, BluetoothShare.STATUS, BluetoothShare.TOTAL_BYTES,
+            BluetoothShare.CURRENT_BYTES, BluetoothShare.TIMESTAMP, Constants.MEDIA_SCANNED};
+
     private BluetoothOppService mService = null;
     private BluetoothAdapter mAdapter = null;
 
@@ -62,6 +73,14 @@ public class BluetoothOppServiceTest {
         // Try getting the Bluetooth adapter
         mAdapter = BluetoothAdapter.getDefaultAdapter();
         Assert.assertNotNull(mAdapter);
+
+        // Start from an empty copy of the shares once the sync of the start is done
+        long deadline = SystemClock.elapsedRealtime() + UPDATE_TIMEOUT_MS;
+        while (mService.isUpdating() && SystemClock.elapsedRealtime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(mService.isUpdating());
+        mService.mShares.clear();
     }
 
     @After
@@ -74,5 +93,103 @@ public class BluetoothOppServiceTest {
     public void testInitialize() {
         Assert.assertNotNull(BluetoothOppService.getBluetoothOppService());
     }
-}
 
+    @Test
+    public void getShareId_rowUri_returnsShareId() {
+        Uri uri = ContentUris.withAppendedId(BluetoothShare.CONTENT_URI, 42);
+
+        Assert.assertEquals(42, BluetoothOppService.getShareId(uri));
+    }
+
+    @Test
+    public void getShareId_tableUri_returnsInvalidId() {
+        Assert.assertEquals(-1, BluetoothOppService.getShareId(BluetoothShare.CONTENT_URI));
+        Assert.assertEquals(-1, BluetoothOppService.getShareId(null));
+    }
+
+    @Test
+    public void syncShare_newRow_insertsShare() {
+        mService.syncShare(1, shareCursor(new int[] {1}, 100));
+
+        Assert.assertEquals(1, mService.mShares.size());
+        Assert.assertEquals(1, mService.mShares.get(1).mId);
+        Assert.assertEquals(100, mService.mShares.get(1).mCurrentBytes);
+    }
+
+    @Test
+    public void syncShare_changedRow_updatesShare() {
+        mService.syncShare(1, shareCursor(new int[] {1}, 100));
+        BluetoothOppShareInfo info = mService.mShares.get(1);
+
+        mService.syncShare(1, shareCursor(new int[] {1}, 200));
+
+        Assert.assertSame(info, mService.mShares.get(1));
+        Assert.assertEquals(200, info.mCurrentBytes);
+    }
+
+    @Test
+    public void syncShare_deletedRow_removesShare() {
+        mService.syncShare(1, shareCursor(new int[] {1}, 100));
+        mService.syncShare(2, shareCursor(new int[] {2}, 100));
+
+        mService.syncShare(1, shareCursor(new int[] {}, 0));
+
+        Assert.assertNull(mService.mShares.get(1));
+        Assert.assertNotNull(mService.mShares.get(2));
+    }
+
+    @Test
+    public void syncAllShares_reconcilesWithTable() {
+        mService.mListenStarted = true;
+        mService.syncAllShares(shareCursor(new int[] {1, 2, 4}, 100));
+
+        mService.syncAllShares(shareCursor(new int[] {1, 3, 4}, 200));
+
+        Assert.assertEquals(3, mService.mShares.size());
+        Assert.assertNull(mService.mShares.get(2));
+        for (int id : new int[] {1, 3, 4}) {
+            Assert.assertEquals(200, mService.mShares.get(id).mCurrentBytes);
+        }
+    }
+
+    @Test
+    public void syncAllShares_listenNotStarted_keepsTrailingShares() {
+        mService.mListenStarted = false;
+        mService.syncAllShares(shareCursor(new int[] {1, 2, 5}, 100));
+
+        mService.syncAllShares(shareCursor(new int[] {1, 3}, 100));
+
+        // Share 2 is gone from the table, share 5 may not have been committed yet
+        Assert.assertNull(mService.mShares.get(2));
+        Assert.assertNotNull(mService.mShares.get(5));
+        Assert.assertEquals(3, mService.mShares.size());
+    }
+
+    @Test
+    public void syncAllShares_listenStarted_removesTrailingShares() {
+        mService.mListenStarted = true;
+        mService.syncAllShares(shareCursor(new int[] {1, 2, 5}, 100));
+
+        mService.syncAllShares(shareCursor(new int[] {1, 3}, 100));
+
+        Assert.assertNull(mService.mShares.get(2));
+        Assert.assertNull(mService.mShares.get(5));
+        Assert.assertEquals(2, mService.mShares.size());
+    }
+
+    /**
+     * Returns the rows of completed outbound shares with the given IDs, as they are queried from
+     * the provider. Completed shares are not started when they are synced.
+     */
+    private static MatrixCursor shareCursor(int[] ids, long currentBytes) {
+        MatrixCursor cursor = new MatrixCursor(SHARE_COLUMNS);
+        for (int id : ids) {
+            cursor.addRow(new Object[] {id, "content://test/" + id, "file" + id + ".txt",
+                    null, "text/plain", BluetoothShare.DIRECTION_OUTBOUND, "00:11:22:33:44:55",
+                    BluetoothShare.VISIBILITY_VISIBLE, BluetoothShare.USER_CONFIRMATION_CONFIRMED,
+                    BluetoothShare.STATUS_SUCCESS, 1000L, currentBytes, 1000L * id,
+                    Constants.MEDIA_SCANNED_SCANNED_OK});
+        }
+        return cursor;
+    }
+}
@@ -305,6 +305,13 @@ public class BluetoothOppUtilityTest {
         assertThat(BluetoothOppUtility.formatProgressText(100, 42)).isEqualTo("42%");
     }
 
+    @Test
+    public void computeThroughput() {
+        assertThat(BluetoothOppUtility.computeThroughput(1000, 500)).isEqualTo(2000);
+        assertThat(BluetoothOppUtility.computeThroughput(1000, 0)).isEqualTo(1000000);
+        assertThat(BluetoothOppUtility.computeThroughput(0, 500)).isEqualTo(0);
+    }
+
     @Test
     public void formatResultText() {
         String text = BluetoothOppUtility.formatResultText(1, 2, mContext);
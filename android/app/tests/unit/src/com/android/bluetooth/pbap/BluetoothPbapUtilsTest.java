@@ -26,6 +26,7 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.content.Context;
@@ -34,11 +35,13 @@ import android.database.MatrixCursor;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Note;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.CommonDataKinds.StructuredName;
 import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.DeletedContacts;
 
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
@@ -54,9 +57,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.List;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
@@ -87,43 +88,38 @@ public class BluetoothPbapUtilsTest {
     }
 
     @Test
-    public void checkFieldUpdates_whenSizeAreDifferent_returnsTrue() {
-        ArrayList<String> oldFields = new ArrayList<>(List.of("0", "1", "2", "3"));
-        ArrayList<String> newFields = new ArrayList<>(List.of("0", "1", "2", "3", "4"));
+    public void contactData_whenFieldIsAdded_svcFieldsDiffer() {
+        BluetoothPbapUtils.ContactData oldData = createContactData("0", "1");
+        BluetoothPbapUtils.ContactData newData = createContactData("0", "1", "2");
 
-        assertThat(BluetoothPbapUtils.checkFieldUpdates(oldFields, newFields)).isTrue();
+        assertThat(oldData.hasSameSvcFields(newData)).isFalse();
     }
 
     @Test
-    public void checkFieldUpdates_newFieldsHasItsOwnFields_returnsTrue() {
-        ArrayList<String> oldFields = new ArrayList<>(List.of("0", "1", "2", "3"));
-        ArrayList<String> newFields = new ArrayList<>(List.of("0", "1", "2", "5"));
+    public void contactData_whenFieldIsChanged_svcFieldsDiffer() {
+        BluetoothPbapUtils.ContactData oldData = createContactData("0", "1");
+        BluetoothPbapUtils.ContactData newData = createContactData("0", "5");
 
-        assertThat(BluetoothPbapUtils.checkFieldUpdates(oldFields, newFields)).isTrue();
+        assertThat(oldData.hasSameSvcFields(newData)).isFalse();
     }
 
     @Test
-    public void checkFieldUpdates_onlyNewFieldsIsNull_returnsTrue() {
-        ArrayList<String> oldFields = new ArrayList<>(List.of("0", "1", "2", "3"));
-        ArrayList<String> newFields = null;
+    public void contactData_whenFieldsAreReordered_svcFieldsAreSame() {
+        BluetoothPbapUtils.ContactData oldData = createContactData("0", "1", "2");
+        BluetoothPbapUtils.ContactData newData = createContactData("2", "0", "1");
 
-        assertThat(BluetoothPbapUtils.checkFieldUpdates(oldFields, newFields)).isTrue();
+        assertThat(oldData.hasSameSvcFields(newData)).isTrue();
     }
 
     @Test
-    public void checkFieldUpdates_onlyOldFieldsIsNull_returnsTrue() {
-        ArrayList<String> oldFields = null;
-        ArrayList<String> newFields = new ArrayList<>(List.of("0", "1", "2", "3"));
-
-        assertThat(BluetoothPbapUtils.checkFieldUpdates(oldFields, newFields)).isTrue();
-    }
-
-    @Test
-    public void checkFieldUpdates_whenBothAreNull_returnsTrue() {
-        ArrayList<String> oldFields = null;
-        ArrayList<String> newFields = null;
-
-        assertThat(BluetoothPbapUtils.checkFieldUpdates(oldFields, newFields)).isFalse();
+    public void contactData_whenOnlyOtherFieldChanges_svcFieldsAreSame() {
+        BluetoothPbapUtils.ContactData oldData = createContactData("0");
+        BluetoothPbapUtils.ContactData newData = createContactData("0");
+        newData.addField(Note.CONTENT_ITEM_TYPE, "note");
+
+        assertThat(oldData.hasSameSvcFields(newData)).isTrue();
+        assertThat(newData.mTotalFields).isEqualTo(2);
+        assertThat(newData.mSvcFields).isEqualTo(1);
     }
 
     @Test
@@ -148,19 +144,13 @@ public class BluetoothPbapUtilsTest {
     }
 
     @Test
-    public void setContactFields() {
-        String contactId = "1358923";
-
-        BluetoothPbapUtils.setContactFields(BluetoothPbapUtils.TYPE_NAME, contactId,
-                "test_name");
-        BluetoothPbapUtils.setContactFields(BluetoothPbapUtils.TYPE_PHONE, contactId,
-                "0123456789");
-        BluetoothPbapUtils.setContactFields(BluetoothPbapUtils.TYPE_EMAIL, contactId,
-                "android@android.com");
-        BluetoothPbapUtils.setContactFields(BluetoothPbapUtils.TYPE_ADDRESS, contactId,
-                "SomeAddress");
-
-        assertThat(BluetoothPbapUtils.sContactDataset.get(contactId)).isNotNull();
+    public void contactData_sameFieldsOfDifferentKinds_svcFieldsDiffer() {
+        BluetoothPbapUtils.ContactData phone = new BluetoothPbapUtils.ContactData();
+        phone.addField(Phone.CONTENT_ITEM_TYPE, "0123456789");
+        BluetoothPbapUtils.ContactData email = new BluetoothPbapUtils.ContactData();
+        email.addField(Email.CONTENT_ITEM_TYPE, "0123456789");
+
+        assertThat(phone.hasSameSvcFields(email)).isFalse();
     }
 
     @Test
@@ -199,7 +189,7 @@ public class BluetoothPbapUtilsTest {
             boolean isLoad = true;
             assertThat(BluetoothPbapUtils.fetchAndSetContacts(
                     mContext, handler, null, null, null, isLoad))
-                    .isEqualTo(2); // Two IDs exist in sContactSet.
+                    .isEqualTo(2); // Two IDs exist in sContactDataset.
         } finally {
             handlerThread.quit();
         }
@@ -224,9 +214,9 @@ public class BluetoothPbapUtilsTest {
             boolean isLoad = false;
             assertThat(BluetoothPbapUtils.fetchAndSetContacts(
                     mContext, handler, null, null, null, isLoad))
-                    .isEqualTo(2); // Two IDs exist in sContactSet.
-            assertThat(BluetoothPbapUtils.sTotalFields).isEqualTo(1);
-            assertThat(BluetoothPbapUtils.sTotalSvcFields).isEqualTo(1);
+                    .isEqualTo(2); // Two IDs exist in sContactDataset.
+            assertThat(BluetoothPbapUtils.sTotalFields).isEqualTo(4);
+            assertThat(BluetoothPbapUtils.sTotalSvcFields).isEqualTo(4);
         } finally {
             handlerThread.quit();
         }
@@ -259,6 +249,7 @@ public class BluetoothPbapUtilsTest {
         contactCursor.addRow(new Object[] {"id4", Calendar.getInstance().getTimeInMillis()});
         doReturn(contactCursor).when(mProxy).contentResolverQuery(
                 any(), eq(Contacts.CONTENT_URI), any(), any(), any(), any());
+        mockDeletedContacts();
 
         MatrixCursor dataCursor = new MatrixCursor(new String[] {CONTACT_ID, MIMETYPE, DATA1});
         dataCursor.addRow(new Object[] {"id1", Phone.CONTENT_ITEM_TYPE, "01234567"});
@@ -276,6 +267,9 @@ public class BluetoothPbapUtilsTest {
             BluetoothPbapUtils.updateSecondaryVersionCounter(mContext, handler);
 
             assertThat(BluetoothPbapUtils.sTotalContacts).isEqualTo(4);
+            assertThat(BluetoothPbapUtils.sPrimaryVersionCounter).isEqualTo(4);
+            assertThat(BluetoothPbapUtils.sSecondaryVersionCounter).isEqualTo(4);
+            assertThat(BluetoothPbapUtils.sTotalFields).isEqualTo(4);
         } finally {
             handlerThread.quit();
         }
@@ -287,10 +281,8 @@ public class BluetoothPbapUtilsTest {
                 new String[] {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP});
         doReturn(contactCursor).when(mProxy).contentResolverQuery(
                 any(), eq(Contacts.CONTENT_URI), any(), any(), any(), any());
-
-        MatrixCursor dataCursor = new MatrixCursor(new String[] {CONTACT_ID, MIMETYPE, DATA1});
-        doReturn(dataCursor).when(mProxy).contentResolverQuery(
-                any(), eq(Data.CONTENT_URI), any(), any(), any(), any());
+        long deletedTime = Calendar.getInstance().getTimeInMillis();
+        mockDeletedContacts("id1", deletedTime, "id2", deletedTime, "id3", deletedTime);
 
         HandlerThread handlerThread = new HandlerThread("BluetoothPbapUtilsTest");
         handlerThread.start();
@@ -298,12 +290,20 @@ public class BluetoothPbapUtilsTest {
 
         try {
             BluetoothPbapUtils.sTotalContacts = 2;
-            BluetoothPbapUtils.sContactSet.add("id1");
-            BluetoothPbapUtils.sContactSet.add("id2");
+            BluetoothPbapUtils.sContactDataset.put("id1", createContactData("0"));
+            BluetoothPbapUtils.sContactDataset.put("id2", createContactData("1"));
+            BluetoothPbapUtils.sTotalFields = 2;
+            BluetoothPbapUtils.sTotalSvcFields = 2;
 
             BluetoothPbapUtils.updateSecondaryVersionCounter(mContext, handler);
 
+            // id3 was never counted, so only two contacts are removed
             assertThat(BluetoothPbapUtils.sTotalContacts).isEqualTo(0);
+            assertThat(BluetoothPbapUtils.sPrimaryVersionCounter).isEqualTo(2);
+            assertThat(BluetoothPbapUtils.sSecondaryVersionCounter).isEqualTo(2);
+            assertThat(BluetoothPbapUtils.sTotalFields).isEqualTo(0);
+            assertThat(BluetoothPbapUtils.sTotalSvcFields).isEqualTo(0);
+            assertThat(BluetoothPbapUtils.sContactsLastUpdated).isEqualTo(deletedTime);
         } finally {
             handlerThread.quit();
         }
@@ -316,6 +316,7 @@ public class BluetoothPbapUtilsTest {
         contactCursor.addRow(new Object[] {"id1", Calendar.getInstance().getTimeInMillis()});
         doReturn(contactCursor).when(mProxy).contentResolverQuery(
                 any(), eq(Contacts.CONTENT_URI), any(), any(), any(), any());
+        mockDeletedContacts();
 
         MatrixCursor dataCursor = new MatrixCursor(new String[] {CONTACT_ID, MIMETYPE, DATA1});
         dataCursor.addRow(new Object[] {"id1", Phone.CONTENT_ITEM_TYPE, "01234567"});
@@ -327,18 +328,68 @@ public class BluetoothPbapUtilsTest {
         assertThat(BluetoothPbapUtils.sSecondaryVersionCounter).isEqualTo(0);
 
         BluetoothPbapUtils.sTotalContacts = 1;
-        BluetoothPbapUtils.setContactFields(BluetoothPbapUtils.TYPE_NAME, "id1",
-                "test_previous_name_before_update");
+        BluetoothPbapUtils.ContactData data = new BluetoothPbapUtils.ContactData();
+        data.addField(StructuredName.CONTENT_ITEM_TYPE, "test_previous_name_before_update");
+        BluetoothPbapUtils.sContactDataset.put("id1", data);
 
         BluetoothPbapUtils.updateSecondaryVersionCounter(mContext, null);
 
         assertThat(BluetoothPbapUtils.sSecondaryVersionCounter).isEqualTo(1);
     }
 
+    @Test
+    public void updateSecondaryVersionCounter_whenOnlyOtherFieldsAreUpdated() {
+        long updatedTime = Calendar.getInstance().getTimeInMillis();
+        MatrixCursor contactCursor = new MatrixCursor(
+                new String[] {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP});
+        contactCursor.addRow(new Object[] {"id1", updatedTime});
+        doReturn(contactCursor).when(mProxy).contentResolverQuery(
+                any(), eq(Contacts.CONTENT_URI), any(), any(), any(), any());
+        mockDeletedContacts();
+
+        MatrixCursor dataCursor = new MatrixCursor(new String[] {CONTACT_ID, MIMETYPE, DATA1});
+        dataCursor.addRow(new Object[] {"id1", StructuredName.CONTENT_ITEM_TYPE, "And Roid"});
+        dataCursor.addRow(new Object[] {"id1", Note.CONTENT_ITEM_TYPE, "new note"});
+        doReturn(dataCursor).when(mProxy).contentResolverQuery(
+                any(), eq(Data.CONTENT_URI), any(), any(), any(), any());
+
+        BluetoothPbapUtils.sTotalContacts = 1;
+        BluetoothPbapUtils.ContactData data = new BluetoothPbapUtils.ContactData();
+        data.addField(StructuredName.CONTENT_ITEM_TYPE, "And Roid");
+        BluetoothPbapUtils.sContactDataset.put("id1", data);
+
+        BluetoothPbapUtils.updateSecondaryVersionCounter(mContext, null);
+
+        assertThat(BluetoothPbapUtils.sPrimaryVersionCounter).isEqualTo(1);
+        assertThat(BluetoothPbapUtils.sSecondaryVersionCounter).isEqualTo(0);
+        assertThat(BluetoothPbapUtils.sContactsLastUpdated).isEqualTo(updatedTime);
+        // Only contacts changed since the last update are queried
+        verify(mProxy).contentResolverQuery(any(), eq(Contacts.CONTENT_URI), any(),
+                eq(Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + ">?"), eq(new String[] {"0"}),
+                any());
+    }
+
+    private void mockDeletedContacts(Object... idsAndTimestamps) {
+        MatrixCursor deletedCursor = new MatrixCursor(new String[] {
+                DeletedContacts.CONTACT_ID, DeletedContacts.CONTACT_DELETED_TIMESTAMP});
+        for (int i = 0; i < idsAndTimestamps.length; i += 2) {
+            deletedCursor.addRow(new Object[] {idsAndTimestamps[i], idsAndTimestamps[i + 1]});
+        }
+        doReturn(deletedCursor).when(mProxy).contentResolverQuery(
+                any(), eq(DeletedContacts.CONTENT_URI), any(), any(), any(), any());
+    }
+
+    private static BluetoothPbapUtils.ContactData createContactData(String... phones) {
+        BluetoothPbapUtils.ContactData data = new BluetoothPbapUtils.ContactData();
+        for (String phone : phones) {
+            data.addField(Phone.CONTENT_ITEM_TYPE, phone);
+        }
+        return data;
+    }
+
     private static void clearStaticFields() {
         BluetoothPbapUtils.sPrimaryVersionCounter = 0;
         BluetoothPbapUtils.sSecondaryVersionCounter = 0;
-        BluetoothPbapUtils.sContactSet.clear();
         BluetoothPbapUtils.sContactDataset.clear();
         BluetoothPbapUtils.sTotalContacts = 0;
         BluetoothPbapUtils.sTotalFields = 0;
@@ -22,6 +22,7 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -71,6 +72,7 @@ public class BluetoothPbapVcardManagerTest {
 
     @After
     public void tearDown() {
+        BluetoothPbapVcardManager.setNameListCacheEnabled(false);
         BluetoothMethodProxy.setInstanceForTesting(null);
     }
 
@@ -281,6 +283,32 @@ public class BluetoothPbapVcardManagerTest {
                 .isEqualTo(expectedResult);
     }
 
+    @Test
+    public void testGetPhonebookNameList_reusedUntilPrimaryVersionCounterChanges() {
+        BluetoothPbapService.setLocalPhoneName("test_local_phone_name");
+        BluetoothPbapVcardManager.setNameListCacheEnabled(true);
+
+        Cursor cursor = mock(Cursor.class);
+        doReturn(cursor).when(mPbapMethodProxy)
+                .contentResolverQuery(any(), any(), any(), any(), any(), any());
+
+        List<String> first =
+                mManager.getPhonebookNameList(BluetoothPbapObexServer.ORDER_BY_INDEXED);
+        assertThat(mManager.getPhonebookNameList(BluetoothPbapObexServer.ORDER_BY_INDEXED))
+                .isSameInstanceAs(first);
+        verify(mPbapMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(), any());
+
+        final long primaryVersionCounter = BluetoothPbapUtils.sPrimaryVersionCounter;
+        try {
+            BluetoothPbapUtils.sPrimaryVersionCounter++;
+            mManager.getPhonebookNameList(BluetoothPbapObexServer.ORDER_BY_INDEXED);
+            verify(mPbapMethodProxy, times(2))
+                    .contentResolverQuery(any(), any(), any(), any(), any(), any());
+        } finally {
+            BluetoothPbapUtils.sPrimaryVersionCounter = primaryVersionCounter;
+        }
+    }
+
     @Test
     public void testGetContactNamesByNumber_whenNumberIsNull() {
         Cursor cursor = mock(Cursor.class);
@@ -69,6 +69,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Tests for {@link BluetoothInCallService}
@@ -618,6 +619,68 @@ public class BluetoothInCallServiceTest {
         verify(mMockBluetoothHeadset, times(2)).clccResponse(0, 0, 0, 0, false, null, 0);
     }
 
+    @Test
+    public void testListCurrentCallsReplaysResponsesUntilCallEvent() throws Exception {
+        ArrayList<BluetoothCall> calls = new ArrayList<>();
+        when(mMockCallInfo.getBluetoothCalls()).thenReturn(calls);
+        BluetoothCall ringingCall = createForegroundCall(UUID.randomUUID());
+        calls.add(ringingCall);
+        mBluetoothInCallService.onCallAdded(ringingCall);
+
+        when(ringingCall.getState()).thenReturn(Call.STATE_RINGING);
+        when(ringingCall.isIncoming()).thenReturn(true);
+        when(ringingCall.isConference()).thenReturn(false);
+        when(ringingCall.getHandle()).thenReturn(Uri.parse("tel:5550000"));
+
+        clearInvocations(mMockBluetoothHeadset, mMockCallInfo);
+        mBluetoothInCallService.listCurrentCalls();
+        mBluetoothInCallService.listCurrentCalls();
+        verify(mMockBluetoothHeadset, times(2)).clccResponse(1, 1, CALL_STATE_INCOMING, 0, false,
+                "5550000", PhoneNumberUtils.TOA_Unknown);
+        verify(mMockCallInfo, times(1)).getBluetoothCalls();
+
+        // The call is answered, the next query reports the new state
+        when(ringingCall.getState()).thenReturn(Call.STATE_ACTIVE);
+        mBluetoothInCallService.getCallback(ringingCall)
+                .onStateChanged(ringingCall, Call.STATE_ACTIVE);
+
+        clearInvocations(mMockBluetoothHeadset);
+        mBluetoothInCallService.listCurrentCalls();
+        verify(mMockBluetoothHeadset).clccResponse(1, 1, CALL_STATE_ACTIVE, 0, false,
+                "5550000", PhoneNumberUtils.TOA_Unknown);
+        verify(mMockBluetoothHeadset).clccResponse(0, 0, 0, 0, false, null, 0);
+    }
+
+    @Test
+    public void testListCurrentCallsRebuildsAfterCallEventDuringRebuild() throws Exception {
+        ArrayList<BluetoothCall> calls = new ArrayList<>();
+        BluetoothCall ringingCall = createForegroundCall(UUID.randomUUID());
+        calls.add(ringingCall);
+        mBluetoothInCallService.onCallAdded(ringingCall);
+
+        when(ringingCall.getState()).thenReturn(Call.STATE_RINGING);
+        when(ringingCall.isIncoming()).thenReturn(true);
+        when(ringingCall.isConference()).thenReturn(false);
+        when(ringingCall.getHandle()).thenReturn(Uri.parse("tel:5550000"));
+
+        // The call is answered while the responses are being computed from the previous state
+        AtomicBoolean answered = new AtomicBoolean();
+        when(mMockCallInfo.getBluetoothCalls()).thenAnswer(invocation -> {
+            if (answered.compareAndSet(false, true)) {
+                mBluetoothInCallService.getCallback(ringingCall)
+                        .onStateChanged(ringingCall, Call.STATE_ACTIVE);
+            }
+            return calls;
+        });
+        mBluetoothInCallService.listCurrentCalls();
+        when(ringingCall.getState()).thenReturn(Call.STATE_ACTIVE);
+
+        clearInvocations(mMockBluetoothHeadset);
+        mBluetoothInCallService.listCurrentCalls();
+        verify(mMockBluetoothHeadset).clccResponse(1, 1, CALL_STATE_ACTIVE, 0, false,
+                "5550000", PhoneNumberUtils.TOA_Unknown);
+    }
+
     @Test
     public void testAlertingCallClccResponse() throws Exception {
         ArrayList<BluetoothCall> calls = new ArrayList<>();
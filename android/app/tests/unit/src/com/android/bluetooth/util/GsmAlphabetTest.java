@@ -27,6 +27,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.Random;
+
 @RunWith(JUnit4.class)
 public final class GsmAlphabetTest {
 
@@ -185,4 +187,45 @@ public final class GsmAlphabetTest {
     assertThat(com.android.internal.telephony.GsmAlphabet.gsm8BitUnpackedToString(
             unpacked, 0, 2)).isEqualTo("\u00e0");
   }
+
+  @Test
+  public void codecs_matchTelephonyGsmAlphabet() throws Exception {
+    Random random = new Random(47);
+    String specialChars = "@\u00a3$\u00e9\u00e0\u00c7\u0394 \n\r\u001b" + GSM_EXTENDED_CHARS;
+    for (int i = 0; i < 500; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int j = random.nextInt(100); j > 0; j--) {
+        if (random.nextBoolean()) {
+          sb.append((char) random.nextInt(0x180));
+        } else if (random.nextBoolean()) {
+          sb.append(specialChars.charAt(random.nextInt(specialChars.length())));
+        } else {
+          sb.append((char) random.nextInt(0x10000));
+        }
+      }
+      String s = sb.toString();
+
+      assertThat(GsmAlphabet.countGsmSeptetsUsingTables(s, true, 0, 0))
+              .isEqualTo(com.android.internal.telephony.GsmAlphabet.countGsmSeptetsUsingTables(
+                      s, true, 0, 0));
+      assertThat(GsmAlphabet.countGsmSeptetsUsingTables(s, false, 0, 0))
+              .isEqualTo(com.android.internal.telephony.GsmAlphabet.countGsmSeptetsUsingTables(
+                      s, false, 0, 0));
+
+      byte[] unpacked = new byte[random.nextInt(120)];
+      byte[] expectedUnpacked = new byte[unpacked.length];
+      GsmAlphabet.stringToGsm8BitUnpackedField(s, unpacked, 0, unpacked.length);
+      com.android.internal.telephony.GsmAlphabet.stringToGsm8BitUnpackedField(
+              s, expectedUnpacked, 0, expectedUnpacked.length);
+      assertThat(unpacked).isEqualTo(expectedUnpacked);
+
+      byte[] packed = new byte[random.nextInt(120)];
+      random.nextBytes(packed);
+      int numPaddingBits = random.nextInt(7);
+      int lengthSeptets = (packed.length * 8 - numPaddingBits) / 7;
+      assertThat(GsmAlphabet.gsm7BitPackedToString(packed, 0, lengthSeptets, numPaddingBits, 0, 0))
+              .isEqualTo(com.android.internal.telephony.GsmAlphabet.gsm7BitPackedToString(
+                      packed, 0, lengthSeptets, numPaddingBits, 0, 0));
+    }
+  }
 }
@@ -32,6 +32,7 @@ import android.util.Log;
 
 import com.android.modules.utils.SynchronousResultReceiver;
 
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -116,6 +117,51 @@ public final class AdvertisingSet {
         }
     }
 
+    /**
+     * Rotate the advertised data between the given payloads, switching to the next one every
+     * {@code intervalMillis}. The payloads are swapped by the Bluetooth stack so no further call
+     * is needed for each change. The rotation ends when {@link #setAdvertisingData} or
+     * {@link #stopAdvertisingDataRotation} is called, or when the advertising set is stopped.
+     * Only failures to set a payload are delivered through
+     * {@code callback.onAdvertisingDataSet()}.
+     *
+     * @param advertiseDataList payloads to advertise in turn, each following the size limits of
+     * {@link #setAdvertisingData}.
+     * @param intervalMillis time each payload is advertised, at least one second.
+     * @hide
+     */
+    @RequiresBluetoothAdvertisePermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
+    public void startAdvertisingDataRotation(List<AdvertiseData> advertiseDataList,
+            long intervalMillis) {
+        try {
+            final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
+            mGatt.startAdvertisingDataRotation(mAdvertiserId, advertiseDataList, intervalMillis,
+                    mAttributionSource, recv);
+            recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+        } catch (TimeoutException | RemoteException e) {
+            Log.e(TAG, "remote exception - ", e);
+        }
+    }
+
+    /**
+     * Stop a rotation started with {@link #startAdvertisingDataRotation}. The payload currently
+     * advertised is kept.
+     *
+     * @hide
+     */
+    @RequiresBluetoothAdvertisePermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
+    public void stopAdvertisingDataRotation() {
+        try {
+            final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
+            mGatt.stopAdvertisingDataRotation(mAdvertiserId, mAttributionSource, recv);
+            recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+        } catch (TimeoutException | RemoteException e) {
+            Log.e(TAG, "remote exception - ", e);
+        }
+    }
+
     /**
      * Set/update scan response data. Make sure that data doesn't exceed the size limit for
      * specified AdvertisingSetParameters. This method returns immediately, the operation status